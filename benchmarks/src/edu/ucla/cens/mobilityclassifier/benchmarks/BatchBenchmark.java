@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.SensorWindow;
+
+/**
+ * Time to classify a batch of equal-length windows with no history, one at
+ * a time and side by side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+	@Param({"32", "128", "512"})
+	public int samples;
+
+	@Param({"1024"})
+	public int windows;
+
+	private final MobilityClassifier classifier = new MobilityClassifier();
+	private List<SensorWindow> batch;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(2012);
+		batch = new ArrayList<SensorWindow>();
+		for (int w = 0; w < windows; w++) {
+			List<Sample> window = new ArrayList<Sample>();
+			double frequency = 1 + random.nextInt(4);
+			for (int i = 0; i < samples; i++) {
+				double magnitude = 9.81 * (1 + 0.2 * Math.sin(2 * Math.PI * frequency * i / samples) + 0.05 * random.nextGaussian());
+				window.add(new Sample(0, 0, magnitude));
+			}
+			batch.add(new SensorWindow(window, Double.NaN, null, null, null, null, null));
+		}
+	}
+
+	@Benchmark
+	public Classification[] classifyEach() {
+		Classification[] classifications = new Classification[batch.size()];
+		for (int i = 0; i < classifications.length; i++) {
+			classifications[i] = classifier.classify(batch.get(i));
+		}
+		return classifications;
+	}
+
+	@Benchmark
+	public List<Classification> classifyAll() {
+		return classifier.classifyAll(batch);
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Time to classify one window with a full Wi-Fi and location history, on
+ * the full path, on the cascaded path, on the low-power float path and with
+ * the Wi-Fi compared by similarity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmark {
+	@Param({"32", "128", "512"})
+	public int samples;
+
+	private final MobilityClassifier classifier = new MobilityClassifier();
+	private final MobilityClassifier cascadingClassifier = new MobilityClassifier();
+	private final MobilityClassifier lowPowerClassifier = new MobilityClassifier();
+	private final MobilityClassifier similarityClassifier = new MobilityClassifier();
+	private List<Sample> window;
+	private WifiScan wifiScan;
+	private List<WifiScan> lastWifiScans;
+	private Location location;
+	private ArrayList<Location> histLocs;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(2012);
+		window = new ArrayList<Sample>();
+		for (int i = 0; i < samples; i++) {
+			double magnitude = 9.81 * (1 + 0.2 * Math.sin(2 * Math.PI * 2 * i / 32.) + 0.05 * random.nextGaussian());
+			window.add(new Sample(0, 0, magnitude));
+		}
+
+		long time = 1325376000000L;
+		lastWifiScans = new ArrayList<WifiScan>();
+		histLocs = new ArrayList<Location>();
+		for (int scan = 0; scan < 10; scan++) {
+			lastWifiScans.add(new WifiScan(time + scan * 60000, accessPoints(random, 12)));
+		}
+		for (int fix = 0; fix < 6; fix++) {
+			histLocs.add(new Location(34.0689 + fix * 0.0001, -118.4452, time + fix * 60000));
+		}
+		wifiScan = new WifiScan(time + 10 * 60000, accessPoints(random, 12));
+		location = new Location(34.0695, -118.4452, time + 6 * 60000);
+		cascadingClassifier.setCascading(true);
+		lowPowerClassifier.setLowPower(true);
+		similarityClassifier.setWifiSimilarityThreshold(0.15);
+	}
+
+	@Benchmark
+	public Classification classify() {
+		return classifier.classify(window, Double.NaN, wifiScan, lastWifiScans, location, histLocs, null);
+	}
+
+	@Benchmark
+	public Classification classifyCascaded() {
+		return cascadingClassifier.classify(window, Double.NaN, wifiScan, lastWifiScans, location, histLocs, null);
+	}
+
+	@Benchmark
+	public Classification classifyLowPower() {
+		return lowPowerClassifier.classify(window, Double.NaN, wifiScan, lastWifiScans, location, histLocs, null);
+	}
+
+	@Benchmark
+	public Classification classifyWifiSimilarity() {
+		return similarityClassifier.classify(window, Double.NaN, wifiScan, lastWifiScans, location, histLocs, null);
+	}
+
+	private static List<AccessPoint> accessPoints(Random random, int count) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (int i = 0; i < count; i++) {
+			accessPoints.add(new AccessPoint("00:1a:" + random.nextInt(20), -40 - random.nextInt(50)));
+		}
+		return accessPoints;
+	}
+}
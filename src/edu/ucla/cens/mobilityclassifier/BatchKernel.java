@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates the accelerometer features of many windows of the same length
+ * side by side.
+ *
+ * The windows are held as a structure of arrays, with sample i of window k
+ * at i * capacity + k, so every step of the magnitude, mean, variance and
+ * Goertzel loops is an inner loop over the windows with no dependence from
+ * one window to the next. The JIT can compile such loops to vector
+ * instructions, and the Goertzel recurrences of many windows overlap
+ * instead of waiting on each other. Inner loops need about a hundred
+ * windows to pay off. The operations are those of a window classified
+ * alone, in the same order, so the features are the same to the last bit.
+ *
+ * A kernel is reused from batch to batch and is not thread-safe.
+ */
+public class BatchKernel {
+	/**
+	 * The number of FFT bins, at 1 to 10 cycles per window.
+	 */
+	public static final int FFT_BINS = 10;
+	private static final double GRAVITY = 9.80665; // This is the gravity value used in the Android API
+
+	private final int capacity;
+	private final int length;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final double[] magnitudes;
+	private final double[] averages;
+	private final double[] variances;
+	private final double[] fft;
+	private final double[] sPrev;
+	private final double[] sPrev2;
+	private int windows = 0;
+
+	/**
+	 * Creates a kernel.
+	 *
+	 * @param capacity The most windows in a batch.
+	 *
+	 * @param length The number of samples of every window.
+	 */
+	public BatchKernel(int capacity, int length) {
+		if (capacity < 1 || length < 1) {
+			throw new IllegalArgumentException("The capacity and length must be positive");
+		}
+		this.capacity = capacity;
+		this.length = length;
+		this.x = new double[length * capacity];
+		this.y = new double[length * capacity];
+		this.z = new double[length * capacity];
+		this.magnitudes = new double[length * capacity];
+		this.averages = new double[capacity];
+		this.variances = new double[capacity];
+		this.fft = new double[FFT_BINS * capacity];
+		this.sPrev = new double[FFT_BINS * capacity];
+		this.sPrev2 = new double[FFT_BINS * capacity];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of windows in the batch.
+	 */
+	public int getWindowCount() {
+		return windows;
+	}
+
+	/**
+	 * Empties the batch.
+	 */
+	public void clear() {
+		windows = 0;
+	}
+
+	/**
+	 * Adds a window to the batch.
+	 *
+	 * @param samples The samples of the window.
+	 *
+	 * @return The index of the window in the batch.
+	 *
+	 * @throws IllegalArgumentException The window is not of the kernel's
+	 * 									length.
+	 *
+	 * @throws IllegalStateException The batch is full.
+	 */
+	public int add(List<Sample> samples) {
+		if (samples.size() != length) {
+			throw new IllegalArgumentException("Expected " + length + " samples but found " + samples.size());
+		}
+		if (windows == capacity) {
+			throw new IllegalStateException("The batch is full");
+		}
+		int window = windows;
+		for (int i = 0; i < length; i++) {
+			Sample sample = samples.get(i);
+			x[i * capacity + window] = sample.getX();
+			y[i * capacity + window] = sample.getY();
+			z[i * capacity + window] = sample.getZ();
+		}
+		windows++;
+		return window;
+	}
+
+	/**
+	 * Calculates the features of every window in the batch.
+	 *
+	 * @param sampleRate The samples per second of the windows.
+	 */
+	public void run(double sampleRate) {
+		int count = windows;
+		for (int w = 0; w < count; w++) {
+			averages[w] = 0.0;
+			variances[w] = 0.0;
+		}
+		for (int i = 0; i < FFT_BINS * capacity; i++) {
+			sPrev[i] = 0.0;
+			sPrev2[i] = 0.0;
+		}
+
+		for (int i = 0; i < length; i++) {
+			int row = i * capacity;
+			for (int w = 0; w < count; w++) {
+				double gx = x[row + w] / GRAVITY;
+				double gy = y[row + w] / GRAVITY;
+				double gz = z[row + w] / GRAVITY;
+				magnitudes[row + w] = Math.sqrt(gx * gx + gy * gy + gz * gz);
+			}
+			// a separate loop, as a store to averages in the one above keeps it from being vectorized
+			for (int w = 0; w < count; w++) {
+				averages[w] += magnitudes[row + w];
+			}
+		}
+		for (int w = 0; w < count; w++) {
+			averages[w] = averages[w] / length;
+		}
+
+		for (int i = 0; i < length; i++) {
+			int row = i * capacity;
+			for (int w = 0; w < count; w++) {
+				double deviation = magnitudes[row + w] - averages[w];
+				variances[w] += deviation * deviation;
+			}
+		}
+		for (int w = 0; w < count; w++) {
+			variances[w] = variances[w] / length;
+		}
+
+		double[] coeffs = new double[FFT_BINS];
+		for (int bin = 0; bin < FFT_BINS; bin++) {
+			coeffs[bin] = 2 * Math.cos((2 * Math.PI * (bin + 1)) / sampleRate);
+		}
+		for (int i = 0; i < length; i++) {
+			int row = i * capacity;
+			for (int bin = 0; bin < FFT_BINS; bin++) {
+				double coeff = coeffs[bin];
+				int state = bin * capacity;
+				for (int w = 0; w < count; w++) {
+					double s = magnitudes[row + w] + coeff * sPrev[state + w] - sPrev2[state + w];
+					sPrev2[state + w] = sPrev[state + w];
+					sPrev[state + w] = s;
+				}
+			}
+		}
+		for (int bin = 0; bin < FFT_BINS; bin++) {
+			double coeff = coeffs[bin];
+			int state = bin * capacity;
+			for (int w = 0; w < count; w++) {
+				double s1 = sPrev[state + w];
+				double s2 = sPrev2[state + w];
+				fft[state + w] = s2 * s2 + s1 * s1 - coeff * s2 * s1;
+			}
+		}
+	}
+
+	public double getAverage(int window) {
+		return averages[checkWindow(window)];
+	}
+
+	public double getVariance(int window) {
+		return variances[checkWindow(window)];
+	}
+
+	/**
+	 * Returns the power of a window at an FFT bin.
+	 *
+	 * @param window The index of the window in the batch.
+	 *
+	 * @param bin The bin, from 0 for 1 cycle per window to 9 for 10.
+	 */
+	public double getFft(int window, int bin) {
+		if (bin < 0 || bin >= FFT_BINS) {
+			throw new IllegalArgumentException("Not an FFT bin: " + bin);
+		}
+		return fft[bin * capacity + checkWindow(window)];
+	}
+
+	/**
+	 * Returns the power of a window at every FFT bin.
+	 */
+	ArrayList<Double> getFft(int window) {
+		checkWindow(window);
+		ArrayList<Double> powers = new ArrayList<Double>(FFT_BINS);
+		for (int bin = 0; bin < FFT_BINS; bin++) {
+			powers.add(fft[bin * capacity + window]);
+		}
+		return powers;
+	}
+
+	private int checkWindow(int window) {
+		if (window < 0 || window >= windows) {
+			throw new IllegalArgumentException("Not a window of the batch: " + window);
+		}
+		return window;
+	}
+}
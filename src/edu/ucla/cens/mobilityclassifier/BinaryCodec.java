@@ -0,0 +1,648 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact, versioned binary form of classifications, of the sensor data
+ * they are made from and of the history of a user's session, for sending
+ * between services and for storage.
+ *
+ * Every record starts with a byte holding the version of the format in its
+ * high four bits, whether the record is exact in the next and the type of
+ * the record in its low three. Counts and lengths are unsigned varints of
+ * seven bits a byte, times are zigzag varints of their difference from a
+ * base time or from the time before, features and accelerometer values are
+ * floats, coordinates are integers of 1e-7 degrees, and signal strengths
+ * are whole dBm in one byte. So times, counts and strings are exact, while
+ * the rest is as close as its form allows. An exact record, and the records
+ * within it, write every value as the double it is instead, for processes
+ * that must classify the same data as the one that sent it. Records are
+ * written at the position of a buffer and read from it, which then points
+ * past them.
+ */
+public class BinaryCodec {
+	/**
+	 * The version of the format that is written.
+	 */
+	public static final int VERSION = 1;
+	static final int TYPE_CLASSIFICATION = 1;
+	static final int TYPE_WIFI_SCAN = 2;
+	static final int TYPE_LOCATION = 3;
+	static final int TYPE_SAMPLES = 4;
+	static final int TYPE_SESSION = 5;
+
+	private static final int EXACT = 0x08; // in the header, above the type
+	private static final int MODE_OTHER = 0x7f; // followed by the mode as a string
+	private static final double COORDINATE_SCALE = 1e7;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int TIMES_NONE = 0;
+	private static final int TIMES_ALL = 1;
+	private static final int TIMES_SOME = 2;
+	private static final String[] TIERS = { Classification.TIER_FULL, Classification.TIER_WIFI, Classification.TIER_VARIANCE };
+
+	private static final int HAS_FEATURES = 1;
+	private static final int HAS_AVERAGE = 1 << 1;
+	private static final int HAS_VARIANCE = 1 << 2;
+	private static final int HAS_FFT = 1 << 3;
+	private static final int HAS_VERTICAL_VARIANCE = 1 << 4;
+	private static final int HAS_HORIZONTAL_VARIANCE = 1 << 5;
+	private static final int HAS_PLACE = 1 << 6;
+	private static final int HAS_WIFI_SIMILARITY = 1 << 7;
+
+	// the tier code is in the low bits of its byte, and the skipped stages above it
+	private static final int WIFI_SKIPPED = 1 << 4;
+	private static final int LOCATION_SKIPPED = 1 << 5;
+
+	private BinaryCodec() {
+
+	}
+
+	/**
+	 * Writes a classification.
+	 */
+	public static void encode(Classification classification, ByteBuffer buffer) {
+		encode(classification, buffer, false);
+	}
+
+	/**
+	 * Writes a classification, with its features as doubles if it is to be
+	 * exact.
+	 */
+	public static void encode(Classification classification, ByteBuffer buffer, boolean exact) {
+		putHeader(buffer, TYPE_CLASSIFICATION, exact);
+		List<Double> fft = classification.getFft();
+		int flags = (classification.hasFeatures() ? HAS_FEATURES : 0)
+				| ((classification.getAverage() != null) ? HAS_AVERAGE : 0)
+				| ((classification.getVariance() != null) ? HAS_VARIANCE : 0)
+				| ((fft != null) ? HAS_FFT : 0)
+				| ((classification.getVerticalVariance() != null) ? HAS_VERTICAL_VARIANCE : 0)
+				| ((classification.getHorizontalVariance() != null) ? HAS_HORIZONTAL_VARIANCE : 0)
+				| ((classification.getPlace() != null) ? HAS_PLACE : 0)
+				| ((classification.getWifiSimilarity() != null) ? HAS_WIFI_SIMILARITY : 0);
+		buffer.put((byte) flags);
+		putMode(buffer, classification.getMode());
+		putMode(buffer, classification.getWifiMode());
+		putMode(buffer, classification.getLocationMode());
+		buffer.put((byte) (tierCode(classification.getTier())
+				| (classification.isWifiSkipped() ? WIFI_SKIPPED : 0)
+				| (classification.isLocationSkipped() ? LOCATION_SKIPPED : 0)));
+		if (classification.getAverage() != null) {
+			putReal(buffer, classification.getAverage(), exact);
+		}
+		if (classification.getVariance() != null) {
+			putReal(buffer, classification.getVariance(), exact);
+		}
+		if (fft != null) {
+			putVarint(buffer, fft.size());
+			for (int i = 0; i < fft.size(); i++) {
+				putReal(buffer, fft.get(i), exact);
+			}
+		}
+		if (classification.getVerticalVariance() != null) {
+			putReal(buffer, classification.getVerticalVariance(), exact);
+		}
+		if (classification.getHorizontalVariance() != null) {
+			putReal(buffer, classification.getHorizontalVariance(), exact);
+		}
+		putVarint(buffer, classification.getWifiTotal());
+		putVarint(buffer, classification.getWifiRecogTotal());
+		putReal(buffer, classification.getRadius(), exact);
+		putReal(buffer, classification.getTravelled(), exact);
+		if (classification.getPlace() != null) {
+			putString(buffer, classification.getPlace());
+		}
+		if (classification.getWifiSimilarity() != null) {
+			putReal(buffer, classification.getWifiSimilarity(), exact);
+		}
+	}
+
+	/**
+	 * Reads a classification.
+	 *
+	 * @throws IllegalArgumentException The buffer is not at a classification
+	 * 									of a version that can be read.
+	 */
+	public static Classification decodeClassification(ByteBuffer buffer) {
+		boolean exact = getHeader(buffer, TYPE_CLASSIFICATION);
+		int flags = buffer.get();
+		Classification classification = new Classification();
+		classification.setHasFeatures((flags & HAS_FEATURES) != 0);
+		classification.setMode(getMode(buffer));
+		classification.setWifiMode(getMode(buffer));
+		classification.setLocationMode(getMode(buffer));
+		int tier = buffer.get();
+		classification.setWifiSkipped((tier & WIFI_SKIPPED) != 0);
+		classification.setLocationSkipped((tier & LOCATION_SKIPPED) != 0);
+		tier &= ~(WIFI_SKIPPED | LOCATION_SKIPPED);
+		if (tier < 0 || tier >= TIERS.length) {
+			throw new IllegalArgumentException("Not a tier: " + tier);
+		}
+		classification.setTier(TIERS[tier]);
+		if ((flags & HAS_AVERAGE) != 0) {
+			classification.setAverage(getReal(buffer, exact));
+		}
+		if ((flags & HAS_VARIANCE) != 0) {
+			classification.setVariance(getReal(buffer, exact));
+		}
+		if ((flags & HAS_FFT) != 0) {
+			int size = getCount(buffer);
+			ArrayList<Double> fft = new ArrayList<Double>(size);
+			for (int i = 0; i < size; i++) {
+				fft.add(getReal(buffer, exact));
+			}
+			classification.setFft(fft);
+		}
+		if ((flags & HAS_VERTICAL_VARIANCE) != 0) {
+			classification.setVerticalVariance(getReal(buffer, exact));
+		}
+		if ((flags & HAS_HORIZONTAL_VARIANCE) != 0) {
+			classification.setHorizontalVariance(getReal(buffer, exact));
+		}
+		classification.setWifiTotal(getCount(buffer));
+		classification.setWifiRecogTotal(getCount(buffer));
+		classification.setRadius(getReal(buffer, exact));
+		classification.setTravelled(getReal(buffer, exact));
+		if ((flags & HAS_PLACE) != 0) {
+			classification.setPlace(getString(buffer));
+		}
+		if ((flags & HAS_WIFI_SIMILARITY) != 0) {
+			classification.setWifiSimilarity(getReal(buffer, exact));
+		}
+		return classification;
+	}
+
+	/**
+	 * Writes a Wi-Fi scan and its access points.
+	 *
+	 * @param baseTime The time the time of the scan is written relative to,
+	 * 				   such as that of the window, or 0.
+	 */
+	public static void encode(WifiScan wifiScan, long baseTime, ByteBuffer buffer) {
+		encode(wifiScan, baseTime, buffer, false);
+	}
+
+	/**
+	 * Writes a Wi-Fi scan and its access points, with their strengths as
+	 * doubles if it is to be exact.
+	 *
+	 * @param baseTime The time the time of the scan is written relative to,
+	 * 				   such as that of the window, or 0.
+	 */
+	public static void encode(WifiScan wifiScan, long baseTime, ByteBuffer buffer, boolean exact) {
+		putHeader(buffer, TYPE_WIFI_SCAN, exact);
+		putSignedVarint(buffer, wifiScan.getTime() - baseTime);
+		List<AccessPoint> accessPoints = wifiScan.getAccessPoints();
+		putVarint(buffer, accessPoints.size());
+		for (int i = 0; i < accessPoints.size(); i++) {
+			AccessPoint accessPoint = accessPoints.get(i);
+			putString(buffer, accessPoint.getSsid());
+			if (exact) {
+				putDouble(buffer, accessPoint.getStrength());
+			}
+			else {
+				buffer.put((byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(accessPoint.getStrength()))));
+			}
+		}
+	}
+
+	/**
+	 * Reads a Wi-Fi scan.
+	 *
+	 * @param baseTime The time the scan was written relative to.
+	 *
+	 * @throws IllegalArgumentException The buffer is not at a Wi-Fi scan of
+	 * 									a version that can be read.
+	 */
+	public static WifiScan decodeWifiScan(ByteBuffer buffer, long baseTime) {
+		boolean exact = getHeader(buffer, TYPE_WIFI_SCAN);
+		long time = baseTime + getSignedVarint(buffer);
+		int size = getCount(buffer);
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>(size);
+		for (int i = 0; i < size; i++) {
+			String ssid = getString(buffer);
+			accessPoints.add(new AccessPoint(ssid, exact ? getDouble(buffer) : buffer.get()));
+		}
+		return new WifiScan(time, accessPoints);
+	}
+
+	/**
+	 * Writes a location.
+	 *
+	 * @param baseTime The time the time of the location is written relative
+	 * 				   to, such as that of the window, or 0.
+	 */
+	public static void encode(Location location, long baseTime, ByteBuffer buffer) {
+		encode(location, baseTime, buffer, false);
+	}
+
+	/**
+	 * Writes a location, with its coordinates as doubles if it is to be
+	 * exact.
+	 *
+	 * @param baseTime The time the time of the location is written relative
+	 * 				   to, such as that of the window, or 0.
+	 */
+	public static void encode(Location location, long baseTime, ByteBuffer buffer, boolean exact) {
+		putHeader(buffer, TYPE_LOCATION, exact);
+		putSignedVarint(buffer, location.getTime() - baseTime);
+		if (exact) {
+			putDouble(buffer, location.getLatitude());
+			putDouble(buffer, location.getLongitude());
+		}
+		else {
+			putSignedVarint(buffer, Math.round(location.getLatitude() * COORDINATE_SCALE));
+			putSignedVarint(buffer, Math.round(location.getLongitude() * COORDINATE_SCALE));
+		}
+	}
+
+	/**
+	 * Reads a location.
+	 *
+	 * @param baseTime The time the location was written relative to.
+	 *
+	 * @throws IllegalArgumentException The buffer is not at a location of a
+	 * 									version that can be read.
+	 */
+	public static Location decodeLocation(ByteBuffer buffer, long baseTime) {
+		boolean exact = getHeader(buffer, TYPE_LOCATION);
+		long time = baseTime + getSignedVarint(buffer);
+		double latitude = exact ? getDouble(buffer) : getSignedVarint(buffer) / COORDINATE_SCALE;
+		double longitude = exact ? getDouble(buffer) : getSignedVarint(buffer) / COORDINATE_SCALE;
+		return new Location(latitude, longitude, time);
+	}
+
+	/**
+	 * Writes the accelerometer samples of a window. The time of each sample
+	 * is written relative to the one before, and not at all if no sample
+	 * has a time. If only some samples have a time, each sample is marked
+	 * with whether it has one.
+	 */
+	public static void encode(List<Sample> samples, ByteBuffer buffer) {
+		encode(samples, buffer, false);
+	}
+
+	/**
+	 * Writes the accelerometer samples of a window, as doubles if they are
+	 * to be exact.
+	 */
+	public static void encode(List<Sample> samples, ByteBuffer buffer, boolean exact) {
+		putHeader(buffer, TYPE_SAMPLES, exact);
+		int size = samples.size();
+		int timedSamples = 0;
+		for (int i = 0; i < size; i++) {
+			if (samples.get(i).hasTime()) {
+				timedSamples++;
+			}
+		}
+		int times = (timedSamples == 0) ? TIMES_NONE : (timedSamples == size) ? TIMES_ALL : TIMES_SOME;
+		putVarint(buffer, size);
+		buffer.put((byte) times);
+		long time = 0;
+		for (int i = 0; i < size; i++) {
+			Sample sample = samples.get(i);
+			putReal(buffer, sample.getX(), exact);
+			putReal(buffer, sample.getY(), exact);
+			putReal(buffer, sample.getZ(), exact);
+			if (times == TIMES_SOME) {
+				buffer.put((byte) (sample.hasTime() ? 1 : 0));
+			}
+			if (sample.hasTime() && times != TIMES_NONE) {
+				putSignedVarint(buffer, sample.getTime() - time);
+				time = sample.getTime();
+			}
+		}
+	}
+
+	/**
+	 * Reads the accelerometer samples of a window.
+	 *
+	 * @throws IllegalArgumentException The buffer is not at samples of a
+	 * 									version that can be read.
+	 */
+	public static List<Sample> decodeSamples(ByteBuffer buffer) {
+		boolean exact = getHeader(buffer, TYPE_SAMPLES);
+		int size = getCount(buffer);
+		int times = buffer.get();
+		if (times < TIMES_NONE || times > TIMES_SOME) {
+			throw new IllegalArgumentException("Unknown sample times: " + times);
+		}
+		List<Sample> samples = new ArrayList<Sample>(size);
+		long time = 0;
+		for (int i = 0; i < size; i++) {
+			double x = getReal(buffer, exact);
+			double y = getReal(buffer, exact);
+			double z = getReal(buffer, exact);
+			boolean timed = (times == TIMES_SOME) ? buffer.get() != 0 : times == TIMES_ALL;
+			if (timed) {
+				time += getSignedVarint(buffer);
+				samples.add(new Sample(x, y, z, time));
+			}
+			else {
+				samples.add(new Sample(x, y, z));
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Writes the history of a session, so that another process can carry
+	 * on classifying its user. Each scan and location is written relative
+	 * to the time of the one before.
+	 */
+	public static void encode(MobilitySession session, ByteBuffer buffer) {
+		encode(session, buffer, false);
+	}
+
+	/**
+	 * Writes the history of a session, with exact records if it is to be
+	 * exact, so that another process classifies the user's next windows as
+	 * this one would.
+	 */
+	public static void encode(MobilitySession session, ByteBuffer buffer, boolean exact) {
+		putHeader(buffer, TYPE_SESSION, exact);
+		List<WifiScan> lastWifiScans = session.getLastWifiScans();
+		putVarint(buffer, lastWifiScans.size());
+		long time = 0;
+		for (int i = 0; i < lastWifiScans.size(); i++) {
+			encode(lastWifiScans.get(i), time, buffer, exact);
+			time = lastWifiScans.get(i).getTime();
+		}
+		List<Location> histLocs = session.getHistLocs();
+		putVarint(buffer, histLocs.size());
+		time = 0;
+		for (int i = 0; i < histLocs.size(); i++) {
+			encode(histLocs.get(i), time, buffer, exact);
+			time = histLocs.get(i).getTime();
+		}
+		Classification lastClassification = session.getLastClassification();
+		buffer.put((byte) ((lastClassification == null) ? 0 : 1));
+		if (lastClassification != null) {
+			encode(lastClassification, buffer, exact);
+		}
+	}
+
+	/**
+	 * Reads the history of a session into a new session.
+	 *
+	 * @throws IllegalArgumentException The buffer is not at a session of a
+	 * 									version that can be read.
+	 */
+	public static MobilitySession decodeSession(ByteBuffer buffer) {
+		getHeader(buffer, TYPE_SESSION);
+		MobilitySession session = new MobilitySession();
+		int scans = getCount(buffer);
+		long time = 0;
+		for (int i = 0; i < scans; i++) {
+			WifiScan wifiScan = decodeWifiScan(buffer, time);
+			session.add(wifiScan, null);
+			time = wifiScan.getTime();
+		}
+		int locations = getCount(buffer);
+		time = 0;
+		for (int i = 0; i < locations; i++) {
+			Location location = decodeLocation(buffer, time);
+			session.add(null, location);
+			time = location.getTime();
+		}
+		if (buffer.get() != 0) {
+			session.setLastClassification(decodeClassification(buffer));
+		}
+		return session;
+	}
+
+	/**
+	 * Returns the type of the record at the position of a buffer without
+	 * reading it.
+	 *
+	 * @throws IllegalArgumentException The record is of a version that
+	 * 									cannot be read.
+	 */
+	public static int peekType(ByteBuffer buffer) {
+		int header = buffer.get(buffer.position()) & 0xff;
+		checkVersion(header >>> 4);
+		return header & 0x07;
+	}
+
+	private static void putHeader(ByteBuffer buffer, int type, boolean exact) {
+		buffer.put((byte) ((VERSION << 4) | (exact ? EXACT : 0) | type));
+	}
+
+	/**
+	 * Reads the header of a record of a type.
+	 *
+	 * @return Whether the record is exact.
+	 */
+	private static boolean getHeader(ByteBuffer buffer, int type) {
+		int header = buffer.get() & 0xff;
+		checkVersion(header >>> 4);
+		if ((header & 0x07) != type) {
+			throw new IllegalArgumentException("Expected a record of type " + type + " but found " + (header & 0x07));
+		}
+		return (header & EXACT) != 0;
+	}
+
+	private static void checkVersion(int version) {
+		if (version < 1 || version > VERSION) {
+			throw new IllegalArgumentException("Version " + version + " of the format cannot be read");
+		}
+	}
+
+	private static void putMode(ByteBuffer buffer, String mode) {
+		int code = MobilityClassifier.getModeCode(mode);
+		if (code == 1 && ! MobilityClassifier.UNKNOWN.equals(mode)) {
+			buffer.put((byte) MODE_OTHER);
+			putString(buffer, mode);
+		}
+		else {
+			buffer.put((byte) code);
+		}
+	}
+
+	private static String getMode(ByteBuffer buffer) {
+		int code = buffer.get();
+		return (code == MODE_OTHER) ? getString(buffer) : MobilityClassifier.getMode(code);
+	}
+
+	private static int tierCode(String tier) {
+		if (tier == null) {
+			tier = Classification.TIER_FULL;
+		}
+		for (int i = 0; i < TIERS.length; i++) {
+			if (TIERS[i].equals(tier)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Not a tier: " + tier);
+	}
+
+	/**
+	 * Writes a float in little-endian order, whatever the order of the buffer.
+	 */
+	private static void putFloat(ByteBuffer buffer, double value) {
+		int bits = Float.floatToIntBits((float) value);
+		buffer.put((byte) bits);
+		buffer.put((byte) (bits >>> 8));
+		buffer.put((byte) (bits >>> 16));
+		buffer.put((byte) (bits >>> 24));
+	}
+
+	private static float getFloat(ByteBuffer buffer) {
+		int bits = (buffer.get() & 0xff)
+				| (buffer.get() & 0xff) << 8
+				| (buffer.get() & 0xff) << 16
+				| (buffer.get() & 0xff) << 24;
+		return Float.intBitsToFloat(bits);
+	}
+
+	/**
+	 * Writes a double in little-endian order, whatever the order of the buffer.
+	 */
+	private static void putDouble(ByteBuffer buffer, double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		for (int shift = 0; shift < 64; shift += 8) {
+			buffer.put((byte) (bits >>> shift));
+		}
+	}
+
+	private static double getDouble(ByteBuffer buffer) {
+		long bits = 0;
+		for (int shift = 0; shift < 64; shift += 8) {
+			bits |= (long) (buffer.get() & 0xff) << shift;
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private static void putReal(ByteBuffer buffer, double value, boolean exact) {
+		if (exact) {
+			putDouble(buffer, value);
+		}
+		else {
+			putFloat(buffer, value);
+		}
+	}
+
+	private static double getReal(ByteBuffer buffer, boolean exact) {
+		return exact ? getDouble(buffer) : getFloat(buffer);
+	}
+
+	static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("A varint is too long");
+	}
+
+	static void putSignedVarint(ByteBuffer buffer, long value) {
+		putVarint(buffer, (value << 1) ^ (value >> 63));
+	}
+
+	static long getSignedVarint(ByteBuffer buffer) {
+		long value = getVarint(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int getCount(ByteBuffer buffer) {
+		long count = getVarint(buffer);
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Not a count: " + count);
+		}
+		return (int) count;
+	}
+
+	/**
+	 * Writes a string as its length in bytes and its UTF-8 bytes, encoded
+	 * straight into the buffer.
+	 */
+	private static void putString(ByteBuffer buffer, String string) {
+		int length = string.length();
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				bytes++;
+			}
+			else if (c < 0x800) {
+				bytes += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			}
+			else {
+				bytes += 3;
+			}
+		}
+		putVarint(buffer, bytes);
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			}
+			else if (c < 0x800) {
+				buffer.put((byte) (0xc0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				buffer.put((byte) (0xf0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+			}
+			else {
+				buffer.put((byte) (0xe0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int bytes = getCount(buffer);
+		if (bytes > buffer.remaining()) {
+			throw new IllegalArgumentException("A string is longer than the buffer");
+		}
+		String string;
+		if (buffer.hasArray()) {
+			string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), bytes, UTF_8);
+			buffer.position(buffer.position() + bytes);
+		}
+		else {
+			byte[] copy = new byte[bytes];
+			buffer.get(copy);
+			string = new String(copy, UTF_8);
+		}
+		return string;
+	}
+}
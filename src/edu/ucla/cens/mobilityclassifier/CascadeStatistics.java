@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of how many windows reached each stage of a cascaded
+ * classification.
+ */
+public class CascadeStatistics {
+	private final AtomicLong variance = new AtomicLong();
+	private final AtomicLong wifi = new AtomicLong();
+	private final AtomicLong location = new AtomicLong();
+	private final AtomicLong fft = new AtomicLong();
+
+	void reachedVariance() {
+		variance.incrementAndGet();
+	}
+
+	void reachedWifi() {
+		wifi.incrementAndGet();
+	}
+
+	void reachedLocation() {
+		location.incrementAndGet();
+	}
+
+	void reachedFft() {
+		fft.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of windows whose variance was calculated, which is
+	 * every window with enough samples for features.
+	 */
+	public long getVarianceCount() {
+		return variance.get();
+	}
+
+	/**
+	 * Returns the number of windows that compared their scan to the previous
+	 * WiFi scans, because the variance alone could not decide the mode or
+	 * because it was within the cascade margin. A scan a window skipped is
+	 * compared, and counted, by a later window with the same scan.
+	 */
+	public long getWifiCount() {
+		return wifi.get();
+	}
+
+	/**
+	 * Returns the number of windows that compared their fix to the previous
+	 * locations, because neither variance nor WiFi could decide the mode, the
+	 * variance was within the cascade margin, or the fix could not be left to
+	 * a later window.
+	 */
+	public long getLocationCount() {
+		return location.get();
+	}
+
+	/**
+	 * Returns the number of windows whose variance was within the cascade
+	 * margin, for which every feature including the FFT was calculated.
+	 */
+	public long getFftCount() {
+		return fft.get();
+	}
+
+	/**
+	 * Sets every counter back to zero.
+	 */
+	public void reset() {
+		variance.set(0);
+		wifi.set(0);
+		location.set(0);
+		fft.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "CascadeStatistics [variance=" + variance + ", wifi=" + wifi
+				+ ", location=" + location + ", fft=" + fft + "]";
+	}
+}
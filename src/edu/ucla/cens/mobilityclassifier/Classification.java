@@ -15,12 +15,26 @@
  ******************************************************************************/
 package edu.ucla.cens.mobilityclassifier;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A classification of sensor data into features and a mobility mode.
  */
 public class Classification {
+	/**
+	 * The tier of a window classified by its variance alone.
+	 */
+	public static final String TIER_VARIANCE = "variance";
+	/**
+	 * The tier of a window classified by its variance and WiFi scans.
+	 */
+	public static final String TIER_WIFI = "wifi";
+	/**
+	 * The tier of a window classified by every feature.
+	 */
+	public static final String TIER_FULL = "full";
+	
 	private String mode;
 	private List<Double> fft;
 	private String wifiMode;
@@ -32,6 +46,13 @@ public class Classification {
 	private double radius;
 	private double travelled;
 	private String locationMode;
+	private String place;
+	private Double wifiSimilarity;
+	private Double verticalVariance;
+	private Double horizontalVariance;
+	private String tier = TIER_FULL;
+	private boolean wifiSkipped;
+	private boolean locationSkipped;
 	
 //	private ArrayList<Double> N95Fft;
 //	private Double N95Variance;
@@ -43,6 +64,32 @@ public class Classification {
 		
 	}
 	
+	/**
+	 * Returns a copy that shares nothing mutable with this classification.
+	 */
+	Classification copy() {
+		Classification copy = new Classification();
+		copy.mode = mode;
+		copy.fft = (fft == null) ? null : new ArrayList<Double>(fft);
+		copy.wifiMode = wifiMode;
+		copy.average = average;
+		copy.variance = variance;
+		copy.hasFeatures = hasFeatures;
+		copy.wifiTotal = wifiTotal;
+		copy.wifiRecogTotal = wifiRecogTotal;
+		copy.radius = radius;
+		copy.travelled = travelled;
+		copy.locationMode = locationMode;
+		copy.place = place;
+		copy.wifiSimilarity = wifiSimilarity;
+		copy.verticalVariance = verticalVariance;
+		copy.horizontalVariance = horizontalVariance;
+		copy.tier = tier;
+		copy.wifiSkipped = wifiSkipped;
+		copy.locationSkipped = locationSkipped;
+		return copy;
+	}
+	
 	public String getMode() {
 		return mode;
 	}
@@ -91,6 +138,68 @@ public class Classification {
 //		N95Variance = n95Variance;
 //	}
 
+	/**
+	 * Returns the variance of the acceleration along gravity, or null if the
+	 * gravity features were not calculated.
+	 */
+	public Double getVerticalVariance() {
+		return verticalVariance;
+	}
+	
+	public void setVerticalVariance(Double verticalVariance) {
+		this.verticalVariance = verticalVariance;
+	}
+	
+	/**
+	 * Returns the variance of the acceleration across gravity, or null if the
+	 * gravity features were not calculated.
+	 */
+	public Double getHorizontalVariance() {
+		return horizontalVariance;
+	}
+	
+	public void setHorizontalVariance(Double horizontalVariance) {
+		this.horizontalVariance = horizontalVariance;
+	}
+
+	/**
+	 * Returns how much of the window was classified: {@link #TIER_FULL}
+	 * unless features were skipped to keep up with the load.
+	 */
+	public String getTier() {
+		return tier;
+	}
+	
+	public void setTier(String tier) {
+		this.tier = tier;
+	}
+	
+	/**
+	 * Returns whether the WiFi comparison of a new scan was skipped, so that
+	 * its WiFi features are unset. The next window with the same scan then
+	 * makes the comparison instead of copying them.
+	 */
+	public boolean isWifiSkipped() {
+		return wifiSkipped;
+	}
+	
+	public void setWifiSkipped(boolean wifiSkipped) {
+		this.wifiSkipped = wifiSkipped;
+	}
+	
+	/**
+	 * Returns whether the location comparison of a new fix was skipped, so
+	 * that its location features are unset. The next window with the same
+	 * fix then makes the comparison instead of copying them.
+	 */
+	public boolean isLocationSkipped() {
+		return locationSkipped;
+	}
+	
+	public void setLocationSkipped(boolean locationSkipped) {
+		this.locationSkipped = locationSkipped;
+	}
+	
 	public boolean hasFeatures() {
 		return hasFeatures;
 	}
@@ -194,6 +303,38 @@ public class Classification {
 			return Double.NaN;
 	}
 	
+	/**
+	 * Returns how far the variance is above the threshold that separates
+	 * walking from still and drive. A negative margin is below it.
+	 * 
+	 * @return The margin, or NaN if the variance was not calculated.
+	 */
+	public double getVarianceMargin() {
+		if (variance == null)
+			return Double.NaN;
+		return variance - MobilityClassifier.VARIANCE_THRESHOLD;
+	}
+	
+	/**
+	 * Returns how far the WiFi recognition ratio is above the threshold below
+	 * which a low-variance window is a drive. A negative margin is below it.
+	 * 
+	 * @return The margin, or NaN if there were no access points to compare.
+	 */
+	public double getWifiRecogRatioMargin() {
+		return getWifiRecogRatio() - MobilityClassifier.WIFI_RECOG_RATIO_THRESHOLD;
+	}
+	
+	/**
+	 * Returns how far the location radius is above the threshold above which
+	 * a low-variance window is a drive. A negative margin is below it.
+	 * 
+	 * @return The margin.
+	 */
+	public double getRadiusMargin() {
+		return radius - MobilityClassifier.RADIUS_THRESHOLD;
+	}
+	
 	public double getRadius() {
 		return radius;
 	}
@@ -212,6 +353,8 @@ public class Classification {
 		this.wifiMode = wifiClassification.wifiMode;
 		this.wifiRecogTotal = wifiClassification.wifiRecogTotal;
 		this.wifiTotal = wifiClassification.wifiTotal;
+		this.place = wifiClassification.place;
+		this.wifiSimilarity = wifiClassification.wifiSimilarity;
 		
 	}
 
@@ -235,4 +378,33 @@ public class Classification {
 	{
 		return locationMode;
 	}
+	
+	/**
+	 * Returns the known place the Wi-Fi scan was recognized as.
+	 * 
+	 * @return The identifier of the place, or null if the scan was not
+	 * 		   recognized or no place index was used.
+	 */
+	public String getPlace() {
+		return place;
+	}
+	
+	public void setPlace(String place) {
+		this.place = place;
+	}
+	
+	/**
+	 * Returns the weighted Jaccard similarity of the Wi-Fi scan to the recent
+	 * scans, which decided the WiFi mode.
+	 * 
+	 * @return The similarity, or null if the classifier had no similarity
+	 * 		   threshold or did not compare the scan.
+	 */
+	public Double getWifiSimilarity() {
+		return wifiSimilarity;
+	}
+	
+	public void setWifiSimilarity(Double wifiSimilarity) {
+		this.wifiSimilarity = wifiSimilarity;
+	}
 }
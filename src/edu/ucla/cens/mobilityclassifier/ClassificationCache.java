@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of classifications keyed by a 64-bit
+ * fingerprint of everything the classification depends on, so that a window
+ * that is uploaded again is not classified again.
+ *
+ * The cache is split into stripes, each a least-recently-used map behind its
+ * own lock, so that threads classifying different windows rarely wait for
+ * each other. An entry is evicted when its stripe is full or when it is
+ * older than the time to live.
+ *
+ * Two different windows with the same fingerprint would share a
+ * classification. With 64 bits this is negligible for any realistic number
+ * of cached windows.
+ */
+public class ClassificationCache {
+	private static final int STRIPES = 16;
+	// A Classification with its FFT list, plus the map entry and key
+	private static final long BYTES_PER_ENTRY = 680;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final long ttlNanos;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxEntries The maximum number of cached classifications.
+	 *
+	 * @param ttlMillis How long a classification stays cached, in
+	 * 					milliseconds.
+	 */
+	public ClassificationCache(int maxEntries, long ttlMillis) {
+		if (maxEntries < STRIPES) {
+			throw new IllegalArgumentException("The cache needs room for at least " + STRIPES + " entries");
+		}
+		if (ttlMillis <= 0) {
+			throw new IllegalArgumentException("The time to live must be positive");
+		}
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(maxEntries / STRIPES);
+		}
+		this.ttlNanos = ttlMillis * 1000000L;
+	}
+
+	/**
+	 * Returns a copy of the cached classification of a fingerprint.
+	 *
+	 * @param fingerprint The fingerprint of the window.
+	 *
+	 * @return The classification, or null if it is not cached or expired.
+	 */
+	Classification get(long fingerprint) {
+		Stripe stripe = stripes[(int) (fingerprint >>> 60)];
+		CachedClassification entry;
+		synchronized (stripe) {
+			entry = stripe.get(fingerprint);
+			if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+				stripe.remove(fingerprint);
+				expirations.incrementAndGet();
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.classification.copy();
+	}
+
+	/**
+	 * Caches a copy of a classification.
+	 *
+	 * @param fingerprint The fingerprint of the window.
+	 *
+	 * @param classification The classification of the window.
+	 */
+	void put(long fingerprint, Classification classification) {
+		CachedClassification entry = new CachedClassification(classification.copy(), System.nanoTime());
+		Stripe stripe = stripes[(int) (fingerprint >>> 60)];
+		synchronized (stripe) {
+			stripe.put(fingerprint, entry);
+		}
+	}
+
+	/**
+	 * Removes every cached classification. The statistics are kept.
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached classifications, including expired ones
+	 * that have not been looked up since.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns a rough estimate of the heap used by the cached
+	 * classifications, in bytes.
+	 */
+	public long getEstimatedBytes() {
+		return size() * BYTES_PER_ENTRY;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of classifications dropped to make room.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of classifications dropped for being too old.
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * Returns the share of lookups that found a classification.
+	 *
+	 * @return The hit rate, or NaN if there were no lookups.
+	 */
+	public double getHitRate() {
+		long hits = this.hits.get();
+		long lookups = hits + misses.get();
+		return (lookups == 0) ? Double.NaN : (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "ClassificationCache [size=" + size() + ", hits=" + hits
+				+ ", misses=" + misses + ", evictions=" + evictions
+				+ ", expirations=" + expirations + "]";
+	}
+
+	/**
+	 * Calculates the fingerprint of a window: its samples and speed, the
+	 * times of its scans and locations, the Wi-Fi and location state of the
+	 * last classification and the classifier's version and settings.
+	 */
+	static long fingerprint(List<Sample> accelValues, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, List<Location> histLocs, Classification lastClassification, long settings) {
+		long hash = mix(0, MobilityClassifier.getVersion().hashCode());
+		hash = mix(hash, settings);
+		hash = mix(hash, accelValues.size());
+		for (Sample sample : accelValues) {
+			hash = mix(hash, Double.doubleToLongBits(sample.getX()));
+			hash = mix(hash, Double.doubleToLongBits(sample.getY()));
+			hash = mix(hash, Double.doubleToLongBits(sample.getZ()));
+			hash = mix(hash, sample.getTime());
+		}
+		hash = mix(hash, (speed == null || speed < 0) ? Double.doubleToLongBits(Double.NaN) : Double.doubleToLongBits(speed));
+
+		hash = mix(hash, (wifiScan == null) ? -1 : wifiScan.getTime());
+		hash = mix(hash, (wifiScan == null) ? -1 : wifiScan.getAccessPoints().size());
+		hash = mix(hash, (lastWifiScans == null) ? -1 : lastWifiScans.size());
+		if (lastWifiScans != null && ! lastWifiScans.isEmpty()) {
+			hash = mix(hash, lastWifiScans.get(0).getTime());
+			hash = mix(hash, lastWifiScans.get(lastWifiScans.size() - 1).getTime());
+		}
+
+		if (currLoc == null) {
+			hash = mix(hash, -1);
+		}
+		else {
+			hash = mix(hash, currLoc.getTime());
+			hash = mix(hash, Double.doubleToLongBits(currLoc.getLatitude()));
+			hash = mix(hash, Double.doubleToLongBits(currLoc.getLongitude()));
+		}
+		hash = mix(hash, (histLocs == null) ? -1 : histLocs.size());
+		if (histLocs != null && ! histLocs.isEmpty()) {
+			hash = mix(hash, histLocs.get(0).getTime());
+			hash = mix(hash, histLocs.get(histLocs.size() - 1).getTime());
+		}
+
+		if (lastClassification != null) {
+			hash = mix(hash, stateHash(lastClassification.getWifiMode()));
+			hash = mix(hash, stateHash(lastClassification.getLocationMode()));
+			hash = mix(hash, lastClassification.getWifiTotal());
+			hash = mix(hash, lastClassification.getWifiRecogTotal());
+			hash = mix(hash, Double.doubleToLongBits(lastClassification.getRadius()));
+			hash = mix(hash, Double.doubleToLongBits(lastClassification.getTravelled()));
+			hash = mix(hash, (lastClassification.getPlace() == null) ? 0 : lastClassification.getPlace().hashCode());
+		}
+		else {
+			hash = mix(hash, stateHash(null));
+			hash = mix(hash, stateHash(null));
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes a previous Wi-Fi or location mode the way the classifier reads
+	 * it: anything but still or drive is unknown.
+	 */
+	private static long stateHash(String mode) {
+		if (MobilityClassifier.STILL.equals(mode) || MobilityClassifier.DRIVE.equals(mode)) {
+			return mode.hashCode();
+		}
+		return MobilityClassifier.UNKNOWN.hashCode();
+	}
+
+	private static long mix(long hash, long value) {
+		hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	private static class CachedClassification {
+		final Classification classification;
+		final long created;
+
+		CachedClassification(Classification classification, long created) {
+			this.classification = classification;
+			this.created = created;
+		}
+	}
+
+	private class Stripe extends LinkedHashMap<Long, CachedClassification> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, CachedClassification> eldest) {
+			if (size() > capacity) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Is told about each window a classifier classifies and how long its
+ * stages took, for profiling in production. A listener is called on the
+ * thread that classifies, so it must be quick and thread-safe.
+ */
+public interface ClassificationListener {
+	/**
+	 * The stage that calculates the accelerometer features, or the features
+	 * of a model.
+	 */
+	String STAGE_FEATURES = "features";
+	/**
+	 * The stage that compares the WiFi scan with the previous ones.
+	 */
+	String STAGE_WIFI = "wifi";
+	/**
+	 * The stage that compares the location with the previous ones.
+	 */
+	String STAGE_LOCATION = "location";
+
+	/**
+	 * Called when a stage of a classification starts, on the thread that
+	 * then calls {@link #stageFinished}. Stages do not overlap.
+	 *
+	 * @param stage One of the stages above.
+	 */
+	void stageStarted(String stage);
+
+	/**
+	 * Called when a stage of a classification has finished.
+	 *
+	 * @param stage One of the stages above.
+	 *
+	 * @param nanos How long the stage took. For a batch, the accelerometer
+	 * 				features of every window of the same length are one
+	 * 				stage.
+	 */
+	void stageFinished(String stage, long nanos);
+
+	/**
+	 * Called when the classification of a window starts, on the thread that
+	 * then calls {@link #classified}. The stages of the window are reported
+	 * between the two, except that the accelerometer features of a batch are
+	 * one stage before its windows.
+	 *
+	 * @param window The window, whose extras may identify the user.
+	 */
+	void classifying(SensorWindow window);
+
+	/**
+	 * Called when a window has been classified. Windows answered from the
+	 * cache are not reported.
+	 *
+	 * @param window The window, whose extras may identify the user.
+	 *
+	 * @param classification The classification of the window.
+	 *
+	 * @param nanos How long the classification took.
+	 */
+	void classified(SensorWindow window, Classification classification, long nanos);
+}
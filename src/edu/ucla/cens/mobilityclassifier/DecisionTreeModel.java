@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary decision tree over the features of a window that replaces the
+ * hard-coded thresholds of the classifier when it is loaded.
+ *
+ * Every inner node sends a window to its left child if the feature is at
+ * most the threshold and to its right child otherwise, including when the
+ * feature is NaN. The tree is stored as text: a header line, the feature
+ * names separated by commas, and then the nodes in preorder, one per line,
+ * either "N &lt;feature&gt; &lt;threshold&gt;" or "L &lt;mode&gt;".
+ *
+ * A tree may test features other than the built-in {@link #FEATURE_NAMES},
+ * such as those of a {@link FeatureExtractor} registered on the classifier.
+ */
+public class DecisionTreeModel {
+	public static final String HEADER = "mobility-classifier-tree 1";
+
+	/**
+	 * The names of the features, in the order of {@link #getFeatures}.
+	 */
+	public static final String[] FEATURE_NAMES = {
+		"speed", "average", "variance",
+		"fft1", "fft2", "fft3", "fft4", "fft5", "fft6", "fft7", "fft8", "fft9", "fft10",
+		"wifiTotal", "wifiRecogTotal", "wifiRecogRatio", "radius", "travelled",
+		"verticalVariance", "horizontalVariance"
+	};
+
+	private final String[] featureNames;
+	private final int[] features;
+	private final double[] thresholds;
+	private final int[] left;
+	private final int[] right;
+	private final String[] modes;
+
+	/**
+	 * Creates a tree over the built-in features from its nodes. Node 0 is the
+	 * root.
+	 *
+	 * @param features The index in {@link #FEATURE_NAMES} of the feature each
+	 * 				   inner node tests, or -1 for a leaf.
+	 *
+	 * @param thresholds The threshold each inner node tests against.
+	 *
+	 * @param left The index of the left child of each inner node.
+	 *
+	 * @param right The index of the right child of each inner node.
+	 *
+	 * @param modes The mode of each leaf.
+	 */
+	public DecisionTreeModel(
+			final int[] features,
+			final double[] thresholds,
+			final int[] left,
+			final int[] right,
+			final String[] modes) {
+
+		this(FEATURE_NAMES, features, thresholds, left, right, modes);
+	}
+
+	/**
+	 * Creates a tree from its nodes. Node 0 is the root.
+	 *
+	 * @param featureNames The names of the features the tree is over.
+	 *
+	 * @param features The index in the feature names of the feature each
+	 * 				   inner node tests, or -1 for a leaf.
+	 *
+	 * @param thresholds The threshold each inner node tests against.
+	 *
+	 * @param left The index of the left child of each inner node.
+	 *
+	 * @param right The index of the right child of each inner node.
+	 *
+	 * @param modes The mode of each leaf.
+	 */
+	public DecisionTreeModel(
+			final String[] featureNames,
+			final int[] features,
+			final double[] thresholds,
+			final int[] left,
+			final int[] right,
+			final String[] modes) {
+
+		if(featureNames == null || featureNames.length == 0) {
+			throw new IllegalArgumentException("At least one feature name is required");
+		}
+		for (int i = 0; i < featureNames.length; i++) {
+			if (featureNames[i] == null || featureNames[i].length() == 0 || featureNames[i].indexOf(',') >= 0 || featureNames[i].indexOf(' ') >= 0) {
+				throw new IllegalArgumentException("Not a feature name: " + featureNames[i]);
+			}
+			for (int j = 0; j < i; j++) {
+				if (featureNames[j].equals(featureNames[i])) {
+					throw new IllegalArgumentException("The feature " + featureNames[i] + " is named twice");
+				}
+			}
+		}
+		int size = features.length;
+		if(size == 0 || thresholds.length != size || left.length != size || right.length != size || modes.length != size) {
+			throw new IllegalArgumentException("Every node needs a feature, threshold, children and mode");
+		}
+		for (int i = 0; i < size; i++) {
+			if (features[i] < 0) {
+				if (modes[i] == null) {
+					throw new IllegalArgumentException("Leaf " + i + " has no mode");
+				}
+			}
+			else if (features[i] >= featureNames.length || left[i] <= i || right[i] <= i || left[i] >= size || right[i] >= size) {
+				throw new IllegalArgumentException("Node " + i + " is not a valid inner node");
+			}
+		}
+
+		this.featureNames = featureNames.clone();
+		this.features = features;
+		this.thresholds = thresholds;
+		this.left = left;
+		this.right = right;
+		this.modes = modes;
+	}
+
+	/**
+	 * Returns the mode of a window.
+	 *
+	 * @param featureValues The features of the window, in the order of
+	 * 						{@link #getFeatureNames()}.
+	 *
+	 * @return The mode of the leaf the window reaches.
+	 */
+	public String classify(double[] featureValues) {
+		int node = 0;
+		while (features[node] >= 0) {
+			node = (featureValues[features[node]] <= thresholds[node]) ? left[node] : right[node];
+		}
+		return modes[node];
+	}
+
+	/**
+	 * Returns the names of the features the tree is over, which are
+	 * {@link #FEATURE_NAMES} unless it was created with others.
+	 */
+	public String[] getFeatureNames() {
+		return featureNames.clone();
+	}
+
+	/**
+	 * Returns which features the tree tests.
+	 *
+	 * @return For each index of {@link #getFeatureNames()}, whether any node
+	 * 		   tests it.
+	 */
+	public boolean[] getUsedFeatures() {
+		boolean[] used = new boolean[featureNames.length];
+		for (int feature : features) {
+			if (feature >= 0) {
+				used[feature] = true;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the number of nodes in the tree.
+	 */
+	public int getSize() {
+		return features.length;
+	}
+
+	/**
+	 * Collects the features of a classified window.
+	 *
+	 * @param speed The GPS speed of the window.
+	 *
+	 * @param classification The classification with its features.
+	 *
+	 * @return The features, in the order of {@link #FEATURE_NAMES}. Features
+	 * 		   that were not calculated are NaN.
+	 */
+	public static double[] getFeatures(Double speed, Classification classification) {
+		double[] values = new double[FEATURE_NAMES.length];
+		values[0] = (speed == null) ? Double.NaN : speed;
+		values[1] = (classification.getAverage() == null) ? Double.NaN : classification.getAverage();
+		values[2] = (classification.getVariance() == null) ? Double.NaN : classification.getVariance();
+		List<Double> fft = classification.getFft();
+		for (int i = 0; i < 10; i++) {
+			values[3 + i] = (fft == null) ? Double.NaN : fft.get(i);
+		}
+		values[13] = classification.getWifiTotal();
+		values[14] = classification.getWifiRecogTotal();
+		values[15] = classification.getWifiRecogRatio();
+		values[16] = classification.getRadius();
+		values[17] = classification.getTravelled();
+		values[18] = (classification.getVerticalVariance() == null) ? Double.NaN : classification.getVerticalVariance();
+		values[19] = (classification.getHorizontalVariance() == null) ? Double.NaN : classification.getHorizontalVariance();
+		return values;
+	}
+
+	/**
+	 * Writes the tree in its text form.
+	 *
+	 * @param writer Where to write the tree. It is flushed but not closed.
+	 */
+	public void write(Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		out.println(HEADER);
+		StringBuilder names = new StringBuilder();
+		for (String name : featureNames) {
+			if (names.length() > 0) {
+				names.append(',');
+			}
+			names.append(name);
+		}
+		out.println(names);
+		write(out, 0);
+		out.flush();
+	}
+
+	private void write(PrintWriter out, int node) {
+		if (features[node] < 0) {
+			out.println("L " + modes[node]);
+		}
+		else {
+			out.println("N " + featureNames[features[node]] + " " + thresholds[node]);
+			write(out, left[node]);
+			write(out, right[node]);
+		}
+	}
+
+	/**
+	 * Reads a tree in its text form.
+	 *
+	 * @param reader Where to read the tree from. It is not closed.
+	 *
+	 * @return The tree.
+	 *
+	 * @throws IOException The tree could not be read or is not valid.
+	 */
+	public static DecisionTreeModel read(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		if (! HEADER.equals(in.readLine())) {
+			throw new IOException("Not a decision tree: the header is missing");
+		}
+		String nameLine = in.readLine();
+		if (nameLine == null || nameLine.trim().length() == 0) {
+			throw new IOException("The feature names are missing");
+		}
+		String[] featureNames = nameLine.trim().split(",");
+
+		List<Integer> features = new ArrayList<Integer>();
+		List<Double> thresholds = new ArrayList<Double>();
+		List<String> modes = new ArrayList<String>();
+		List<Integer> left = new ArrayList<Integer>();
+		List<Integer> right = new ArrayList<Integer>();
+		List<Integer> open = new ArrayList<Integer>(); // inner nodes still missing a child
+
+		String line;
+		while ((line = in.readLine()) != null) {
+			line = line.trim();
+			if (line.length() == 0) {
+				continue;
+			}
+			int node = features.size();
+			if (node > 0) {
+				if (open.isEmpty()) {
+					throw new IOException("There is more than one tree");
+				}
+				int parent = open.get(open.size() - 1);
+				if (left.get(parent) < 0) {
+					left.set(parent, node);
+				}
+				else {
+					right.set(parent, node);
+					open.remove(open.size() - 1);
+				}
+			}
+
+			String[] parts = line.split(" ");
+			try {
+				if (parts[0].equals("L") && parts.length == 2) {
+					features.add(-1);
+					thresholds.add(Double.NaN);
+					modes.add(parts[1]);
+				}
+				else if (parts[0].equals("N") && parts.length == 3) {
+					features.add(featureIndex(featureNames, parts[1]));
+					thresholds.add(Double.parseDouble(parts[2]));
+					modes.add(null);
+					open.add(node);
+				}
+				else {
+					throw new IOException("Not a node: " + line);
+				}
+			}
+			catch(NumberFormatException e) {
+				throw new IOException("Not a threshold: " + line);
+			}
+			left.add(-1);
+			right.add(-1);
+		}
+		if (features.isEmpty() || ! open.isEmpty()) {
+			throw new IOException("The tree is incomplete");
+		}
+
+		int size = features.size();
+		int[] f = new int[size];
+		double[] t = new double[size];
+		int[] l = new int[size];
+		int[] r = new int[size];
+		for (int i = 0; i < size; i++) {
+			f[i] = features.get(i);
+			t[i] = thresholds.get(i);
+			l[i] = left.get(i);
+			r[i] = right.get(i);
+		}
+		try {
+			return new DecisionTreeModel(featureNames, f, t, l, r, modes.toArray(new String[size]));
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static int featureIndex(String[] featureNames, String name) throws IOException {
+		for (int i = 0; i < featureNames.length; i++) {
+			if (featureNames[i].equals(name)) {
+				return i;
+			}
+		}
+		throw new IOException("Unknown feature: " + name);
+	}
+}
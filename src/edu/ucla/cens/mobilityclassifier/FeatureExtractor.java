@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * A stage of feature calculation that can be registered on the classifier,
+ * so that a model can test the features of a new sensor without changes to
+ * the classifier itself.
+ *
+ * An extractor calculates a fixed set of named features from a
+ * {@link SensorWindow} and writes them into a {@link FeatureVector}. It may
+ * read features of other extractors, which are then calculated first.
+ * Extractors that do not depend on each other may run at the same time on
+ * the same window, so an extractor must only write its own features.
+ */
+public interface FeatureExtractor {
+	/**
+	 * Returns the names of the features this extractor calculates. The names
+	 * must not change.
+	 */
+	String[] getFeatureNames();
+
+	/**
+	 * Returns the names of the features of other extractors that this one
+	 * reads, or an empty array. The names must not change.
+	 */
+	String[] getRequiredFeatures();
+
+	/**
+	 * Calculates the features of a window. Features that cannot be
+	 * calculated are left NaN.
+	 *
+	 * @param window The sensor data of the window.
+	 *
+	 * @param features Where to write the features, which already holds the
+	 * 				   required features.
+	 */
+	void extract(SensorWindow window, FeatureVector features);
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Which feature extractors to run for a set of needed features, and in
+ * which order.
+ *
+ * Only the extractors that calculate a needed feature, and those whose
+ * features they require, are run. They are grouped into stages: an
+ * extractor is in the stage after the last of the extractors it requires,
+ * so the extractors of a stage are independent of each other and may run
+ * at the same time. A plan is immutable and may be shared by threads.
+ */
+public final class FeaturePlan {
+	private final List<List<FeatureExtractor>> stages;
+	private final String[] names;
+	private final Map<String, Integer> indices;
+
+	/**
+	 * Plans the extraction of features.
+	 *
+	 * @param extractors The extractors that may be run. Extractors of the
+	 * 					 same stage are run in this order when they are not
+	 * 					 run at the same time.
+	 *
+	 * @param required The names of the features that are needed.
+	 *
+	 * @throws IllegalArgumentException Two extractors calculate the same
+	 * 									feature, no extractor calculates a
+	 * 									needed feature, or extractors require
+	 * 									the features of each other.
+	 */
+	public FeaturePlan(final List<FeatureExtractor> extractors, final Collection<String> required) {
+		Map<String, FeatureExtractor> producers = new HashMap<String, FeatureExtractor>();
+		for (FeatureExtractor extractor : extractors) {
+			for (String name : extractor.getFeatureNames()) {
+				if (producers.put(name, extractor) != null) {
+					throw new IllegalArgumentException("The feature " + name + " is calculated by two extractors");
+				}
+			}
+		}
+
+		Map<FeatureExtractor, Integer> levels = new IdentityHashMap<FeatureExtractor, Integer>();
+		Map<FeatureExtractor, Boolean> visiting = new IdentityHashMap<FeatureExtractor, Boolean>();
+		for (String name : required) {
+			getLevel(getProducer(producers, name), producers, levels, visiting);
+		}
+
+		List<List<FeatureExtractor>> stages = new ArrayList<List<FeatureExtractor>>();
+		List<String> names = new ArrayList<String>();
+		for (FeatureExtractor extractor : extractors) {
+			Integer level = levels.get(extractor);
+			if (level == null) {
+				continue;
+			}
+			while (stages.size() <= level) {
+				stages.add(new ArrayList<FeatureExtractor>());
+			}
+			stages.get(level).add(extractor);
+			Collections.addAll(names, extractor.getFeatureNames());
+		}
+		for (int i = 0; i < stages.size(); i++) {
+			stages.set(i, Collections.unmodifiableList(stages.get(i)));
+		}
+
+		this.stages = Collections.unmodifiableList(stages);
+		this.names = names.toArray(new String[names.size()]);
+		this.indices = new HashMap<String, Integer>();
+		for (int i = 0; i < this.names.length; i++) {
+			indices.put(this.names[i], i);
+		}
+	}
+
+	private static FeatureExtractor getProducer(Map<String, FeatureExtractor> producers, String name) {
+		FeatureExtractor producer = producers.get(name);
+		if (producer == null) {
+			throw new IllegalArgumentException("No extractor calculates the feature " + name);
+		}
+		return producer;
+	}
+
+	private static int getLevel(FeatureExtractor extractor, Map<String, FeatureExtractor> producers, Map<FeatureExtractor, Integer> levels, Map<FeatureExtractor, Boolean> visiting) {
+		Integer known = levels.get(extractor);
+		if (known != null) {
+			return known;
+		}
+		if (visiting.put(extractor, Boolean.TRUE) != null) {
+			throw new IllegalArgumentException("Extractors require the features of each other");
+		}
+		int level = 0;
+		for (String name : extractor.getRequiredFeatures()) {
+			level = Math.max(level, getLevel(getProducer(producers, name), producers, levels, visiting) + 1);
+		}
+		visiting.remove(extractor);
+		levels.put(extractor, level);
+		return level;
+	}
+
+	/**
+	 * Returns the number of stages.
+	 */
+	public int getStageCount() {
+		return stages.size();
+	}
+
+	/**
+	 * Returns the extractors of a stage, which do not depend on each other.
+	 */
+	public List<FeatureExtractor> getStage(int stage) {
+		return stages.get(stage);
+	}
+
+	/**
+	 * Returns the names of the features the plan calculates, in the layout of
+	 * its vectors. They include features that are not needed but are
+	 * calculated by an extractor that is run.
+	 */
+	public String[] getFeatureNames() {
+		return names.clone();
+	}
+
+	/**
+	 * Returns where features are in the vectors of the plan.
+	 *
+	 * @param names The names of the features.
+	 *
+	 * @return The index of each feature, or -1 if the plan does not calculate
+	 * 		   it. They can be given to {@link FeatureVector#select(int[])}.
+	 */
+	public int[] indicesOf(String[] names) {
+		int[] result = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			Integer index = indices.get(names[i]);
+			result[i] = (index == null) ? -1 : index;
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the extractors of the plan on a window, one stage at a time.
+	 *
+	 * @param window The window.
+	 *
+	 * @param executor Where the extractors of a stage other than the first
+	 * 				   are run while the first is run by the calling thread,
+	 * 				   or null to run every extractor in the calling thread.
+	 * 				   An extractor that the executor has not started when the
+	 * 				   calling thread is done is run by the calling thread, so
+	 * 				   the executor may be busy or the caller's own. If an
+	 * 				   extractor fails, the others that have started are
+	 * 				   waited for and the rest are not run.
+	 *
+	 * @return The features.
+	 */
+	public FeatureVector extract(SensorWindow window, Executor executor) {
+		FeatureVector features = new FeatureVector(names, indices);
+		for (List<FeatureExtractor> stage : stages) {
+			if (executor == null || stage.size() == 1) {
+				for (FeatureExtractor extractor : stage) {
+					extractor.extract(window, features);
+				}
+				continue;
+			}
+
+			List<ExtractorTask> tasks = new ArrayList<ExtractorTask>(stage.size() - 1);
+			for (int i = 1; i < stage.size(); i++) {
+				ExtractorTask task = new ExtractorTask(stage.get(i), window, features);
+				tasks.add(task);
+				try {
+					executor.execute(task);
+				}
+				catch(RejectedExecutionException e) {
+					// it is run by this thread when it is joined
+				}
+			}
+			try {
+				stage.get(0).extract(window, features);
+				for (ExtractorTask task : tasks) {
+					task.join();
+				}
+			}
+			finally {
+				// after a failure, no extractor may still be writing to the features
+				for (ExtractorTask task : tasks) {
+					task.cancel();
+				}
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Runs one extractor once, in whichever thread gets to it first.
+	 */
+	private static final class ExtractorTask implements Runnable {
+		private final FeatureExtractor extractor;
+		private final SensorWindow window;
+		private final FeatureVector features;
+		private final AtomicBoolean started = new AtomicBoolean(false);
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Throwable failure = null;
+
+		ExtractorTask(FeatureExtractor extractor, SensorWindow window, FeatureVector features) {
+			this.extractor = extractor;
+			this.window = window;
+			this.features = features;
+		}
+
+		@Override
+		public void run() {
+			if (! started.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				extractor.extract(window, features);
+			}
+			catch(Throwable t) {
+				failure = t;
+			}
+			finally {
+				done.countDown();
+			}
+		}
+
+		/**
+		 * Runs the extractor if no other thread has started it, and waits
+		 * until it is done.
+		 */
+		void join() {
+			run();
+			await();
+			Throwable failure = this.failure;
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			if (failure != null) {
+				throw new IllegalStateException(failure);
+			}
+		}
+
+		/**
+		 * Keeps the extractor from starting, or waits until it is done if
+		 * another thread has started it. Its failure is not thrown.
+		 */
+		void cancel() {
+			if (started.compareAndSet(false, true)) {
+				done.countDown();
+				return;
+			}
+			await();
+		}
+
+		private void await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				}
+				catch(InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The features of one window, held as primitive doubles in the layout of a
+ * {@link FeaturePlan}. Features that were not calculated are NaN.
+ *
+ * Extractors of the same stage write to the vector at the same time, each
+ * to its own features, so a vector is only safe to read once the plan has
+ * finished with it.
+ */
+public final class FeatureVector {
+	private final String[] names;
+	private final Map<String, Integer> indices;
+	private final double[] values;
+
+	FeatureVector(final String[] names, final Map<String, Integer> indices) {
+		this.names = names;
+		this.indices = indices;
+		this.values = new double[names.length];
+		Arrays.fill(values, Double.NaN);
+	}
+
+	/**
+	 * Returns the number of features.
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	/**
+	 * Returns the name of a feature.
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * Returns the index of a feature.
+	 *
+	 * @param name The name of the feature.
+	 *
+	 * @return The index, or -1 if the vector does not hold the feature.
+	 */
+	public int indexOf(String name) {
+		Integer index = indices.get(name);
+		return (index == null) ? -1 : index;
+	}
+
+	public double get(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Returns a feature by name.
+	 *
+	 * @return The feature, or NaN if the vector does not hold it.
+	 */
+	public double get(String name) {
+		int index = indexOf(name);
+		return (index < 0) ? Double.NaN : values[index];
+	}
+
+	public void set(int index, double value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Sets a feature by name.
+	 *
+	 * @throws IllegalArgumentException The vector does not hold the feature.
+	 */
+	public void set(String name, double value) {
+		int index = indexOf(name);
+		if (index < 0) {
+			throw new IllegalArgumentException("Not a feature of this vector: " + name);
+		}
+		values[index] = value;
+	}
+
+	/**
+	 * Copies features into an array, such as the one a model classifies.
+	 *
+	 * @param indices The index of each feature to copy, or -1 for NaN.
+	 *
+	 * @return The features, in the order of the indices.
+	 */
+	public double[] select(int[] indices) {
+		double[] selected = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			selected[i] = (indices[i] < 0) ? Double.NaN : values[indices[i]];
+		}
+		return selected;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("FeatureVector [");
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(names[i]).append('=').append(values[i]);
+		}
+		return builder.append(']').toString();
+	}
+}
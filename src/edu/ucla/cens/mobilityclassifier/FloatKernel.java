@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calculates the accelerometer features of a window in float arithmetic,
+ * for phones where boxed samples, Math.pow and double arithmetic cost
+ * battery.
+ *
+ * A magnitude is the square root of the squared length of the sample
+ * times one constant, instead of three divisions and powers. The mean and
+ * variance are two passes over a float array, and the ten Goertzel bins
+ * are one pass with their recurrences side by side. The features agree
+ * with the double path to about six digits, which can only change the
+ * mode of a window whose variance is that close to its threshold; see
+ * {@link #isNear(double)}.
+ */
+final class FloatKernel {
+	private static final float GRAVITY_SQUARED_INVERSE = (float) (1 / (9.80665 * 9.80665)); // the gravity of the Android API
+	/**
+	 * The relative error of a float sum, per sample, with room to spare.
+	 */
+	private static final double ERROR_PER_SAMPLE = 0x1p-20;
+
+	private final int size;
+	private final float average;
+	private final float variance;
+	private final float[] fft = new float[BatchKernel.FFT_BINS];
+
+	/**
+	 * Calculates the features of a window, taken to be a second long.
+	 *
+	 * @param samples The samples of the window.
+	 */
+	FloatKernel(List<Sample> samples) {
+		size = samples.size();
+		float[] magnitudes = new float[size];
+		float sum = 0;
+		for (int i = 0; i < size; i++) {
+			Sample sample = samples.get(i);
+			float x = (float) sample.getX().doubleValue();
+			float y = (float) sample.getY().doubleValue();
+			float z = (float) sample.getZ().doubleValue();
+			float magnitude = (float) Math.sqrt((x * x + y * y + z * z) * GRAVITY_SQUARED_INVERSE);
+			magnitudes[i] = magnitude;
+			sum += magnitude;
+		}
+		average = sum / size;
+
+		float squares = 0;
+		for (int i = 0; i < size; i++) {
+			float deviation = magnitudes[i] - average;
+			squares += deviation * deviation;
+		}
+		variance = squares / size;
+
+		int bins = fft.length;
+		float[] coefficients = new float[bins];
+		float[] sPrev = new float[bins];
+		float[] sPrev2 = new float[bins];
+		for (int bin = 0; bin < bins; bin++) {
+			coefficients[bin] = (float) (2 * Math.cos((2 * Math.PI * (bin + 1)) / size));
+		}
+		for (int i = 0; i < size; i++) {
+			float magnitude = magnitudes[i];
+			for (int bin = 0; bin < bins; bin++) {
+				float s = magnitude + coefficients[bin] * sPrev[bin] - sPrev2[bin];
+				sPrev2[bin] = sPrev[bin];
+				sPrev[bin] = s;
+			}
+		}
+		for (int bin = 0; bin < bins; bin++) {
+			fft[bin] = sPrev2[bin] * sPrev2[bin] + sPrev[bin] * sPrev[bin] - coefficients[bin] * sPrev2[bin] * sPrev[bin];
+		}
+	}
+
+	float getAverage() {
+		return average;
+	}
+
+	float getVariance() {
+		return variance;
+	}
+
+	/**
+	 * Returns the FFT bins as the classification keeps them.
+	 */
+	ArrayList<Double> getFft() {
+		ArrayList<Double> list = new ArrayList<Double>(fft.length);
+		for (float bin : fft) {
+			list.add((double) bin);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns whether the variance is so close to a threshold that the
+	 * variance of the double path could be on its other side.
+	 *
+	 * @param threshold The threshold the variance is compared to.
+	 */
+	boolean isNear(double threshold) {
+		return ! (Math.abs(variance - threshold) > Math.max(variance, threshold) * ERROR_PER_SAMPLE * (size + 16));
+	}
+}
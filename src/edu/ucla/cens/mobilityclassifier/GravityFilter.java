@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.List;
+
+/**
+ * Separates gravity from the motion of the device with a single-pole IIR
+ * low-pass filter, and splits the motion into its component along gravity
+ * and the rest.
+ *
+ * The magnitude of the acceleration mixes gravity with the motion and
+ * discards which way the motion goes. Walking moves the phone mostly up and
+ * down, while a vehicle shakes it mostly sideways, whatever the phone's
+ * orientation. This filter keeps the variance of both components, in
+ * gravity units, as samples arrive. Each sample costs a few multiplications
+ * and a square root, and nothing is allocated.
+ *
+ * This is not thread-safe; use one filter per stream of samples.
+ */
+public class GravityFilter {
+	/**
+	 * The weight of the previous gravity estimate for each sample. At 20 to
+	 * 50 samples per second this follows turns of the phone within a second.
+	 */
+	public static final double DEFAULT_SMOOTHING = 0.9;
+	private static final double GRAVITY = 9.80665;
+
+	private final double smoothing;
+	private double gravityX;
+	private double gravityY;
+	private double gravityZ;
+	private boolean seeded = false;
+
+	private int count = 0;
+	private double verticalMean = 0;
+	private double verticalSquares = 0;
+	private double horizontalMean = 0;
+	private double horizontalSquares = 0;
+
+	/**
+	 * Creates a filter with the default smoothing.
+	 */
+	public GravityFilter() {
+		this(DEFAULT_SMOOTHING);
+	}
+
+	/**
+	 * Creates a filter.
+	 *
+	 * @param smoothing The weight of the previous gravity estimate for each
+	 * 					sample, from 0 (no smoothing) to less than 1.
+	 */
+	public GravityFilter(double smoothing) {
+		if (! (smoothing >= 0 && smoothing < 1)) {
+			throw new IllegalArgumentException("The smoothing must be at least 0 and less than 1");
+		}
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * Sets the gravity estimate, for example to the mean of a window, instead
+	 * of starting from the first sample.
+	 *
+	 * @param x The X component in m/s^2.
+	 *
+	 * @param y The Y component in m/s^2.
+	 *
+	 * @param z The Z component in m/s^2.
+	 */
+	public void seed(double x, double y, double z) {
+		gravityX = x;
+		gravityY = y;
+		gravityZ = z;
+		seeded = true;
+	}
+
+	/**
+	 * Adds a sample.
+	 *
+	 * @param x The X component in m/s^2.
+	 *
+	 * @param y The Y component in m/s^2.
+	 *
+	 * @param z The Z component in m/s^2.
+	 */
+	public void update(double x, double y, double z) {
+		if (! seeded) {
+			seed(x, y, z);
+		}
+		gravityX = smoothing * gravityX + (1 - smoothing) * x;
+		gravityY = smoothing * gravityY + (1 - smoothing) * y;
+		gravityZ = smoothing * gravityZ + (1 - smoothing) * z;
+		double norm = Math.sqrt(gravityX * gravityX + gravityY * gravityY + gravityZ * gravityZ);
+		if (norm == 0) {
+			return;
+		}
+
+		double dx = x - gravityX;
+		double dy = y - gravityY;
+		double dz = z - gravityZ;
+		double vertical = (dx * gravityX + dy * gravityY + dz * gravityZ) / norm;
+		double horizontal = Math.sqrt(Math.max(0, dx * dx + dy * dy + dz * dz - vertical * vertical));
+		vertical /= GRAVITY;
+		horizontal /= GRAVITY;
+
+		// Welford's running variance
+		count++;
+		double delta = vertical - verticalMean;
+		verticalMean += delta / count;
+		verticalSquares += delta * (vertical - verticalMean);
+		delta = horizontal - horizontalMean;
+		horizontalMean += delta / count;
+		horizontalSquares += delta * (horizontal - horizontalMean);
+	}
+
+	/**
+	 * Filters a window, with gravity seeded to the mean of the window so that
+	 * its first samples are not mistaken for motion.
+	 *
+	 * @param samples The samples of the window.
+	 */
+	public void update(List<Sample> samples) {
+		int size = samples.size();
+		if (size == 0) {
+			return;
+		}
+		if (! seeded) {
+			double x = 0;
+			double y = 0;
+			double z = 0;
+			for (int i = 0; i < size; i++) {
+				Sample sample = samples.get(i);
+				x += sample.getX();
+				y += sample.getY();
+				z += sample.getZ();
+			}
+			seed(x / size, y / size, z / size);
+		}
+		for (int i = 0; i < size; i++) {
+			Sample sample = samples.get(i);
+			update(sample.getX(), sample.getY(), sample.getZ());
+		}
+	}
+
+	/**
+	 * Forgets the statistics but keeps the gravity estimate, to start the
+	 * next window of the same stream.
+	 */
+	public void resetStatistics() {
+		count = 0;
+		verticalMean = 0;
+		verticalSquares = 0;
+		horizontalMean = 0;
+		horizontalSquares = 0;
+	}
+
+	/**
+	 * Forgets the gravity estimate and the statistics.
+	 */
+	public void reset() {
+		resetStatistics();
+		seeded = false;
+	}
+
+	/**
+	 * Returns the number of samples in the statistics.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the variance of the acceleration along gravity, in gravity
+	 * units squared, or NaN if there are no samples.
+	 */
+	public double getVerticalVariance() {
+		return (count == 0) ? Double.NaN : verticalSquares / count;
+	}
+
+	/**
+	 * Returns the variance of the size of the acceleration across gravity, in
+	 * gravity units squared, or NaN if there are no samples.
+	 */
+	public double getHorizontalVariance() {
+		return (count == 0) ? Double.NaN : horizontalSquares / count;
+	}
+
+	/**
+	 * Returns the mean size of the acceleration across gravity, in gravity
+	 * units, or NaN if there are no samples.
+	 */
+	public double getHorizontalMean() {
+		return (count == 0) ? Double.NaN : horizontalMean;
+	}
+
+	public double getGravityX() {
+		return gravityX;
+	}
+
+	public double getGravityY() {
+		return gravityY;
+	}
+
+	public double getGravityZ() {
+		return gravityZ;
+	}
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks how much of a window to classify when a classification service
+ * falls behind, so that its latency stays bounded instead of timing out.
+ *
+ * The tiers are, from cheapest, {@link Classification#TIER_VARIANCE},
+ * which tells walking from still, {@link Classification#TIER_WIFI}, which
+ * also finds drives from the Wi-Fi scans, and {@link Classification#TIER_FULL}.
+ * A cheaper tier does not compare the scan or the fix it does not need; it
+ * marks them skipped on the classification instead.
+ * The richest tier is picked that both fits the latency budget of the
+ * window, going by the recent latencies of each tier, and is allowed by the
+ * depth of the service's queue. The latency of a tier that is passed over
+ * shrinks a little each time, so it is tried again once the service has
+ * caught up. Thread-safe.
+ */
+public class LoadShedder {
+	private static final String[] TIERS = { Classification.TIER_VARIANCE, Classification.TIER_WIFI, Classification.TIER_FULL };
+	private static final int WEIGHT_SHIFT = 3; // each latency is 1/8 of the average
+	private static final int DECAY_SHIFT = 6;
+
+	private final int wifiQueueDepth;
+	private final int varianceQueueDepth;
+	private volatile int queueDepth = 0;
+	private final AtomicLong[] latencies = new AtomicLong[TIERS.length];
+	private final AtomicLong[] counts = new AtomicLong[TIERS.length];
+
+	/**
+	 * Creates a shedder.
+	 *
+	 * @param wifiQueueDepth The queue depth from which windows get no more
+	 * 						 than the Wi-Fi tier.
+	 *
+	 * @param varianceQueueDepth The queue depth from which windows get only
+	 * 							 the variance tier.
+	 */
+	public LoadShedder(int wifiQueueDepth, int varianceQueueDepth) {
+		if (wifiQueueDepth < 1 || varianceQueueDepth < wifiQueueDepth) {
+			throw new IllegalArgumentException("The queue depths must be positive and in order of tier");
+		}
+		this.wifiQueueDepth = wifiQueueDepth;
+		this.varianceQueueDepth = varianceQueueDepth;
+		for (int i = 0; i < TIERS.length; i++) {
+			latencies[i] = new AtomicLong();
+			counts[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Sets the number of windows waiting to be classified, as the service
+	 * sees it.
+	 */
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * Picks the tier of a window.
+	 *
+	 * @param budgetNanos How long the window may take to classify, or
+	 * 					  Long.MAX_VALUE to go by the queue depth alone.
+	 *
+	 * @return The tier.
+	 */
+	public String getTier(long budgetNanos) {
+		int depth = queueDepth;
+		int tier = (depth >= varianceQueueDepth) ? 0 : (depth >= wifiQueueDepth) ? 1 : TIERS.length - 1;
+		while (tier > 0) {
+			long latency = latencies[tier].get();
+			if (latency <= budgetNanos) {
+				break;
+			}
+			// a tier that is not used is not measured, so its latency decays until it is tried again
+			latencies[tier].compareAndSet(latency, latency - (latency >> DECAY_SHIFT));
+			tier--;
+		}
+		return TIERS[tier];
+	}
+
+	/**
+	 * Adds the latency of a classification to the average of its tier.
+	 *
+	 * @param tier The tier of the classification.
+	 *
+	 * @param nanos How long it took.
+	 */
+	public void record(String tier, long nanos) {
+		int index = indexOf(tier);
+		counts[index].incrementAndGet();
+		AtomicLong latency = latencies[index];
+		while (true) {
+			long average = latency.get();
+			long updated = (average == 0) ? nanos : average + ((nanos - average) >> WEIGHT_SHIFT);
+			if (latency.compareAndSet(average, updated)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the moving average of the latency of a tier.
+	 *
+	 * @return The latency in nanoseconds, or 0 if the tier has not been used.
+	 */
+	public long getLatency(String tier) {
+		return latencies[indexOf(tier)].get();
+	}
+
+	/**
+	 * Returns the number of windows classified at a tier.
+	 */
+	public long getCount(String tier) {
+		return counts[indexOf(tier)].get();
+	}
+
+	private static int indexOf(String tier) {
+		for (int i = 0; i < TIERS.length; i++) {
+			if (TIERS[i].equals(tier)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Not a tier: " + tier);
+	}
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * An incremental replacement for the location history of a single user that
+ * keeps the radius, the distance travelled and the current stay point up to
+ * date in constant amortized time per fix, however fast the fixes arrive.
+ *
+ * Fixes older than the history length are dropped as new ones arrive, and
+ * the whole history is dropped when there is a gap of more than
+ * {@link MobilityClassifier#LOC_THRESHOLD_MILLIS} between two fixes. As in
+ * the history-based check, the radius is half the distance between the
+ * latest fix and the last fix at least a minute older, or half the diameter
+ * of a bounding circle of the history if it spans less than a minute. The
+ * distance travelled is the distance from the oldest fix in the history.
+ *
+ * Stay points are found by bucketing fixes into geohash cells: the user stays
+ * while every fix falls into the cell of the first fix of the stay or one of
+ * its neighbours, and the stay becomes a stay point once it has lasted the
+ * minimum stay duration.
+ */
+public class LocationTracker {
+	public static final long DEFAULT_HISTORY_MILLIS = MobilityClassifier.LOC_THRESHOLD_MILLIS;
+	public static final long DEFAULT_MIN_STAY_MILLIS = 1000 * 60 * 5;
+	public static final int DEFAULT_CELL_BITS = 35; // a 7 character geohash, about 150m square
+	private static final long RADIUS_BASELINE_MILLIS = 60 * 1000;
+
+	private final long historyMillis;
+	private final long minStayMillis;
+	private final int cellBits;
+
+	// The history is a ring buffer. Fixes are numbered by the order in which
+	// they were added, and fix n is stored at n % capacity.
+	private double[] latitudes = new double[16];
+	private double[] longitudes = new double[16];
+	private long[] times = new long[16];
+	private long first = 0;
+	private long end = 0;
+	private long baseline = -1;
+
+	private double latitudeSum = 0;
+	private double longitudeSum = 0;
+
+	private boolean circleValid = false;
+	private double circleLatitude;
+	private double circleLongitude;
+	private double circleRadius;
+
+	private long stayCellX;
+	private long stayCellY;
+	private long stayStart;
+	private long stayEnd;
+	private double stayLatitudeSum;
+	private double stayLongitudeSum;
+	private int stayCount = 0;
+	private StayPoint lastStayPoint = null;
+
+	/**
+	 * Creates a tracker with the default history length, stay duration and
+	 * cell size.
+	 */
+	public LocationTracker() {
+		this(DEFAULT_HISTORY_MILLIS, DEFAULT_MIN_STAY_MILLIS, DEFAULT_CELL_BITS);
+	}
+
+	/**
+	 * Creates a tracker.
+	 *
+	 * @param historyMillis How long fixes are kept for the radius and the
+	 * 						distance travelled.
+	 *
+	 * @param minStayMillis How long the user must stay within neighbouring
+	 * 						cells for a stay point.
+	 *
+	 * @param cellBits The number of bits of the geohash of a cell, between 2
+	 * 				   and 60. Every 5 bits is one geohash character.
+	 */
+	public LocationTracker(final long historyMillis, final long minStayMillis, final int cellBits) {
+		if(historyMillis <= 0) {
+			throw new IllegalArgumentException("The history length must be positive");
+		}
+		if(cellBits < 2 || cellBits > 60) {
+			throw new IllegalArgumentException("The cell must have between 2 and 60 bits");
+		}
+
+		this.historyMillis = historyMillis;
+		this.minStayMillis = minStayMillis;
+		this.cellBits = cellBits;
+	}
+
+	/**
+	 * Adds the next fix. Fixes that are not newer than the latest one are
+	 * ignored.
+	 *
+	 * @param location The fix.
+	 */
+	public void update(Location location) {
+		long time = location.getTime();
+		double latitude = location.getLatitude();
+		double longitude = location.getLongitude();
+
+		if (end > first) {
+			long lastTime = times[index(end - 1)];
+			if (time <= lastTime) {
+				return;
+			}
+			if (lastTime < time - MobilityClassifier.LOC_THRESHOLD_MILLIS) {
+				clear();
+			}
+		}
+
+		append(latitude, longitude, time);
+		while (times[index(first)] < time - historyMillis) {
+			evict();
+		}
+		// The baseline is the last fix more than a minute older than the
+		// latest one, which only ever moves forward
+		if (baseline < first - 1) {
+			baseline = first - 1;
+		}
+		while (baseline + 1 < end - 1 && times[index(baseline + 1)] + RADIUS_BASELINE_MILLIS < time) {
+			baseline++;
+		}
+		if (circleValid) {
+			growCircle(latitude, longitude);
+		}
+		updateStay(latitude, longitude, time);
+	}
+
+	/**
+	 * Returns the number of fixes in the history.
+	 */
+	public int getSize() {
+		return (int) (end - first);
+	}
+
+	/**
+	 * Returns the latest fix, or null if there is none.
+	 */
+	public Location getLatest() {
+		if (end == first) {
+			return null;
+		}
+		int i = index(end - 1);
+		return new Location(latitudes[i], longitudes[i], times[i]);
+	}
+
+	/**
+	 * Returns half the distance covered over the last minute or, if the
+	 * history is shorter than that, the radius of a circle around it.
+	 *
+	 * @return The radius in meters, or 0 with fewer than two fixes.
+	 */
+	public double getRadius() {
+		if (end - first < 2) {
+			return 0;
+		}
+		int latest = index(end - 1);
+		if (baseline >= first) {
+			int b = index(baseline);
+			return MobilityClassifier.Distance(latitudes[latest], longitudes[latest], latitudes[b], longitudes[b]) / 2;
+		}
+		if (! circleValid) {
+			buildCircle();
+		}
+		return circleRadius;
+	}
+
+	/**
+	 * Returns the distance between the latest and the oldest fix in the
+	 * history.
+	 *
+	 * @return The distance in meters, or 0 with fewer than two fixes.
+	 */
+	public double getTravelled() {
+		if (end - first < 2) {
+			return 0;
+		}
+		int latest = index(end - 1);
+		int oldest = index(first);
+		return MobilityClassifier.Distance(latitudes[latest], longitudes[latest], latitudes[oldest], longitudes[oldest]);
+	}
+
+	/**
+	 * Returns the centroid of the fixes in the history.
+	 *
+	 * @return The centroid, at the time of the latest fix, or null if there
+	 * 		   are no fixes.
+	 */
+	public Location getCentroid() {
+		if (end == first) {
+			return null;
+		}
+		return new Location(latitudeSum / (end - first), longitudeSum / (end - first), times[index(end - 1)]);
+	}
+
+	/**
+	 * Returns the stay the user is in now.
+	 *
+	 * @return The current stay point, or null if the user has not stayed in
+	 * 		   the current cells for the minimum stay duration.
+	 */
+	public StayPoint getStayPoint() {
+		if (stayCount == 0 || stayEnd - stayStart < minStayMillis) {
+			return null;
+		}
+		return new StayPoint(stayLatitudeSum / stayCount, stayLongitudeSum / stayCount, stayStart, stayEnd);
+	}
+
+	/**
+	 * Returns the last stay point the user has left.
+	 *
+	 * @return The last finished stay point, or null if there is none.
+	 */
+	public StayPoint getLastStayPoint() {
+		return lastStayPoint;
+	}
+
+	/**
+	 * Returns the geohash of the cell of the latest fix.
+	 *
+	 * @return The interleaved longitude and latitude bits of the cell, or -1
+	 * 		   if there are no fixes.
+	 */
+	public long getCell() {
+		if (end == first) {
+			return -1;
+		}
+		int i = index(end - 1);
+		return interleave(cellX(longitudes[i]), cellY(latitudes[i]));
+	}
+
+	/**
+	 * Drops the whole history. The last finished stay point is kept.
+	 */
+	public void clear() {
+		finishStay();
+		first = end;
+		baseline = first - 1;
+		latitudeSum = 0;
+		longitudeSum = 0;
+		circleValid = false;
+	}
+
+	private int index(long n) {
+		return (int) (n % times.length);
+	}
+
+	private void append(double latitude, double longitude, long time) {
+		if (end - first == times.length) {
+			grow();
+		}
+		int i = index(end);
+		latitudes[i] = latitude;
+		longitudes[i] = longitude;
+		times[i] = time;
+		end++;
+		latitudeSum += latitude;
+		longitudeSum += longitude;
+		if (end - first == 1) {
+			circleLatitude = latitude;
+			circleLongitude = longitude;
+			circleRadius = 0;
+			circleValid = true;
+		}
+	}
+
+	private void evict() {
+		int i = index(first);
+		latitudeSum -= latitudes[i];
+		longitudeSum -= longitudes[i];
+		first++;
+		// A circle cannot shrink incrementally, so it is rebuilt if needed
+		circleValid = false;
+	}
+
+	private void grow() {
+		int capacity = times.length * 2;
+		double[] newLatitudes = new double[capacity];
+		double[] newLongitudes = new double[capacity];
+		long[] newTimes = new long[capacity];
+		for (long n = first; n < end; n++) {
+			newLatitudes[(int) (n % capacity)] = latitudes[index(n)];
+			newLongitudes[(int) (n % capacity)] = longitudes[index(n)];
+			newTimes[(int) (n % capacity)] = times[index(n)];
+		}
+		latitudes = newLatitudes;
+		longitudes = newLongitudes;
+		times = newTimes;
+	}
+
+	/**
+	 * Rebuilds the bounding circle of the history. This is linear in its
+	 * length, but is only needed while the history spans less than the
+	 * radius baseline, which bounds its length by the fix rate.
+	 */
+	private void buildCircle() {
+		int i = index(first);
+		circleLatitude = latitudes[i];
+		circleLongitude = longitudes[i];
+		circleRadius = 0;
+		for (long n = first + 1; n < end; n++) {
+			growCircle(latitudes[index(n)], longitudes[index(n)]);
+		}
+		circleValid = true;
+	}
+
+	/**
+	 * Grows the circle just enough to cover a new point, moving its center
+	 * toward the point (Ritter's bounding sphere).
+	 */
+	private void growCircle(double latitude, double longitude) {
+		double d = MobilityClassifier.Distance(circleLatitude, circleLongitude, latitude, longitude);
+		if (d > circleRadius) {
+			double radius = (circleRadius + d) / 2;
+			double shift = (radius - circleRadius) / d;
+			circleLatitude += (latitude - circleLatitude) * shift;
+			circleLongitude += (longitude - circleLongitude) * shift;
+			circleRadius = radius;
+		}
+	}
+
+	private void updateStay(double latitude, double longitude, long time) {
+		long x = cellX(longitude);
+		long y = cellY(latitude);
+		if (stayCount > 0 && Math.abs(x - stayCellX) <= 1 && Math.abs(y - stayCellY) <= 1) {
+			stayLatitudeSum += latitude;
+			stayLongitudeSum += longitude;
+			stayCount++;
+			stayEnd = time;
+			return;
+		}
+
+		finishStay();
+		stayCellX = x;
+		stayCellY = y;
+		stayStart = time;
+		stayEnd = time;
+		stayLatitudeSum = latitude;
+		stayLongitudeSum = longitude;
+		stayCount = 1;
+	}
+
+	private void finishStay() {
+		StayPoint stayPoint = getStayPoint();
+		if (stayPoint != null) {
+			lastStayPoint = stayPoint;
+		}
+		stayCount = 0;
+	}
+
+	private long cellX(double longitude) {
+		int bits = (cellBits + 1) / 2;
+		return Math.min((1L << bits) - 1, (long) ((longitude + 180) / 360 * (1L << bits)));
+	}
+
+	private long cellY(double latitude) {
+		int bits = cellBits / 2;
+		return Math.min((1L << bits) - 1, (long) ((latitude + 90) / 180 * (1L << bits)));
+	}
+
+	/**
+	 * Interleaves the cell coordinates as a geohash does, starting with the
+	 * longitude.
+	 */
+	private long interleave(long x, long y) {
+		long hash = 0;
+		int xBits = (cellBits + 1) / 2;
+		int yBits = cellBits / 2;
+		for (int bit = 0; bit < cellBits; bit++) {
+			if (bit % 2 == 0) {
+				hash = (hash << 1) | ((x >>> (--xBits)) & 1);
+			}
+			else {
+				hash = (hash << 1) | ((y >>> (--yBits)) & 1);
+			}
+		}
+		return hash;
+	}
+}
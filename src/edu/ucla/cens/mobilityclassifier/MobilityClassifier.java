@@ -16,7 +16,15 @@
 package edu.ucla.cens.mobilityclassifier;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -26,25 +34,494 @@ import java.util.List;
 public class MobilityClassifier {
 	public static final long WIFI_THRESHOLD_MILLIS = 1000 * 60 * 10;
 	public static final long LOC_THRESHOLD_MILLIS = 1000 * 60 * 6;
-	private static final String STILL = "still";
-	private static final String WALK = "walk";
-	private static final String RUN = "run";
+	static final String STILL = "still";
+	static final String WALK = "walk";
+	static final String RUN = "run";
 	// private static final String BIKE = "bike"; // not supported now
-	private static final String DRIVE = "drive";
-	private static final String UNKNOWN = "unknown";
+	static final String DRIVE = "drive";
+	static final String UNKNOWN = "unknown";
+	static final int MIN_SAMPLES = 10;
+	static final int BATCH_WINDOWS = 128;
+	static final double VARIANCE_THRESHOLD = 0.038625;
+	static final int WIFI_RECOG_TOTAL_THRESHOLD = 3;
+	static final double WIFI_RECOG_RATIO_THRESHOLD = .380952;
+	static final double RADIUS_THRESHOLD = 108;
 	private static final String VERSION = "1.4.7"; // newly retrained classifier
 	public static boolean wifiChecking = true;
 	public static boolean locationChecking = true;
 	
+	private boolean cascading = false;
+	private double cascadeMargin = 0;
+	private final CascadeStatistics cascadeStatistics = new CascadeStatistics();
+	private PlaceIndex placeIndex = null;
+	private int wifiSketchSize = 0;
+	private double wifiSimilarityThreshold = Double.NaN;
+	private DecisionTreeModel model = null;
+	private ClassificationCache cache = null;
+	private Resampler resampler = null;
+	private boolean gravityFeatures = false;
+	private boolean lowPower = false;
+	private final List<FeatureExtractor> builtInExtractors = Arrays.<FeatureExtractor>asList(
+			new SpeedExtractor(), new AccelerometerExtractor(), new FftExtractor(),
+			new WifiExtractor(), new LocationExtractor(), new GravityExtractor());
+	private final List<FeatureExtractor> featureExtractors = new ArrayList<FeatureExtractor>();
+	private volatile ModelPlan modelPlan = null;
+	private Executor featureExecutor = null;
+	private int featureExecutorMinSamples = 0;
+	private LoadShedder loadShedder = null;
+	private ClassificationListener listener = null;
+	
 	public static String getVersion() {
 		return VERSION;
 	}
 	
+	/**
+	 * The modes that have a compact code, indexed by it. Code 0 is no mode.
+	 */
+	private static final String[] MODE_CODES = { null, UNKNOWN, STILL, WALK, RUN, DRIVE };
+	
+	/**
+	 * Returns the compact code of a mode for fixed-width storage. Modes
+	 * without a code, such as those of a trained model, are unknown.
+	 */
+	static int getModeCode(String mode) {
+		if (mode == null) {
+			return 0;
+		}
+		for (int i = 1; i < MODE_CODES.length; i++) {
+			if (MODE_CODES[i].equals(mode)) {
+				return i;
+			}
+		}
+		return 1;
+	}
+	
+	/**
+	 * Returns the mode of a code from {@link #getModeCode(String)}.
+	 */
+	static String getMode(int code) {
+		if (code < 0 || code >= MODE_CODES.length) {
+			throw new IllegalArgumentException("Not a mode code: " + code);
+		}
+		return MODE_CODES[code];
+	}
+	
+	/**
+	 * Returns whether windows are classified one feature stage at a time,
+	 * skipping the stages that cannot change the mode.
+	 */
+	public boolean isCascading() {
+		return cascading;
+	}
+	
+	/**
+	 * Sets whether windows are classified one feature stage at a time. A
+	 * cascaded classification has the same mode as a full one, but only
+	 * windows whose variance is within the cascade margin of its threshold
+	 * get the FFT features, and only windows whose mode needs them get the
+	 * WiFi and location features. A window that skips the comparison of a
+	 * new scan or fix is marked, and the next window with the same scan or
+	 * fix makes it.
+	 */
+	public void setCascading(boolean cascading) {
+		this.cascading = cascading;
+	}
+	
+	public double getCascadeMargin() {
+		return cascadeMargin;
+	}
+	
+	/**
+	 * Sets how close the variance must be to its threshold for a cascaded
+	 * classification to calculate every feature.
+	 */
+	public void setCascadeMargin(double cascadeMargin) {
+		this.cascadeMargin = cascadeMargin;
+	}
+	
+	/**
+	 * Returns how often each stage of the cascade has been reached.
+	 */
+	public CascadeStatistics getCascadeStatistics() {
+		return cascadeStatistics;
+	}
+	
+	public DecisionTreeModel getModel() {
+		return model;
+	}
+	
+	/**
+	 * Sets a decision tree trained offline that decides the mode from the
+	 * features instead of the built-in thresholds. Windows are not cascaded
+	 * while a model is set, and only the features the model tests, with the
+	 * average and variance, are calculated. Null goes back to the built-in
+	 * thresholds.
+	 * 
+	 * @throws IllegalArgumentException The model tests a feature that no
+	 * 									extractor calculates.
+	 */
+	public void setModel(DecisionTreeModel model) {
+		this.modelPlan = (model == null) ? null : new ModelPlan(model, getAllExtractors(featureExtractors));
+		this.model = model;
+	}
+	
+	/**
+	 * Returns the plan of the feature extractors that are run for the model,
+	 * or null if no model is set.
+	 */
+	public FeaturePlan getFeaturePlan() {
+		ModelPlan modelPlan = this.modelPlan;
+		return (modelPlan == null) ? null : modelPlan.plan;
+	}
+	
+	/**
+	 * Returns the feature extractors registered in addition to the built-in
+	 * ones.
+	 */
+	public List<FeatureExtractor> getFeatureExtractors() {
+		return Collections.unmodifiableList(new ArrayList<FeatureExtractor>(featureExtractors));
+	}
+	
+	/**
+	 * Registers an extractor of features that a model can test in addition
+	 * to the built-in {@link DecisionTreeModel#FEATURE_NAMES}, such as those
+	 * of a new sensor. It is only run for windows classified by a model that
+	 * needs its features. Extractors are registered before windows are
+	 * classified.
+	 * 
+	 * @throws IllegalArgumentException The extractor calculates a feature
+	 * 									that another extractor calculates.
+	 */
+	public void addFeatureExtractor(FeatureExtractor extractor) {
+		if (extractor == null) {
+			throw new IllegalArgumentException("The extractor is null");
+		}
+		List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>(featureExtractors);
+		extractors.add(extractor);
+		setFeatureExtractors(extractors);
+	}
+	
+	/**
+	 * Unregisters a feature extractor.
+	 * 
+	 * @return Whether the extractor was registered.
+	 * 
+	 * @throws IllegalArgumentException The model tests a feature of the
+	 * 									extractor.
+	 */
+	public boolean removeFeatureExtractor(FeatureExtractor extractor) {
+		List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>(featureExtractors);
+		if (! extractors.remove(extractor)) {
+			return false;
+		}
+		setFeatureExtractors(extractors);
+		return true;
+	}
+	
+	private void setFeatureExtractors(List<FeatureExtractor> extractors) {
+		List<FeatureExtractor> all = getAllExtractors(extractors);
+		new FeaturePlan(all, Collections.<String>emptySet()); // checks that no feature is calculated twice
+		ModelPlan modelPlan = (model == null) ? null : new ModelPlan(model, all);
+		featureExtractors.clear();
+		featureExtractors.addAll(extractors);
+		this.modelPlan = modelPlan;
+	}
+	
+	private List<FeatureExtractor> getAllExtractors(List<FeatureExtractor> extractors) {
+		List<FeatureExtractor> all = new ArrayList<FeatureExtractor>(builtInExtractors);
+		all.addAll(extractors);
+		return all;
+	}
+	
+	public Executor getFeatureExecutor() {
+		return featureExecutor;
+	}
+	
+	public int getFeatureExecutorMinSamples() {
+		return featureExecutorMinSamples;
+	}
+	
+	/**
+	 * Sets where independent feature extractors, such as the WiFi and
+	 * accelerometer ones, run at the same time for windows classified by a
+	 * model. Small windows are quicker in one thread.
+	 * 
+	 * @param executor Where the extractors run, or null to run them in the
+	 * 				   classifying thread.
+	 * 
+	 * @param minSamples The number of samples from which a window's
+	 * 					 extractors run at the same time.
+	 */
+	public void setFeatureExecutor(Executor executor, int minSamples) {
+		if (minSamples < 0) {
+			throw new IllegalArgumentException("The minimum number of samples is negative");
+		}
+		this.featureExecutor = executor;
+		this.featureExecutorMinSamples = minSamples;
+	}
+	
+	public int getWifiSketchSize() {
+		return wifiSketchSize;
+	}
+	
+	/**
+	 * Sets the size of the MinHash signatures used to estimate how many
+	 * access points a scan shares with the recent scans. The default of 0
+	 * compares the SSIDs exactly; larger signatures are more accurate.
+	 */
+	public void setWifiSketchSize(int wifiSketchSize) {
+		this.wifiSketchSize = wifiSketchSize;
+	}
+	
+	public double getWifiSimilarityThreshold() {
+		return wifiSimilarityThreshold;
+	}
+	
+	/**
+	 * Sets the weighted Jaccard similarity of a scan to the recent scans, by
+	 * {@link WifiFingerprint}, at or below which the WiFi mode is drive and
+	 * above which it is still. A window below the variance threshold is then
+	 * a drive if its WiFi mode is, instead of by the number of strong access
+	 * points it shares with the recent scans, so every access point counts
+	 * by its strength. The WiFi totals still count the strong access points,
+	 * from the same comparison of fingerprints, and no sketch is used.
+	 * On generated traces, 0.15 kept still and drive apart. The default of
+	 * NaN decides by the strong access points.
+	 */
+	public void setWifiSimilarityThreshold(double wifiSimilarityThreshold) {
+		this.wifiSimilarityThreshold = wifiSimilarityThreshold;
+	}
+	
+	public PlaceIndex getPlaceIndex() {
+		return placeIndex;
+	}
+	
+	/**
+	 * Sets the index of known places that Wi-Fi scans are matched against
+	 * before they are compared to the recent scans. A recognized scan is
+	 * still, its WiFi features count its strong access points and those of
+	 * them known at the place, as they count those known from the recent
+	 * scans, and the location check is skipped. Null turns place
+	 * recognition off.
+	 */
+	public void setPlaceIndex(PlaceIndex placeIndex) {
+		this.placeIndex = placeIndex;
+	}
+	
+	/**
+	 * Returns the rate windows are resampled to, or 0 if they are not.
+	 */
+	public double getCanonicalRate() {
+		return (resampler == null) ? 0 : resampler.getRate();
+	}
+	
+	/**
+	 * Sets the rate in samples per second that windows of timestamped samples
+	 * are resampled to before their features are calculated. The FFT of a
+	 * resampled window is then taken at 1 to 10 Hz whatever the rate of the
+	 * device, instead of at 1 to 10 cycles per window. Windows with samples
+	 * that have no time are not resampled. 0, the default, turns resampling
+	 * off.
+	 */
+	public void setCanonicalRate(double canonicalRate) {
+		this.resampler = (canonicalRate == 0) ? null : new Resampler(canonicalRate);
+	}
+	
+	public boolean isGravityFeatures() {
+		return gravityFeatures;
+	}
+	
+	/**
+	 * Sets whether windows also get the variance of the acceleration along
+	 * and across gravity, from a {@link GravityFilter} over the raw samples.
+	 * They are features for a model; the built-in thresholds do not use them.
+	 * A model that tests them gets them whatever this is set to.
+	 */
+	public void setGravityFeatures(boolean gravityFeatures) {
+		this.gravityFeatures = gravityFeatures;
+	}
+	
+	public boolean isLowPower() {
+		return lowPower;
+	}
+	
+	/**
+	 * Sets whether the accelerometer features of a window are calculated in
+	 * float arithmetic by a {@link FloatKernel}, which costs a phone less
+	 * battery. The features then agree with the double path to about six
+	 * digits and the modes are the same: a window whose variance is too
+	 * close to its threshold to tell is calculated again in double. Only
+	 * windows classified one at a time by the built-in thresholds, without
+	 * cascading or resampling, use it.
+	 */
+	public void setLowPower(boolean lowPower) {
+		this.lowPower = lowPower;
+	}
+	
+	public LoadShedder getLoadShedder() {
+		return loadShedder;
+	}
+	
+	/**
+	 * Sets what picks the tier of each window under load, so that windows
+	 * skip the FFT features and the WiFi and location decisions when there is
+	 * no time for them. A shed window goes through the stages of the cascade
+	 * up to its tier, and its tier is recorded on its classification. The
+	 * comparisons it skips are marked as in a cascade, and made by the next
+	 * window with the same scan or fix. Windows classified by a model or as
+	 * a batch are not shed. Null classifies every window in full.
+	 */
+	public void setLoadShedder(LoadShedder loadShedder) {
+		this.loadShedder = loadShedder;
+	}
+	
+	public ClassificationListener getClassificationListener() {
+		return listener;
+	}
+	
+	/**
+	 * Sets what is told about every window that is classified and the time
+	 * its stages took, such as a profiler. Without one, nothing is timed.
+	 * Null turns reporting off.
+	 */
+	public void setClassificationListener(ClassificationListener listener) {
+		this.listener = listener;
+	}
+	
+	public ClassificationCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Sets a cache of recent classifications that is checked before a window
+	 * is classified, so that a window that is sent again gets the same
+	 * classification without the work. A cache may be shared by classifiers.
+	 * While a place index is set, a cached classification does not see places
+	 * learned after it was cached. Null turns caching off.
+	 */
+	public void setCache(ClassificationCache cache) {
+		this.cache = cache;
+	}
+	
 	/**
 	 * Takes the raw sensor values and returns a classification object with the
 	 * transport mode and, when applicable, features.
 	 */
 	public Classification classify(List<Sample> accelValues, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, Classification lastClassification) {
+		ClassificationCache cache = this.cache;
+		if (cache == null) {
+			return classifyWithin(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, null, lastClassification, null, Long.MAX_VALUE);
+		}
+		long fingerprint = ClassificationCache.fingerprint(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, lastClassification, getSettingsHash());
+		Classification classification = cache.get(fingerprint);
+		if (classification == null) {
+			classification = classifyWithin(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, null, lastClassification, null, Long.MAX_VALUE);
+			if (Classification.TIER_FULL.equals(classification.getTier())) {
+				cache.put(fingerprint, classification);
+			}
+		}
+		return classification;
+	}
+	
+	/**
+	 * Takes the raw sensor values and returns a classification object with the
+	 * transport mode and, when applicable, features. The location features come
+	 * from a tracker that the caller has already updated with the current fix,
+	 * instead of a comparison with the whole location history.
+	 */
+	public Classification classify(List<Sample> accelValues, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, LocationTracker locationTracker, Classification lastClassification) {
+		if (locationTracker == null) {
+			throw new IllegalArgumentException("A location tracker is required");
+		}
+		return classifyWithin(accelValues, speed, wifiScan, lastWifiScans, null, null, locationTracker, lastClassification, null, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Classifies a window that may also carry the data of other sensors for
+	 * the registered feature extractors. The classification is not cached.
+	 */
+	public Classification classify(SensorWindow window) {
+		return classify(window, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Classifies a window that may also carry the data of other sensors, in
+	 * no more than about the given time. While a load shedder is set, the
+	 * window is classified at the richest tier expected to fit the budget;
+	 * otherwise the budget is ignored. The classification is not cached.
+	 * 
+	 * @param budgetNanos How long the window may take to classify.
+	 */
+	public Classification classify(SensorWindow window, long budgetNanos) {
+		return classifyWithin(window.getSamples(), window.getSpeed(), window.getWifiScan(), window.getLastWifiScans(), window.getLocation(), window.getHistLocs(), null, window.getLastClassification(), window, budgetNanos);
+	}
+	
+	/**
+	 * Picks the tier of a window from the load shedder, if there is one, and
+	 * tells it and the listener how long the window took.
+	 */
+	private Classification classifyWithin(List<Sample> accelValues, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification, SensorWindow input, long budgetNanos) {
+		LoadShedder loadShedder = (modelPlan == null) ? this.loadShedder : null;
+		ClassificationListener listener = this.listener;
+		if (loadShedder == null && listener == null) {
+			return classify(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, locationTracker, lastClassification, input, Classification.TIER_FULL);
+		}
+		String tier = (loadShedder == null) ? Classification.TIER_FULL : loadShedder.getTier(budgetNanos);
+		SensorWindow window = input;
+		if (listener != null) {
+			if (window == null) {
+				window = new SensorWindow(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, lastClassification);
+			}
+			listener.classifying(window);
+		}
+		long start = System.nanoTime();
+		Classification classification = classify(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, locationTracker, lastClassification, input, tier);
+		long nanos = System.nanoTime() - start;
+		if (loadShedder != null) {
+			loadShedder.record(tier, nanos);
+		}
+		if (listener != null) {
+			listener.classified(window, classification, nanos);
+		}
+		return classification;
+	}
+	
+	/**
+	 * Tells the listener, if there is one, that a stage starts, and returns
+	 * the time it starts.
+	 */
+	private static long startStage(ClassificationListener listener, String stage) {
+		if (listener == null) {
+			return 0;
+		}
+		listener.stageStarted(stage);
+		return System.nanoTime();
+	}
+	
+	/**
+	 * @param input The window of a caller with data of other sensors, or null
+	 * @param tier The tier of the window, which is full with a model
+	 */
+	private Classification classify(List<Sample> accelValues, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification, SensorWindow input, String tier) {
+		ModelPlan modelPlan = this.modelPlan;
+		if (lowPower && modelPlan == null && model == null && ! cascading && resampler == null && Classification.TIER_FULL.equals(tier) && accelValues.size() > MIN_SAMPLES) {
+			ClassificationListener listener = this.listener;
+			long start = startStage(listener, ClassificationListener.STAGE_FEATURES);
+			FloatKernel kernel = new FloatKernel(accelValues);
+			if (listener != null) {
+				listener.stageFinished(ClassificationListener.STAGE_FEATURES, System.nanoTime() - start);
+			}
+			if (! kernel.isNear(VARIANCE_THRESHOLD)) {
+				if (speed < 0)
+					speed = Double.NaN;
+				GravityFilter gravity = null;
+				if (gravityFeatures) {
+					gravity = new GravityFilter();
+					gravity.update(accelValues);
+				}
+				return getTransportMode(kernel.getAverage(), kernel.getVariance(), kernel.getFft(), gravity, speed, wifiScan, lastWifiScans, currLoc, histLocs, locationTracker, getLastClassification(lastClassification));
+			}
+		}
 		// Convert from triaxial to single magnitude ArrayList in gravity units
 		ArrayList<Double> magnitudes = new ArrayList<Double>();
 		if (speed < 0)
@@ -52,6 +529,113 @@ public class MobilityClassifier {
 		for (Sample sample : accelValues) {
 			magnitudes.add(getMagnitude(sample));
 		}
+		double sampleRate = magnitudes.size(); // without times, a window is taken to be a second long
+		Resampler resampler = this.resampler;
+		if (resampler != null) {
+			ArrayList<Double> resampled = resample(resampler, accelValues, magnitudes);
+			if (resampled != null) {
+				magnitudes = resampled;
+				sampleRate = resampler.getRate();
+			}
+		}
+		GravityFilter gravity = null;
+		if (gravityFeatures && modelPlan == null) {
+			gravity = new GravityFilter();
+			gravity.update(accelValues);
+		}
+		lastClassification = getLastClassification(lastClassification);
+		if (modelPlan != null && magnitudes.size() > MIN_SAMPLES) {
+			SensorWindow window = new SensorWindow(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, lastClassification);
+			if (input != null) {
+				window.putExtras(input);
+			}
+			window.setMagnitudes(magnitudes, sampleRate);
+			window.setLocationTracker(locationTracker);
+			return getModelTransportMode(modelPlan, window);
+		}
+		return getTransportMode(magnitudes, sampleRate, gravity, speed, wifiScan, lastWifiScans, currLoc, histLocs, locationTracker, lastClassification, tier);
+	}
+
+	/**
+	 * Classifies many windows at once, such as those of an offline job. The
+	 * accelerometer features of windows with the same number of samples are
+	 * calculated side by side by a {@link BatchKernel}; the rest of each
+	 * classification is as by {@link #classify(SensorWindow)}, and so is the
+	 * whole of it while a model is set, cascading or resampling.
+	 * 
+	 * @param windows The windows, each with its own history.
+	 * 
+	 * @return The classification of each window, in order.
+	 */
+	public List<Classification> classifyAll(List<SensorWindow> windows) {
+		Classification[] classifications = new Classification[windows.size()];
+		Map<Integer, List<Integer>> lengths = new LinkedHashMap<Integer, List<Integer>>();
+		boolean batching = modelPlan == null && ! cascading && resampler == null && loadShedder == null;
+		for (int i = 0; i < classifications.length; i++) {
+			int length = windows.get(i).getSamples().size();
+			if (! batching || length <= MIN_SAMPLES) {
+				classifications[i] = classify(windows.get(i));
+				continue;
+			}
+			List<Integer> indices = lengths.get(length);
+			if (indices == null) {
+				indices = new ArrayList<Integer>();
+				lengths.put(length, indices);
+			}
+			indices.add(i);
+		}
+		
+		for (Map.Entry<Integer, List<Integer>> entry : lengths.entrySet()) {
+			List<Integer> indices = entry.getValue();
+			if (indices.size() == 1) {
+				classifications[indices.get(0)] = classify(windows.get(indices.get(0)));
+				continue;
+			}
+			int length = entry.getKey();
+			BatchKernel kernel = new BatchKernel(Math.min(BATCH_WINDOWS, indices.size()), length);
+			for (int start = 0; start < indices.size(); start += kernel.getCapacity()) {
+				int end = Math.min(start + kernel.getCapacity(), indices.size());
+				kernel.clear();
+				for (int i = start; i < end; i++) {
+					kernel.add(windows.get(indices.get(i)).getSamples());
+				}
+				ClassificationListener listener = this.listener;
+				long kernelStart = startStage(listener, ClassificationListener.STAGE_FEATURES);
+				kernel.run(length); // without times, a window is taken to be a second long
+				if (listener != null) {
+					listener.stageFinished(ClassificationListener.STAGE_FEATURES, System.nanoTime() - kernelStart);
+				}
+				for (int i = start; i < end; i++) {
+					SensorWindow window = windows.get(indices.get(i));
+					long windowStart = 0;
+					if (listener != null) {
+						listener.classifying(window);
+						windowStart = System.nanoTime();
+					}
+					int k = i - start;
+					Double speed = window.getSpeed();
+					if (speed < 0)
+						speed = Double.NaN;
+					GravityFilter gravity = null;
+					if (gravityFeatures) {
+						gravity = new GravityFilter();
+						gravity.update(window.getSamples());
+					}
+					classifications[indices.get(i)] = getTransportMode(kernel.getAverage(k), kernel.getVariance(k), kernel.getFft(k), gravity, speed, window.getWifiScan(), window.getLastWifiScans(), window.getLocation(), window.getHistLocs(), null, getLastClassification(window.getLastClassification()));
+					if (listener != null) {
+						listener.classified(window, classifications[indices.get(i)], System.nanoTime() - windowStart);
+					}
+				}
+			}
+		}
+		return Arrays.asList(classifications);
+	}
+	
+	/**
+	 * Returns the previous classification with only the WiFi and location
+	 * modes the checks expect, or an unknown one if there is none.
+	 */
+	private static Classification getLastClassification(Classification lastClassification) {
 		if (lastClassification == null)
 		{
 			lastClassification = new Classification();
@@ -70,30 +654,312 @@ public class MobilityClassifier {
 		if (! lastClassification.getLocationMode().equals(STILL) && ! lastClassification.getLocationMode().equals(DRIVE)) {
 			lastClassification.setLocationMode(UNKNOWN); // Not allowing any aberrant values for this
 		}
-		return getTransportMode(magnitudes, speed, wifiScan, lastWifiScans, currLoc, histLocs, lastClassification);
+		return lastClassification;
+	}
+	
+	/**
+	 * Brings the magnitudes of a window to the rate of the resampler. Samples
+	 * that are not later than the one before are dropped.
+	 * @return The resampled magnitudes, or null if a sample has no time
+	 */
+	private static ArrayList<Double> resample(Resampler resampler, List<Sample> accelValues, ArrayList<Double> magnitudes) {
+		int size = accelValues.size();
+		long[] times = new long[size];
+		double[] values = new double[size];
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			Sample sample = accelValues.get(i);
+			if (! sample.hasTime()) {
+				return null;
+			}
+			if (count == 0 || sample.getTime() > times[count - 1]) {
+				times[count] = sample.getTime();
+				values[count] = magnitudes.get(i);
+				count++;
+			}
+		}
+		double[] output = resampler.resample(times, values, count);
+		ArrayList<Double> resampled = new ArrayList<Double>(output.length);
+		for (double value : output) {
+			resampled.add(value);
+		}
+		return resampled;
 	}
 
 	/**
 	 * Calculates features (both in Android and N95 units) and calls the classifier.
 	 * @param magnitudes
+	 * @param sampleRate The samples per second of the magnitudes
+	 * @param gravity The filtered window, or null without gravity features
 	 * @param speed
+	 * @param tier The tier of the window
 	 * @return Classification with mode, and, if they were calculated, features
 	 */
-	private Classification getTransportMode(ArrayList<Double> magnitudes, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, Classification lastClassification)
+	private Classification getTransportMode(ArrayList<Double> magnitudes, double sampleRate, GravityFilter gravity, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification, String tier)
 	{
 		double dataSize = magnitudes.size();
 		Classification classification = new Classification();
 		
 		// If there are not enough samples for feature calculation, the phone must be still
-		if (dataSize <= 10) {
+		if (dataSize <= MIN_SAMPLES) {
 			classification.setHasFeatures(false);
 			classification.setMode(STILL);
 			return classification;
 		}
 		
-		Classification wifiClassification, locationClassification;
+		if ((cascading && model == null) || ! Classification.TIER_FULL.equals(tier)) {
+			return getCascadedTransportMode(magnitudes, sampleRate, gravity, speed, wifiScan, lastWifiScans, currLoc, histLocs, locationTracker, lastClassification, tier);
+		}
+		
+		ClassificationListener listener = this.listener;
+		long start = startStage(listener, ClassificationListener.STAGE_FEATURES);
+		double average = getAverage(magnitudes, dataSize);
+		double variance = getVariance(magnitudes, average, dataSize);
+		ArrayList<Double> fft = getFft(magnitudes, sampleRate);
+		if (listener != null) {
+			listener.stageFinished(ClassificationListener.STAGE_FEATURES, System.nanoTime() - start);
+		}
+
+//		for (int i = 0; i < dataSize; i++) {
+//			magnitudes.set(i, magnitudes.get(i) * 310.); // convert to N95 units
+//		}
+
+		return getTransportMode(average, variance, fft, gravity, speed, wifiScan, lastWifiScans, currLoc, histLocs, locationTracker, lastClassification);
+	}
+	
+	/**
+	 * Adds the WiFi and location features to the accelerometer features of a
+	 * window and calls the classifier.
+	 * @return Classification with mode and features
+	 */
+	private Classification getTransportMode(double average, double variance, ArrayList<Double> fft, GravityFilter gravity, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification)
+	{
+		Classification classification = new Classification();
+		classification.updateWifi(getWifiClassification(wifiScan, lastWifiScans, lastClassification));
+		classification.updateLocation(getLocationClassification(currLoc, histLocs, locationTracker, lastClassification, classification));
 		
-		if (wifiScan != null) {
+		classification.setAverage(average);
+		classification.setVariance(variance);
+		classification.setFft(fft);
+		addGravityFeatures(classification, gravity);
+		
+		String activity = activity(speed,average,variance, fft.get(0), fft.get(1), fft.get(2), fft.get(3), fft.get(4), fft.get(5), fft.get(6), fft.get(7), fft.get(8), fft.get(9), classification);
+		
+//		if (wifiChecking && ! classification.getWifiMode().equals(UNKNOWN)) {
+//			if (activity.equals(DRIVE) || activity.equals(STILL)) {
+//				activity = classification.getWifiMode(); // The other classifier is rubbish for still/drive; just use WiFi result if there is one
+//			}
+//		}
+//		if (locationChecking && !classification.getLocationMode().equals(UNKNOWN)) {
+//			if (activity.equals(DRIVE) || activity.equals(STILL)) {
+//				activity = classification.getLocationMode(); // Sometimes Wi-Fi is not enough. TODO update this after using weka
+//			}
+//		}
+		
+		classification.setMode(activity);
+		classification.setHasFeatures(true);
+		return classification;
+	}
+	
+	/**
+	 * Runs the extractors of the features the model needs and lets the model
+	 * decide the mode. Extractors that are independent of each other run at
+	 * the same time when the window is large enough and there is an executor.
+	 * @return Classification with mode and the features that were calculated
+	 */
+	private Classification getModelTransportMode(ModelPlan modelPlan, SensorWindow window)
+	{
+		Classification classification = new Classification();
+		window.setClassification(classification);
+		Executor executor = (window.getMagnitudes().size() >= featureExecutorMinSamples) ? featureExecutor : null;
+		ClassificationListener listener = this.listener;
+		long start = startStage(listener, ClassificationListener.STAGE_FEATURES);
+		FeatureVector features = modelPlan.plan.extract(window, executor);
+		if (listener != null) {
+			listener.stageFinished(ClassificationListener.STAGE_FEATURES, System.nanoTime() - start);
+		}
+		classification.setMode(modelPlan.model.classify(features.select(modelPlan.indices)));
+		classification.setHasFeatures(true);
+		return classification;
+	}
+	
+	/**
+	 * Runs the decision logic one feature stage at a time and stops as soon
+	 * as the remaining stages cannot change the mode. Variance alone decides
+	 * a walk, a WiFi drive decision does not need the location, and the FFT
+	 * is only calculated when the variance is within the cascade margin of
+	 * its threshold. The features of a skipped stage are left unset; see
+	 * {@link #skipWifi} and {@link #skipLocation}. Below the full tier, the
+	 * stages after the tier are skipped and a window that is not a walk or a
+	 * WiFi drive by then is still.
+	 * @param tier The tier of the window
+	 * @return Classification with mode and the features that were calculated
+	 */
+	private Classification getCascadedTransportMode(ArrayList<Double> magnitudes, double sampleRate, GravityFilter gravity, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification, String tier)
+	{
+		double dataSize = magnitudes.size();
+		Classification classification = new Classification();
+		classification.setTier(tier);
+		boolean full = Classification.TIER_FULL.equals(tier);
+		ClassificationListener listener = this.listener;
+		
+		long start = startStage(listener, ClassificationListener.STAGE_FEATURES);
+		double average = getAverage(magnitudes, dataSize);
+		double variance = getVariance(magnitudes, average, dataSize);
+		if (listener != null) {
+			listener.stageFinished(ClassificationListener.STAGE_FEATURES, System.nanoTime() - start);
+		}
+		classification.setAverage(average);
+		classification.setVariance(variance);
+		classification.setHasFeatures(true);
+		addGravityFeatures(classification, gravity);
+		cascadeStatistics.reachedVariance();
+		
+		if (full && Math.abs(variance - VARIANCE_THRESHOLD) <= cascadeMargin) {
+			cascadeStatistics.reachedFft();
+			cascadeStatistics.reachedWifi();
+			cascadeStatistics.reachedLocation();
+			classification.updateWifi(getWifiClassification(wifiScan, lastWifiScans, lastClassification));
+			classification.updateLocation(getLocationClassification(currLoc, histLocs, locationTracker, lastClassification, classification));
+			start = startStage(listener, ClassificationListener.STAGE_FEATURES);
+			ArrayList<Double> fft = getFft(magnitudes, sampleRate);
+			if (listener != null) {
+				listener.stageFinished(ClassificationListener.STAGE_FEATURES, System.nanoTime() - start);
+			}
+			classification.setFft(fft);
+			classification.setMode(activity(speed,average,variance, fft.get(0), fft.get(1), fft.get(2), fft.get(3), fft.get(4), fft.get(5), fft.get(6), fft.get(7), fft.get(8), fft.get(9), classification));
+			return classification;
+		}
+		
+		if (variance > VARIANCE_THRESHOLD) {
+			skipWifi(classification, wifiScan, lastWifiScans, lastClassification);
+			skipLocation(classification, currLoc, histLocs, locationTracker, lastClassification);
+			classification.setMode(WALK);
+			return classification;
+		}
+		
+		if (Classification.TIER_VARIANCE.equals(tier)) {
+			skipWifi(classification, wifiScan, lastWifiScans, lastClassification);
+			skipLocation(classification, currLoc, histLocs, locationTracker, lastClassification);
+			classification.setMode(STILL);
+			return classification;
+		}
+		
+		cascadeStatistics.reachedWifi();
+		classification.updateWifi(getWifiClassification(wifiScan, lastWifiScans, lastClassification));
+		if (isWifiDrive(classification)) {
+			skipLocation(classification, currLoc, histLocs, locationTracker, lastClassification);
+			classification.setMode(DRIVE);
+			return classification;
+		}
+		
+		if (classification.getPlace() != null || ! full) {
+			skipLocation(classification, currLoc, histLocs, locationTracker, lastClassification);
+			classification.setMode(STILL);
+			return classification;
+		}
+		
+		cascadeStatistics.reachedLocation();
+		classification.updateLocation(getLocationClassification(currLoc, histLocs, locationTracker, lastClassification, classification));
+		classification.setMode(classification.getRadius() > RADIUS_THRESHOLD ? DRIVE : STILL);
+		return classification;
+	}
+	
+	/**
+	 * Leaves the WiFi features of a window unset without comparing its scan.
+	 * A scan the last window compared is copied from it, as the full path
+	 * would; a new one is marked, and the next window with the same scan
+	 * compares it with the scans before it.
+	 */
+	private void skipWifi(Classification classification, WifiScan wifiScan, List<WifiScan> lastWifiScans, Classification lastClassification) {
+		if (wifiScan == null) {
+			return;
+		}
+		if (lastWifiScans != null && lastWifiScans.size() > 0
+				&& lastWifiScans.get(lastWifiScans.size() - 1).getTime().longValue() == wifiScan.getTime().longValue()
+				&& ! lastClassification.isWifiSkipped()) {
+			classification.updateWifi(lastClassification);
+			return;
+		}
+		classification.setWifiSkipped(true);
+	}
+	
+	/**
+	 * Leaves the location features of a window unset without comparing its
+	 * fix, as {@link #skipWifi} does for the scan. A new fix is compared at
+	 * once only if adding it to the history drops some of the fixes the
+	 * comparison needs, so that the next window could not make it.
+	 */
+	private void skipLocation(Classification classification, Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification) {
+		if (locationTracker != null) {
+			return; // the tracker is asked afresh by every window
+		}
+		if (currLoc == null || classification.getPlace() != null) {
+			classification.setLocationMode(UNKNOWN);
+			return;
+		}
+		if (histLocs != null && histLocs.size() > 0) {
+			long time = currLoc.getTime();
+			long lastTime = histLocs.get(histLocs.size() - 1).getTime();
+			if (lastTime == time) {
+				if (lastClassification.isLocationSkipped()) {
+					classification.setLocationSkipped(true);
+				}
+				else {
+					classification.updateLocation(lastClassification);
+				}
+				return;
+			}
+			if (histLocs.get(0).getTime() < time - LOC_THRESHOLD_MILLIS && lastTime >= time - LOC_THRESHOLD_MILLIS) {
+				cascadeStatistics.reachedLocation();
+				classification.updateLocation(getLocationClassification(currLoc, histLocs, null, lastClassification, classification));
+				return;
+			}
+		}
+		classification.setLocationSkipped(true);
+	}
+	
+	/**
+	 * Returns the scans of a history, which is in time order, that are older
+	 * than a time.
+	 */
+	private static List<WifiScan> getScansBefore(List<WifiScan> lastWifiScans, long time) {
+		int end = lastWifiScans.size();
+		while (end > 0 && lastWifiScans.get(end - 1).getTime().longValue() >= time) {
+			end--;
+		}
+		return lastWifiScans.subList(0, end);
+	}
+	
+	/**
+	 * Returns the fixes of a history, which is in time order, that are older
+	 * than a time.
+	 */
+	private static List<Location> getFixesBefore(List<Location> histLocs, long time) {
+		int end = histLocs.size();
+		while (end > 0 && histLocs.get(end - 1).getTime() >= time) {
+			end--;
+		}
+		return histLocs.subList(0, end);
+	}
+	
+	private Classification getWifiClassification(WifiScan wifiScan, List<WifiScan> lastWifiScans, Classification lastClassification) {
+		ClassificationListener listener = this.listener;
+		long start = startStage(listener, ClassificationListener.STAGE_WIFI);
+		Classification wifiClassification;
+		PlaceMatch match = null;
+		if (wifiScan != null && placeIndex != null) {
+			match = placeIndex.recognize(wifiScan);
+		}
+		
+		if (match != null) {
+			wifiClassification = new Classification();
+			wifiClassification.setWifiMode(STILL);
+			wifiClassification.setWifiTotal(match.getTotal());
+			wifiClassification.setWifiRecogTotal(match.getRecognized());
+			wifiClassification.setPlace(match.getPlaceId());
+		}
+		else if (wifiScan != null) {
 			if (lastWifiScans == null || lastWifiScans.size() == 0) {
 				wifiClassification = checkWifi(wifiScan, null, lastClassification);
 			}
@@ -106,8 +972,21 @@ public class MobilityClassifier {
 			wifiClassification = new Classification();
 			wifiClassification.setMode(UNKNOWN);
 		}
-		
-		if (currLoc != null)
+		if (listener != null) {
+			listener.stageFinished(ClassificationListener.STAGE_WIFI, System.nanoTime() - start);
+		}
+		return wifiClassification;
+	}
+	
+	private Classification getLocationClassification(Location currLoc, ArrayList<Location> histLocs, LocationTracker locationTracker, Classification lastClassification, Classification classification) {
+		ClassificationListener listener = this.listener;
+		long start = startStage(listener, ClassificationListener.STAGE_LOCATION);
+		Classification locationClassification;
+		if (locationTracker != null && classification.getPlace() == null)
+		{
+			locationClassification = checkLocation(locationTracker);
+		}
+		else if (currLoc != null && classification.getPlace() == null)
 		{
 			if (histLocs == null || histLocs.size() == 0) {
 				locationClassification = checkLocation(currLoc, null, lastClassification);
@@ -121,68 +1000,47 @@ public class MobilityClassifier {
 			locationClassification = new Classification();
 			locationClassification.setLocationMode(UNKNOWN);
 		}
-		classification.updateWifi(wifiClassification);
-		classification.updateLocation(locationClassification);
-		
-		
-		
-		double sum = 0.0;
-		double average = 0.0;
-		double variance = 0.0;
-
-		ArrayList<Double> fft = new ArrayList<Double>(10);
-
-		for(int i  = 1; i <= 10; i++) {
-			fft.add(goertzel(magnitudes, (double) i, dataSize));
+		if (listener != null) {
+			listener.stageFinished(ClassificationListener.STAGE_LOCATION, System.nanoTime() - start);
 		}
-
+		return locationClassification;
+	}
+	
+	private double getAverage(List<Double> magnitudes, double dataSize) {
+		double sum = 0.0;
 		for (int i = 0; i < dataSize; i++) {
 			sum += magnitudes.get(i);
 		}
-		average = sum / dataSize;
-		sum = 0.0;
+		return sum / dataSize;
+	}
+	
+	private double getVariance(List<Double> magnitudes, double average, double dataSize) {
+		double sum = 0.0;
 		for (int i = 0; i < dataSize; i++) {
 			sum += Math.pow((magnitudes.get(i) - average), 2.0);
 		}
-
-		variance = sum / dataSize;
-
-//		for (int i = 0; i < dataSize; i++) {
-//			magnitudes.set(i, magnitudes.get(i) * 310.); // convert to N95 units
-//		}
-
-//		for (int i = 0; i < dataSize; i++) {
-//			magnitudes.get(i);
-//		}
-
-		String activity = activity(speed,average,variance, fft.get(0), fft.get(1), fft.get(2), fft.get(3), fft.get(4), fft.get(5), fft.get(6), fft.get(7), fft.get(8), fft.get(9), classification);
-		
-//		if (wifiChecking && ! classification.getWifiMode().equals(UNKNOWN)) {
-//			if (activity.equals(DRIVE) || activity.equals(STILL)) {
-//				activity = classification.getWifiMode(); // The other classifier is rubbish for still/drive; just use WiFi result if there is one
-//			}
-//		}
-//		if (locationChecking && !classification.getLocationMode().equals(UNKNOWN)) {
-//			if (activity.equals(DRIVE) || activity.equals(STILL)) {
-//				activity = classification.getLocationMode(); // Sometimes Wi-Fi is not enough. TODO update this after using weka
-//			}
-//		}
-		
-		classification.setMode(activity);
-		classification.setAverage(average);
-		classification.setVariance(variance);
-		classification.setFft(fft);
-		classification.setHasFeatures(true);
-		return classification;
+		return sum / dataSize;
+	}
+	
+	private ArrayList<Double> getFft(List<Double> magnitudes, double sampleRate) {
+		ArrayList<Double> fft = new ArrayList<Double>(10);
+		for(int i  = 1; i <= 10; i++) {
+			fft.add(goertzel(magnitudes, (double) i, sampleRate));
+		}
+		return fft;
 	}
 
 	private Classification checkLocation(Location currLoc,
-			ArrayList<Location> histLocs, Classification lastClassification) {
+			List<Location> histLocs, Classification lastClassification) {
 		long time = currLoc.getTime();
 		Classification lc = new Classification();
 		if (histLocs != null && histLocs.size() > 0) {
 			long lastTime = histLocs.get(histLocs.size() - 1).getTime();
 			if (lastTime == time) {
+				if (lastClassification.isLocationSkipped()) {
+					// The last window did not compare this fix, so it is compared now with the fixes before it
+					return checkLocation(currLoc, getFixesBefore(histLocs, time), lastClassification);
+				}
 				lc.updateLocation(lastClassification);
 				return lc;
 			}
@@ -208,22 +1066,11 @@ public class MobilityClassifier {
 //			List<String> currentLocList = getSSIDList(wifiScan.getAccessPoints());
 			
 			// Compare to the access points from last time
-			double maxDist = 0;
 			double travelled = Distance(currLoc, histLocs.get(0));
 //			List<Double> speeds = new ArrayList<Double>();
 //			List<Location> othersSoFar = new ArrayList<Location>();
 			// Now we can do the comparison
-//			Location prev = null;
-			for (Location loc1 : histLocs) {
-//				if (prev != null)
-					
-				for (Location loc2 : histLocs)
-				{
-					double dist = Distance(loc1, loc2);
-					if (dist > maxDist)
-						maxDist = dist;
-				}
-			}
+			double maxDist = getMaxDistance(histLocs);
 			double radius = maxDist / 2; // not used, see next part
 			
 			
@@ -264,14 +1111,68 @@ public class MobilityClassifier {
 
 	
 
-	private double Distance(Location loc1, Location loc2) {
+	/**
+	 * Takes the radius and distance travelled from a tracker that keeps them
+	 * up to date as fixes arrive.
+	 */
+	private Classification checkLocation(LocationTracker locationTracker) {
+		Classification lc = new Classification();
+		lc.setRadius(locationTracker.getRadius());
+		lc.setTravelled(locationTracker.getTravelled());
+		lc.setLocationMode(UNKNOWN);
+		return lc;
+	}
+	
+	static double Distance(Location loc1, Location loc2) {
+		return Distance(loc1.getLatitude(), loc1.getLongitude(), loc2.getLatitude(), loc2.getLongitude());
+	}
+	
+	/**
+	 * Returns the largest {@link #Distance} between two of the locations, or
+	 * 0 with fewer than two. The sines and cosines of each location are
+	 * taken once, and the pairs are compared by the cosine of their angle
+	 * with the same products as Distance, so only the farthest pair needs
+	 * an acos. Pairs whose cosine is out of range, which Distance makes NaN,
+	 * are skipped.
+	 */
+	static double getMaxDistance(List<Location> locations) {
+		int size = locations.size();
+		double pk = (float) (180/3.14169);
+		double[] latitudeCosines = new double[size];
+		double[] latitudeSines = new double[size];
+		double[] longitudeCosines = new double[size];
+		double[] longitudeSines = new double[size];
+		for (int i = 0; i < size; i++) {
+			double latitude = locations.get(i).getLatitude() / pk;
+			double longitude = locations.get(i).getLongitude() / pk;
+			latitudeCosines[i] = Math.cos(latitude);
+			latitudeSines[i] = Math.sin(latitude);
+			longitudeCosines[i] = Math.cos(longitude);
+			longitudeSines[i] = Math.sin(longitude);
+		}
+		double minCosine = 1;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				double t1 = latitudeCosines[i] * longitudeCosines[i] * latitudeCosines[j] * longitudeCosines[j];
+				double t2 = latitudeCosines[i] * longitudeSines[i] * latitudeCosines[j] * longitudeSines[j];
+				double t3 = latitudeSines[i] * latitudeSines[j];
+				double cosine = t1 + t2 + t3;
+				if (cosine < minCosine && cosine >= -1) {
+					minCosine = cosine;
+				}
+			}
+		}
+		return 6366000 * Math.acos(minCosine);
+	}
+	
+	static double Distance(double lat1, double lon1, double lat2, double lon2) {
     	
 	    double pk = (float) (180/3.14169);
 
-	    double a1 = loc1.getLatitude() / pk;
-	    double a2 = loc1.getLongitude() / pk;
-	    double b1 = loc2.getLatitude() / pk;
-	    double b2 = loc2.getLongitude() / pk;
+	    double a1 = lat1 / pk;
+	    double a2 = lon1 / pk;
+	    double b1 = lat2 / pk;
+	    double b2 = lon2 / pk;
 
 	    double t1 = Math.cos(a1)*Math.cos(a2)*Math.cos(b1)*Math.cos(b2);
 	    double t2 = Math.cos(a1)*Math.sin(a2)*Math.cos(b1)*Math.sin(b2);
@@ -296,6 +1197,10 @@ public class MobilityClassifier {
 			if (lastTime == time) { // no new wifi data
 				// System.out.println("At " + time + " lastMode is " + lastMode);
 				
+				if (lastClassification.isWifiSkipped()) {
+					// The last window did not compare this scan, so it is compared now with the scans before it
+					return checkWifi(wifiScan, getScansBefore(lastWifiScans, time), lastClassification);
+				}
 				wifiClassification.updateWifi(lastClassification);
 				return wifiClassification;
 			}
@@ -308,28 +1213,61 @@ public class MobilityClassifier {
 				wifiClassification.setWifiMode(UNKNOWN);
 				return wifiClassification;
 			}
-			List<Long> prevTimeStamps = new ArrayList<Long>();
-			List<String> lastSSIDList = new ArrayList<String>();
-			for (WifiScan scan : lastWifiScans)
-				if (scan.getTime().longValue() >= time - WIFI_THRESHOLD_MILLIS && !prevTimeStamps.contains(scan.getTime())) // make sure old points aren't getting mixed in
-				{
-					lastSSIDList.addAll(getSSIDList(scan.getAccessPoints()));
-					prevTimeStamps.add(scan.getTime());
-				}
-//				else
-//					// System.out.println("Skippin' "+ scan.getAccessPoints().size());
-			List<String> currentSSIDList = getSSIDList(wifiScan.getAccessPoints());
-			
-			// Compare to the access points from last time
 			double same = 0;
 			double total = 0;
+			double similarity = Double.NaN;
 			
-			// Now we can do the comparison
-			for (String ssid : currentSSIDList) {
-				if (lastSSIDList.contains(ssid)) {
-					same++;
+			if (! Double.isNaN(wifiSimilarityThreshold)) {
+				// Weigh every access point by its strength, against the
+				// strongest reading of it in the recent scans. A scan repeated
+				// in the history leaves their union as it is. The same merge
+				// pass counts the strong access points.
+				List<WifiFingerprint> lastFingerprints = new ArrayList<WifiFingerprint>(lastWifiScans.size());
+				for (WifiScan scan : lastWifiScans)
+					if (scan.getTime().longValue() >= time - WIFI_THRESHOLD_MILLIS)
+					{
+						lastFingerprints.add(scan.getFingerprint());
+					}
+				WifiComparison comparison = wifiScan.getFingerprint().compare(WifiFingerprint.union(lastFingerprints));
+				total = comparison.getStrongTotal();
+				same = comparison.getStrongShared();
+				similarity = comparison.getWeightedJaccard();
+			}
+			else if (wifiSketchSize > 0) {
+				// Estimate the overlap with the union of the recent scans from
+				// their signatures instead of comparing the SSIDs themselves
+				WifiSketch lastSketch = null;
+				Set<Long> prevTimeStamps = new HashSet<Long>();
+				for (WifiScan scan : lastWifiScans)
+					if (scan.getTime().longValue() >= time - WIFI_THRESHOLD_MILLIS && prevTimeStamps.add(scan.getTime()))
+					{
+						WifiSketch scanSketch = scan.getSketch(wifiSketchSize);
+						lastSketch = (lastSketch == null) ? scanSketch : lastSketch.union(scanSketch);
+					}
+				total = wifiScan.getStrongSsids().size();
+				if (lastSketch != null) {
+					same = Math.min(total, Math.round(wifiScan.getSketch(wifiSketchSize).intersection(lastSketch)));
+				}
+			}
+			else {
+				Set<Long> prevTimeStamps = new HashSet<Long>();
+				Set<String> lastSSIDList = new HashSet<String>();
+				for (WifiScan scan : lastWifiScans)
+					if (scan.getTime().longValue() >= time - WIFI_THRESHOLD_MILLIS && prevTimeStamps.add(scan.getTime())) // make sure old points aren't getting mixed in
+					{
+						lastSSIDList.addAll(scan.getStrongSsids());
+					}
+//					else
+//						// System.out.println("Skippin' "+ scan.getAccessPoints().size());
+				List<String> currentSSIDList = wifiScan.getStrongSsids();
+				
+				// Now we can do the comparison
+				for (String ssid : currentSSIDList) {
+					if (lastSSIDList.contains(ssid)) {
+						same++;
+					}
+					total++;
 				}
-				total++;
 			}
 //			for (String ssid : lastSSIDList) {
 //				if (! currentSSIDList.contains(ssid)) { // only count others that don't match. We don't count the same ones again. Change that if too many false DRIVE classifications
@@ -338,7 +1276,11 @@ public class MobilityClassifier {
 //			}
 			
 			String mode = UNKNOWN;
-			if (total > 0)
+			if (total > 0 && ! Double.isNaN(similarity))
+			{
+				mode = (similarity <= wifiSimilarityThreshold) ? DRIVE : STILL;
+			}
+			else if (total > 0)
 			{
 				int threshold = 2;
 				if (total <= 3)
@@ -363,6 +1305,9 @@ public class MobilityClassifier {
 			wifiClassification.setWifiMode(mode);
 			wifiClassification.setWifiTotal((int)total);
 			wifiClassification.setWifiRecogTotal((int)same);
+			if (total > 0 && ! Double.isNaN(similarity)) {
+				wifiClassification.setWifiSimilarity(similarity);
+			}
 			return wifiClassification;
 			
 		}
@@ -373,43 +1318,6 @@ public class MobilityClassifier {
 		}
 	}
 	
-	private List<String> getSSIDList(List<AccessPoint> accessPoints) {
-		List<String> ssidList = new ArrayList<String>();
-		int strsum = 0, strcount = 0;
-		int numberOfAccessPoints = accessPoints.size(); 
-		
-		for (int i = 0; i < numberOfAccessPoints; i++) {
-			String ssid = accessPoints.get(i).getSsid(); 
-			Double strength = accessPoints.get(i).getStrength();
-			
-			strsum += strength; 
-			strcount++;
-			
-//			if (accessPoints.get(i).getStrength() > -50) {
-//				ssidList.add(ssid);
-//			}
-		}
-		
-		if (ssidList.size() == 0 && strcount > 0) {
-			double avg = strsum / strcount;
-			
-			for (int i = 0; i < numberOfAccessPoints; i++) {
-				
-				String ssid = accessPoints.get(i).getSsid(); 
-				Double strength = accessPoints.get(i).getStrength();
-				
-//				strsum += strength;
-//				strcount++;
-				
-				if (strength >= avg) {
-					ssidList.add(ssid);
-				}
-			}
-		}
-		
-		return ssidList;
-	}
-	
 	/**
 	 * Converts to gravity units and calculates the overall magnitude of the triaxial vectors.
 	 * @param sample
@@ -435,8 +1343,8 @@ public class MobilityClassifier {
 			double a6, double a7, double a8, double a9, double a0, Classification classification)
 	{
 		
-		if (var <= 0.038625)
-			if ((classification.getWifiRecogTotal() <= 3 && classification.getWifiRecogRatio() <= .380952 && classification.getWifiTotal() > 0) || classification.getRadius() > 108)
+		if (var <= VARIANCE_THRESHOLD)
+			if (isWifiDrive(classification) || classification.getRadius() > RADIUS_THRESHOLD)
 				return DRIVE;
 			else
 				return STILL;
@@ -469,6 +1377,37 @@ public class MobilityClassifier {
 //		}
 	}
 	
+	private static void addGravityFeatures(Classification classification, GravityFilter gravity) {
+		if (gravity != null) {
+			classification.setVerticalVariance(gravity.getVerticalVariance());
+			classification.setHorizontalVariance(gravity.getHorizontalVariance());
+		}
+	}
+	
+	/**
+	 * Hashes the settings that change how a window is classified, so that
+	 * classifiers with different settings do not share cached results.
+	 */
+	private long getSettingsHash() {
+		long hash = Double.doubleToLongBits(cascading ? cascadeMargin : -1);
+		hash = 31 * hash + wifiSketchSize;
+		hash = 31 * hash + Double.doubleToLongBits(wifiSimilarityThreshold);
+		hash = 31 * hash + Double.doubleToLongBits(getCanonicalRate());
+		hash = 31 * hash + (gravityFeatures ? 1 : 0) + (lowPower ? 2 : 0);
+		hash = 31 * hash + System.identityHashCode(model);
+		hash = 31 * hash + System.identityHashCode(placeIndex);
+		hash = 31 * hash + (wifiChecking ? 1 : 0) + (locationChecking ? 2 : 0);
+		hash = 31 * hash + featureExtractors.hashCode();
+		return hash;
+	}
+	
+	private boolean isWifiDrive(Classification classification) {
+		if (! Double.isNaN(wifiSimilarityThreshold)) {
+			return DRIVE.equals(classification.getWifiMode());
+		}
+		return classification.getWifiRecogTotal() <= WIFI_RECOG_TOTAL_THRESHOLD && classification.getWifiRecogRatio() <= WIFI_RECOG_RATIO_THRESHOLD && classification.getWifiTotal() > 0;
+	}
+	
 	/**
 	 * This is the old main classification method. Updated code after retraining
 	 * @param acc_var
@@ -584,7 +1523,7 @@ public class MobilityClassifier {
 	 * @param sr
 	 * @return FFT value
 	 */
-	private double goertzel(ArrayList<Double> accData, double freq, double sr)
+	private double goertzel(List<Double> accData, double freq, double sr)
 	{
 		double s_prev = 0;
 		double s_prev2 = 0;
@@ -602,6 +1541,160 @@ public class MobilityClassifier {
 		return power;
 	}
 	
+	/**
+	 * A model with the plan of the extractors of the features it needs.
+	 */
+	private static final class ModelPlan {
+		private final DecisionTreeModel model;
+		private final FeaturePlan plan;
+		private final int[] indices;
+		
+		ModelPlan(DecisionTreeModel model, List<FeatureExtractor> extractors) {
+			String[] names = model.getFeatureNames();
+			boolean[] used = model.getUsedFeatures();
+			Set<String> required = new LinkedHashSet<String>();
+			required.add("average");
+			required.add("variance");
+			for (int i = 0; i < names.length; i++) {
+				if (used[i]) {
+					required.add(names[i]);
+				}
+			}
+			this.model = model;
+			this.plan = new FeaturePlan(extractors, required);
+			this.indices = plan.indicesOf(names);
+		}
+	}
+	
+	private static final class SpeedExtractor implements FeatureExtractor {
+		@Override
+		public String[] getFeatureNames() {
+			return new String[] { "speed" };
+		}
+		
+		@Override
+		public String[] getRequiredFeatures() {
+			return new String[0];
+		}
+		
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			features.set("speed", window.getSpeed());
+		}
+	}
+	
+	private final class AccelerometerExtractor implements FeatureExtractor {
+		@Override
+		public String[] getFeatureNames() {
+			return new String[] { "average", "variance" };
+		}
+		
+		@Override
+		public String[] getRequiredFeatures() {
+			return new String[0];
+		}
+		
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			List<Double> magnitudes = window.getMagnitudes();
+			double dataSize = magnitudes.size();
+			double average = getAverage(magnitudes, dataSize);
+			double variance = getVariance(magnitudes, average, dataSize);
+			window.getClassification().setAverage(average);
+			window.getClassification().setVariance(variance);
+			features.set("average", average);
+			features.set("variance", variance);
+		}
+	}
+	
+	private final class FftExtractor implements FeatureExtractor {
+		@Override
+		public String[] getFeatureNames() {
+			return new String[] { "fft1", "fft2", "fft3", "fft4", "fft5", "fft6", "fft7", "fft8", "fft9", "fft10" };
+		}
+		
+		@Override
+		public String[] getRequiredFeatures() {
+			return new String[0];
+		}
+		
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			ArrayList<Double> fft = getFft(window.getMagnitudes(), window.getSampleRate());
+			window.getClassification().setFft(fft);
+			int first = features.indexOf("fft1");
+			for (int i = 0; i < fft.size(); i++) {
+				features.set(first + i, fft.get(i));
+			}
+		}
+	}
+	
+	private final class WifiExtractor implements FeatureExtractor {
+		@Override
+		public String[] getFeatureNames() {
+			return new String[] { "wifiTotal", "wifiRecogTotal", "wifiRecogRatio" };
+		}
+		
+		@Override
+		public String[] getRequiredFeatures() {
+			return new String[0];
+		}
+		
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			Classification classification = window.getClassification();
+			classification.updateWifi(getWifiClassification(window.getWifiScan(), window.getLastWifiScans(), window.getLastClassification()));
+			features.set("wifiTotal", classification.getWifiTotal());
+			features.set("wifiRecogTotal", classification.getWifiRecogTotal());
+			features.set("wifiRecogRatio", classification.getWifiRecogRatio());
+		}
+	}
+	
+	/**
+	 * The location features, which are skipped at a place recognized by the
+	 * WiFi extractor.
+	 */
+	private final class LocationExtractor implements FeatureExtractor {
+		@Override
+		public String[] getFeatureNames() {
+			return new String[] { "radius", "travelled" };
+		}
+		
+		@Override
+		public String[] getRequiredFeatures() {
+			return new String[] { "wifiTotal" };
+		}
+		
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			Classification classification = window.getClassification();
+			classification.updateLocation(getLocationClassification(window.getLocation(), window.getHistLocs(), window.getLocationTracker(), window.getLastClassification(), classification));
+			features.set("radius", classification.getRadius());
+			features.set("travelled", classification.getTravelled());
+		}
+	}
+	
+	private static final class GravityExtractor implements FeatureExtractor {
+		@Override
+		public String[] getFeatureNames() {
+			return new String[] { "verticalVariance", "horizontalVariance" };
+		}
+		
+		@Override
+		public String[] getRequiredFeatures() {
+			return new String[0];
+		}
+		
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			GravityFilter gravity = new GravityFilter();
+			gravity.update(window.getSamples());
+			addGravityFeatures(window.getClassification(), gravity);
+			features.set("verticalVariance", gravity.getVerticalVariance());
+			features.set("horizontalVariance", gravity.getHorizontalVariance());
+		}
+	}
+	
 //	public static void main(String [] args)
 //	{
 //		// List<Sample> accelValues, Double speed, String wifi, String lastWifi, String lastMode
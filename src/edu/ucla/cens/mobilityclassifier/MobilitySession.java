@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state the classifier needs between the windows of a single user: the
+ * Wi-Fi scans of the last {@link MobilityClassifier#WIFI_THRESHOLD_MILLIS},
+ * the locations of the last {@link MobilityClassifier#LOC_THRESHOLD_MILLIS}
+ * and the last classification.
+ *
+ * Windows must be given in time order. This is not thread-safe; a user's
+ * windows are classified one at a time.
+ */
+public class MobilitySession {
+	private final List<WifiScan> lastWifiScans = new ArrayList<WifiScan>();
+	private final ArrayList<Location> histLocs = new ArrayList<Location>();
+	private Classification lastClassification = null;
+
+	/**
+	 * Creates a session with no history.
+	 */
+	public MobilitySession() {
+
+	}
+
+	/**
+	 * Classifies the next window of this user against the history, and then
+	 * adds the window's scan and location to it.
+	 *
+	 * @param classifier The classifier.
+	 *
+	 * @param samples The accelerometer samples of the window.
+	 *
+	 * @param speed The GPS speed, or NaN if it is not known.
+	 *
+	 * @param wifiScan The Wi-Fi scan of the window, or null.
+	 *
+	 * @param location The location of the window, or null.
+	 *
+	 * @return The classification of the window.
+	 */
+	public Classification classify(MobilityClassifier classifier, List<Sample> samples, Double speed, WifiScan wifiScan, Location location) {
+		Classification classification = classifier.classify(samples, (speed == null) ? Double.NaN : speed, wifiScan, lastWifiScans, location, histLocs, lastClassification);
+		add(wifiScan, location);
+		lastClassification = classification;
+		return classification;
+	}
+
+	/**
+	 * Adds a scan and a location to the history without classifying.
+	 *
+	 * @param wifiScan The Wi-Fi scan, or null.
+	 *
+	 * @param location The location, or null.
+	 */
+	public void add(WifiScan wifiScan, Location location) {
+		if (wifiScan != null) {
+			long time = wifiScan.getTime();
+			if (lastWifiScans.isEmpty() || lastWifiScans.get(lastWifiScans.size() - 1).getTime() < time) {
+				lastWifiScans.add(wifiScan);
+			}
+			int expired = 0;
+			while (expired < lastWifiScans.size() && lastWifiScans.get(expired).getTime() < time - MobilityClassifier.WIFI_THRESHOLD_MILLIS) {
+				expired++;
+			}
+			lastWifiScans.subList(0, expired).clear();
+		}
+		if (location != null) {
+			long time = location.getTime();
+			if (histLocs.isEmpty() || histLocs.get(histLocs.size() - 1).getTime() < time) {
+				histLocs.add(location);
+			}
+			int expired = 0;
+			while (expired < histLocs.size() && histLocs.get(expired).getTime() < time - MobilityClassifier.LOC_THRESHOLD_MILLIS) {
+				expired++;
+			}
+			histLocs.subList(0, expired).clear();
+		}
+	}
+
+	/**
+	 * Returns the Wi-Fi scans of the recent past, oldest first.
+	 */
+	public List<WifiScan> getLastWifiScans() {
+		return lastWifiScans;
+	}
+
+	/**
+	 * Returns the locations of the recent past, oldest first.
+	 */
+	public ArrayList<Location> getHistLocs() {
+		return histLocs;
+	}
+
+	public Classification getLastClassification() {
+		return lastClassification;
+	}
+
+	public void setLastClassification(Classification lastClassification) {
+		this.lastClassification = lastClassification;
+	}
+}
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temporal smoothing of a sequence of modes using a small hidden Markov model
+ * whose hidden states are the transport modes and whose observations are the
+ * per-window modes returned by the classifier.
+ *
+ * An instance holds the filter state for a single user. {@link #update(String)}
+ * runs one step of the forward filter in constant time and memory. It
+ * returns the most likely mode of the window just added, without waiting
+ * for later ones, so a single window that disagrees with the ones before,
+ * such as the walk of still-walk-still, is outvoted, and with the default
+ * model a real change shows once two windows in a row report it.
+ * {@link #viterbi(List)} decodes a whole sequence at once for offline
+ * reprocessing, where later windows also count, and does not touch the
+ * online state.
+ *
+ * Observations that are not one of the transport modes, e.g. "unknown" or
+ * null, carry no information and only advance the transition model. Until
+ * there has been an observation that is a transport mode, the mode is
+ * "unknown".
+ */
+public class ModeSmoother {
+	public static final double DEFAULT_STAY_PROBABILITY = 0.9;
+	public static final double DEFAULT_ACCURACY = 0.8;
+
+	private static final String[] MODES =
+		{ MobilityClassifier.STILL, MobilityClassifier.WALK, MobilityClassifier.RUN, MobilityClassifier.DRIVE };
+
+	private final double stay;
+	private final double move;
+	private final double hit;
+	private final double miss;
+
+	private final double[] belief = new double[MODES.length];
+	private final double[] predicted = new double[MODES.length];
+	private boolean started = false;
+	private boolean evidence = false;
+
+	/**
+	 * Creates a smoother with the default transition and observation model.
+	 */
+	public ModeSmoother() {
+		this(DEFAULT_STAY_PROBABILITY, DEFAULT_ACCURACY);
+	}
+
+	/**
+	 * Creates a smoother.
+	 *
+	 * @param stayProbability The probability that the true mode does not
+	 * 						  change from one window to the next.
+	 *
+	 * @param accuracy The probability that the classifier reports the true
+	 * 				   mode for a window.
+	 */
+	public ModeSmoother(final double stayProbability, final double accuracy) {
+		if(stayProbability <= 0 || stayProbability >= 1) {
+			throw new IllegalArgumentException("The stay probability must be between 0 and 1");
+		}
+		if(accuracy <= 0 || accuracy >= 1) {
+			throw new IllegalArgumentException("The accuracy must be between 0 and 1");
+		}
+
+		this.stay = stayProbability;
+		this.move = (1 - stayProbability) / (MODES.length - 1);
+		this.hit = accuracy;
+		this.miss = (1 - accuracy) / (MODES.length - 1);
+	}
+
+	/**
+	 * Adds the mode of the next window to the filter and returns the most
+	 * likely current mode.
+	 *
+	 * @param classification The classification of the next window.
+	 *
+	 * @return The smoothed mode.
+	 */
+	public String update(Classification classification) {
+		return update(classification.getMode());
+	}
+
+	/**
+	 * Adds the mode of the next window to the filter and returns the most
+	 * likely current mode.
+	 *
+	 * @param mode The mode the classifier returned for the next window.
+	 *
+	 * @return The smoothed mode, or "unknown" if no window so far had a
+	 * 		   transport mode.
+	 */
+	public String update(String mode) {
+		int observed = indexOf(mode);
+
+		if(! started) {
+			for (int i = 0; i < MODES.length; i++) {
+				predicted[i] = 1.0 / MODES.length;
+			}
+			started = true;
+		}
+		else {
+			for (int i = 0; i < MODES.length; i++) {
+				double p = 0;
+				for (int j = 0; j < MODES.length; j++) {
+					p += belief[j] * ((i == j) ? stay : move);
+				}
+				predicted[i] = p;
+			}
+		}
+
+		double total = 0;
+		for (int i = 0; i < MODES.length; i++) {
+			double emission = (observed < 0) ? 1 : ((i == observed) ? hit : miss);
+			belief[i] = predicted[i] * emission;
+			total += belief[i];
+		}
+		for (int i = 0; i < MODES.length; i++) {
+			belief[i] /= total;
+		}
+
+		if (observed >= 0) {
+			evidence = true;
+		}
+		return evidence ? MODES[argmax(belief)] : MobilityClassifier.UNKNOWN;
+	}
+
+	/**
+	 * Returns the filtered probability of a mode after the last update.
+	 *
+	 * @param mode The mode.
+	 *
+	 * @return The probability, or 0 if the mode is not a transport mode or
+	 * 		   nothing has been added yet.
+	 */
+	public double getProbability(String mode) {
+		int index = indexOf(mode);
+		if(index < 0 || ! started) {
+			return 0;
+		}
+		return belief[index];
+	}
+
+	/**
+	 * Forgets everything that has been added to the filter.
+	 */
+	public void reset() {
+		started = false;
+		evidence = false;
+	}
+
+	/**
+	 * Decodes the most likely sequence of true modes for a whole sequence of
+	 * classified modes. This does not use or change the online state.
+	 *
+	 * @param modes The modes the classifier returned, in time order.
+	 *
+	 * @return The smoothed modes, one for each input mode, which are all
+	 * 		   "unknown" if none of the input modes is a transport mode.
+	 */
+	public List<String> viterbi(List<String> modes) {
+		int length = modes.size();
+		List<String> result = new ArrayList<String>(length);
+		if(length == 0) {
+			return result;
+		}
+
+		boolean anyMode = false;
+		for (int t = 0; t < length && ! anyMode; t++) {
+			anyMode = indexOf(modes.get(t)) >= 0;
+		}
+		if (! anyMode) {
+			for (int t = 0; t < length; t++) {
+				result.add(MobilityClassifier.UNKNOWN);
+			}
+			return result;
+		}
+
+		double logStay = Math.log(stay), logMove = Math.log(move);
+		double logHit = Math.log(hit), logMiss = Math.log(miss);
+
+		byte[][] back = new byte[length][MODES.length];
+		double[] score = new double[MODES.length];
+		double[] next = new double[MODES.length];
+
+		int observed = indexOf(modes.get(0));
+		for (int i = 0; i < MODES.length; i++) {
+			score[i] = -Math.log(MODES.length) + ((observed < 0) ? 0 : ((i == observed) ? logHit : logMiss));
+		}
+
+		for (int t = 1; t < length; t++) {
+			observed = indexOf(modes.get(t));
+			for (int i = 0; i < MODES.length; i++) {
+				double best = Double.NEGATIVE_INFINITY;
+				int from = 0;
+				for (int j = 0; j < MODES.length; j++) {
+					double s = score[j] + ((i == j) ? logStay : logMove);
+					if (s > best) {
+						best = s;
+						from = j;
+					}
+				}
+				next[i] = best + ((observed < 0) ? 0 : ((i == observed) ? logHit : logMiss));
+				back[t][i] = (byte) from;
+			}
+			double[] swap = score;
+			score = next;
+			next = swap;
+		}
+
+		int[] path = new int[length];
+		path[length - 1] = argmax(score);
+		for (int t = length - 1; t > 0; t--) {
+			path[t - 1] = back[t][path[t]];
+		}
+		for (int t = 0; t < length; t++) {
+			result.add(MODES[path[t]]);
+		}
+		return result;
+	}
+
+	private static int indexOf(String mode) {
+		for (int i = 0; i < MODES.length; i++) {
+			if (MODES[i].equals(mode)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int argmax(double[] values) {
+		int best = 0;
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] > values[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A long-lived index of the access points heard at known places, used to
+ * recognize a return to a place that is no longer in the recent scan history.
+ *
+ * Each scan added for a place is kept as its own entry of the strong access
+ * points of the scan, those the classifier counts, so that a place visited
+ * often matches a new scan as well as one visited once; a scan with the same
+ * strong access points as an entry of its place is not kept again. An
+ * inverted index from SSID to the entries it was heard in lets
+ * {@link #recognize(WifiScan)} find candidate entries from the postings of
+ * the scan's rarest access points and count their exact overlap, which
+ * gives the exact Jaccard similarity without touching unrelated entries or
+ * walking the long postings of access points heard almost everywhere. A
+ * scan is recognized as the place of its most similar entry.
+ *
+ * The index is safe for concurrent use; lookups share a read lock.
+ */
+public class PlaceIndex {
+	public static final double DEFAULT_MIN_SIMILARITY = 0.5;
+
+	private final Map<String, Integer> placeNumbers = new HashMap<String, Integer>();
+	private final List<String> placeIds = new ArrayList<String>();
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final Set<Entry> entrySet = new HashSet<Entry>();
+	private final Map<String, Postings> postings = new HashMap<String, Postings>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	private volatile double minSimilarity = DEFAULT_MIN_SIMILARITY;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public PlaceIndex() {
+
+	}
+
+	/**
+	 * Adds the strong access points of a scan to a place, creating the place
+	 * if it is not known yet.
+	 *
+	 * @param placeId The identifier of the place.
+	 *
+	 * @param scan A scan taken at the place.
+	 */
+	public void add(String placeId, WifiScan scan) {
+		if(placeId == null) {
+			throw new IllegalArgumentException("A place ID is required");
+		}
+		String[] ssids = getSsids(scan);
+		if (ssids.length == 0) {
+			return;
+		}
+
+		lock.writeLock().lock();
+		try {
+			Integer number = placeNumbers.get(placeId);
+			if (number == null) {
+				number = placeIds.size();
+				placeNumbers.put(placeId, number);
+				placeIds.add(placeId);
+			}
+
+			Entry entry = new Entry(number, ssids);
+			if (! entrySet.add(entry)) {
+				return;
+			}
+			int entryNumber = entries.size();
+			entries.add(entry);
+			for (String ssid : ssids) {
+				Postings list = postings.get(ssid);
+				if (list == null) {
+					list = new Postings();
+					postings.put(ssid, list);
+				}
+				list.add(entryNumber);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the known place most similar to a scan, by the Jaccard
+	 * similarity of the strong access points of the scan and of the most
+	 * similar scan kept for the place.
+	 *
+	 * @param scan The scan.
+	 *
+	 * @return The best match, or null if no place is at least as similar as
+	 * 		   the minimum similarity.
+	 */
+	public PlaceMatch recognize(WifiScan scan) {
+		String[] ssids = getSsids(scan);
+		if (ssids.length == 0) {
+			return null;
+		}
+
+		lock.readLock().lock();
+		try {
+			Scratch s = scratch.get();
+			s.ensureCapacity(entries.size());
+
+			// An entry with a Jaccard similarity of at least the minimum must
+			// share that fraction of the scan's access points, so it shares at
+			// least one of the rarest ones. Only their postings are walked;
+			// the common access points are only checked against candidates.
+			List<Postings> lists = new ArrayList<Postings>(ssids.length);
+			List<String> known = new ArrayList<String>(ssids.length);
+			for (String ssid : ssids) {
+				Postings list = postings.get(ssid);
+				if (list != null) {
+					int i = lists.size();
+					while (i > 0 && lists.get(i - 1).size > list.size) {
+						i--;
+					}
+					lists.add(i, list);
+					known.add(i, ssid);
+				}
+			}
+			int unknown = ssids.length - lists.size();
+			int prefix = Math.min(lists.size(), ssids.length - (int) Math.ceil(minSimilarity * ssids.length) + 1 - unknown);
+
+			for (int j = 0; j < prefix; j++) {
+				Postings list = lists.get(j);
+				for (int i = 0; i < list.size; i++) {
+					int entry = list.entries[i];
+					if (s.counts[entry]++ == 0) {
+						s.touched[s.touchedCount++] = entry;
+					}
+				}
+			}
+			for (int j = prefix; j < lists.size(); j++) {
+				String ssid = known.get(j);
+				for (int i = 0; i < s.touchedCount; i++) {
+					int entry = s.touched[i];
+					if (entries.get(entry).contains(ssid)) {
+						s.counts[entry]++;
+					}
+				}
+			}
+
+			int best = -1;
+			double bestSimilarity = 0;
+			for (int i = 0; i < s.touchedCount; i++) {
+				int entry = s.touched[i];
+				int count = s.counts[entry];
+				double similarity = (double) count / (ssids.length + entries.get(entry).ssids.length - count);
+				if (similarity > bestSimilarity) {
+					best = entry;
+					bestSimilarity = similarity;
+				}
+				s.counts[entry] = 0;
+			}
+			s.touchedCount = 0;
+
+			if (best < 0 || bestSimilarity < minSimilarity) {
+				return null;
+			}
+			// The totals count the strong readings of the scan as checkWifi
+			// does, an SSID heard twice strong counting twice
+			Entry entry = entries.get(best);
+			List<String> strongSsids = scan.getStrongSsids();
+			int recognized = 0;
+			for (String ssid : strongSsids) {
+				if (entry.contains(ssid)) {
+					recognized++;
+				}
+			}
+			return new PlaceMatch(placeIds.get(entry.place), bestSimilarity, recognized, strongSsids.size());
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the distinct strong SSIDs of a scan, sorted.
+	 */
+	private static String[] getSsids(WifiScan scan) {
+		Set<String> ssids = new HashSet<String>(scan.getStrongSsids());
+		String[] sorted = ssids.toArray(new String[ssids.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Returns the number of known places.
+	 */
+	public int getPlaceCount() {
+		lock.readLock().lock();
+		try {
+			return placeIds.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of scans kept, those with the same strong access
+	 * points as another of their place not counting.
+	 */
+	public int getScanCount() {
+		lock.readLock().lock();
+		try {
+			return entries.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of distinct access points known at any place.
+	 */
+	public int getAccessPointCount() {
+		lock.readLock().lock();
+		try {
+			return postings.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public double getMinSimilarity() {
+		return minSimilarity;
+	}
+
+	/**
+	 * Sets the Jaccard similarity a scan needs with a scan of a place to be
+	 * recognized as that place.
+	 */
+	public void setMinSimilarity(double minSimilarity) {
+		this.minSimilarity = minSimilarity;
+	}
+
+	/**
+	 * The sorted strong SSIDs of a scan kept for a place.
+	 */
+	private static class Entry {
+		private final int place;
+		private final String[] ssids;
+
+		private Entry(int place, String[] ssids) {
+			this.place = place;
+			this.ssids = ssids;
+		}
+
+		private boolean contains(String ssid) {
+			return Arrays.binarySearch(ssids, ssid) >= 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * place + Arrays.hashCode(ssids);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Entry))
+				return false;
+			Entry other = (Entry) obj;
+			return place == other.place && Arrays.equals(ssids, other.ssids);
+		}
+	}
+
+	/**
+	 * A growable list of the entries an access point was heard in.
+	 */
+	private static class Postings {
+		private int[] entries = new int[2];
+		private int size = 0;
+
+		private void add(int entry) {
+			if (size == entries.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(entries, 0, grown, 0, size);
+				entries = grown;
+			}
+			entries[size++] = entry;
+		}
+	}
+
+	/**
+	 * Per-thread overlap counters, kept zeroed between lookups so that a
+	 * lookup only pays for the entries it touches.
+	 */
+	private static class Scratch {
+		private int[] counts = new int[0];
+		private int[] touched = new int[0];
+		private int touchedCount = 0;
+
+		private void ensureCapacity(int entries) {
+			if (counts.length < entries) {
+				int capacity = Math.max(entries, counts.length * 2);
+				counts = new int[capacity];
+				touched = new int[capacity];
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Immutable bean-style wrapper for a known place that a Wi-Fi scan was
+ * recognized as.
+ */
+public class PlaceMatch {
+	private final String placeId;
+	private final double similarity;
+	private final int recognized;
+	private final int total;
+
+	/**
+	 * Creates a new match.
+	 *
+	 * @param placeId The identifier of the known place.
+	 *
+	 * @param similarity The Jaccard similarity between the strong access
+	 * 					 points of the scan and those of the most similar
+	 * 					 scan of the place.
+	 *
+	 * @param recognized The number of strong access points in the scan
+	 * 					 that that scan of the place has.
+	 *
+	 * @param total The number of strong access points in the scan, as the
+	 * 				classifier counts them.
+	 */
+	public PlaceMatch(
+			final String placeId,
+			final double similarity,
+			final int recognized,
+			final int total) {
+
+		if(placeId == null) {
+			throw new IllegalArgumentException("A place ID is required");
+		}
+
+		this.placeId = placeId;
+		this.similarity = similarity;
+		this.recognized = recognized;
+		this.total = total;
+	}
+
+	/**
+	 * Returns the identifier of the known place.
+	 *
+	 * @return The identifier of the known place.
+	 */
+	public String getPlaceId() {
+		return placeId;
+	}
+
+	/**
+	 * Returns the Jaccard similarity between the scan and the place.
+	 *
+	 * @return A similarity between 0 and 1.
+	 */
+	public double getSimilarity() {
+		return similarity;
+	}
+
+	/**
+	 * Returns the number of strong access points in the scan that the most
+	 * similar scan of the place has.
+	 *
+	 * @return The number of recognized access points.
+	 */
+	public int getRecognized() {
+		return recognized;
+	}
+
+	/**
+	 * Returns the number of strong access points in the scan.
+	 *
+	 * @return The number of access points.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "PlaceMatch [placeId=" + placeId + ", similarity=" + similarity
+				+ ", recognized=" + recognized + ", total=" + total + "]";
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Brings a window of timestamped values to a fixed sampling rate, so that
+ * the features of a window do not depend on the rate of the device or on
+ * dropped samples.
+ *
+ * The output starts at the time of the first input and has one value per
+ * period up to the time of the last input. When the input is faster than
+ * the output, each output is the mean of the inputs within half a period of
+ * it, which keeps faster motion from folding into the low frequencies;
+ * otherwise, and across gaps with no inputs, it is interpolated linearly
+ * between its neighbours. Both are a single pass over the input.
+ */
+public class Resampler {
+	private final double rate;
+	private final double period;
+
+	/**
+	 * Creates a resampler.
+	 *
+	 * @param rate The output rate in samples per second.
+	 */
+	public Resampler(double rate) {
+		if (! (rate > 0) || Double.isInfinite(rate)) {
+			throw new IllegalArgumentException("The rate must be positive");
+		}
+		this.rate = rate;
+		this.period = 1000 / rate;
+	}
+
+	/**
+	 * Returns the output rate in samples per second.
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns the number of outputs for an input window.
+	 *
+	 * @param times The times of the inputs in milliseconds, increasing.
+	 *
+	 * @param count The number of inputs.
+	 */
+	public int getLength(long[] times, int count) {
+		if (count == 0) {
+			return 0;
+		}
+		return (int) Math.floor((times[count - 1] - times[0]) / period) + 1;
+	}
+
+	/**
+	 * Resamples a window.
+	 *
+	 * @param times The times of the inputs in milliseconds, increasing.
+	 *
+	 * @param values The inputs.
+	 *
+	 * @param count The number of inputs.
+	 *
+	 * @return The outputs.
+	 */
+	public double[] resample(long[] times, double[] values, int count) {
+		double[] output = new double[getLength(times, count)];
+		resample(times, values, count, output);
+		return output;
+	}
+
+	/**
+	 * Resamples a window into an array the caller owns.
+	 *
+	 * @param times The times of the inputs in milliseconds, increasing.
+	 *
+	 * @param values The inputs.
+	 *
+	 * @param count The number of inputs.
+	 *
+	 * @param output Where to write the outputs; it must hold at least
+	 * 				 {@link #getLength(long[], int)} values.
+	 *
+	 * @return The number of outputs.
+	 */
+	public int resample(long[] times, double[] values, int count, double[] output) {
+		for (int i = 1; i < count; i++) {
+			if (times[i] <= times[i - 1]) {
+				throw new IllegalArgumentException("The times must be increasing");
+			}
+		}
+		int length = getLength(times, count);
+		if (output.length < length) {
+			throw new IllegalArgumentException("The output needs room for " + length + " values");
+		}
+		if (length == 0) {
+			return 0;
+		}
+
+		long start = times[0];
+		boolean averaging = count > 1 && (times[count - 1] - start) < (count - 1) * period;
+		int next = 0; // the first input after the current output
+		int low = 0; // the first input within half a period of the current output
+		for (int k = 0; k < length; k++) {
+			double time = start + k * period;
+			while (next < count && times[next] <= time) {
+				next++;
+			}
+
+			if (averaging) {
+				while (low < count && times[low] < time - period / 2) {
+					low++;
+				}
+				double sum = 0;
+				int inputs = 0;
+				for (int i = low; i < count && times[i] < time + period / 2; i++) {
+					sum += values[i];
+					inputs++;
+				}
+				if (inputs > 0) {
+					output[k] = sum / inputs;
+					continue;
+				}
+			}
+
+			if (next == 0) {
+				output[k] = values[0];
+			}
+			else if (next == count) {
+				output[k] = values[count - 1];
+			}
+			else {
+				double fraction = (time - times[next - 1]) / (times[next] - times[next - 1]);
+				output[k] = values[next - 1] + fraction * (values[next] - values[next - 1]);
+			}
+		}
+		return length;
+	}
+}
@@ -21,9 +21,15 @@ package edu.ucla.cens.mobilityclassifier;
  * @author John Jenkins
  */
 public class Sample {
+	/**
+	 * The time of a sample that was created without one.
+	 */
+	public static final long NO_TIME = -1;
+	
 	private double x;
 	private double y;
 	private double z;
+	private long time = NO_TIME;
 	
 	/**
 	 * Creates a new Sample from the three accelerometer points.
@@ -40,6 +46,28 @@ public class Sample {
 		this.z = z;
 	}
 	
+	/**
+	 * Creates a new Sample from the three accelerometer points and the time
+	 * they were read, so that windows from devices with different or uneven
+	 * sampling rates can be resampled to a common rate.
+	 * 
+	 * @param x The X component of the accelerometer reading.
+	 * 
+	 * @param y The Y component of the accelerometer reading.
+	 * 
+	 * @param z The Z component of the accelerometer reading.
+	 * 
+	 * @param time The time of the reading in milliseconds.
+	 */
+	public Sample(final double x, final double y, final double z, final long time) {
+		this(x, y, z);
+		
+		if(time < 0) {
+			throw new IllegalArgumentException("The time cannot be negative");
+		}
+		this.time = time;
+	}
+	
 	/**
 	 * Returns the X component of the accelerometer reading.
 	 * 
@@ -67,8 +95,24 @@ public class Sample {
 		return z;
 	}
 
+	/**
+	 * Returns the time of the accelerometer reading.
+	 * 
+	 * @return The time in milliseconds, or {@link #NO_TIME}.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Returns whether the sample was created with its time.
+	 */
+	public boolean hasTime() {
+		return time != NO_TIME;
+	}
+
 	@Override
 	public String toString() {
-		return "Sample [x=" + x + ", y=" + y + ", z=" + z + "]";
+		return "Sample [x=" + x + ", y=" + y + ", z=" + z + ", time=" + time + "]";
 	}
 }
\ No newline at end of file
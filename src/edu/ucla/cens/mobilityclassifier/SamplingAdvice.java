@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Immutable bean-style wrapper for the advice a {@link SamplingAdvisor} gives
+ * on when and how long to sense next.
+ */
+public class SamplingAdvice {
+	private final double confidence;
+	private final long nextIntervalMillis;
+	private final int windowLength;
+
+	/**
+	 * Creates a new piece of advice.
+	 *
+	 * @param confidence How sure the classifier was of the last mode, between
+	 * 					 0 and 1.
+	 *
+	 * @param nextIntervalMillis How long to wait before sensing the next
+	 * 							 window.
+	 *
+	 * @param windowLength How many accelerometer samples to collect for the
+	 * 					   next window.
+	 */
+	public SamplingAdvice(
+			final double confidence,
+			final long nextIntervalMillis,
+			final int windowLength) {
+
+		this.confidence = confidence;
+		this.nextIntervalMillis = nextIntervalMillis;
+		this.windowLength = windowLength;
+	}
+
+	/**
+	 * Returns how sure the classifier was of the last mode.
+	 *
+	 * @return A confidence between 0 and 1.
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * Returns how long to wait before sensing the next window.
+	 *
+	 * @return The recommended interval in milliseconds.
+	 */
+	public long getNextIntervalMillis() {
+		return nextIntervalMillis;
+	}
+
+	/**
+	 * Returns how many accelerometer samples to collect for the next window.
+	 *
+	 * @return The recommended number of samples.
+	 */
+	public int getWindowLength() {
+		return windowLength;
+	}
+
+	@Override
+	public String toString() {
+		return "SamplingAdvice [confidence=" + confidence
+				+ ", nextIntervalMillis=" + nextIntervalMillis
+				+ ", windowLength=" + windowLength + "]";
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Recommends when the next window should be sensed and how long it should be,
+ * based on how stable the mode has been and how far the features of the last
+ * window were from the thresholds of the decision logic.
+ *
+ * During a long stationary period the interval backs off exponentially and
+ * the window shrinks, so devices and servers process far fewer windows. Any
+ * change of mode or an uncertain decision resets both to their defaults.
+ * A window whose scan was recognized as a known place is certain to be
+ * still. If the classifier decides the WiFi mode by a similarity threshold,
+ * the advisor should be given the same threshold, so that the margin of
+ * the similarity is used instead of that of the shared access points.
+ *
+ * An instance holds the state for a single user.
+ */
+public class SamplingAdvisor {
+	public static final long DEFAULT_BASE_INTERVAL_MILLIS = 1000 * 60;
+	public static final long DEFAULT_MAX_INTERVAL_MILLIS = 1000 * 60 * 15;
+	public static final int DEFAULT_BASE_WINDOW_LENGTH = 128;
+	public static final int DEFAULT_MIN_WINDOW_LENGTH = 32;
+	public static final double DEFAULT_MIN_CONFIDENCE = 0.75;
+
+	private long baseIntervalMillis = DEFAULT_BASE_INTERVAL_MILLIS;
+	private long maxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+	private int baseWindowLength = DEFAULT_BASE_WINDOW_LENGTH;
+	private int minWindowLength = DEFAULT_MIN_WINDOW_LENGTH;
+	private double minConfidence = DEFAULT_MIN_CONFIDENCE;
+	private double wifiSimilarityThreshold = Double.NaN;
+
+	private String lastMode = null;
+	private int stableCount = 0;
+	private long intervalMillis = DEFAULT_BASE_INTERVAL_MILLIS;
+
+	/**
+	 * Creates an advisor with the default intervals and window lengths.
+	 */
+	public SamplingAdvisor() {
+
+	}
+
+	/**
+	 * Adds the classification of the last window and returns the advice for
+	 * the next one.
+	 *
+	 * @param classification The classification of the last window.
+	 *
+	 * @return The advice for the next window.
+	 */
+	public SamplingAdvice advise(Classification classification) {
+		String mode = classification.getMode();
+		double confidence = getConfidence(classification, wifiSimilarityThreshold);
+
+		if (mode != null && mode.equals(lastMode)) {
+			stableCount++;
+		}
+		else {
+			stableCount = 1;
+		}
+		lastMode = mode;
+
+		int windowLength = baseWindowLength;
+		if (MobilityClassifier.STILL.equals(mode) && stableCount > 1 && confidence >= minConfidence) {
+			intervalMillis = Math.min(maxIntervalMillis, intervalMillis * 2);
+			windowLength = minWindowLength;
+		}
+		else {
+			intervalMillis = baseIntervalMillis;
+		}
+
+		return new SamplingAdvice(confidence, intervalMillis, windowLength);
+	}
+
+	/**
+	 * Forgets the mode history.
+	 */
+	public void reset() {
+		lastMode = null;
+		stableCount = 0;
+		intervalMillis = baseIntervalMillis;
+	}
+
+	/**
+	 * Returns how sure the decision logic was about a classification. This is
+	 * 0.5 at a threshold and grows to 1 as the deciding features move a full
+	 * threshold away from it.
+	 *
+	 * @param classification The classification.
+	 *
+	 * @return A confidence between 0.5 and 1, or 0.5 if the classification
+	 * 		   has no features.
+	 */
+	public static double getConfidence(Classification classification) {
+		return getConfidence(classification, Double.NaN);
+	}
+
+	/**
+	 * Returns how sure the decision logic was about a classification by a
+	 * classifier with a WiFi similarity threshold.
+	 *
+	 * @param classification The classification.
+	 *
+	 * @param wifiSimilarityThreshold The similarity threshold of the
+	 * 								  classifier, or NaN if it has none.
+	 *
+	 * @return A confidence between 0.5 and 1, or 0.5 if the classification
+	 * 		   has no features.
+	 */
+	public static double getConfidence(Classification classification, double wifiSimilarityThreshold) {
+		if (! classification.hasFeatures() || classification.getVariance() == null) {
+			return 0.5;
+		}
+
+		double margin = relative(classification.getVarianceMargin(), MobilityClassifier.VARIANCE_THRESHOLD);
+		if (classification.getVarianceMargin() <= 0) {
+			margin = Math.min(margin, getMovingMargin(classification, wifiSimilarityThreshold));
+		}
+		return 0.5 + 0.5 * margin;
+	}
+
+	/**
+	 * Returns how far the WiFi and location features were from flipping the
+	 * still/drive decision for a low-variance window.
+	 */
+	private static double getMovingMargin(Classification classification, double wifiSimilarityThreshold) {
+		if (classification.getPlace() != null) {
+			return 1; // a known place decides still without the location
+		}
+		double radius = relative(classification.getRadiusMargin(), MobilityClassifier.RADIUS_THRESHOLD);
+		if (classification.getWifiTotal() == 0) {
+			return radius;
+		}
+
+		Double similarity = classification.getWifiSimilarity();
+		if (similarity != null && ! Double.isNaN(wifiSimilarityThreshold)) {
+			double wifi = relative(similarity - wifiSimilarityThreshold, wifiSimilarityThreshold);
+			if (similarity <= wifiSimilarityThreshold) {
+				return wifi;
+			}
+			else if (classification.getRadiusMargin() > 0) {
+				return radius;
+			}
+			else {
+				return Math.min(radius, wifi);
+			}
+		}
+
+		double ratio = relative(classification.getWifiRecogRatioMargin(), MobilityClassifier.WIFI_RECOG_RATIO_THRESHOLD);
+		boolean wifiDrive = classification.getWifiRecogTotal() <= MobilityClassifier.WIFI_RECOG_TOTAL_THRESHOLD
+				&& classification.getWifiRecogRatioMargin() <= 0;
+		boolean radiusDrive = classification.getRadiusMargin() > 0;
+
+		if (wifiDrive && radiusDrive) {
+			return Math.max(ratio, radius);
+		}
+		else if (wifiDrive) {
+			return ratio;
+		}
+		else if (radiusDrive) {
+			return radius;
+		}
+		else {
+			double total = relative(classification.getWifiRecogTotal() - MobilityClassifier.WIFI_RECOG_TOTAL_THRESHOLD, MobilityClassifier.WIFI_RECOG_TOTAL_THRESHOLD);
+			return Math.min(radius, Math.max(ratio, total));
+		}
+	}
+
+	private static double relative(double margin, double threshold) {
+		return Math.min(1.0, Math.abs(margin) / threshold);
+	}
+
+	public long getBaseIntervalMillis() {
+		return baseIntervalMillis;
+	}
+
+	/**
+	 * Sets the interval while the mode changes or is uncertain.
+	 *
+	 * @param baseIntervalMillis A positive interval, no longer than the
+	 * 							 longest one.
+	 */
+	public void setBaseIntervalMillis(long baseIntervalMillis) {
+		if (baseIntervalMillis <= 0) {
+			throw new IllegalArgumentException("The base interval must be positive");
+		}
+		if (baseIntervalMillis > maxIntervalMillis) {
+			throw new IllegalArgumentException("The base interval must not be longer than the longest one");
+		}
+		this.baseIntervalMillis = baseIntervalMillis;
+		intervalMillis = Math.max(intervalMillis, baseIntervalMillis);
+	}
+
+	public long getMaxIntervalMillis() {
+		return maxIntervalMillis;
+	}
+
+	/**
+	 * Sets the longest interval a stationary period backs off to.
+	 *
+	 * @param maxIntervalMillis An interval at least as long as the base one.
+	 */
+	public void setMaxIntervalMillis(long maxIntervalMillis) {
+		if (maxIntervalMillis < baseIntervalMillis) {
+			throw new IllegalArgumentException("The longest interval must not be shorter than the base one");
+		}
+		this.maxIntervalMillis = maxIntervalMillis;
+		intervalMillis = Math.min(intervalMillis, maxIntervalMillis);
+	}
+
+	public int getBaseWindowLength() {
+		return baseWindowLength;
+	}
+
+	/**
+	 * Sets the number of samples of a window while the mode changes or is
+	 * uncertain.
+	 *
+	 * @param baseWindowLength A length no shorter than the shortest one.
+	 */
+	public void setBaseWindowLength(int baseWindowLength) {
+		if (baseWindowLength < minWindowLength) {
+			throw new IllegalArgumentException("The base window must not be shorter than the shortest one");
+		}
+		this.baseWindowLength = baseWindowLength;
+	}
+
+	public int getMinWindowLength() {
+		return minWindowLength;
+	}
+
+	/**
+	 * Sets the number of samples of a window during a stationary period.
+	 *
+	 * @param minWindowLength A length above the fewest samples the
+	 * 						  classifier takes, and no longer than the base
+	 * 						  one.
+	 */
+	public void setMinWindowLength(int minWindowLength) {
+		if (minWindowLength <= MobilityClassifier.MIN_SAMPLES) {
+			throw new IllegalArgumentException("The window must have more than " + MobilityClassifier.MIN_SAMPLES + " samples");
+		}
+		if (minWindowLength > baseWindowLength) {
+			throw new IllegalArgumentException("The shortest window must not be longer than the base one");
+		}
+		this.minWindowLength = minWindowLength;
+	}
+
+	public double getMinConfidence() {
+		return minConfidence;
+	}
+
+	/**
+	 * Sets how sure a still window must be for the interval to back off.
+	 *
+	 * @param minConfidence A confidence from 0.5 to 1.
+	 */
+	public void setMinConfidence(double minConfidence) {
+		if (! (minConfidence >= 0.5 && minConfidence <= 1)) {
+			throw new IllegalArgumentException("The confidence must be from 0.5 to 1");
+		}
+		this.minConfidence = minConfidence;
+	}
+
+	public double getWifiSimilarityThreshold() {
+		return wifiSimilarityThreshold;
+	}
+
+	/**
+	 * Sets the WiFi similarity threshold of the classifier, as
+	 * {@link MobilityClassifier#setWifiSimilarityThreshold}.
+	 *
+	 * @param wifiSimilarityThreshold A similarity between 0 and 1, or NaN if
+	 * 								  the classifier decides by the shared
+	 * 								  access points.
+	 */
+	public void setWifiSimilarityThreshold(double wifiSimilarityThreshold) {
+		if (! Double.isNaN(wifiSimilarityThreshold) && ! (wifiSimilarityThreshold > 0 && wifiSimilarityThreshold < 1)) {
+			throw new IllegalArgumentException("The similarity threshold must be between 0 and 1, or NaN");
+		}
+		this.wifiSimilarityThreshold = wifiSimilarityThreshold;
+	}
+}
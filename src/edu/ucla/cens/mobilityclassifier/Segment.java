@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Immutable bean-style wrapper for a run of consecutive windows of a user
+ * with the same mode: a trip, or a stay when the mode is still.
+ */
+public class Segment {
+	private final String mode;
+	private final long start;
+	private final long end;
+	private final int windows;
+	private final double distance;
+	private final double confidence;
+
+	/**
+	 * Creates a new segment without a distance or confidence.
+	 *
+	 * @param mode The mode of every window of the segment.
+	 *
+	 * @param start The time of the first window.
+	 *
+	 * @param end The time of the last window.
+	 *
+	 * @param windows The number of windows.
+	 */
+	public Segment(
+			final String mode,
+			final long start,
+			final long end,
+			final int windows) {
+
+		this(mode, start, end, windows, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Creates a new segment.
+	 *
+	 * @param mode The mode of the segment.
+	 *
+	 * @param start The time of the first window.
+	 *
+	 * @param end The time of the last window.
+	 *
+	 * @param windows The number of windows.
+	 *
+	 * @param distance The distance covered in meters, or NaN if it is not
+	 * 				   known.
+	 *
+	 * @param confidence How well the windows support the mode, from 0 to 1,
+	 * 					 or NaN if it is not known.
+	 */
+	public Segment(
+			final String mode,
+			final long start,
+			final long end,
+			final int windows,
+			final double distance,
+			final double confidence) {
+
+		if(end < start) {
+			throw new IllegalArgumentException("A segment cannot end before it starts");
+		}
+		if(windows < 1) {
+			throw new IllegalArgumentException("A segment has at least one window");
+		}
+
+		this.mode = mode;
+		this.start = start;
+		this.end = end;
+		this.windows = windows;
+		this.distance = distance;
+		this.confidence = confidence;
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public int getWindows() {
+		return windows;
+	}
+
+	/**
+	 * Returns the distance covered in meters, or NaN if it is not known.
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Returns how well the windows support the mode, from 0 to 1, or NaN if
+	 * it is not known.
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public String toString() {
+		return "Segment [mode=" + mode + ", start=" + start + ", end=" + end
+				+ ", windows=" + windows + ", distance=" + distance
+				+ ", confidence=" + confidence + "]";
+	}
+}
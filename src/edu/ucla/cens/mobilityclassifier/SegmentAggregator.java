@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns a user's classified windows into trips and stays as they arrive.
+ *
+ * Windows of the same mode are merged into a {@link Segment}. A run of
+ * another mode only closes the segment once it is at least the minimum
+ * number of windows long; a shorter run, such as a single walk window in a
+ * drive, is absorbed into the segment around it. Unknown windows never
+ * start a segment of their own: they join the segment around them, which
+ * takes its mode from the first window that has one, and windows that are
+ * all unknown until a gap or a flush make no segment. A gap longer than the
+ * maximum between two windows closes the segment.
+ *
+ * The distance of a segment is the path through the windows' locations
+ * when they are given, and otherwise estimated from each window's distance
+ * travelled. The confidence is the share of windows that had the segment's
+ * mode, with windows whose Wi-Fi mode contradicts it counting half.
+ *
+ * The state is a fixed handful of fields whatever the length of the
+ * segments, so one aggregator per active user costs the same. This is not
+ * thread-safe; a user's windows are added one at a time and in time order.
+ */
+public class SegmentAggregator {
+	public static final int DEFAULT_MIN_WINDOWS = 2;
+	public static final long DEFAULT_MAX_GAP_MILLIS = MobilityClassifier.WIFI_THRESHOLD_MILLIS;
+
+	private final int minWindows;
+	private final long maxGapMillis;
+
+	private final Run current = new Run();
+	private final Run pending = new Run();
+	private long lastTime;
+	private boolean started = false;
+	private double lastLatitude = Double.NaN;
+	private double lastLongitude = Double.NaN;
+
+	/**
+	 * Creates an aggregator that closes segments after two windows of another
+	 * mode or a gap of ten minutes.
+	 */
+	public SegmentAggregator() {
+		this(DEFAULT_MIN_WINDOWS, DEFAULT_MAX_GAP_MILLIS);
+	}
+
+	/**
+	 * Creates an aggregator.
+	 *
+	 * @param minWindows How many consecutive windows of another mode close a
+	 * 					 segment.
+	 *
+	 * @param maxGapMillis How long without windows closes a segment.
+	 */
+	public SegmentAggregator(int minWindows, long maxGapMillis) {
+		if (minWindows < 1) {
+			throw new IllegalArgumentException("At least one window must close a segment");
+		}
+		if (maxGapMillis <= 0) {
+			throw new IllegalArgumentException("The maximum gap must be positive");
+		}
+		this.minWindows = minWindows;
+		this.maxGapMillis = maxGapMillis;
+	}
+
+	/**
+	 * Adds the next window.
+	 *
+	 * @param time The time of the window.
+	 *
+	 * @param classification The classification of the window.
+	 *
+	 * @param location The location of the window, or null.
+	 *
+	 * @return The segment the window closed, or null.
+	 */
+	public Segment add(long time, Classification classification, Location location) {
+		double latitude = (location == null) ? Double.NaN : location.getLatitude();
+		double longitude = (location == null) ? Double.NaN : location.getLongitude();
+		return add(time, classification.getMode(), classification.getWifiMode(), classification.getTravelled(), latitude, longitude);
+	}
+
+	/**
+	 * Adds the next window from its fields, so that stored windows need not
+	 * become classifications first.
+	 */
+	Segment add(long time, String mode, String wifiMode, double travelled, double latitude, double longitude) {
+		if (started && time < lastTime) {
+			throw new IllegalArgumentException("Windows must be added in time order");
+		}
+		if (mode == null) {
+			mode = MobilityClassifier.UNKNOWN;
+		}
+
+		double distance = 0;
+		if (! Double.isNaN(latitude)) {
+			if (! Double.isNaN(lastLatitude)) {
+				distance = MobilityClassifier.Distance(lastLatitude, lastLongitude, latitude, longitude);
+			}
+			lastLatitude = latitude;
+			lastLongitude = longitude;
+		}
+		else if (started && travelled > 0) {
+			// The distance travelled spans the location history; take this window's share of it
+			distance = travelled * Math.min(1, (double) (time - lastTime) / MobilityClassifier.LOC_THRESHOLD_MILLIS);
+		}
+
+		Segment closed = null;
+		if (started && time - lastTime > maxGapMillis) {
+			closed = close();
+			lastLatitude = latitude;
+			lastLongitude = longitude;
+			distance = 0;
+		}
+		started = true;
+		lastTime = time;
+		double support = getSupport(mode, wifiMode);
+
+		if (current.windows == 0) {
+			current.start(mode, time);
+			current.add(time, distance, support);
+		}
+		else if (mode.equals(current.mode) || mode.equals(MobilityClassifier.UNKNOWN)) {
+			current.merge(pending);
+			current.add(time, distance, mode.equals(current.mode) ? support : 0);
+		}
+		else if (current.mode.equals(MobilityClassifier.UNKNOWN)) {
+			current.mode = mode; // the first real evidence names the segment
+			current.merge(pending);
+			current.add(time, distance, support);
+		}
+		else {
+			if (pending.windows > 0 && ! mode.equals(pending.mode)) {
+				current.merge(pending);
+			}
+			if (pending.windows == 0) {
+				pending.start(mode, time);
+			}
+			pending.add(time, distance, support);
+			if (pending.windows >= minWindows) {
+				closed = current.toSegment();
+				current.start(pending.mode, pending.startTime);
+				current.merge(pending);
+			}
+		}
+		return closed;
+	}
+
+	/**
+	 * Closes the open segment, for example at the end of a day.
+	 *
+	 * @return The segment, or null if there is none.
+	 */
+	public Segment flush() {
+		Segment closed = close();
+		started = false;
+		lastLatitude = Double.NaN;
+		lastLongitude = Double.NaN;
+		return closed;
+	}
+
+	/**
+	 * Aggregates a whole range of stored windows in one pass. Their
+	 * locations are not stored, so distances are estimated from the
+	 * distance travelled.
+	 *
+	 * @param range The windows.
+	 *
+	 * @return The segments, in time order.
+	 */
+	public List<Segment> aggregate(TimelineRange range) {
+		List<Segment> segments = new ArrayList<Segment>();
+		for (int i = 0; i < range.size(); i++) {
+			Segment segment = add(range.getTime(i), range.getMode(i), range.getWifiMode(i), range.getTravelled(i), Double.NaN, Double.NaN);
+			if (segment != null) {
+				segments.add(segment);
+			}
+		}
+		Segment segment = flush();
+		if (segment != null) {
+			segments.add(segment);
+		}
+		return segments;
+	}
+
+	/**
+	 * Aggregates a list of windows in one pass.
+	 *
+	 * @param times The times of the windows.
+	 *
+	 * @param classifications The classifications of the windows.
+	 *
+	 * @param locations The locations of the windows, or null. A null element
+	 * 					is a window without a location.
+	 *
+	 * @return The segments, in time order.
+	 */
+	public List<Segment> aggregate(long[] times, List<Classification> classifications, List<Location> locations) {
+		if (times.length != classifications.size() || (locations != null && locations.size() != times.length)) {
+			throw new IllegalArgumentException("Every window needs a time, a classification and, if any, a location");
+		}
+		List<Segment> segments = new ArrayList<Segment>();
+		for (int i = 0; i < times.length; i++) {
+			Segment segment = add(times[i], classifications.get(i), (locations == null) ? null : locations.get(i));
+			if (segment != null) {
+				segments.add(segment);
+			}
+		}
+		Segment segment = flush();
+		if (segment != null) {
+			segments.add(segment);
+		}
+		return segments;
+	}
+
+	private Segment close() {
+		current.merge(pending);
+		Segment closed = (current.windows == 0 || current.mode.equals(MobilityClassifier.UNKNOWN)) ? null : current.toSegment();
+		current.windows = 0;
+		return closed;
+	}
+
+	/**
+	 * Returns how much a window supports its mode: not at all when it is
+	 * unknown, half when its Wi-Fi says the opposite of still or drive, fully
+	 * otherwise.
+	 */
+	private static double getSupport(String mode, String wifiMode) {
+		if (mode.equals(MobilityClassifier.UNKNOWN)) {
+			return 0;
+		}
+		if (mode.equals(MobilityClassifier.STILL) && MobilityClassifier.DRIVE.equals(wifiMode)) {
+			return 0.5;
+		}
+		if (mode.equals(MobilityClassifier.DRIVE) && MobilityClassifier.STILL.equals(wifiMode)) {
+			return 0.5;
+		}
+		return 1;
+	}
+
+	/**
+	 * A run of windows being merged.
+	 */
+	private static class Run {
+		String mode;
+		long startTime;
+		long endTime;
+		int windows;
+		double distance;
+		double support;
+
+		void start(String mode, long time) {
+			this.mode = mode;
+			startTime = time;
+			endTime = time;
+			windows = 0;
+			distance = 0;
+			support = 0;
+		}
+
+		void add(long time, double distance, double support) {
+			endTime = time;
+			windows++;
+			this.distance += distance;
+			this.support += support;
+		}
+
+		/**
+		 * Adds the windows of another run, which must follow this one, as
+		 * windows that did not support this run's mode, and empties it.
+		 */
+		void merge(Run other) {
+			if (other.windows == 0) {
+				return;
+			}
+			if (windows == 0) {
+				startTime = other.startTime;
+			}
+			if (other.mode.equals(mode)) {
+				support += other.support;
+			}
+			endTime = other.endTime;
+			windows += other.windows;
+			distance += other.distance;
+			other.windows = 0;
+		}
+
+		Segment toSegment() {
+			return new Segment(mode, startTime, endTime, windows, distance, support / windows);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The sensor data of one window that feature extractors read: the values
+ * the classifier takes, the acceleration magnitudes it derives from them,
+ * and the data of any other sensor under a name of its extractor's choice.
+ *
+ * A window is not thread-safe while it is being filled, but extractors may
+ * read it at the same time once it is being classified.
+ */
+public class SensorWindow {
+	private final List<Sample> samples;
+	private final Double speed;
+	private final WifiScan wifiScan;
+	private final List<WifiScan> lastWifiScans;
+	private final Location location;
+	private final ArrayList<Location> histLocs;
+	private final Classification lastClassification;
+	private final Map<String, Object> extras = new HashMap<String, Object>();
+
+	private List<Double> magnitudes = null;
+	private double sampleRate = Double.NaN;
+	private LocationTracker locationTracker = null;
+	private Classification classification = null;
+
+	/**
+	 * Creates a window.
+	 *
+	 * @param samples The accelerometer samples.
+	 *
+	 * @param speed The GPS speed, or NaN if it is not known.
+	 *
+	 * @param wifiScan The Wi-Fi scan, or null.
+	 *
+	 * @param lastWifiScans The Wi-Fi scans of the recent past, or null.
+	 *
+	 * @param location The location, or null.
+	 *
+	 * @param histLocs The locations of the recent past, or null.
+	 *
+	 * @param lastClassification The classification of the previous window, or
+	 * 							 null.
+	 */
+	public SensorWindow(
+			final List<Sample> samples,
+			final Double speed,
+			final WifiScan wifiScan,
+			final List<WifiScan> lastWifiScans,
+			final Location location,
+			final ArrayList<Location> histLocs,
+			final Classification lastClassification) {
+
+		if(samples == null) {
+			throw new IllegalArgumentException("Samples are required");
+		}
+
+		this.samples = samples;
+		this.speed = (speed == null) ? Double.NaN : speed;
+		this.wifiScan = wifiScan;
+		this.lastWifiScans = lastWifiScans;
+		this.location = location;
+		this.histLocs = histLocs;
+		this.lastClassification = lastClassification;
+	}
+
+	public List<Sample> getSamples() {
+		return samples;
+	}
+
+	public Double getSpeed() {
+		return speed;
+	}
+
+	public WifiScan getWifiScan() {
+		return wifiScan;
+	}
+
+	public List<WifiScan> getLastWifiScans() {
+		return lastWifiScans;
+	}
+
+	public Location getLocation() {
+		return location;
+	}
+
+	public ArrayList<Location> getHistLocs() {
+		return histLocs;
+	}
+
+	public Classification getLastClassification() {
+		return lastClassification;
+	}
+
+	/**
+	 * Returns the data of another sensor.
+	 *
+	 * @param name The name the data was set under.
+	 *
+	 * @return The data, or null if there is none.
+	 */
+	public Object getExtra(String name) {
+		return extras.get(name);
+	}
+
+	/**
+	 * Sets the data of another sensor, such as barometer readings, for the
+	 * extractor that reads it.
+	 *
+	 * @param name The name the extractor reads the data under.
+	 *
+	 * @param value The data, or null to remove it.
+	 */
+	public void setExtra(String name, Object value) {
+		if (value == null) {
+			extras.remove(name);
+		}
+		else {
+			extras.put(name, value);
+		}
+	}
+
+	/**
+	 * Returns the magnitudes of the acceleration in gravity units, after any
+	 * resampling, or null if the window is not being classified. They must
+	 * not be modified.
+	 */
+	public List<Double> getMagnitudes() {
+		return magnitudes;
+	}
+
+	/**
+	 * Returns the samples per second of the magnitudes, or NaN if the window
+	 * is not being classified.
+	 */
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	void putExtras(SensorWindow window) {
+		extras.putAll(window.extras);
+	}
+
+	void setMagnitudes(List<Double> magnitudes, double sampleRate) {
+		this.magnitudes = magnitudes;
+		this.sampleRate = sampleRate;
+	}
+
+	LocationTracker getLocationTracker() {
+		return locationTracker;
+	}
+
+	void setLocationTracker(LocationTracker locationTracker) {
+		this.locationTracker = locationTracker;
+	}
+
+	/**
+	 * Returns the classification the built-in extractors fill in.
+	 */
+	Classification getClassification() {
+		return classification;
+	}
+
+	void setClassification(Classification classification) {
+		this.classification = classification;
+	}
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routes each user to one of several workers by consistent hashing, so that
+ * the state of the users can be spread over processes and only about
+ * 1 / n of it moves when one of n workers joins or leaves.
+ *
+ * Each worker has a number of points on a ring of 64-bit hashes, and a user
+ * belongs to the worker of the first point at or after the hash of the user.
+ * The points depend only on the names of the workers, so routers with the
+ * same workers route the same way. Lookups are lock-free; changes to the
+ * workers are serialized.
+ */
+public class ShardRouter {
+	/**
+	 * The default number of points of each worker on the ring.
+	 */
+	public static final int DEFAULT_POINTS = 128;
+
+	private final int points;
+	private final List<String> workers = new ArrayList<String>();
+	private volatile Ring ring = new Ring(new long[0], new String[0]);
+
+	/**
+	 * Creates a router with no workers and {@link #DEFAULT_POINTS} points a
+	 * worker.
+	 */
+	public ShardRouter() {
+		this(DEFAULT_POINTS);
+	}
+
+	/**
+	 * Creates a router with no workers.
+	 *
+	 * @param points The number of points of each worker on the ring. More
+	 * 				 spread the users more evenly.
+	 */
+	public ShardRouter(int points) {
+		if (points < 1) {
+			throw new IllegalArgumentException("A worker needs at least one point");
+		}
+		this.points = points;
+	}
+
+	/**
+	 * Adds a worker, which takes over the users whose hash now falls before
+	 * one of its points.
+	 *
+	 * @param worker The name of the worker, such as its address.
+	 *
+	 * @throws IllegalArgumentException The worker was already added.
+	 */
+	public synchronized void addWorker(String worker) {
+		if (worker == null) {
+			throw new IllegalArgumentException("The worker is null");
+		}
+		if (workers.contains(worker)) {
+			throw new IllegalArgumentException("The worker " + worker + " was already added");
+		}
+		workers.add(worker);
+		rebuild();
+	}
+
+	/**
+	 * Removes a worker, whose users go to the workers of the next points.
+	 *
+	 * @return Whether the worker had been added.
+	 */
+	public synchronized boolean removeWorker(String worker) {
+		if (! workers.remove(worker)) {
+			return false;
+		}
+		rebuild();
+		return true;
+	}
+
+	/**
+	 * Returns the workers in the order they were added.
+	 */
+	public synchronized List<String> getWorkers() {
+		return Collections.unmodifiableList(new ArrayList<String>(workers));
+	}
+
+	/**
+	 * Returns the worker of a user.
+	 *
+	 * @throws IllegalStateException There are no workers.
+	 */
+	public String getWorker(String user) {
+		Ring ring = this.ring;
+		if (ring.hashes.length == 0) {
+			throw new IllegalStateException("There are no workers");
+		}
+		int index = Arrays.binarySearch(ring.hashes, hash(user));
+		if (index < 0) {
+			index = -index - 1;
+			if (index == ring.hashes.length) {
+				index = 0;
+			}
+		}
+		return ring.workers[index];
+	}
+
+	private void rebuild() {
+		List<Point> ringPoints = new ArrayList<Point>(workers.size() * points);
+		for (String worker : workers) {
+			for (int p = 0; p < points; p++) {
+				ringPoints.add(new Point(hash(worker + "#" + p), worker));
+			}
+		}
+		Collections.sort(ringPoints);
+		long[] hashes = new long[ringPoints.size()];
+		String[] owners = new String[ringPoints.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = ringPoints.get(i).hash;
+			owners[i] = ringPoints.get(i).worker;
+		}
+		ring = new Ring(hashes, owners);
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of the characters of a string, mixed
+	 * so that similar names land far apart on the ring.
+	 */
+	static long hash(String string) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+			hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * A point of a worker on the ring. A point two workers share goes to
+	 * the one whose name sorts first.
+	 */
+	private static final class Point implements Comparable<Point> {
+		final long hash;
+		final String worker;
+
+		Point(long hash, String worker) {
+			this.hash = hash;
+			this.worker = worker;
+		}
+
+		@Override
+		public int compareTo(Point other) {
+			if (hash != other.hash) {
+				return (hash < other.hash) ? -1 : 1;
+			}
+			return worker.compareTo(other.worker);
+		}
+	}
+
+	private static final class Ring {
+		final long[] hashes;
+		final String[] workers;
+
+		Ring(long[] hashes, String[] workers) {
+			this.hashes = hashes;
+			this.workers = workers;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Immutable bean-style wrapper for a place where a user stayed for a while.
+ */
+public class StayPoint {
+	private final double latitude;
+	private final double longitude;
+	private final long start;
+	private final long end;
+
+	/**
+	 * Creates a new stay point.
+	 *
+	 * @param latitude The latitude of the centroid of the fixes.
+	 *
+	 * @param longitude The longitude of the centroid of the fixes.
+	 *
+	 * @param start The time of the first fix of the stay.
+	 *
+	 * @param end The time of the last fix of the stay.
+	 */
+	public StayPoint(
+			final double latitude,
+			final double longitude,
+			final long start,
+			final long end) {
+
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.start = start;
+		this.end = end;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return "StayPoint [lat=" + latitude + ", lon=" + longitude
+				+ ", start=" + start + ", end=" + end + "]";
+	}
+}
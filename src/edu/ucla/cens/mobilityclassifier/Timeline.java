@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The classifications of one user, appended to a memory-mapped file of
+ * fixed-width records.
+ *
+ * A record is {@link #RECORD_SIZE} bytes: the time, the mode, Wi-Fi mode
+ * and location mode as codes, whether there are features, the Wi-Fi totals,
+ * how many records before it its run of the same mode started, the
+ * average, variance, ten FFT values, radius and distance travelled. The
+ * file starts with a {@link #HEADER_SIZE} byte header that holds the number
+ * of complete records, so a file that was not closed keeps every record
+ * that was published.
+ *
+ * The file is mapped in regions as it grows. The first holds 256 records,
+ * about 35 KB, and each next one twice as many up to 32768 records, about
+ * 4.4 MB, so a user with few windows costs little disk.
+ *
+ * Appending does not wait for other writers: a writer encodes its record,
+ * reserves a slot by incrementing a counter, writes it and marks the slot
+ * committed. Every writer then publishes the longest prefix of committed
+ * slots, so a record written before an earlier slot is published by the
+ * writer of that slot; only raising the count in the header takes a short
+ * lock. Each record's run of the same mode is linked as it is published,
+ * so {@link #getSegments} jumps from run to run instead of reading every
+ * record. Readers only see published records, and read them straight from
+ * the mapping. Windows are expected in time order, which range queries
+ * rely on. If a reserved slot cannot be written, no later record is
+ * published and the timeline takes no more records until it is reopened.
+ */
+public class Timeline implements Closeable {
+	public static final int HEADER_SIZE = 64;
+	public static final int RECORD_SIZE = 136;
+	private static final int MAGIC = 0x4D43544C; // "MCTL"
+	private static final int VERSION = 2; // 1 had no runs
+	private static final int COUNT_OFFSET = 16;
+	static final int FIRST_REGION_RECORDS = 1 << 8;
+	static final int RECORDS_PER_REGION = 1 << 15;
+	private static final int GROWING_REGIONS = 8; // FIRST_REGION_RECORDS << 7 == RECORDS_PER_REGION
+	private static final long GROWING_RECORDS = (long) FIRST_REGION_RECORDS * ((1 << GROWING_REGIONS) - 1);
+
+	static final int TIME = 0;
+	static final int MODE = 8;
+	static final int WIFI_MODE = 9;
+	static final int LOCATION_MODE = 10;
+	static final int HAS_FEATURES = 11;
+	static final int WIFI_TOTAL = 12;
+	static final int WIFI_RECOG_TOTAL = 16;
+	static final int RUN = 20;
+	static final int AVERAGE = 24;
+	static final int VARIANCE = 32;
+	static final int FFT = 40;
+	static final int RADIUS = 120;
+	static final int TRAVELLED = 128;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+	private volatile AtomicLongArray[] commits = new AtomicLongArray[0]; // a bit per slot of each region
+	private final AtomicLong reserved;
+	private final AtomicLong published;
+	private volatile Throwable failure = null;
+
+	/**
+	 * Opens a timeline, creating its file if it does not exist.
+	 *
+	 * @param path The file of the timeline.
+	 *
+	 * @throws IOException The file could not be opened or is not a timeline.
+	 */
+	public Timeline(File path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		boolean created = channel.size() == 0;
+		header = map(channel, 0, HEADER_SIZE);
+		long count = 0;
+		if (created) {
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, RECORD_SIZE);
+			header.putLong(COUNT_OFFSET, 0);
+		}
+		else if (header.getInt(0) != MAGIC || header.getInt(4) < 1 || header.getInt(4) > VERSION || header.getInt(8) != RECORD_SIZE) {
+			file.close();
+			throw new IOException(path + " is not a timeline of this version");
+		}
+		else {
+			count = header.getLong(COUNT_OFFSET);
+		}
+		reserved = new AtomicLong(count);
+		published = new AtomicLong(count);
+		if (count > 0) {
+			getRegion(regionOf(count - 1));
+		}
+		if (header.getInt(4) < VERSION) {
+			for (long record = 0; record < count; record++) {
+				link(record);
+			}
+			header.putInt(4, VERSION);
+		}
+	}
+
+	/**
+	 * Appends a classification.
+	 *
+	 * @param time The time of the window.
+	 *
+	 * @param classification The classification of the window.
+	 *
+	 * @throws IOException The file could not be extended. The timeline then
+	 * 					   takes no more records.
+	 *
+	 * @throws IllegalStateException An earlier append failed.
+	 */
+	public void append(long time, Classification classification) throws IOException {
+		ByteBuffer record = encode(time, classification);
+		checkFailure();
+		long slot = reserved.getAndIncrement();
+		boolean done = false;
+		try {
+			int index = regionOf(slot);
+			ByteBuffer region = getRegion(index).duplicate();
+			region.position(offsetOf(slot));
+			region.put(record);
+			commit(commits[index], (int) (slot - firstOf(index)));
+			done = true;
+		}
+		catch(IOException e) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			if (! done && failure == null) {
+				failure = new IllegalStateException("Could not write record " + slot);
+			}
+		}
+		publish();
+		if (failure != null && published.get() <= slot) {
+			throw new IllegalStateException("An earlier append failed, so this record is not published; reopen the timeline", failure);
+		}
+	}
+
+	private static void commit(AtomicLongArray bits, int index) {
+		long mask = 1L << index;
+		while (true) {
+			long word = bits.get(index >>> 6);
+			if (bits.compareAndSet(index >>> 6, word, word | mask)) {
+				return;
+			}
+		}
+	}
+
+	private boolean isCommitted(long slot) {
+		int index = regionOf(slot);
+		AtomicLongArray[] commits = this.commits;
+		if (index >= commits.length) {
+			return false;
+		}
+		int bit = (int) (slot - firstOf(index));
+		return (commits[index].get(bit >>> 6) & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Publishes the committed slots that follow the published ones, linking
+	 * each into its run first. Writers that publish at once link a slot to
+	 * the same run, and only one of them moves the count past it.
+	 */
+	private void publish() {
+		while (true) {
+			long slot = published.get();
+			if (! isCommitted(slot)) {
+				break;
+			}
+			link(slot);
+			published.compareAndSet(slot, slot + 1);
+		}
+		long count = published.get();
+		synchronized (header) {
+			if (header.getLong(COUNT_OFFSET) < count) {
+				header.putLong(COUNT_OFFSET, count);
+			}
+		}
+	}
+
+	/**
+	 * Writes how many records before a record its run of the same mode
+	 * started, from the record before it.
+	 */
+	private void link(long record) {
+		MappedByteBuffer[] regions = this.regions;
+		MappedByteBuffer region = regions[regionOf(record)];
+		int offset = offsetOf(record);
+		int run = 0;
+		if (record > 0) {
+			MappedByteBuffer previous = regions[regionOf(record - 1)];
+			int previousOffset = offsetOf(record - 1);
+			if (previous.get(previousOffset + MODE) == region.get(offset + MODE)) {
+				run = previous.getInt(previousOffset + RUN) + 1;
+			}
+		}
+		region.putInt(offset + RUN, run);
+	}
+
+	/**
+	 * Writes a record to a buffer, so that a classification that cannot be
+	 * stored fails before it takes a slot.
+	 */
+	private static ByteBuffer encode(long time, Classification classification) {
+		if (classification == null) {
+			throw new IllegalArgumentException("The classification is null");
+		}
+		List<Double> fft = classification.getFft();
+		if (fft != null && fft.size() != 10) {
+			throw new IllegalArgumentException("Expected 10 FFT values but found " + fft.size());
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		record.order(ByteOrder.LITTLE_ENDIAN);
+		record.putLong(TIME, time);
+		record.put(MODE, (byte) MobilityClassifier.getModeCode(classification.getMode()));
+		record.put(WIFI_MODE, (byte) MobilityClassifier.getModeCode(classification.getWifiMode()));
+		record.put(LOCATION_MODE, (byte) MobilityClassifier.getModeCode(classification.getLocationMode()));
+		record.put(HAS_FEATURES, (byte) (classification.hasFeatures() ? 1 : 0));
+		record.putInt(WIFI_TOTAL, classification.getWifiTotal());
+		record.putInt(WIFI_RECOG_TOTAL, classification.getWifiRecogTotal());
+		record.putDouble(AVERAGE, (classification.getAverage() == null) ? Double.NaN : classification.getAverage());
+		record.putDouble(VARIANCE, (classification.getVariance() == null) ? Double.NaN : classification.getVariance());
+		for (int i = 0; i < 10; i++) {
+			record.putDouble(FFT + 8 * i, (fft == null) ? Double.NaN : fft.get(i));
+		}
+		record.putDouble(RADIUS, classification.getRadius());
+		record.putDouble(TRAVELLED, classification.getTravelled());
+		return record;
+	}
+
+	private void checkFailure() {
+		Throwable failure = this.failure;
+		if (failure != null) {
+			throw new IllegalStateException("An earlier append failed; reopen the timeline", failure);
+		}
+	}
+
+	/**
+	 * Returns the number of published records.
+	 */
+	public long size() {
+		return published.get();
+	}
+
+	/**
+	 * Returns the records whose time is in a range, without copying them.
+	 *
+	 * @param from The earliest time, inclusive.
+	 *
+	 * @param to The latest time, exclusive.
+	 *
+	 * @return A view of the records at the time of the call.
+	 */
+	public TimelineRange range(long from, long to) {
+		long size = published.get();
+		MappedByteBuffer[] regions = this.regions;
+		long first = search(regions, size, from);
+		long last = search(regions, size, to);
+		return new TimelineRange(regions, first, Math.max(first, last));
+	}
+
+	/**
+	 * Returns the runs of windows with the same mode in a range, cut at its
+	 * ends. Only the last record of each run is read.
+	 *
+	 * @param from The earliest time, inclusive.
+	 *
+	 * @param to The latest time, exclusive.
+	 *
+	 * @return The runs in time order.
+	 */
+	public List<Segment> getSegments(long from, long to) {
+		TimelineRange range = range(from, to);
+		List<Segment> segments = new ArrayList<Segment>();
+		int end = range.size();
+		while (end > 0) {
+			int start = (int) Math.max(0, end - 1 - (long) range.getRun(end - 1));
+			segments.add(new Segment(range.getMode(start), range.getTime(start), range.getTime(end - 1), end - start));
+			end = start;
+		}
+		Collections.reverse(segments);
+		return segments;
+	}
+
+	/**
+	 * Writes the published records to the disk.
+	 */
+	public void force() {
+		for (MappedByteBuffer region : regions) {
+			region.force();
+		}
+		header.force();
+	}
+
+	/**
+	 * Writes the records to the disk and closes the file. The timeline must
+	 * not be used afterwards.
+	 *
+	 * @throws IOException The file could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		force();
+		file.close();
+	}
+
+	/**
+	 * Returns the index of the first record at or after a time.
+	 */
+	private static long search(MappedByteBuffer[] regions, long size, long time) {
+		long low = 0;
+		long high = size;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (regions[regionOf(middle)].getLong(offsetOf(middle) + TIME) < time) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the region of a record.
+	 */
+	static int regionOf(long record) {
+		if (record < GROWING_RECORDS) {
+			return 63 - Long.numberOfLeadingZeros(record / FIRST_REGION_RECORDS + 1);
+		}
+		return GROWING_REGIONS + (int) ((record - GROWING_RECORDS) / RECORDS_PER_REGION);
+	}
+
+	/**
+	 * Returns the offset of a record in its region.
+	 */
+	static int offsetOf(long record) {
+		return (int) (record - firstOf(regionOf(record))) * RECORD_SIZE;
+	}
+
+	/**
+	 * Returns the first record of a region.
+	 */
+	private static long firstOf(int region) {
+		if (region < GROWING_REGIONS) {
+			return (long) FIRST_REGION_RECORDS * ((1 << region) - 1);
+		}
+		return GROWING_RECORDS + (long) (region - GROWING_REGIONS) * RECORDS_PER_REGION;
+	}
+
+	private static int recordsOf(int region) {
+		return (region < GROWING_REGIONS) ? FIRST_REGION_RECORDS << region : RECORDS_PER_REGION;
+	}
+
+	private MappedByteBuffer getRegion(int index) throws IOException {
+		MappedByteBuffer[] regions = this.regions;
+		if (index < regions.length) {
+			return regions[index];
+		}
+		synchronized (this) {
+			regions = this.regions;
+			if (index >= regions.length) {
+				MappedByteBuffer[] grown = new MappedByteBuffer[index + 1];
+				AtomicLongArray[] grownCommits = new AtomicLongArray[index + 1];
+				System.arraycopy(regions, 0, grown, 0, regions.length);
+				System.arraycopy(commits, 0, grownCommits, 0, regions.length);
+				for (int i = regions.length; i <= index; i++) {
+					grown[i] = map(channel, HEADER_SIZE + firstOf(i) * RECORD_SIZE, (long) recordsOf(i) * RECORD_SIZE);
+					grownCommits[i] = new AtomicLongArray(recordsOf(i) / 64);
+				}
+				// the commits first, so that a region a writer sees has its bits
+				this.commits = grownCommits;
+				this.regions = grown;
+				regions = grown;
+			}
+			return regions[index];
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A view of consecutive records of a {@link Timeline} that reads each field
+ * straight from the mapped file. Records appended after the view was made
+ * are not part of it.
+ */
+public class TimelineRange {
+	private final MappedByteBuffer[] regions;
+	private final long first;
+	private final int size;
+
+	TimelineRange(MappedByteBuffer[] regions, long first, long end) {
+		if (end - first > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The range is too large for one view");
+		}
+		this.regions = regions;
+		this.first = first;
+		this.size = (int) (end - first);
+	}
+
+	/**
+	 * Returns the number of records in the view.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public long getTime(int index) {
+		return region(index).getLong(offset(index) + Timeline.TIME);
+	}
+
+	public String getMode(int index) {
+		return MobilityClassifier.getMode(getModeCode(index));
+	}
+
+	public String getWifiMode(int index) {
+		return MobilityClassifier.getMode(region(index).get(offset(index) + Timeline.WIFI_MODE));
+	}
+
+	public String getLocationMode(int index) {
+		return MobilityClassifier.getMode(region(index).get(offset(index) + Timeline.LOCATION_MODE));
+	}
+
+	public boolean hasFeatures(int index) {
+		return region(index).get(offset(index) + Timeline.HAS_FEATURES) != 0;
+	}
+
+	public int getWifiTotal(int index) {
+		return region(index).getInt(offset(index) + Timeline.WIFI_TOTAL);
+	}
+
+	public int getWifiRecogTotal(int index) {
+		return region(index).getInt(offset(index) + Timeline.WIFI_RECOG_TOTAL);
+	}
+
+	/**
+	 * Returns the average magnitude, or NaN if it was not calculated.
+	 */
+	public double getAverage(int index) {
+		return region(index).getDouble(offset(index) + Timeline.AVERAGE);
+	}
+
+	/**
+	 * Returns the variance of the magnitude, or NaN if it was not calculated.
+	 */
+	public double getVariance(int index) {
+		return region(index).getDouble(offset(index) + Timeline.VARIANCE);
+	}
+
+	/**
+	 * Returns an FFT value, or NaN if it was not calculated.
+	 *
+	 * @param index The record.
+	 *
+	 * @param bin The FFT value, from 0 for 1 Hz to 9 for 10 Hz.
+	 */
+	public double getFft(int index, int bin) {
+		if (bin < 0 || bin >= 10) {
+			throw new IndexOutOfBoundsException("There are 10 FFT values");
+		}
+		return region(index).getDouble(offset(index) + Timeline.FFT + 8 * bin);
+	}
+
+	public double getRadius(int index) {
+		return region(index).getDouble(offset(index) + Timeline.RADIUS);
+	}
+
+	public double getTravelled(int index) {
+		return region(index).getDouble(offset(index) + Timeline.TRAVELLED);
+	}
+
+	/**
+	 * Copies a record into a new classification.
+	 *
+	 * @param index The record.
+	 */
+	public Classification getClassification(int index) {
+		Classification classification = new Classification();
+		classification.setMode(getMode(index));
+		classification.setWifiMode(getWifiMode(index));
+		classification.setLocationMode(getLocationMode(index));
+		classification.setHasFeatures(hasFeatures(index));
+		classification.setWifiTotal(getWifiTotal(index));
+		classification.setWifiRecogTotal(getWifiRecogTotal(index));
+		double average = getAverage(index);
+		double variance = getVariance(index);
+		classification.setAverage(Double.isNaN(average) ? null : average);
+		classification.setVariance(Double.isNaN(variance) ? null : variance);
+		if (! Double.isNaN(getFft(index, 0))) {
+			List<Double> fft = new ArrayList<Double>(10);
+			for (int bin = 0; bin < 10; bin++) {
+				fft.add(getFft(index, bin));
+			}
+			classification.setFft(fft);
+		}
+		classification.setRadius(getRadius(index));
+		classification.setTravelled(getTravelled(index));
+		return classification;
+	}
+
+	int getModeCode(int index) {
+		return region(index).get(offset(index) + Timeline.MODE);
+	}
+
+	/**
+	 * Returns how many records before a record its run of the same mode
+	 * started, which may be before the view.
+	 */
+	int getRun(int index) {
+		return region(index).getInt(offset(index) + Timeline.RUN);
+	}
+
+	private MappedByteBuffer region(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+		}
+		return regions[Timeline.regionOf(first + index)];
+	}
+
+	private int offset(int index) {
+		return Timeline.offsetOf(first + index);
+	}
+}
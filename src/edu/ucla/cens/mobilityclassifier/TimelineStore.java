@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A directory of {@link Timeline}s, one file per user, that replaces
+ * writing every classification to a database row.
+ *
+ * Timelines are opened the first time a user is used and stay open until
+ * the store is closed. Different users never contend; appends for the same
+ * user do not lock either.
+ */
+public class TimelineStore implements Closeable {
+	private static final String SUFFIX = ".timeline";
+
+	private final File directory;
+	private final ConcurrentMap<String, Timeline> timelines = new ConcurrentHashMap<String, Timeline>();
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens a store, creating its directory if it does not exist.
+	 *
+	 * @param directory The directory of the timeline files.
+	 *
+	 * @throws IOException The directory could not be created.
+	 */
+	public TimelineStore(File directory) throws IOException {
+		if (! directory.isDirectory() && ! directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * Appends a classification to a user's timeline.
+	 *
+	 * @param user The user.
+	 *
+	 * @param time The time of the window.
+	 *
+	 * @param classification The classification of the window.
+	 *
+	 * @throws IOException The timeline could not be opened or extended.
+	 */
+	public void append(String user, long time, Classification classification) throws IOException {
+		getTimeline(user).append(time, classification);
+	}
+
+	/**
+	 * Returns the timeline of a user, opening it if needed.
+	 *
+	 * @param user The user.
+	 *
+	 * @throws IOException The timeline could not be opened.
+	 */
+	public Timeline getTimeline(String user) throws IOException {
+		Timeline timeline = timelines.get(user);
+		if (timeline != null) {
+			return timeline;
+		}
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("The store is closed");
+			}
+			timeline = timelines.get(user);
+			if (timeline == null) {
+				timeline = new Timeline(new File(directory, getFileName(user)));
+				timelines.put(user, timeline);
+			}
+			return timeline;
+		}
+	}
+
+	/**
+	 * Writes every open timeline to the disk.
+	 */
+	public void force() {
+		for (Timeline timeline : timelines.values()) {
+			timeline.force();
+		}
+	}
+
+	/**
+	 * Writes and closes every timeline.
+	 *
+	 * @throws IOException A timeline could not be closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		IOException failure = null;
+		for (Timeline timeline : timelines.values()) {
+			try {
+				timeline.close();
+			}
+			catch(IOException e) {
+				failure = e;
+			}
+		}
+		timelines.clear();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static String getFileName(String user) {
+		if (user == null || user.length() == 0) {
+			throw new IllegalArgumentException("A user is required");
+		}
+		try {
+			return URLEncoder.encode(user, "UTF-8").replace("*", "%2A") + SUFFIX;
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported", e);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+/**
+ * Immutable bean-style wrapper for what one merge pass over two
+ * {@link WifiFingerprint}s found.
+ */
+public class WifiComparison {
+	private final double weightedJaccard;
+	private final double rankCorrelation;
+	private final int strongTotal;
+	private final int strongShared;
+
+	/**
+	 * Creates a new comparison.
+	 *
+	 * @param weightedJaccard The weighted Jaccard similarity of the scans.
+	 *
+	 * @param rankCorrelation The correlation of the ranks of the strengths
+	 * 						  of the shared access points, or NaN.
+	 *
+	 * @param strongTotal The number of strong readings in the first scan.
+	 *
+	 * @param strongShared The number of those that are of access points
+	 * 					   strong in the second scan.
+	 */
+	public WifiComparison(
+			final double weightedJaccard,
+			final double rankCorrelation,
+			final int strongTotal,
+			final int strongShared) {
+
+		this.weightedJaccard = weightedJaccard;
+		this.rankCorrelation = rankCorrelation;
+		this.strongTotal = strongTotal;
+		this.strongShared = strongShared;
+	}
+
+	/**
+	 * Returns the weighted Jaccard similarity of the scans.
+	 *
+	 * @return A similarity between 0 and 1.
+	 *
+	 * @see WifiFingerprint#weightedJaccard(WifiFingerprint)
+	 */
+	public double getWeightedJaccard() {
+		return weightedJaccard;
+	}
+
+	/**
+	 * Returns the rank correlation of the strengths of the shared access
+	 * points.
+	 *
+	 * @return A correlation between -1 and 1, or NaN.
+	 *
+	 * @see WifiFingerprint#rankCorrelation(WifiFingerprint)
+	 */
+	public double getRankCorrelation() {
+		return rankCorrelation;
+	}
+
+	/**
+	 * Returns the number of readings in the first scan at least as strong
+	 * as its average, as the classifier counts them without a similarity
+	 * threshold.
+	 *
+	 * @return The number of strong readings.
+	 */
+	public int getStrongTotal() {
+		return strongTotal;
+	}
+
+	/**
+	 * Returns the number of the strong readings in the first scan whose
+	 * access point is also strong in the second.
+	 *
+	 * @return The number of shared strong readings.
+	 */
+	public int getStrongShared() {
+		return strongShared;
+	}
+
+	@Override
+	public String toString() {
+		return "WifiComparison [weightedJaccard=" + weightedJaccard
+				+ ", rankCorrelation=" + rankCorrelation + ", strongTotal="
+				+ strongTotal + ", strongShared=" + strongShared + "]";
+	}
+}
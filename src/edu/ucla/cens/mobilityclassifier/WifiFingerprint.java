@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The access points of a Wi-Fi scan with their signal strengths, as sorted
+ * primitive arrays, so that two scans are compared in one merge pass over
+ * every access point and its strength instead of a set of the strong SSIDs.
+ *
+ * Each access point is a 64-bit hash of its SSID, which distinct SSIDs
+ * share with negligible probability, with its strength in dBm; an SSID
+ * heard twice keeps its stronger reading. An access point weighs its
+ * strength above {@link #FLOOR}, so a strong access point that comes and
+ * goes counts for more than a weak one at the edge of range. It also has
+ * the rank of its strength within the scan, for the rank correlation, and
+ * the number of its readings that the classifier counts as strong.
+ */
+public class WifiFingerprint {
+	/**
+	 * The strength in dBm at and below which an access point weighs
+	 * nothing.
+	 */
+	public static final double FLOOR = -100;
+
+	private static final WifiFingerprint EMPTY = new WifiFingerprint(new long[0], new float[0], new int[0]);
+
+	private final long[] keys;
+	private final float[] strengths;
+	private final int[] strongCounts;
+	private volatile float[] ranks;
+
+	private WifiFingerprint(long[] keys, float[] strengths, int[] strongCounts) {
+		this.keys = keys;
+		this.strengths = strengths;
+		this.strongCounts = strongCounts;
+	}
+
+	/**
+	 * Creates the fingerprint of the access points of a scan.
+	 */
+	public static WifiFingerprint of(List<AccessPoint> accessPoints) {
+		int size = accessPoints.size();
+		long[] entries = new long[size];
+		for (int i = 0; i < size; i++) {
+			entries[i] = WifiSketch.mix(WifiSketch.hash(accessPoints.get(i).getSsid()));
+		}
+		long[] sorted = entries.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (count == 0 || sorted[count - 1] != sorted[i]) {
+				sorted[count++] = sorted[i];
+			}
+		}
+		long[] keys = (count == size) ? sorted : Arrays.copyOf(sorted, count);
+		float[] strengths = new float[count];
+		int[] strongCounts = new int[count];
+		Arrays.fill(strengths, Float.NEGATIVE_INFINITY);
+		double strong = WifiScan.getStrongThreshold(accessPoints);
+		for (int i = 0; i < size; i++) {
+			int index = Arrays.binarySearch(keys, entries[i]);
+			double strength = accessPoints.get(i).getStrength();
+			strengths[index] = Math.max(strengths[index], (float) strength);
+			if (strength >= strong) {
+				strongCounts[index]++;
+			}
+		}
+		return new WifiFingerprint(keys, strengths, strongCounts);
+	}
+
+	/**
+	 * Returns the fingerprint of the union of scans, in which each access
+	 * point has its strongest reading and is strong if it is in any scan.
+	 *
+	 * @param fingerprints The fingerprints of the scans.
+	 */
+	public static WifiFingerprint union(List<WifiFingerprint> fingerprints) {
+		if (fingerprints.isEmpty()) {
+			return EMPTY;
+		}
+		// Merge the scans in pairs, then the pairs in pairs and so on, so that
+		// each access point is merged about log2 of the number of scans times
+		WifiFingerprint[] round = fingerprints.toArray(new WifiFingerprint[fingerprints.size()]);
+		int count = round.length;
+		while (count > 1) {
+			int next = 0;
+			for (int f = 0; f + 1 < count; f += 2) {
+				round[next++] = round[f].union(round[f + 1]);
+			}
+			if (count % 2 == 1) {
+				round[next++] = round[count - 1];
+			}
+			count = next;
+		}
+		return round[0];
+	}
+
+	private WifiFingerprint union(WifiFingerprint other) {
+		long[] unionKeys = new long[keys.length + other.keys.length];
+		float[] unionStrengths = new float[unionKeys.length];
+		int[] unionStrongCounts = new int[unionKeys.length];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < keys.length && j < other.keys.length) {
+			long key = keys[i];
+			long otherKey = other.keys[j];
+			if (key < otherKey) {
+				unionKeys[count] = key;
+				unionStrongCounts[count] = strongCounts[i];
+				unionStrengths[count++] = strengths[i++];
+			}
+			else if (otherKey < key) {
+				unionKeys[count] = otherKey;
+				unionStrongCounts[count] = other.strongCounts[j];
+				unionStrengths[count++] = other.strengths[j++];
+			}
+			else {
+				unionKeys[count] = key;
+				unionStrongCounts[count] = Math.max(strongCounts[i], other.strongCounts[j]);
+				unionStrengths[count++] = Math.max(strengths[i++], other.strengths[j++]);
+			}
+		}
+		int rest = keys.length - i;
+		System.arraycopy(keys, i, unionKeys, count, rest);
+		System.arraycopy(strengths, i, unionStrengths, count, rest);
+		System.arraycopy(strongCounts, i, unionStrongCounts, count, rest);
+		count += rest;
+		rest = other.keys.length - j;
+		System.arraycopy(other.keys, j, unionKeys, count, rest);
+		System.arraycopy(other.strengths, j, unionStrengths, count, rest);
+		System.arraycopy(other.strongCounts, j, unionStrongCounts, count, rest);
+		count += rest;
+		if (count < unionKeys.length) {
+			unionKeys = Arrays.copyOf(unionKeys, count);
+			unionStrengths = Arrays.copyOf(unionStrengths, count);
+			unionStrongCounts = Arrays.copyOf(unionStrongCounts, count);
+		}
+		return new WifiFingerprint(unionKeys, unionStrengths, unionStrongCounts);
+	}
+
+	/**
+	 * Returns the number of distinct access points.
+	 */
+	public int getSize() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the weighted Jaccard similarity of the two scans: the sum over
+	 * the access points of the smaller of their two weights, over the sum of
+	 * the larger, where an access point a scan did not hear weighs nothing.
+	 *
+	 * @return The similarity from 0 to 1, or 0 if neither scan has weight.
+	 */
+	public double weightedJaccard(WifiFingerprint other) {
+		return compare(other).getWeightedJaccard();
+	}
+
+	/**
+	 * Returns the correlation of the ranks of the strengths of the access
+	 * points both scans heard, each ranked within its own scan: near 1 when
+	 * the shared access points are in the same order of strength, as they
+	 * are for a phone that has not moved.
+	 *
+	 * @return The correlation from -1 to 1, or NaN with fewer than two
+	 * 		   shared access points or ranks that do not vary.
+	 */
+	public double rankCorrelation(WifiFingerprint other) {
+		return compare(other).getRankCorrelation();
+	}
+
+	/**
+	 * Compares this scan with another, usually the union of the recent
+	 * scans, in one merge pass over the access points of both: the weighted
+	 * Jaccard similarity, the rank correlation, and the strong readings of
+	 * this scan and how many of them the other scan also has as strong.
+	 */
+	public WifiComparison compare(WifiFingerprint other) {
+		double smaller = 0;
+		double larger = 0;
+		int strongTotal = 0;
+		int strongShared = 0;
+		int n = 0;
+		double sumX = 0;
+		double sumY = 0;
+		double sumXX = 0;
+		double sumYY = 0;
+		double sumXY = 0;
+		float[] ranks = getRanks();
+		float[] otherRanks = other.getRanks();
+		int i = 0;
+		int j = 0;
+		while (i < keys.length || j < other.keys.length) {
+			if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+				strongTotal += strongCounts[i];
+				larger += weight(strengths[i++]);
+			}
+			else if (i == keys.length || other.keys[j] < keys[i]) {
+				larger += weight(other.strengths[j++]);
+			}
+			else {
+				strongTotal += strongCounts[i];
+				if (other.strongCounts[j] > 0) {
+					strongShared += strongCounts[i];
+				}
+				double a = weight(strengths[i]);
+				double b = weight(other.strengths[j]);
+				smaller += Math.min(a, b);
+				larger += Math.max(a, b);
+				double x = ranks[i++];
+				double y = otherRanks[j++];
+				n++;
+				sumX += x;
+				sumY += y;
+				sumXX += x * x;
+				sumYY += y * y;
+				sumXY += x * y;
+			}
+		}
+		double correlation = Double.NaN;
+		if (n >= 2) {
+			double covariance = sumXY - sumX * sumY / n;
+			double varianceX = sumXX - sumX * sumX / n;
+			double varianceY = sumYY - sumY * sumY / n;
+			if (varianceX > 0 && varianceY > 0) {
+				correlation = covariance / Math.sqrt(varianceX * varianceY);
+			}
+		}
+		return new WifiComparison((larger == 0) ? 0 : smaller / larger, correlation, strongTotal, strongShared);
+	}
+
+	private static double weight(float strength) {
+		return (strength > FLOOR) ? strength - FLOOR : 0;
+	}
+
+	private float[] getRanks() {
+		float[] result = ranks;
+		if (result == null) {
+			result = rank(strengths);
+			ranks = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the rank of each strength within the scan, 0 for the weakest,
+	 * with tied strengths sharing their average rank.
+	 */
+	private static float[] rank(float[] strengths) {
+		// Sort each strength, as an int in the order of the floats, with its
+		// index below it, so that one primitive sort orders both
+		long[] sorted = new long[strengths.length];
+		for (int i = 0; i < strengths.length; i++) {
+			int bits = Float.floatToIntBits(strengths[i]);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			sorted[i] = ((long) bits << 32) | i;
+		}
+		Arrays.sort(sorted);
+		float[] ranks = new float[strengths.length];
+		int first = 0;
+		while (first < sorted.length) {
+			int last = first;
+			while (last + 1 < sorted.length && (sorted[last + 1] >> 32) == (sorted[first] >> 32)) {
+				last++;
+			}
+			for (int i = first; i <= last; i++) {
+				ranks[(int) sorted[i]] = (first + last) / 2f;
+			}
+			first = last + 1;
+		}
+		return ranks;
+	}
+}
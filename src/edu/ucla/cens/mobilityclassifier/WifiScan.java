@@ -15,6 +15,7 @@
  ******************************************************************************/
 package edu.ucla.cens.mobilityclassifier;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -25,6 +26,9 @@ import java.util.List;
 public class WifiScan {
 	private final Long time;
 	private final List<AccessPoint> accessPoints;
+	private volatile List<String> strongSsids;
+	private volatile WifiSketch sketch;
+	private volatile WifiFingerprint fingerprint;
 	
 	/**
 	 * Creates a new WiFi scan.
@@ -67,6 +71,100 @@ public class WifiScan {
 		return accessPoints;
 	}
 
+	/**
+	 * Returns the MinHash signature of the access points that the classifier
+	 * compares, with the default size. It is calculated once and cached.
+	 * 
+	 * @return The signature of this scan.
+	 */
+	public WifiSketch getSketch() {
+		return getSketch(WifiSketch.DEFAULT_SIZE);
+	}
+
+	/**
+	 * Returns the MinHash signature of the access points that the classifier
+	 * compares, i.e. those at least as strong as the average of this scan.
+	 * The last signature is cached.
+	 * 
+	 * @param size The number of slots in the signature.
+	 * 
+	 * @return The signature of this scan.
+	 */
+	public WifiSketch getSketch(int size) {
+		WifiSketch result = sketch;
+		if (result == null || result.getSize() != size) {
+			result = WifiSketch.of(getStrongSsids(), size);
+			sketch = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the fingerprint of every access point of the scan and its
+	 * strength. It is calculated once and cached.
+	 * 
+	 * @return The fingerprint of this scan.
+	 */
+	public WifiFingerprint getFingerprint() {
+		WifiFingerprint result = fingerprint;
+		if (result == null) {
+			result = WifiFingerprint.of(accessPoints);
+			fingerprint = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the SSIDs of the access points that are at least as strong as
+	 * the average of this scan. They are calculated once and cached.
+	 * 
+	 * @return The SSIDs of the strong access points.
+	 */
+	List<String> getStrongSsids() {
+		List<String> result = strongSsids;
+		if (result == null) {
+			result = getSSIDList(accessPoints);
+			strongSsids = result;
+		}
+		return result;
+	}
+	
+	private static List<String> getSSIDList(List<AccessPoint> accessPoints) {
+		List<String> ssidList = new ArrayList<String>();
+		double avg = getStrongThreshold(accessPoints);
+		int numberOfAccessPoints = accessPoints.size(); 
+		
+		for (int i = 0; i < numberOfAccessPoints; i++) {
+			
+			String ssid = accessPoints.get(i).getSsid(); 
+			Double strength = accessPoints.get(i).getStrength();
+			
+			if (strength >= avg) {
+				ssidList.add(ssid);
+			}
+		}
+		
+		return ssidList;
+	}
+
+	/**
+	 * Returns the strength at and above which an access point of a scan is
+	 * strong: the average strength, summed and divided as whole dBm.
+	 */
+	static double getStrongThreshold(List<AccessPoint> accessPoints) {
+		int strsum = 0, strcount = 0;
+		int numberOfAccessPoints = accessPoints.size(); 
+		
+		for (int i = 0; i < numberOfAccessPoints; i++) {
+			Double strength = accessPoints.get(i).getStrength();
+			
+			strsum += strength; 
+			strcount++;
+		}
+		
+		return (strcount > 0) ? strsum / strcount : Double.NaN;
+	}
+
 	@Override
 	public String toString() {
 		return "WifiScan [time=" + time + ", accessPoints=" + accessPoints
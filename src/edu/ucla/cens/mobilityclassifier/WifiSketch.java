@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A fixed-size MinHash signature of a set of SSIDs.
+ *
+ * Each of the signature's slots keeps the smallest value of an independent
+ * 16-bit hash over the SSIDs in the set, and four slots are packed into a
+ * long, so a 64-slot signature takes 16 words. The fraction of equal slots
+ * in two signatures estimates the Jaccard similarity of their sets with a
+ * standard error of about 1/sqrt(size); a larger size buys accuracy with
+ * memory and time.
+ * Comparing two signatures is an XOR and a few mask operations per word, and
+ * the signature of a union is the slot-wise minimum of the signatures.
+ */
+public class WifiSketch {
+	public static final int DEFAULT_SIZE = 64;
+
+	private static final int SLOTS_PER_WORD = 4;
+	private static final long EMPTY_WORD = 0xFFFFFFFFFFFFFFFFL;
+	private static final long LOW_BITS = 0x7FFF7FFF7FFF7FFFL;
+	private static final long HIGH_BITS = 0x8000800080008000L;
+
+	private final long[] words;
+	private final double count;
+
+	private WifiSketch(long[] words, double count) {
+		this.words = words;
+		this.count = count;
+	}
+
+	/**
+	 * Creates the signature of a set of SSIDs.
+	 *
+	 * @param ssids The SSIDs. Duplicates are ignored.
+	 *
+	 * @param size The number of slots, a positive multiple of four.
+	 *
+	 * @return The signature.
+	 */
+	public static WifiSketch of(Collection<String> ssids, int size) {
+		if(size <= 0 || size % SLOTS_PER_WORD != 0) {
+			throw new IllegalArgumentException("The size must be a positive multiple of " + SLOTS_PER_WORD);
+		}
+
+		long[] words = new long[size / SLOTS_PER_WORD];
+		for (int w = 0; w < words.length; w++) {
+			words[w] = EMPTY_WORD;
+		}
+
+		Set<String> distinct = new HashSet<String>(ssids);
+		for (String ssid : distinct) {
+			long base = hash(ssid);
+			for (int w = 0; w < words.length; w++) {
+				words[w] = minSlots(words[w], mix(base + w * 0x9E3779B97F4A7C15L));
+			}
+		}
+		return new WifiSketch(words, distinct.size());
+	}
+
+	/**
+	 * Returns the number of slots in the signature.
+	 */
+	public int getSize() {
+		return words.length * SLOTS_PER_WORD;
+	}
+
+	/**
+	 * Returns the number of distinct SSIDs in the set. This is exact for the
+	 * signature of a scan and estimated from the slots for a union.
+	 */
+	public double getCount() {
+		return count;
+	}
+
+	/**
+	 * Estimates the Jaccard similarity of the two sets.
+	 *
+	 * @param other The signature of the other set, of the same size.
+	 *
+	 * @return The fraction of equal slots, or 0 if either set is empty.
+	 */
+	public double similarity(WifiSketch other) {
+		checkSize(other);
+		if (count == 0 || other.count == 0) {
+			return 0;
+		}
+
+		int equal = 0;
+		for (int w = 0; w < words.length; w++) {
+			long x = words[w] ^ other.words[w];
+			// The high bit of a slot is set exactly when the slot is not zero
+			long nonZero = ((x & LOW_BITS) + LOW_BITS) | x;
+			equal += Long.bitCount(~nonZero & HIGH_BITS);
+		}
+		return (double) equal / getSize();
+	}
+
+	/**
+	 * Estimates how many SSIDs the two sets have in common from their
+	 * similarity and sizes.
+	 *
+	 * @param other The signature of the other set, of the same size.
+	 *
+	 * @return The estimated size of the intersection.
+	 */
+	public double intersection(WifiSketch other) {
+		double j = similarity(other);
+		return j / (1 + j) * (count + other.count);
+	}
+
+	/**
+	 * Returns the signature of the union of the two sets.
+	 *
+	 * @param other The signature of the other set, of the same size.
+	 *
+	 * @return The signature of the union.
+	 */
+	public WifiSketch union(WifiSketch other) {
+		checkSize(other);
+		long[] union = new long[words.length];
+		for (int w = 0; w < words.length; w++) {
+			union[w] = minSlots(words[w], other.words[w]);
+		}
+		return new WifiSketch(union, estimateCount(union));
+	}
+
+	private void checkSize(WifiSketch other) {
+		if (other.words.length != words.length) {
+			throw new IllegalArgumentException("The sketches have different sizes");
+		}
+	}
+
+	/**
+	 * Estimates the number of distinct elements from the minima, which are
+	 * uniform on the unit interval divided by one more than that number.
+	 */
+	private static double estimateCount(long[] words) {
+		double sum = 0;
+		int empty = 0;
+		for (int w = 0; w < words.length; w++) {
+			for (int shift = 0; shift < 64; shift += 16) {
+				int slot = (int) (words[w] >>> shift) & 0xFFFF;
+				if (slot == 0xFFFF) {
+					empty++;
+				}
+				sum += (slot + 0.5) / 65536;
+			}
+		}
+		if (empty == words.length * SLOTS_PER_WORD) {
+			return 0;
+		}
+		return Math.max(1, words.length * SLOTS_PER_WORD / sum - 1);
+	}
+
+	private static long minSlots(long a, long b) {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 16) {
+			long x = (a >>> shift) & 0xFFFF;
+			long y = (b >>> shift) & 0xFFFF;
+			result |= Math.min(x, y) << shift;
+		}
+		return result;
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the characters of a string.
+	 */
+	static long hash(String s) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		return h;
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, which spreads every input bit over all
+	 * of the output bits.
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "WifiSketch [size=" + getSize() + ", count=" + count + "]";
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BatchKernelTest {
+	private static List<Sample> window(Random random, int length) {
+		List<Sample> samples = new ArrayList<Sample>();
+		double amplitude = random.nextDouble();
+		for (int i = 0; i < length; i++) {
+			samples.add(new Sample(random.nextGaussian(), random.nextGaussian(), 9.80665 * (1 + amplitude * Math.sin(i / 3.0))));
+		}
+		return samples;
+	}
+
+	@Test
+	public void batchIsBitIdenticalToSingleWindows() {
+		Random random = new Random(42);
+		List<SensorWindow> windows = new ArrayList<SensorWindow>();
+		// more than a batch of one length, one window of another, and a short one
+		for (int i = 0; i < MobilityClassifier.BATCH_WINDOWS + 5; i++) {
+			windows.add(new SensorWindow(window(random, 128), Double.NaN, null, null, null, null, null));
+		}
+		windows.add(new SensorWindow(window(random, 64), Double.NaN, null, null, null, null, null));
+		windows.add(new SensorWindow(window(random, MobilityClassifier.MIN_SAMPLES), Double.NaN, null, null, null, null, null));
+
+		MobilityClassifier classifier = new MobilityClassifier();
+		List<Classification> batch = classifier.classifyAll(windows);
+		assertEquals(windows.size(), batch.size());
+		for (int i = 0; i < windows.size(); i++) {
+			Classification single = classifier.classify(windows.get(i));
+			assertEquals("window " + i, single.getMode(), batch.get(i).getMode());
+			assertEquals("window " + i, single.getAverage(), batch.get(i).getAverage());
+			assertEquals("window " + i, single.getVariance(), batch.get(i).getVariance());
+			assertEquals("window " + i, single.getFft(), batch.get(i).getFft());
+		}
+	}
+
+	@Test
+	public void kernelIsReusedAcrossBatches() {
+		Random random = new Random(7);
+		List<Sample> first = window(random, 32);
+		List<Sample> second = window(random, 32);
+		BatchKernel kernel = new BatchKernel(2, 32);
+		kernel.add(first);
+		kernel.add(second);
+		kernel.run(32);
+		double variance = kernel.getVariance(1);
+
+		kernel.clear();
+		kernel.add(second);
+		kernel.run(32);
+		assertEquals(1, kernel.getWindowCount());
+		assertEquals(variance, kernel.getVariance(0), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void windowMustHaveTheKernelLength() {
+		new BatchKernel(2, 32).add(window(new Random(1), 31));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void fullBatchTakesNoMoreWindows() {
+		BatchKernel kernel = new BatchKernel(1, 32);
+		kernel.add(window(new Random(1), 32));
+		kernel.add(window(new Random(2), 32));
+	}
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryCodecTest {
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+	private static WifiScan scan(long time, Object... ssidsAndStrengths) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (int i = 0; i < ssidsAndStrengths.length; i += 2) {
+			accessPoints.add(new AccessPoint((String) ssidsAndStrengths[i], ((Number) ssidsAndStrengths[i + 1]).doubleValue()));
+		}
+		return new WifiScan(time, accessPoints);
+	}
+
+	private static void assertLocation(Location expected, Location actual) {
+		assertEquals(expected.getTime(), actual.getTime());
+		assertEquals(expected.getLatitude(), actual.getLatitude(), 1e-7);
+		assertEquals(expected.getLongitude(), actual.getLongitude(), 1e-7);
+	}
+
+	@Test
+	public void classificationRoundTrips() {
+		Classification classification = new Classification();
+		classification.setMode("bike"); // a mode without a code, as from a trained model
+		classification.setWifiMode(MobilityClassifier.DRIVE);
+		classification.setLocationMode(null);
+		classification.setTier(Classification.TIER_WIFI);
+		classification.setLocationSkipped(true);
+		classification.setHasFeatures(true);
+		classification.setAverage(9.75);
+		classification.setVariance(0.125);
+		classification.setFft(Arrays.asList(1.0, 0.5, 0.25, 2.0, 4.0, 8.0, 16.0, 0.0, -1.0, 3.5));
+		classification.setVerticalVariance(0.0625);
+		classification.setWifiTotal(300);
+		classification.setWifiRecogTotal(7);
+		classification.setRadius(12.5);
+		classification.setTravelled(1024);
+		classification.setPlace("caf\u00e9 \ud83d\ude97");
+		BinaryCodec.encode(classification, buffer);
+		buffer.flip();
+
+		assertEquals(BinaryCodec.TYPE_CLASSIFICATION, BinaryCodec.peekType(buffer));
+		Classification decoded = BinaryCodec.decodeClassification(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(classification, decoded);
+		assertNull(decoded.getLocationMode());
+		assertEquals(Classification.TIER_WIFI, decoded.getTier());
+		assertFalse(decoded.isWifiSkipped());
+		assertTrue(decoded.isLocationSkipped());
+		assertEquals(0.0625, decoded.getVerticalVariance(), 0);
+		assertNull(decoded.getHorizontalVariance());
+		assertEquals(300, decoded.getWifiTotal());
+		assertEquals(7, decoded.getWifiRecogTotal());
+		assertEquals(12.5, decoded.getRadius(), 0);
+		assertEquals(1024, decoded.getTravelled(), 0);
+		assertEquals("caf\u00e9 \ud83d\ude97", decoded.getPlace());
+	}
+
+	@Test
+	public void scanAndLocationRoundTripAroundTheirBaseTime() {
+		WifiScan wifiScan = scan(1000, "home", -48, "\u00fcber", -91, "far", -140);
+		Location location = new Location(34.0689254, -118.4451811, 900);
+		BinaryCodec.encode(wifiScan, 1500, buffer);
+		BinaryCodec.encode(location, 1500, buffer);
+		buffer.flip();
+
+		WifiScan decoded = BinaryCodec.decodeWifiScan(buffer, 1500);
+		// strengths are whole dBm in a byte
+		assertEquals(scan(1000, "home", -48, "\u00fcber", -91, "far", -128), decoded);
+		assertLocation(location, BinaryCodec.decodeLocation(buffer, 1500));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void samplesRoundTripWithAndWithoutTimes() {
+		List<Sample> timed = Arrays.asList(new Sample(0.5, -9.75, 1.25, 5000), new Sample(0.25, -9.5, 1.0, 5020), new Sample(0, 0, 0, 5010));
+		List<Sample> untimed = Arrays.asList(new Sample(0.5, -9.75, 1.25), new Sample(0.25, -9.5, 1.0));
+		BinaryCodec.encode(timed, buffer);
+		BinaryCodec.encode(untimed, buffer);
+		buffer.flip();
+
+		List<Sample> decoded = BinaryCodec.decodeSamples(buffer);
+		assertEquals(3, decoded.size());
+		for (int i = 0; i < timed.size(); i++) {
+			assertEquals(timed.get(i).getX(), decoded.get(i).getX(), 0);
+			assertEquals(timed.get(i).getY(), decoded.get(i).getY(), 0);
+			assertEquals(timed.get(i).getZ(), decoded.get(i).getZ(), 0);
+			assertEquals(timed.get(i).getTime(), decoded.get(i).getTime());
+		}
+		decoded = BinaryCodec.decodeSamples(buffer);
+		assertEquals(2, decoded.size());
+		assertFalse(decoded.get(1).hasTime());
+		assertEquals(-9.5, decoded.get(1).getY(), 0);
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void samplesWithSomeTimesRoundTrip() {
+		List<Sample> mixed = Arrays.asList(new Sample(0.5, -9.75, 1.25, 5000), new Sample(0.25, -9.5, 1.0), new Sample(0, 0, 0, 5040));
+		BinaryCodec.encode(mixed, buffer);
+		buffer.flip();
+
+		List<Sample> decoded = BinaryCodec.decodeSamples(buffer);
+		assertEquals(3, decoded.size());
+		assertEquals(5000, decoded.get(0).getTime());
+		assertFalse(decoded.get(1).hasTime());
+		assertEquals(-9.5, decoded.get(1).getY(), 0);
+		assertEquals(5040, decoded.get(2).getTime());
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void classificationWithoutATierIsFull() {
+		Classification classification = new Classification();
+		classification.setMode(MobilityClassifier.STILL);
+		classification.setTier(null);
+		BinaryCodec.encode(classification, buffer);
+		buffer.flip();
+		assertEquals(Classification.TIER_FULL, BinaryCodec.decodeClassification(buffer).getTier());
+	}
+
+	@Test
+	public void sessionRoundTrips() {
+		MobilitySession session = new MobilitySession();
+		session.add(scan(60000, "a", -50, "b", -70), new Location(34.0, -118.0, 60000));
+		session.add(scan(120000, "a", -52), new Location(34.001, -118.002, 120000));
+		Classification last = new Classification();
+		last.setMode(MobilityClassifier.WALK);
+		last.setWifiMode(MobilityClassifier.STILL);
+		session.setLastClassification(last);
+		BinaryCodec.encode(session, buffer);
+		buffer.flip();
+
+		MobilitySession decoded = BinaryCodec.decodeSession(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(session.getLastWifiScans(), decoded.getLastWifiScans());
+		assertEquals(2, decoded.getHistLocs().size());
+		for (int i = 0; i < 2; i++) {
+			assertLocation(session.getHistLocs().get(i), decoded.getHistLocs().get(i));
+		}
+		assertEquals(last, decoded.getLastClassification());
+
+		buffer.clear();
+		BinaryCodec.encode(new MobilitySession(), buffer);
+		buffer.flip();
+		decoded = BinaryCodec.decodeSession(buffer);
+		assertTrue(decoded.getLastWifiScans().isEmpty());
+		assertNull(decoded.getLastClassification());
+	}
+
+	@Test
+	public void exactRecordsKeepEveryValue() {
+		List<Sample> samples = Arrays.asList(new Sample(0.1, -9.80665, 1.0 / 3), new Sample(Math.PI, Math.E, -0.7));
+		WifiScan scan = new WifiScan(60000L, Arrays.asList(new AccessPoint("a", -67.5), new AccessPoint("b", -200.25)));
+		Location location = new Location(34.068921234567, -118.445212345678, 60000);
+		MobilitySession session = new MobilitySession();
+		session.add(scan, location);
+		Classification last = new Classification();
+		last.setMode(MobilityClassifier.STILL);
+		last.setVariance(0.1);
+		last.setRadius(1.0 / 3);
+		session.setLastClassification(last);
+		BinaryCodec.encode(samples, buffer, true);
+		BinaryCodec.encode(session, buffer, true);
+		buffer.flip();
+
+		List<Sample> decodedSamples = BinaryCodec.decodeSamples(buffer);
+		for (int i = 0; i < samples.size(); i++) {
+			assertEquals(samples.get(i).getX(), decodedSamples.get(i).getX(), 0);
+			assertEquals(samples.get(i).getY(), decodedSamples.get(i).getY(), 0);
+			assertEquals(samples.get(i).getZ(), decodedSamples.get(i).getZ(), 0);
+		}
+		MobilitySession decoded = BinaryCodec.decodeSession(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(scan, decoded.getLastWifiScans().get(0));
+		assertEquals(-67.5, decoded.getLastWifiScans().get(0).getAccessPoints().get(0).getStrength(), 0);
+		assertEquals(location.getLatitude(), decoded.getHistLocs().get(0).getLatitude(), 0);
+		assertEquals(location.getLongitude(), decoded.getHistLocs().get(0).getLongitude(), 0);
+		assertEquals(0.1, decoded.getLastClassification().getVariance(), 0);
+		assertEquals(1.0 / 3, decoded.getLastClassification().getRadius(), 0);
+	}
+
+	@Test
+	public void varintsRoundTrip() {
+		long[] values = { 0, 1, -1, 63, -64, 64, 300, Integer.MAX_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+		for (long value : values) {
+			BinaryCodec.putSignedVarint(buffer, value);
+		}
+		BinaryCodec.putVarint(buffer, -1);
+		buffer.flip();
+		for (long value : values) {
+			assertEquals(value, BinaryCodec.getSignedVarint(buffer));
+		}
+		assertEquals(-1, BinaryCodec.getVarint(buffer));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void laterVersionIsRejected() {
+		buffer.put((byte) (((BinaryCodec.VERSION + 1) << 4) | BinaryCodec.TYPE_LOCATION));
+		buffer.flip();
+		BinaryCodec.decodeLocation(buffer, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void otherTypeIsRejected() {
+		BinaryCodec.encode(new Location(34.0, -118.0, 0), 0, buffer);
+		buffer.flip();
+		BinaryCodec.decodeWifiScan(buffer, 0);
+	}
+}
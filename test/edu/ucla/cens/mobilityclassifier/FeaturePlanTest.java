@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class FeaturePlanTest {
+	/**
+	 * Calculates each of its features as one more than the sum of the
+	 * features it requires.
+	 */
+	private static class SumExtractor implements FeatureExtractor {
+		private final String[] names;
+		private final String[] required;
+
+		SumExtractor(String name, String... required) {
+			this.names = new String[] { name };
+			this.required = required;
+		}
+
+		@Override
+		public String[] getFeatureNames() {
+			return names;
+		}
+
+		@Override
+		public String[] getRequiredFeatures() {
+			return required;
+		}
+
+		@Override
+		public void extract(SensorWindow window, FeatureVector features) {
+			double sum = 1;
+			for (String name : required) {
+				sum += features.get(name);
+			}
+			for (String name : names) {
+				features.set(name, sum);
+			}
+		}
+	}
+
+	private static SensorWindow window() {
+		List<Sample> samples = new ArrayList<Sample>();
+		for (int i = 0; i < 32; i++) {
+			samples.add(new Sample(0, 0, 9.80665));
+		}
+		return new SensorWindow(samples, Double.NaN, null, null, null, null, null);
+	}
+
+	@Test
+	public void onlyNeededExtractorsAreRunInStages() {
+		List<FeatureExtractor> extractors = Arrays.<FeatureExtractor>asList(
+				new SumExtractor("x"), new SumExtractor("y", "x"), new SumExtractor("z", "x"), new SumExtractor("unused"));
+		FeaturePlan plan = new FeaturePlan(extractors, Arrays.asList("y", "z"));
+		assertEquals(2, plan.getStageCount());
+		assertEquals(Collections.singletonList(extractors.get(0)), plan.getStage(0));
+		assertEquals(Arrays.asList(extractors.get(1), extractors.get(2)), plan.getStage(1));
+		assertArrayEquals(new String[] { "x", "y", "z" }, plan.getFeatureNames());
+		assertArrayEquals(new int[] { 1, -1 }, plan.indicesOf(new String[] { "y", "unused" }));
+
+		FeatureVector features = plan.extract(window(), null);
+		assertEquals(2, features.get("y"), 0);
+		assertEquals(2, features.get("z"), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void extractorsMustNotRequireEachOther() {
+		new FeaturePlan(Arrays.<FeatureExtractor>asList(new SumExtractor("x", "y"), new SumExtractor("y", "x")), Arrays.asList("x"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void featureMustHaveOneExtractor() {
+		new FeaturePlan(Arrays.<FeatureExtractor>asList(new SumExtractor("x"), new SumExtractor("x")), Arrays.asList("x"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void neededFeatureMustHaveAnExtractor() {
+		new FeaturePlan(Arrays.<FeatureExtractor>asList(new SumExtractor("x")), Arrays.asList("y"));
+	}
+
+	@Test
+	public void concurrentExtractionGivesTheSameFeatures() throws Exception {
+		List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+		String[] leaves = new String[8];
+		for (int i = 0; i < leaves.length; i++) {
+			leaves[i] = "leaf" + i;
+			extractors.add(new SumExtractor(leaves[i]));
+		}
+		extractors.add(new SumExtractor("root", leaves));
+		final FeaturePlan plan = new FeaturePlan(extractors, Arrays.asList("root"));
+		assertEquals(2, plan.getStageCount());
+
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Double>> results = new ArrayList<Future<Double>>();
+			for (int i = 0; i < 200; i++) {
+				results.add(callers.submit(new Callable<Double>() {
+					@Override
+					public Double call() {
+						return plan.extract(window(), executor).get("root");
+					}
+				}));
+			}
+			for (Future<Double> result : results) {
+				assertEquals(9, result.get(), 0);
+			}
+		}
+		finally {
+			callers.shutdown();
+			executor.shutdown();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void failureWaitsForStartedExtractors() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean finished = new AtomicBoolean(false);
+		FeatureExtractor failing = new SumExtractor("a") {
+			@Override
+			public void extract(SensorWindow window, FeatureVector features) {
+				try {
+					started.await();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IllegalStateException("failed");
+			}
+		};
+		FeatureExtractor slow = new SumExtractor("b") {
+			@Override
+			public void extract(SensorWindow window, FeatureVector features) {
+				started.countDown();
+				try {
+					Thread.sleep(200);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finished.set(true);
+			}
+		};
+		FeaturePlan plan = new FeaturePlan(Arrays.asList(failing, slow), Arrays.asList("a", "b"));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			plan.extract(window(), executor);
+			fail("The failure was not thrown");
+		}
+		catch(IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+			assertTrue(finished.get());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
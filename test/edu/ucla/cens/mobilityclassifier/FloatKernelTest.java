@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FloatKernelTest {
+	private static List<Sample> window(double amplitude) {
+		List<Sample> samples = new ArrayList<Sample>();
+		for (int i = 0; i < 128; i++) {
+			double z = 9.80665 * (1 + amplitude * Math.sin(2 * Math.PI * 2 * i / 32.));
+			samples.add(new Sample(0.3 * Math.cos(i), -0.2, z));
+		}
+		return samples;
+	}
+
+	private static double doubleVariance(List<Sample> samples) {
+		BatchKernel kernel = new BatchKernel(1, samples.size());
+		kernel.add(samples);
+		kernel.run(samples.size());
+		return kernel.getVariance(0);
+	}
+
+	/**
+	 * Returns the amplitude whose window has the variance threshold as its
+	 * variance in double arithmetic.
+	 */
+	private static double amplitudeAtThreshold() {
+		double low = 0;
+		double high = 1;
+		for (int i = 0; i < 100; i++) {
+			double middle = (low + high) / 2;
+			if (doubleVariance(window(middle)) < MobilityClassifier.VARIANCE_THRESHOLD) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	@Test
+	public void featuresAgreeWithTheDoublePath() {
+		List<Sample> samples = window(0.5);
+		FloatKernel floats = new FloatKernel(samples);
+		BatchKernel doubles = new BatchKernel(1, samples.size());
+		doubles.add(samples);
+		doubles.run(samples.size());
+		assertEquals(doubles.getAverage(0), floats.getAverage(), 1e-5 * doubles.getAverage(0));
+		assertEquals(doubles.getVariance(0), floats.getVariance(), 1e-5 * doubles.getVariance(0));
+		List<Double> fft = floats.getFft();
+		for (int bin = 0; bin < BatchKernel.FFT_BINS; bin++) {
+			assertEquals(doubles.getFft(0, bin), fft.get(bin), 1e-5 * Math.max(1, doubles.getFft(0, bin)));
+		}
+	}
+
+	@Test
+	public void isNearOnlyCloseToTheThreshold() {
+		assertTrue(new FloatKernel(window(amplitudeAtThreshold())).isNear(MobilityClassifier.VARIANCE_THRESHOLD));
+		assertFalse(new FloatKernel(window(0.5)).isNear(MobilityClassifier.VARIANCE_THRESHOLD));
+		assertFalse(new FloatKernel(window(0.01)).isNear(MobilityClassifier.VARIANCE_THRESHOLD));
+	}
+
+	@Test
+	public void lowPowerKeepsTheModeAndFallsBackNearTheThreshold() {
+		MobilityClassifier classifier = new MobilityClassifier();
+		MobilityClassifier lowPower = new MobilityClassifier();
+		lowPower.setLowPower(true);
+
+		double[] amplitudes = { 0.01, 0.1, 0.5, 0.9, amplitudeAtThreshold() };
+		for (double amplitude : amplitudes) {
+			SensorWindow window = new SensorWindow(window(amplitude), Double.NaN, null, null, null, null, null);
+			Classification expected = classifier.classify(window);
+			Classification actual = lowPower.classify(window);
+			assertEquals("amplitude " + amplitude, expected.getMode(), actual.getMode());
+			assertEquals(expected.getVariance(), actual.getVariance(), 1e-5 * expected.getVariance());
+		}
+
+		// a window at the threshold is classified by the double path, to the last bit
+		SensorWindow near = new SensorWindow(window(amplitudeAtThreshold()), Double.NaN, null, null, null, null, null);
+		assertEquals(classifier.classify(near).getVariance(), lowPower.classify(near).getVariance());
+		assertEquals(classifier.classify(near).getFft(), lowPower.classify(near).getFft());
+
+		// elsewhere the float features are kept
+		SensorWindow far = new SensorWindow(window(0.5), Double.NaN, null, null, null, null, null);
+		assertEquals((double) new FloatKernel(far.getSamples()).getVariance(), lowPower.classify(far).getVariance(), 0);
+	}
+}
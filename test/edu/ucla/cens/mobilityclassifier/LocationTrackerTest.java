@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class LocationTrackerTest {
+	private static final double STEP = 0.0001; // about 11 m of latitude
+
+	private static Location north(int steps, long time) {
+		return new Location(34.0 + steps * STEP, -118.0, time);
+	}
+
+	private static double distance(Location first, Location second) {
+		return MobilityClassifier.Distance(first, second);
+	}
+
+	@Test
+	public void radiusIsHalfTheDistanceOverTheLastMinute() {
+		LocationTracker tracker = new LocationTracker();
+		for (int i = 0; i <= 12; i++) {
+			tracker.update(north(i, 10000L * i));
+		}
+		// the last fix more than a minute before 120 s is the one at 50 s
+		assertEquals(distance(north(12, 120000), north(5, 50000)) / 2, tracker.getRadius(), 1e-9);
+		assertEquals(distance(north(12, 120000), north(0, 0)), tracker.getTravelled(), 1e-9);
+		assertEquals(13, tracker.getSize());
+	}
+
+	@Test
+	public void shortHistoryRadiusIsThatOfItsBoundingCircle() {
+		LocationTracker tracker = new LocationTracker();
+		tracker.update(north(0, 0));
+		assertEquals(0, tracker.getRadius(), 0);
+		tracker.update(north(4, 10000));
+		tracker.update(north(2, 20000));
+		assertEquals(distance(north(0, 0), north(4, 0)) / 2, tracker.getRadius(), 1e-6);
+	}
+
+	@Test
+	public void oldFixesAndGapsLeaveTheHistory() {
+		LocationTracker tracker = new LocationTracker(30000, LocationTracker.DEFAULT_MIN_STAY_MILLIS, LocationTracker.DEFAULT_CELL_BITS);
+		for (int i = 0; i <= 6; i++) {
+			tracker.update(north(i, 10000L * i));
+		}
+		assertEquals(4, tracker.getSize());
+		assertEquals(distance(north(6, 0), north(3, 0)), tracker.getTravelled(), 1e-9);
+
+		tracker.update(north(5, 60000)); // not newer than the latest fix
+		assertEquals(4, tracker.getSize());
+
+		tracker.update(north(9, 60000 + MobilityClassifier.LOC_THRESHOLD_MILLIS + 1));
+		assertEquals(1, tracker.getSize());
+		assertEquals(0, tracker.getTravelled(), 0);
+		assertEquals(34.0 + 9 * STEP, tracker.getCentroid().getLatitude(), 1e-12);
+	}
+
+	@Test
+	public void stayPointLastsUntilTheUserLeavesItsCells() {
+		LocationTracker tracker = new LocationTracker();
+		long minute = 60000;
+		for (int i = 0; i <= 4; i++) {
+			tracker.update(north(0, i * minute));
+		}
+		assertNull(tracker.getStayPoint());
+		tracker.update(north(1, 5 * minute));
+		StayPoint stayPoint = tracker.getStayPoint();
+		assertEquals(0, stayPoint.getStart());
+		assertEquals(5 * minute, stayPoint.getEnd());
+		assertEquals(34.0 + STEP / 6, stayPoint.getLatitude(), 1e-12);
+
+		tracker.update(north(100, 6 * minute)); // about 1.1 km away
+		assertNull(tracker.getStayPoint());
+		assertEquals(5 * minute, tracker.getLastStayPoint().getEnd());
+	}
+
+	@Test
+	public void cellIsTheGeohashOfTheLatestFix() {
+		LocationTracker tracker = new LocationTracker();
+		assertEquals(-1, tracker.getCell());
+		tracker.update(new Location(57.64911, 10.40744, 0));
+		long geohash = 0;
+		for (char c : "u4pruyd".toCharArray()) {
+			geohash = (geohash << 5) | "0123456789bcdefghjkmnpqrstuvwxyz".indexOf(c);
+		}
+		assertEquals(geohash, tracker.getCell());
+	}
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MobilityClassifierTest {
+	static List<Sample> window(double amplitude) {
+		List<Sample> samples = new ArrayList<Sample>();
+		for (int i = 0; i < 128; i++) {
+			samples.add(new Sample(0, 0, 9.80665 * (1 + amplitude * Math.sin(2 * Math.PI * 2 * i / 32.))));
+		}
+		return samples;
+	}
+
+	static WifiScan scan(long time, String prefix) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (int i = 0; i < 8; i++) {
+			accessPoints.add(new AccessPoint(prefix + i, -50 - 5 * i));
+		}
+		return new WifiScan(time, accessPoints);
+	}
+
+	/**
+	 * Classifies a still history, a walk with a scan of other access points,
+	 * and a still window with that scan again, which copies the WiFi features
+	 * of the walk.
+	 */
+	private static List<String> walkThenRepeatedScan(MobilityClassifier classifier) {
+		long time = 1325376000000L;
+		MobilitySession session = new MobilitySession();
+		List<String> modes = new ArrayList<String>();
+		modes.add(session.classify(classifier, window(0), Double.NaN, scan(time, "home"), null).getMode());
+		modes.add(session.classify(classifier, window(0), Double.NaN, scan(time + 60000, "home"), null).getMode());
+		modes.add(session.classify(classifier, window(0.5), Double.NaN, scan(time + 120000, "road"), null).getMode());
+		modes.add(session.classify(classifier, window(0), Double.NaN, scan(time + 120000, "road"), null).getMode());
+		return modes;
+	}
+
+	@Test
+	public void cascadedWalkKeepsWifiForRepeatedScan() {
+		MobilityClassifier cascaded = new MobilityClassifier();
+		cascaded.setCascading(true);
+		List<String> modes = walkThenRepeatedScan(new MobilityClassifier());
+		assertEquals(MobilityClassifier.WALK, modes.get(2));
+		assertEquals(MobilityClassifier.DRIVE, modes.get(3));
+		assertEquals(modes, walkThenRepeatedScan(cascaded));
+	}
+
+	@Test
+	public void cascadedWalkLeavesNewScanToNextWindow() {
+		long time = 1325376000000L;
+		MobilityClassifier full = new MobilityClassifier();
+		MobilityClassifier cascaded = new MobilityClassifier();
+		cascaded.setCascading(true);
+		MobilitySession fullSession = new MobilitySession();
+		MobilitySession cascadedSession = new MobilitySession();
+		fullSession.classify(full, window(0), Double.NaN, scan(time, "home"), null);
+		cascadedSession.classify(cascaded, window(0), Double.NaN, scan(time, "home"), null);
+		Classification walk = cascadedSession.classify(cascaded, window(0.5), Double.NaN, scan(time + 60000, "road"), null);
+		assertTrue(walk.isWifiSkipped());
+		assertNull(walk.getWifiMode());
+		fullSession.classify(full, window(0.5), Double.NaN, scan(time + 60000, "road"), null);
+		Classification expected = fullSession.classify(full, window(0), Double.NaN, scan(time + 60000, "road"), null);
+		Classification actual = cascadedSession.classify(cascaded, window(0), Double.NaN, scan(time + 60000, "road"), null);
+		assertFalse(actual.isWifiSkipped());
+		assertEquals(expected.getWifiMode(), actual.getWifiMode());
+		assertEquals(expected.getWifiTotal(), actual.getWifiTotal());
+		assertEquals(expected.getWifiRecogTotal(), actual.getWifiRecogTotal());
+	}
+
+	@Test
+	public void shedWindowKeepsWifiForRepeatedScan() {
+		final LoadShedder shedder = new LoadShedder(10, 20);
+		MobilityClassifier classifier = new MobilityClassifier() {
+			private int windows = 0;
+
+			@Override
+			public Classification classify(List<Sample> accelValues, Double speed, WifiScan wifiScan, List<WifiScan> lastWifiScans, Location currLoc, ArrayList<Location> histLocs, Classification lastClassification) {
+				// only the walk is shed to the variance tier
+				shedder.setQueueDepth((windows++ == 2) ? 20 : 0);
+				return super.classify(accelValues, speed, wifiScan, lastWifiScans, currLoc, histLocs, lastClassification);
+			}
+		};
+		classifier.setLoadShedder(shedder);
+		assertEquals(walkThenRepeatedScan(new MobilityClassifier()), walkThenRepeatedScan(classifier));
+	}
+
+	/**
+	 * Classifies a still window with a scan and a fix at the tier that a
+	 * queue depth gives, and returns how often the WiFi and the location
+	 * stages ran.
+	 */
+	private static int[] stagesAtQueueDepth(int queueDepth) {
+		final int[] stages = new int[2];
+		MobilityClassifier classifier = new MobilityClassifier();
+		LoadShedder shedder = new LoadShedder(10, 20);
+		shedder.setQueueDepth(queueDepth);
+		classifier.setLoadShedder(shedder);
+		classifier.setClassificationListener(new ClassificationListener() {
+			@Override
+			public void stageStarted(String stage) {
+
+			}
+
+			@Override
+			public void stageFinished(String stage, long nanos) {
+				if (ClassificationListener.STAGE_WIFI.equals(stage)) {
+					stages[0]++;
+				}
+				else if (ClassificationListener.STAGE_LOCATION.equals(stage)) {
+					stages[1]++;
+				}
+			}
+
+			@Override
+			public void classifying(SensorWindow window) {
+
+			}
+
+			@Override
+			public void classified(SensorWindow window, Classification classification, long nanos) {
+
+			}
+		});
+		long time = 1325376000000L;
+		ArrayList<Location> histLocs = new ArrayList<Location>();
+		histLocs.add(new Location(34.0689, -118.4452, time - 60000));
+		Classification classification = classifier.classify(window(0), Double.NaN, scan(time, "home"), Arrays.asList(scan(time - 60000, "home")),
+				new Location(34.0689, -118.4452, time), histLocs, new Classification());
+		assertEquals(MobilityClassifier.STILL, classification.getMode());
+		return stages;
+	}
+
+	@Test
+	public void cheaperTiersSkipTheirStages() {
+		assertArrayEquals(new int[] { 0, 0 }, stagesAtQueueDepth(20));
+		assertArrayEquals(new int[] { 1, 0 }, stagesAtQueueDepth(10));
+		assertArrayEquals(new int[] { 1, 1 }, stagesAtQueueDepth(0));
+	}
+
+	private static WifiScan scan(long time, String[] ssids, double[] strengths) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (int i = 0; i < ssids.length; i++) {
+			accessPoints.add(new AccessPoint(ssids[i], strengths[i]));
+		}
+		return new WifiScan(time, accessPoints);
+	}
+
+	private static String mode(MobilityClassifier classifier, WifiScan wifiScan, WifiScan... lastWifiScans) {
+		return classifier.classify(window(0), Double.NaN, wifiScan, Arrays.asList(lastWifiScans), null, null, null).getMode();
+	}
+
+	@Test
+	public void similarityDecidesStillWhenStrongAccessPointsSwap() {
+		// the same access points, but the strong half of the recent scan is
+		// the weak half now, as when the phone is turned around
+		String[] ssids = { "a", "b", "c", "d", "e", "f", "g", "h" };
+		WifiScan last = scan(0, ssids, new double[] { -40, -45, -50, -55, -60, -65, -70, -75 });
+		WifiScan current = scan(60000, ssids, new double[] { -60, -65, -70, -75, -40, -45, -50, -55 });
+		MobilityClassifier classifier = new MobilityClassifier();
+		assertEquals(MobilityClassifier.DRIVE, mode(classifier, current, last));
+		classifier.setWifiSimilarityThreshold(0.15);
+		assertEquals(MobilityClassifier.STILL, mode(classifier, current, last));
+		classifier.setCascading(true);
+		assertEquals(MobilityClassifier.STILL, mode(classifier, current, last));
+	}
+
+	@Test
+	public void similarityDecidesDriveWhenOnlyWeakAccessPointsRemain() {
+		// the two faint access points still heard are the only ones of their
+		// scan, but the recent scans were dominated by strong ones now gone
+		WifiScan faint = scan(0, new String[] { "a", "b" }, new double[] { -90, -90 });
+		WifiScan strong = scan(30000, new String[] { "c", "d", "e", "f", "g", "h", "i", "j", "k", "l" },
+				new double[] { -40, -40, -40, -40, -40, -40, -40, -40, -40, -40 });
+		WifiScan current = scan(60000, new String[] { "a", "b" }, new double[] { -90, -90 });
+		MobilityClassifier classifier = new MobilityClassifier();
+		assertEquals(MobilityClassifier.STILL, mode(classifier, current, faint, strong));
+		classifier.setWifiSimilarityThreshold(0.15);
+		Classification classification = classifier.classify(window(0), Double.NaN, current, Arrays.asList(faint, strong), null, null, null);
+		assertEquals(MobilityClassifier.DRIVE, classification.getMode());
+		assertEquals(MobilityClassifier.DRIVE, classification.getWifiMode());
+		// the totals still count the strong access points
+		assertEquals(2, classification.getWifiTotal());
+		assertEquals(2, classification.getWifiRecogTotal());
+	}
+
+	@Test
+	public void stillWithoutMotion() {
+		Classification classification = new MobilityClassifier().classify(window(0), Double.NaN, null, null, null, null, null);
+		assertEquals(MobilityClassifier.STILL, classification.getMode());
+		assertEquals(0.0, classification.getVariance(), 1e-12);
+	}
+
+	@Test
+	public void walkWithSteps() {
+		Classification classification = new MobilityClassifier().classify(window(0.5), Double.NaN, null, null, null, null, null);
+		assertEquals(MobilityClassifier.WALK, classification.getMode());
+	}
+
+	@Test
+	public void cascadedModeMatchesFull() {
+		MobilityClassifier full = new MobilityClassifier();
+		MobilityClassifier cascaded = new MobilityClassifier();
+		cascaded.setCascading(true);
+		for (double amplitude = 0; amplitude < 1; amplitude += 0.05) {
+			assertEquals(full.classify(window(amplitude), Double.NaN, null, null, null, null, null).getMode(),
+					cascaded.classify(window(amplitude), Double.NaN, null, null, null, null, null).getMode());
+		}
+	}
+}
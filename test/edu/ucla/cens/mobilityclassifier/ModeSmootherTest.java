@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ModeSmootherTest {
+	private static final String STILL = MobilityClassifier.STILL;
+	private static final String WALK = MobilityClassifier.WALK;
+	private static final String UNKNOWN = MobilityClassifier.UNKNOWN;
+
+	@Test
+	public void unknownUntilThereIsAMode() {
+		ModeSmoother smoother = new ModeSmoother();
+		assertEquals(UNKNOWN, smoother.update(UNKNOWN));
+		assertEquals(UNKNOWN, smoother.update((String) null));
+		assertEquals(WALK, smoother.update(WALK));
+		assertEquals(WALK, smoother.update(UNKNOWN));
+
+		smoother.reset();
+		assertEquals(UNKNOWN, smoother.update(UNKNOWN));
+		assertEquals(0, smoother.getProbability(UNKNOWN), 0);
+	}
+
+	@Test
+	public void filterOutvotesASingleWindow() {
+		ModeSmoother smoother = new ModeSmoother();
+		for (int i = 0; i < 5; i++) {
+			assertEquals(STILL, smoother.update(STILL));
+		}
+		assertEquals(STILL, smoother.update(WALK));
+		assertEquals(STILL, smoother.update(STILL));
+
+		// a real change shows once a second window reports it
+		assertEquals(STILL, smoother.update(WALK));
+		assertEquals(WALK, smoother.update(WALK));
+		assertTrue(smoother.getProbability(WALK) > 0.5);
+	}
+
+	@Test
+	public void filterStateIsPerInstance() {
+		ModeSmoother a = new ModeSmoother();
+		ModeSmoother b = new ModeSmoother();
+		a.update(STILL);
+		a.update(STILL);
+		assertEquals(WALK, b.update(WALK));
+		assertEquals(STILL, a.update(WALK));
+	}
+
+	@Test
+	public void viterbiRemovesFlickersAndKeepsChanges() {
+		ModeSmoother smoother = new ModeSmoother();
+		List<String> modes = Arrays.asList(STILL, STILL, STILL, WALK, STILL, STILL, WALK, WALK, WALK, WALK);
+		assertEquals(Arrays.asList(STILL, STILL, STILL, STILL, STILL, STILL, WALK, WALK, WALK, WALK), smoother.viterbi(modes));
+	}
+
+	@Test
+	public void viterbiFillsUnknownsFromTheirNeighbours() {
+		ModeSmoother smoother = new ModeSmoother();
+		assertEquals(Arrays.asList(WALK, WALK, WALK, WALK), smoother.viterbi(Arrays.asList(UNKNOWN, WALK, UNKNOWN, WALK)));
+		assertEquals(Arrays.asList(UNKNOWN, UNKNOWN), smoother.viterbi(Arrays.asList(UNKNOWN, (String) null)));
+		assertEquals(new ArrayList<String>(), smoother.viterbi(new ArrayList<String>()));
+	}
+
+	@Test
+	public void viterbiDoesNotTouchTheFilter() {
+		ModeSmoother smoother = new ModeSmoother();
+		smoother.update(STILL);
+		smoother.update(STILL);
+		smoother.viterbi(Arrays.asList(WALK, WALK, WALK));
+		assertEquals(STILL, smoother.update(STILL));
+		assertTrue(smoother.getProbability(STILL) > 0.9);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void stayProbabilityMustBeBelowOne() {
+		new ModeSmoother(1, 0.8);
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PlaceIndexTest {
+	/**
+	 * Returns a scan of the given access points, all as strong.
+	 */
+	private static WifiScan scan(String... ssids) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (String ssid : ssids) {
+			accessPoints.add(new AccessPoint(ssid, -60.0));
+		}
+		return new WifiScan(0L, accessPoints);
+	}
+
+	private static String[] home(String... others) {
+		List<String> ssids = new ArrayList<String>(Arrays.asList("h0", "h1", "h2", "h3", "h4", "h5"));
+		ssids.addAll(Arrays.asList(others));
+		return ssids.toArray(new String[ssids.size()]);
+	}
+
+	@Test
+	public void manyVisitsDoNotDilutePlace() {
+		PlaceIndex index = new PlaceIndex();
+		// every visit also hears a neighbour's phone or a passing car
+		for (int visit = 0; visit < 100; visit++) {
+			index.add("home", scan(home("passing" + visit, "phone" + visit)));
+		}
+		assertEquals(1, index.getPlaceCount());
+		assertEquals(100, index.getScanCount());
+		assertEquals(6 + 200, index.getAccessPointCount());
+
+		PlaceMatch match = index.recognize(scan(home("new")));
+		assertNotNull(match);
+		assertEquals("home", match.getPlaceId());
+		assertEquals(6.0 / 9, match.getSimilarity(), 1e-9);
+		assertEquals(6, match.getRecognized());
+		assertEquals(7, match.getTotal());
+	}
+
+	@Test
+	public void repeatedScansAreKeptOnce() {
+		PlaceIndex index = new PlaceIndex();
+		index.add("home", scan(home()));
+		index.add("home", scan("h5", "h4", "h3", "h2", "h1", "h0"));
+		index.add("work", scan(home()));
+		assertEquals(2, index.getPlaceCount());
+		assertEquals(2, index.getScanCount());
+	}
+
+	@Test
+	public void mostSimilarPlaceWins() {
+		PlaceIndex index = new PlaceIndex();
+		index.add("home", scan(home()));
+		index.add("cafe", scan("h0", "h1", "h2", "c0", "c1", "c2"));
+		assertEquals("home", index.recognize(scan(home("c0"))).getPlaceId());
+		assertEquals("cafe", index.recognize(scan("h0", "h1", "c0", "c1", "c2")).getPlaceId());
+		// two access points of home, heard on the road, are not home
+		assertNull(index.recognize(scan("h0", "h1", "r0", "r1", "r2")));
+		assertNull(index.recognize(scan()));
+	}
+
+	@Test
+	public void totalsCountStrongAccessPointsAsClassifier() {
+		PlaceIndex index = new PlaceIndex();
+		index.add("home", scan(home()));
+		// the weak access points are not compared or counted, and one heard
+		// twice as strong counts twice, as checkWifi counts them
+		WifiScan scan = new WifiScan(0L, Arrays.asList(new AccessPoint("h0", -50.0), new AccessPoint("h1", -50.0),
+				new AccessPoint("h2", -50.0), new AccessPoint("h0", -55.0), new AccessPoint("weak0", -90.0),
+				new AccessPoint("weak1", -90.0), new AccessPoint("weak2", -90.0), new AccessPoint("weak3", -90.0)));
+		PlaceMatch match = index.recognize(scan);
+		assertNotNull(match);
+		assertEquals(3.0 / 6, match.getSimilarity(), 1e-9);
+		assertEquals(scan.getStrongSsids().size(), match.getTotal());
+		assertEquals(4, match.getTotal());
+		assertEquals(4, match.getRecognized());
+	}
+
+	@Test
+	public void recognizedScanIsStillWithStrongTotals() {
+		PlaceIndex index = new PlaceIndex();
+		index.add("home", scan(home()));
+		MobilityClassifier classifier = new MobilityClassifier();
+		classifier.setPlaceIndex(index);
+		WifiScan scan = new WifiScan(60000L, scan(home("other")).getAccessPoints());
+		Classification classification = classifier.classify(MobilityClassifierTest.window(0), Double.NaN, scan,
+				Arrays.asList(MobilityClassifierTest.scan(0, "road")), null, null, null);
+		assertEquals(MobilityClassifier.STILL, classification.getMode());
+		assertEquals("home", classification.getPlace());
+		assertEquals(scan.getStrongSsids().size(), classification.getWifiTotal());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void placeIdIsRequired() {
+		new PlaceIndex().add(null, scan(home()));
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ResamplerTest {
+	@Test
+	public void slowerInputIsInterpolated() {
+		Resampler resampler = new Resampler(10); // every 100 ms
+		long[] times = { 1000, 1200, 1400 };
+		double[] values = { 0, 2, 6 };
+		assertEquals(5, resampler.getLength(times, times.length));
+		assertArrayEquals(new double[] { 0, 1, 2, 4, 6 }, resampler.resample(times, values, times.length), 1e-12);
+	}
+
+	@Test
+	public void fasterInputIsAveraged() {
+		Resampler resampler = new Resampler(10);
+		long[] times = { 0, 25, 50, 75, 100, 125, 150, 175, 200 };
+		double[] values = { 1, 1, 3, 3, 5, 5, 7, 7, 9 };
+		// each output is the mean of the inputs less than half a period away, the upper bound excluded
+		assertArrayEquals(new double[] { 1, 4, 23 / 3. }, resampler.resample(times, values, times.length), 1e-12);
+	}
+
+	@Test
+	public void gapIsInterpolatedWhenAveraging() {
+		Resampler resampler = new Resampler(10);
+		long[] times = { 0, 20, 40, 60, 80, 100, 400 };
+		double[] values = { 0, 0, 0, 0, 0, 0, 3 };
+		double[] output = resampler.resample(times, values, times.length);
+		assertEquals(5, output.length);
+		assertEquals(0, output[1], 1e-12);
+		assertEquals(1, output[2], 1e-12);
+		assertEquals(2, output[3], 1e-12);
+		assertEquals(3, output[4], 1e-12);
+	}
+
+	@Test
+	public void callerOwnedOutputAndCount() {
+		Resampler resampler = new Resampler(10);
+		long[] times = { 0, 100, 200, 0 };
+		double[] values = { 1, 2, 3, 99 };
+		double[] output = new double[8];
+		assertEquals(3, resampler.resample(times, values, 3, output));
+		assertArrayEquals(new double[] { 1, 2, 3 }, new double[] { output[0], output[1], output[2] }, 1e-12);
+		assertEquals(0, resampler.resample(times, values, 0, output));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timesMustIncrease() {
+		new Resampler(10).resample(new long[] { 0, 100, 100 }, new double[3], 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void outputMustHaveRoom() {
+		new Resampler(10).resample(new long[] { 0, 100, 200 }, new double[3], 3, new double[2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rateMustBePositive() {
+		new Resampler(0);
+	}
+}
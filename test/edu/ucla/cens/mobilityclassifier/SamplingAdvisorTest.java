@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SamplingAdvisorTest {
+	/**
+	 * Returns a still window whose scan shares 4 of 10 strong access points
+	 * with the recent ones, which is close to a drive.
+	 */
+	private static Classification still() {
+		Classification classification = new Classification();
+		classification.setMode(MobilityClassifier.STILL);
+		classification.setHasFeatures(true);
+		classification.setVariance(0.0);
+		classification.setWifiTotal(10);
+		classification.setWifiRecogTotal(4);
+		classification.setRadius(0);
+		return classification;
+	}
+
+	private static Classification walk() {
+		Classification classification = new Classification();
+		classification.setMode(MobilityClassifier.WALK);
+		classification.setHasFeatures(true);
+		classification.setVariance(1.0);
+		return classification;
+	}
+
+	@Test
+	public void stillWindowsBackOffUntilTheModeChanges() {
+		SamplingAdvisor advisor = new SamplingAdvisor();
+		Classification still = still();
+		still.setPlace("home");
+		assertEquals(SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS, advisor.advise(still).getNextIntervalMillis());
+		SamplingAdvice advice = advisor.advise(still);
+		assertEquals(2 * SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS, advice.getNextIntervalMillis());
+		assertEquals(SamplingAdvisor.DEFAULT_MIN_WINDOW_LENGTH, advice.getWindowLength());
+		for (int i = 0; i < 10; i++) {
+			advice = advisor.advise(still);
+		}
+		assertEquals(SamplingAdvisor.DEFAULT_MAX_INTERVAL_MILLIS, advice.getNextIntervalMillis());
+
+		advice = advisor.advise(walk());
+		assertEquals(SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS, advice.getNextIntervalMillis());
+		assertEquals(SamplingAdvisor.DEFAULT_BASE_WINDOW_LENGTH, advice.getWindowLength());
+	}
+
+	@Test
+	public void uncertainStillWindowsDoNotBackOff() {
+		SamplingAdvisor advisor = new SamplingAdvisor();
+		advisor.advise(still());
+		SamplingAdvice advice = advisor.advise(still());
+		assertTrue(advice.getConfidence() < SamplingAdvisor.DEFAULT_MIN_CONFIDENCE);
+		assertEquals(SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS, advice.getNextIntervalMillis());
+		assertEquals(SamplingAdvisor.DEFAULT_BASE_WINDOW_LENGTH, advice.getWindowLength());
+	}
+
+	@Test
+	public void knownPlaceIsCertain() {
+		Classification still = still();
+		still.setPlace("home");
+		assertEquals(1.0, SamplingAdvisor.getConfidence(still), 0);
+	}
+
+	@Test
+	public void similarityThresholdDecidesTheWifiMargin() {
+		Classification still = still();
+		still.setWifiSimilarity(0.9);
+		assertTrue(SamplingAdvisor.getConfidence(still) < SamplingAdvisor.DEFAULT_MIN_CONFIDENCE);
+		assertEquals(1.0, SamplingAdvisor.getConfidence(still, 0.15), 0);
+
+		still.setWifiSimilarity(0.16);
+		assertTrue(SamplingAdvisor.getConfidence(still, 0.15) < 0.55);
+
+		SamplingAdvisor advisor = new SamplingAdvisor();
+		advisor.setWifiSimilarityThreshold(0.15);
+		still.setWifiSimilarity(0.9);
+		advisor.advise(still);
+		assertEquals(2 * SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS, advisor.advise(still).getNextIntervalMillis());
+	}
+
+	@Test
+	public void settersAcceptTheirBounds() {
+		SamplingAdvisor advisor = new SamplingAdvisor();
+		advisor.setMaxIntervalMillis(SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS);
+		advisor.setMinWindowLength(SamplingAdvisor.DEFAULT_BASE_WINDOW_LENGTH);
+		advisor.setMinConfidence(1);
+		advisor.setWifiSimilarityThreshold(Double.NaN);
+		assertEquals(SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS, advisor.getMaxIntervalMillis());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void baseIntervalMustBePositive() {
+		new SamplingAdvisor().setBaseIntervalMillis(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void baseIntervalMustNotPassTheLongest() {
+		new SamplingAdvisor().setBaseIntervalMillis(SamplingAdvisor.DEFAULT_MAX_INTERVAL_MILLIS + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void longestIntervalMustNotBeShorterThanTheBase() {
+		new SamplingAdvisor().setMaxIntervalMillis(SamplingAdvisor.DEFAULT_BASE_INTERVAL_MILLIS - 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void baseWindowMustNotBeShorterThanTheShortest() {
+		new SamplingAdvisor().setBaseWindowLength(SamplingAdvisor.DEFAULT_MIN_WINDOW_LENGTH - 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shortestWindowMustNotPassTheBase() {
+		new SamplingAdvisor().setMinWindowLength(SamplingAdvisor.DEFAULT_BASE_WINDOW_LENGTH + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void confidenceMustBeAtLeastAHalf() {
+		new SamplingAdvisor().setMinConfidence(0.4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void similarityThresholdMustBeASimilarity() {
+		new SamplingAdvisor().setWifiSimilarityThreshold(1.5);
+	}
+}
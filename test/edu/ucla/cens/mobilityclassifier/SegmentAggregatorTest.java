@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SegmentAggregatorTest {
+	private static final String STILL = MobilityClassifier.STILL;
+	private static final String WALK = MobilityClassifier.WALK;
+	private static final String DRIVE = MobilityClassifier.DRIVE;
+	private static final String UNKNOWN = MobilityClassifier.UNKNOWN;
+	private static final long MINUTE = 60000;
+
+	private static Segment add(SegmentAggregator aggregator, long minute, String mode) {
+		return add(aggregator, minute, mode, mode);
+	}
+
+	private static Segment add(SegmentAggregator aggregator, long minute, String mode, String wifiMode) {
+		return aggregator.add(minute * MINUTE, mode, wifiMode, 0, Double.NaN, Double.NaN);
+	}
+
+	@Test
+	public void shortRunIsAbsorbed() {
+		SegmentAggregator aggregator = new SegmentAggregator();
+		String[] modes = { DRIVE, DRIVE, DRIVE, WALK, DRIVE, DRIVE, DRIVE };
+		for (int i = 0; i < modes.length; i++) {
+			assertNull(add(aggregator, i, modes[i]));
+		}
+		Segment segment = aggregator.flush();
+		assertEquals(DRIVE, segment.getMode());
+		assertEquals(7, segment.getWindows());
+		assertEquals(0, segment.getStart());
+		assertEquals(6 * MINUTE, segment.getEnd());
+		assertEquals(6.0 / 7, segment.getConfidence(), 1e-12);
+	}
+
+	@Test
+	public void longEnoughRunClosesTheSegment() {
+		SegmentAggregator aggregator = new SegmentAggregator();
+		add(aggregator, 0, STILL);
+		add(aggregator, 1, STILL);
+		assertNull(add(aggregator, 2, WALK));
+		Segment still = add(aggregator, 3, WALK);
+		assertEquals(STILL, still.getMode());
+		assertEquals(2, still.getWindows());
+		Segment walk = aggregator.flush();
+		assertEquals(WALK, walk.getMode());
+		assertEquals(2 * MINUTE, walk.getStart());
+		assertEquals(2, walk.getWindows());
+		assertNull(aggregator.flush());
+	}
+
+	@Test
+	public void gapClosesTheSegment() {
+		SegmentAggregator aggregator = new SegmentAggregator(2, 10 * MINUTE);
+		add(aggregator, 0, STILL);
+		add(aggregator, 1, STILL);
+		assertNull(add(aggregator, 11, STILL));
+		Segment before = add(aggregator, 22, STILL);
+		assertEquals(3, before.getWindows());
+		assertEquals(11 * MINUTE, before.getEnd());
+		assertEquals(22 * MINUTE, aggregator.flush().getStart());
+	}
+
+	@Test
+	public void unknownWindowsJoinTheSegmentTheyPrecede() {
+		SegmentAggregator aggregator = new SegmentAggregator();
+		add(aggregator, 0, UNKNOWN);
+		add(aggregator, 1, WALK);
+		add(aggregator, 2, UNKNOWN);
+		add(aggregator, 3, WALK);
+		Segment segment = aggregator.flush();
+		assertEquals(WALK, segment.getMode());
+		assertEquals(4, segment.getWindows());
+		assertEquals(0.5, segment.getConfidence(), 1e-12);
+	}
+
+	@Test
+	public void unknownWindowsAloneMakeNoSegment() {
+		SegmentAggregator aggregator = new SegmentAggregator(2, 10 * MINUTE);
+		add(aggregator, 0, UNKNOWN);
+		add(aggregator, 1, UNKNOWN);
+		// the gap closes the unknown windows without a segment
+		assertNull(add(aggregator, 20, STILL));
+		Segment still = aggregator.flush();
+		assertEquals(STILL, still.getMode());
+		assertEquals(1, still.getWindows());
+
+		add(aggregator, 30, UNKNOWN);
+		assertNull(aggregator.flush());
+	}
+
+	@Test
+	public void contradictingWifiCountsHalf() {
+		SegmentAggregator aggregator = new SegmentAggregator();
+		add(aggregator, 0, STILL, STILL);
+		add(aggregator, 1, STILL, DRIVE);
+		add(aggregator, 2, STILL, DRIVE);
+		add(aggregator, 3, STILL, UNKNOWN);
+		assertEquals(0.75, aggregator.flush().getConfidence(), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void windowsMustBeInTimeOrder() {
+		SegmentAggregator aggregator = new SegmentAggregator();
+		add(aggregator, 1, STILL);
+		add(aggregator, 0, STILL);
+	}
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ShardRouterTest {
+	private static final int USERS = 10000;
+
+	private static ShardRouter router(String... workers) {
+		ShardRouter router = new ShardRouter();
+		for (String worker : workers) {
+			router.addWorker(worker);
+		}
+		return router;
+	}
+
+	@Test
+	public void joiningWorkerTakesAboutItsShareFromTheOthers() {
+		ShardRouter router = router("a:1", "b:1", "c:1");
+		String[] before = new String[USERS];
+		for (int u = 0; u < USERS; u++) {
+			before[u] = router.getWorker("user" + u);
+		}
+		router.addWorker("d:1");
+		int moved = 0;
+		for (int u = 0; u < USERS; u++) {
+			String worker = router.getWorker("user" + u);
+			if (! worker.equals(before[u])) {
+				assertEquals("d:1", worker);
+				moved++;
+			}
+		}
+		assertTrue("moved " + moved, moved > USERS / 4 - USERS / 10 && moved < USERS / 4 + USERS / 10);
+	}
+
+	@Test
+	public void leavingWorkerMovesOnlyItsUsers() {
+		ShardRouter router = router("a:1", "b:1", "c:1", "d:1");
+		String[] before = new String[USERS];
+		for (int u = 0; u < USERS; u++) {
+			before[u] = router.getWorker("user" + u);
+		}
+		assertTrue(router.removeWorker("b:1"));
+		assertEquals(Arrays.asList("a:1", "c:1", "d:1"), router.getWorkers());
+		for (int u = 0; u < USERS; u++) {
+			String worker = router.getWorker("user" + u);
+			if (! before[u].equals("b:1")) {
+				assertEquals(before[u], worker);
+			}
+			else {
+				assertTrue(! worker.equals("b:1"));
+			}
+		}
+	}
+
+	@Test
+	public void routingDependsOnlyOnTheWorkers() {
+		ShardRouter first = router("a:1", "b:1", "c:1");
+		ShardRouter second = router("c:1", "a:1", "b:1");
+		ShardRouter third = router("a:1", "b:1", "c:1", "d:1");
+		third.removeWorker("d:1");
+		for (int u = 0; u < USERS; u++) {
+			assertEquals(first.getWorker("user" + u), second.getWorker("user" + u));
+			assertEquals(first.getWorker("user" + u), third.getWorker("user" + u));
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void noWorkersRouteNoUsers() {
+		ShardRouter router = router("a:1");
+		router.removeWorker("a:1");
+		router.getWorker("user");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void workerIsAddedOnce() {
+		router("a:1", "a:1");
+	}
+}
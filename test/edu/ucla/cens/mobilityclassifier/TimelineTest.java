@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimelineTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Classification classification(String mode, double variance) {
+		Classification classification = new Classification();
+		classification.setMode(mode);
+		classification.setHasFeatures(true);
+		classification.setVariance(variance);
+		return classification;
+	}
+
+	@Test
+	public void rangeReturnsTheRecordsInTime() throws IOException {
+		Timeline timeline = new Timeline(folder.newFile());
+		for (int i = 0; i < 10; i++) {
+			timeline.append(1000L * i, classification((i < 5) ? MobilityClassifier.STILL : MobilityClassifier.WALK, i));
+		}
+		TimelineRange range = timeline.range(2500, 7000);
+		assertEquals(4, range.size());
+		assertEquals(3000, range.getTime(0));
+		assertEquals(6000, range.getTime(3));
+		assertEquals(MobilityClassifier.WALK, range.getMode(2));
+		assertEquals(5.0, range.getVariance(2), 0);
+		assertTrue(Double.isNaN(range.getAverage(2)));
+
+		List<Segment> segments = timeline.getSegments(0, Long.MAX_VALUE);
+		assertEquals(2, segments.size());
+		assertEquals(5, segments.get(1).getWindows());
+		timeline.close();
+	}
+
+	@Test
+	public void reopenKeepsThePublishedRecords() throws IOException {
+		File file = folder.newFile();
+		Timeline timeline = new Timeline(file);
+		List<Double> fft = Arrays.asList(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0);
+		Classification drive = classification(MobilityClassifier.DRIVE, 0.5);
+		drive.setFft(fft);
+		timeline.append(1000, drive);
+		timeline.append(2000, classification(MobilityClassifier.STILL, 0));
+		timeline.close();
+
+		timeline = new Timeline(file);
+		assertEquals(2, timeline.size());
+		timeline.append(3000, classification(MobilityClassifier.STILL, 0));
+		Classification copy = timeline.range(0, 2000).getClassification(0);
+		assertEquals(MobilityClassifier.DRIVE, copy.getMode());
+		assertEquals(fft, copy.getFft());
+		assertEquals(3, timeline.range(0, Long.MAX_VALUE).size());
+		timeline.close();
+	}
+
+	@Test
+	public void recordsCrossEveryRegion() throws IOException {
+		File file = folder.newFile();
+		Timeline timeline = new Timeline(file);
+		timeline.append(0, classification(MobilityClassifier.STILL, 0));
+		// a user with few windows does not get a whole region of the largest size
+		assertTrue(file.length() <= Timeline.HEADER_SIZE + Timeline.FIRST_REGION_RECORDS * Timeline.RECORD_SIZE);
+
+		int count = 70000;
+		for (int i = 1; i < count; i++) {
+			timeline.append(i, classification(MobilityClassifier.STILL, i));
+		}
+		timeline.close();
+		timeline = new Timeline(file);
+		TimelineRange range = timeline.range(0, Long.MAX_VALUE);
+		assertEquals(count, range.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, range.getTime(i));
+			assertEquals(i, range.getVariance(i), 0);
+		}
+		assertEquals(65280, timeline.range(65280, Long.MAX_VALUE).getTime(0));
+		timeline.close();
+	}
+
+	@Test
+	public void badClassificationTakesNoSlot() throws IOException {
+		Timeline timeline = new Timeline(folder.newFile());
+		Classification classification = classification(MobilityClassifier.WALK, 1);
+		classification.setFft(Arrays.asList(1.0, 2.0));
+		try {
+			timeline.append(0, classification);
+			fail("Three FFT values were stored");
+		}
+		catch(IllegalArgumentException e) {
+			// expected
+		}
+		timeline.append(1000, classification(MobilityClassifier.WALK, 1));
+		assertEquals(1, timeline.size());
+		timeline.close();
+	}
+
+	@Test(timeout = 10000)
+	public void failedAppendStopsLaterAppends() throws IOException {
+		Timeline timeline = new Timeline(folder.newFile());
+		for (int i = 0; i < Timeline.FIRST_REGION_RECORDS; i++) {
+			timeline.append(i, classification(MobilityClassifier.STILL, 0));
+		}
+		// the next record needs a new region, which a closed file cannot map
+		timeline.close();
+		try {
+			timeline.append(Timeline.FIRST_REGION_RECORDS, classification(MobilityClassifier.STILL, 0));
+			fail("A closed file was extended");
+		}
+		catch(IOException e) {
+			// expected
+		}
+		try {
+			timeline.append(Timeline.FIRST_REGION_RECORDS + 1, classification(MobilityClassifier.STILL, 0));
+			fail("An append followed a failed one");
+		}
+		catch(IllegalStateException e) {
+			// expected
+		}
+		assertEquals(Timeline.FIRST_REGION_RECORDS, timeline.size());
+	}
+
+	@Test
+	public void segmentsAreCutAtTheRange() throws IOException {
+		Timeline timeline = new Timeline(folder.newFile());
+		for (int i = 0; i < 10; i++) {
+			timeline.append(1000L * i, classification((i < 5) ? MobilityClassifier.STILL : MobilityClassifier.WALK, i));
+		}
+		List<Segment> segments = timeline.getSegments(2000, 7000);
+		assertEquals(2, segments.size());
+		assertEquals(MobilityClassifier.STILL, segments.get(0).getMode());
+		assertEquals(3, segments.get(0).getWindows());
+		assertEquals(2000, segments.get(0).getStart());
+		assertEquals(MobilityClassifier.WALK, segments.get(1).getMode());
+		assertEquals(2, segments.get(1).getWindows());
+		assertEquals(6000, segments.get(1).getEnd());
+		assertTrue(timeline.getSegments(20000, 30000).isEmpty());
+		timeline.close();
+	}
+
+	@Test(timeout = 60000)
+	public void concurrentAppendsArePublishedInSlotOrder() throws Exception {
+		final Timeline timeline = new Timeline(folder.newFile());
+		final int perThread = 2000;
+		List<Thread> threads = new ArrayList<Thread>();
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		for (int t = 0; t < 8; t++) {
+			final String mode = (t % 2 == 0) ? MobilityClassifier.STILL : MobilityClassifier.WALK;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < perThread; i++) {
+							timeline.append(0, classification((i % 3 == 0) ? mode : MobilityClassifier.DRIVE, i));
+						}
+					}
+					catch(Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(8 * perThread, timeline.size());
+
+		TimelineRange range = timeline.range(0, 1);
+		List<Segment> segments = timeline.getSegments(0, 1);
+		int index = 0;
+		for (int s = 0; s < segments.size(); s++) {
+			Segment segment = segments.get(s);
+			if (s > 0) {
+				assertFalse(segment.getMode().equals(segments.get(s - 1).getMode()));
+			}
+			for (int i = 0; i < segment.getWindows(); i++) {
+				assertEquals(segment.getMode(), range.getMode(index++));
+			}
+		}
+		assertEquals(range.size(), index);
+		timeline.close();
+	}
+
+	@Test
+	public void openingAnOlderFileLinksItsRuns() throws IOException {
+		File file = folder.newFile();
+		Timeline timeline = new Timeline(file);
+		for (int i = 0; i < 10; i++) {
+			timeline.append(1000L * i, classification((i < 4) ? MobilityClassifier.STILL : MobilityClassifier.WALK, i));
+		}
+		timeline.close();
+
+		// a file of version 1, which had no runs
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.seek(4);
+		raw.write(new byte[] { 1, 0, 0, 0 });
+		for (int i = 0; i < 10; i++) {
+			raw.seek(Timeline.HEADER_SIZE + i * Timeline.RECORD_SIZE + Timeline.RUN);
+			raw.write(new byte[4]);
+		}
+		raw.close();
+
+		timeline = new Timeline(file);
+		List<Segment> segments = timeline.getSegments(0, Long.MAX_VALUE);
+		assertEquals(2, segments.size());
+		assertEquals(4, segments.get(0).getWindows());
+		assertEquals(6, segments.get(1).getWindows());
+		timeline.close();
+	}
+}
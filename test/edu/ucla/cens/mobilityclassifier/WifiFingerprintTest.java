@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WifiFingerprintTest {
+	private static WifiFingerprint fingerprint(Object... ssidsAndStrengths) {
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (int i = 0; i < ssidsAndStrengths.length; i += 2) {
+			accessPoints.add(new AccessPoint((String) ssidsAndStrengths[i], ((Number) ssidsAndStrengths[i + 1]).doubleValue()));
+		}
+		return WifiFingerprint.of(accessPoints);
+	}
+
+	@Test
+	public void duplicatesKeepTheStrongerReading() {
+		WifiFingerprint fingerprint = fingerprint("a", -80, "b", -60, "a", -50);
+		assertEquals(2, fingerprint.getSize());
+		assertEquals(1.0, fingerprint.weightedJaccard(fingerprint("b", -60, "a", -50)), 1e-9);
+	}
+
+	@Test
+	public void weightedJaccardWeighsStrengthAboveTheFloor() {
+		// min(50, 40) + min(30, 0) over max(50, 40) + max(30, 0) + max(0, 20)
+		WifiFingerprint first = fingerprint("a", -50, "b", -70);
+		WifiFingerprint second = fingerprint("a", -60, "c", -80);
+		assertEquals(40.0 / 100, first.weightedJaccard(second), 1e-9);
+		assertEquals(first.weightedJaccard(second), second.weightedJaccard(first), 0);
+		assertEquals(0.0, fingerprint("a", -100).weightedJaccard(fingerprint("b", -120)), 0);
+	}
+
+	@Test
+	public void unionKeepsTheStrongestReadingOfEveryScan() {
+		List<WifiFingerprint> scans = new ArrayList<WifiFingerprint>();
+		for (int i = 0; i < 7; i++) {
+			scans.add(fingerprint("a" + i, -90, "shared", -90 + i));
+		}
+		WifiFingerprint union = WifiFingerprint.union(scans);
+		assertEquals(8, union.getSize());
+		Collections.reverse(scans);
+		assertEquals(1.0, union.weightedJaccard(WifiFingerprint.union(scans)), 1e-9);
+		assertEquals(1.0, fingerprint("shared", -84).weightedJaccard(WifiFingerprint.union(Arrays.asList(fingerprint("shared", -84)))), 0);
+		assertEquals(16.0 / (16 + 7 * 10), fingerprint("shared", -84).weightedJaccard(union), 1e-9);
+		assertEquals(0, WifiFingerprint.union(new ArrayList<WifiFingerprint>()).getSize());
+	}
+
+	@Test
+	public void rankCorrelationFollowsTheOrderOfTheSharedAccessPoints() {
+		WifiFingerprint first = fingerprint("a", -40, "b", -50, "c", -60, "d", -70, "only", -30);
+		// the same order at other strengths, and access points only one scan heard, do not matter
+		assertEquals(1.0, first.rankCorrelation(fingerprint("a", -55, "b", -60, "c", -80, "d", -90, "other", -20)), 1e-9);
+		assertEquals(-1.0, first.rankCorrelation(fingerprint("a", -70, "b", -60, "c", -50, "d", -40)), 1e-9);
+		// tied strengths share their rank
+		assertEquals(Math.sqrt(0.9), first.rankCorrelation(fingerprint("a", -40, "b", -60, "c", -60, "d", -70)), 1e-6);
+		assertTrue(Double.isNaN(first.rankCorrelation(fingerprint("a", -40, "e", -50))));
+		assertTrue(Double.isNaN(first.rankCorrelation(fingerprint("a", -60, "b", -60))));
+	}
+
+	@Test
+	public void compareCountsTheStrongAccessPointsAsTheScan() {
+		List<AccessPoint> current = Arrays.asList(new AccessPoint("a", -40.0), new AccessPoint("b", -45.0),
+				new AccessPoint("a", -41.0), new AccessPoint("c", -80.0), new AccessPoint("d", -90.0));
+		List<AccessPoint> last = Arrays.asList(new AccessPoint("a", -50.0), new AccessPoint("b", -90.0),
+				new AccessPoint("c", -50.0));
+		WifiFingerprint fingerprint = WifiFingerprint.of(current);
+		WifiFingerprint lastFingerprint = WifiFingerprint.of(last);
+		WifiComparison comparison = fingerprint.compare(lastFingerprint);
+		// a twice and b are strong now, and only a is strong in the last scan
+		assertEquals(new WifiScan(0L, current).getStrongSsids().size(), comparison.getStrongTotal());
+		assertEquals(3, comparison.getStrongTotal());
+		assertEquals(2, comparison.getStrongShared());
+		assertEquals(fingerprint.weightedJaccard(lastFingerprint), comparison.getWeightedJaccard(), 0);
+		assertEquals(fingerprint.rankCorrelation(lastFingerprint), comparison.getRankCorrelation(), 0);
+		// b is strong in the union of both scans
+		WifiComparison union = fingerprint.compare(WifiFingerprint.union(Arrays.asList(lastFingerprint, WifiFingerprint.of(Arrays.asList(new AccessPoint("b", -40.0), new AccessPoint("e", -90.0))))));
+		assertEquals(3, union.getStrongShared());
+	}
+}
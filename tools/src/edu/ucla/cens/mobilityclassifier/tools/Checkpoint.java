@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+/**
+ * The input files a {@link Reclassify} run has finished, so that a run that
+ * stopped can carry on where it was.
+ *
+ * The checkpoint is a text file that starts with the classifier version and
+ * then gets one line per finished file, appended and flushed as soon as the
+ * file's output is in place. Each line also records the Wi-Fi and location
+ * state of the user's last classification, which is all the next window
+ * needs from it.
+ */
+public class Checkpoint {
+	private static final String HEADER = "# reclassify checkpoint, classifier ";
+	private static final String NONE = "-";
+
+	private final Set<String> done = new HashSet<String>();
+	private final Map<String, Classification> last = new HashMap<String, Classification>();
+	private final Map<String, String> lastFile = new HashMap<String, String>();
+	private final Writer writer;
+
+	/**
+	 * Opens a checkpoint, creating it if it does not exist yet.
+	 *
+	 * @param file The checkpoint file.
+	 *
+	 * @param version The version of the classifier of this run. A checkpoint
+	 * 				  of another version cannot be resumed.
+	 *
+	 * @throws IOException The checkpoint could not be read or is of another
+	 * 					   version.
+	 */
+	public Checkpoint(File file, String version) throws IOException {
+		boolean exists = file.exists();
+		if (exists) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String header = reader.readLine();
+				if (header == null || ! header.equals(HEADER + version)) {
+					throw new IOException(file + " was written by another classifier version: " + header);
+				}
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", -1);
+					if (fields.length != 10) {
+						continue; // the line was cut short by a crash; its file is redone
+					}
+					Classification classification;
+					try {
+						classification = parse(fields);
+					}
+					catch(NumberFormatException e) {
+						continue;
+					}
+					done.add(fields[0] + "/" + fields[1]);
+					lastFile.put(fields[0], fields[1]);
+					last.put(fields[0], classification);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		boolean cutShort = exists && endsCutShort(file);
+		writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		if (! exists) {
+			writer.write(HEADER + version + "\n");
+			writer.flush();
+		}
+		else if (cutShort) {
+			writer.write("\n");
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Returns whether an input file of a user is finished.
+	 *
+	 * @param user The user.
+	 *
+	 * @param file The name of the input file.
+	 */
+	public synchronized boolean isDone(String user, String file) {
+		return done.contains(user + "/" + file);
+	}
+
+	/**
+	 * Returns the last file of a user that was finished, or null.
+	 *
+	 * @param user The user.
+	 */
+	public synchronized String getLastFile(String user) {
+		return lastFile.get(user);
+	}
+
+	/**
+	 * Returns the Wi-Fi and location state of the last classification of the
+	 * last finished file of a user, or null.
+	 *
+	 * @param user The user.
+	 */
+	public synchronized Classification getLastClassification(String user) {
+		return last.get(user);
+	}
+
+	/**
+	 * Records that an input file of a user is finished.
+	 *
+	 * @param user The user.
+	 *
+	 * @param file The name of the input file.
+	 *
+	 * @param classification The last classification of the file, or null if
+	 * 						 the file had no windows.
+	 *
+	 * @throws IOException The checkpoint could not be written.
+	 */
+	public synchronized void complete(String user, String file, Classification classification) throws IOException {
+		if (classification == null) {
+			classification = last.get(user);
+		}
+		StringBuilder line = new StringBuilder();
+		line.append(user).append('\t').append(file);
+		if (classification == null) {
+			line.append("\t-\t-\t0\t0\t-\t-\t0.0\t0.0");
+		}
+		else {
+			line.append('\t').append(orNone(classification.getMode()));
+			line.append('\t').append(orNone(classification.getWifiMode()));
+			line.append('\t').append(classification.getWifiTotal());
+			line.append('\t').append(classification.getWifiRecogTotal());
+			line.append('\t').append(orNone(classification.getPlace()));
+			line.append('\t').append(orNone(classification.getLocationMode()));
+			line.append('\t').append(classification.getRadius());
+			line.append('\t').append(classification.getTravelled());
+		}
+		line.append('\n');
+		writer.write(line.toString());
+		writer.flush();
+
+		done.add(user + "/" + file);
+		lastFile.put(user, file);
+		if (classification != null) {
+			last.put(user, classification);
+		}
+	}
+
+	/**
+	 * Closes the checkpoint file.
+	 *
+	 * @throws IOException The checkpoint could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	private static boolean endsCutShort(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.length() == 0) {
+				return false;
+			}
+			in.seek(in.length() - 1);
+			return in.read() != '\n';
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static Classification parse(String[] fields) {
+		if (NONE.equals(fields[2]) && NONE.equals(fields[3]) && NONE.equals(fields[7])) {
+			return null;
+		}
+		Classification classification = new Classification();
+		classification.setMode(orNull(fields[2]));
+		classification.setWifiMode(orNull(fields[3]));
+		classification.setWifiTotal(Integer.parseInt(fields[4]));
+		classification.setWifiRecogTotal(Integer.parseInt(fields[5]));
+		classification.setPlace(orNull(fields[6]));
+		classification.setLocationMode(orNull(fields[7]));
+		classification.setRadius(Double.parseDouble(fields[8]));
+		classification.setTravelled(Double.parseDouble(fields[9]));
+		return classification;
+	}
+
+	private static String orNone(String value) {
+		return (value == null) ? NONE : value;
+	}
+
+	private static String orNull(String value) {
+		return NONE.equals(value) ? null : value;
+	}
+}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.ucla.cens.mobilityclassifier.DecisionTreeModel;
+
+/**
+ * Grows a {@link DecisionTreeModel} from a {@link FeatureTable} with the
+ * Gini impurity.
+ *
+ * Every feature is first cut into at most {@link #MAX_BINS} quantile bins, so
+ * that finding the best split of a node is one pass over its rows to fill a
+ * histogram per feature and one pass over the bins. NaN features get a bin of
+ * their own that always goes right, as in the model. The features of a node
+ * are searched in parallel, and the rows of a node are partitioned in place
+ * between its children.
+ */
+public class DecisionTreeTrainer {
+	public static final int MAX_BINS = 255;
+	private static final int NAN_BIN = MAX_BINS;
+	private static final int PARALLEL_ROWS = 8192; // below this, threads cost more than they save
+
+	private final int maxDepth;
+	private final int minLeaf;
+	private final ExecutorService executor;
+
+	private FeatureTable table;
+	private byte[][] bins;
+	private double[][] cuts;
+	private int classes;
+	private int[] rows;
+
+	private final List<Integer> features = new ArrayList<Integer>();
+	private final List<Double> thresholds = new ArrayList<Double>();
+	private final List<Integer> left = new ArrayList<Integer>();
+	private final List<Integer> right = new ArrayList<Integer>();
+	private final List<String> modes = new ArrayList<String>();
+
+	/**
+	 * Creates a trainer.
+	 *
+	 * @param maxDepth The maximum number of inner nodes from the root to a
+	 * 				   leaf.
+	 *
+	 * @param minLeaf The minimum number of rows in a leaf.
+	 *
+	 * @param executor Where to search the features of a node in parallel,
+	 * 				   or null to search them on the calling thread.
+	 */
+	public DecisionTreeTrainer(int maxDepth, int minLeaf, ExecutorService executor) {
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException("The maximum depth cannot be negative");
+		}
+		if (minLeaf < 1) {
+			throw new IllegalArgumentException("A leaf needs at least one row");
+		}
+		this.maxDepth = maxDepth;
+		this.minLeaf = minLeaf;
+		this.executor = executor;
+	}
+
+	/**
+	 * Grows a tree. A trainer grows one tree at a time.
+	 *
+	 * @param table The training rows. Its width must be the number of
+	 * 				{@link DecisionTreeModel#FEATURE_NAMES}.
+	 *
+	 * @return The tree.
+	 */
+	public synchronized DecisionTreeModel train(FeatureTable table) {
+		if (table.size() == 0) {
+			throw new IllegalArgumentException("There are no training rows");
+		}
+		if (table.getWidth() != DecisionTreeModel.FEATURE_NAMES.length) {
+			throw new IllegalArgumentException("Expected " + DecisionTreeModel.FEATURE_NAMES.length + " features but found " + table.getWidth());
+		}
+
+		this.table = table;
+		classes = table.getModes().size();
+		bin();
+		rows = new int[table.size()];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = i;
+		}
+		features.clear();
+		thresholds.clear();
+		left.clear();
+		right.clear();
+		modes.clear();
+
+		grow(0, rows.length, 0);
+
+		int size = features.size();
+		int[] f = new int[size];
+		double[] t = new double[size];
+		int[] l = new int[size];
+		int[] r = new int[size];
+		for (int i = 0; i < size; i++) {
+			f[i] = features.get(i);
+			t[i] = thresholds.get(i);
+			l[i] = left.get(i);
+			r[i] = right.get(i);
+		}
+		DecisionTreeModel model = new DecisionTreeModel(f, t, l, r, modes.toArray(new String[size]));
+		this.table = null;
+		bins = null;
+		rows = null;
+		return model;
+	}
+
+	/**
+	 * Cuts every feature at its quantiles. A value falls into the first bin
+	 * whose cut is at least the value.
+	 */
+	private void bin() {
+		int width = table.getWidth();
+		int size = table.size();
+		bins = new byte[width][size];
+		cuts = new double[width][];
+		float[] values = new float[size];
+		for (int feature = 0; feature < width; feature++) {
+			int count = 0;
+			for (int row = 0; row < size; row++) {
+				float value = table.get(row, feature);
+				if (! Float.isNaN(value)) {
+					values[count++] = value;
+				}
+			}
+			Arrays.sort(values, 0, count);
+			double[] featureCuts = new double[Math.min(MAX_BINS, count)];
+			int cutCount = 0;
+			for (int i = 1; i <= featureCuts.length; i++) {
+				double cut = values[(int) ((long) i * count / featureCuts.length) - 1];
+				if (cutCount == 0 || cut > featureCuts[cutCount - 1]) {
+					featureCuts[cutCount++] = cut;
+				}
+			}
+			cuts[feature] = Arrays.copyOf(featureCuts, cutCount);
+
+			for (int row = 0; row < size; row++) {
+				float value = table.get(row, feature);
+				int bin;
+				if (Float.isNaN(value)) {
+					bin = NAN_BIN;
+				}
+				else {
+					bin = Arrays.binarySearch(cuts[feature], value);
+					if (bin < 0) {
+						bin = -bin - 1;
+					}
+				}
+				bins[feature][row] = (byte) bin;
+			}
+		}
+	}
+
+	/**
+	 * Returns the largest double that rounds to a float no greater than a
+	 * cut. The table keeps its features as floats, so a model that compares
+	 * the double features of a window with this threshold sends it the way
+	 * the rounded feature went in training.
+	 */
+	static double getThreshold(float cut) {
+		if (Float.isInfinite(cut)) {
+			return cut;
+		}
+		double up = (cut == Float.MAX_VALUE) ? (double) cut + Math.ulp(cut) : Math.nextUp(cut);
+		double middle = (cut + up) / 2; // exact, as a double has room for one more bit
+		return ((float) middle <= cut) ? middle : Math.nextDown(middle);
+	}
+
+	/**
+	 * Adds the node for rows[start, end) and, in preorder, its subtree.
+	 */
+	private void grow(int start, int end, int depth) {
+		int node = features.size();
+		features.add(-1);
+		thresholds.add(Double.NaN);
+		left.add(-1);
+		right.add(-1);
+		modes.add(null);
+
+		int[] counts = new int[classes];
+		for (int i = start; i < end; i++) {
+			counts[table.getLabel(rows[i])]++;
+		}
+		int majority = 0;
+		for (int c = 1; c < classes; c++) {
+			if (counts[c] > counts[majority]) {
+				majority = c;
+			}
+		}
+
+		Split split = null;
+		if (depth < maxDepth && end - start >= 2 * minLeaf && counts[majority] < end - start) {
+			split = findSplit(start, end, counts);
+		}
+		if (split == null) {
+			modes.set(node, table.getModes().get(majority));
+			return;
+		}
+
+		byte[] featureBins = bins[split.feature];
+		int middle = start;
+		for (int i = start; i < end; i++) {
+			if ((featureBins[rows[i]] & 0xFF) <= split.bin) {
+				int row = rows[i];
+				rows[i] = rows[middle];
+				rows[middle++] = row;
+			}
+		}
+
+		features.set(node, split.feature);
+		thresholds.set(node, split.threshold);
+		left.set(node, features.size());
+		grow(start, middle, depth + 1);
+		right.set(node, features.size());
+		grow(middle, end, depth + 1);
+	}
+
+	private Split findSplit(final int start, final int end, final int[] counts) {
+		int width = table.getWidth();
+		Split best = null;
+		if (executor == null || end - start < PARALLEL_ROWS) {
+			for (int feature = 0; feature < width; feature++) {
+				best = better(best, findSplit(feature, start, end, counts));
+			}
+			return best;
+		}
+
+		List<Future<Split>> futures = new ArrayList<Future<Split>>(width);
+		for (int feature = 0; feature < width; feature++) {
+			final int f = feature;
+			futures.add(executor.submit(new Callable<Split>() {
+				@Override
+				public Split call() {
+					return findSplit(f, start, end, counts);
+				}
+			}));
+		}
+		try {
+			for (Future<Split> future : futures) {
+				best = better(best, future.get());
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while training", e);
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Could not search a feature", e.getCause());
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the split of one feature with the lowest weighted Gini impurity.
+	 * Ties go to the lower bin so that training is deterministic.
+	 */
+	private Split findSplit(int feature, int start, int end, int[] counts) {
+		int binCount = cuts[feature].length;
+		if (binCount == 0) {
+			return null;
+		}
+		int[][] histogram = new int[binCount][classes];
+		byte[] featureBins = bins[feature];
+		for (int i = start; i < end; i++) {
+			int bin = featureBins[rows[i]] & 0xFF;
+			if (bin != NAN_BIN) {
+				histogram[bin][table.getLabel(rows[i])]++;
+			}
+		}
+
+		int total = end - start;
+		int[] leftCounts = new int[classes];
+		int leftTotal = 0;
+		Split best = null;
+		for (int bin = 0; bin < binCount; bin++) {
+			for (int c = 0; c < classes; c++) {
+				leftCounts[c] += histogram[bin][c];
+				leftTotal += histogram[bin][c];
+			}
+			int rightTotal = total - leftTotal;
+			if (leftTotal < minLeaf) {
+				continue;
+			}
+			if (rightTotal < minLeaf) {
+				break;
+			}
+			double leftSquares = 0;
+			double rightSquares = 0;
+			for (int c = 0; c < classes; c++) {
+				leftSquares += (double) leftCounts[c] * leftCounts[c];
+				double rightCount = counts[c] - leftCounts[c];
+				rightSquares += rightCount * rightCount;
+			}
+			// total * weighted Gini = total - sum(left^2) / leftTotal - sum(right^2) / rightTotal
+			double impurity = total - leftSquares / leftTotal - rightSquares / rightTotal;
+			if (best == null || impurity < best.impurity) {
+				// the rows go left when they are at most the cut of their bin, as in the model
+				double threshold = (bin + 1 < binCount) ? getThreshold((float) cuts[feature][bin]) : Double.POSITIVE_INFINITY;
+				best = new Split(feature, bin, threshold, impurity);
+			}
+		}
+		return best;
+	}
+
+	private static Split better(Split best, Split candidate) {
+		if (candidate == null) {
+			return best;
+		}
+		if (best == null || candidate.impurity < best.impurity) {
+			return candidate;
+		}
+		return best;
+	}
+
+	private static class Split {
+		final int feature;
+		final int bin;
+		final double threshold;
+		final double impurity;
+
+		Split(int feature, int bin, double threshold, double impurity) {
+			this.feature = feature;
+			this.bin = bin;
+			this.threshold = threshold;
+			this.impurity = impurity;
+		}
+	}
+}
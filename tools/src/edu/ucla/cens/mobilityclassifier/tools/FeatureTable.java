@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The labelled feature rows of a training set, stored as floats in fixed
+ * size chunks so that growing the table never copies the features already
+ * in it; only the labels, an int per row, are copied as they grow.
+ * {@link #addAll(FeatureTable)} copies the rows of the other table. The
+ * thresholds {@link DecisionTreeTrainer} learns from the floats are placed
+ * so that double features at inference split as their floats did.
+ *
+ * This is not thread-safe; build one table per thread and merge them with
+ * {@link #addAll(FeatureTable)}.
+ */
+public class FeatureTable {
+	private static final int CHUNK_ROWS = 4096;
+
+	private final int width;
+	private final List<float[]> chunks = new ArrayList<float[]>();
+	private final List<String> modes = new ArrayList<String>();
+	private int[] labels = new int[CHUNK_ROWS];
+	private int size = 0;
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param width The number of features in every row.
+	 */
+	public FeatureTable(int width) {
+		if (width <= 0) {
+			throw new IllegalArgumentException("A row needs at least one feature");
+		}
+		this.width = width;
+	}
+
+	/**
+	 * Adds a row.
+	 *
+	 * @param features The features of the row.
+	 *
+	 * @param mode The true mode of the row.
+	 */
+	public void add(double[] features, String mode) {
+		if (features.length != width) {
+			throw new IllegalArgumentException("Expected " + width + " features but found " + features.length);
+		}
+		int label = modes.indexOf(mode);
+		if (label < 0) {
+			label = modes.size();
+			modes.add(mode);
+		}
+
+		int offset = (size % CHUNK_ROWS) * width;
+		if (offset == 0) {
+			chunks.add(new float[CHUNK_ROWS * width]);
+		}
+		float[] chunk = chunks.get(chunks.size() - 1);
+		for (int i = 0; i < width; i++) {
+			chunk[offset + i] = (float) features[i];
+		}
+		if (size == labels.length) {
+			int[] grown = new int[labels.length * 2];
+			System.arraycopy(labels, 0, grown, 0, size);
+			labels = grown;
+		}
+		labels[size++] = label;
+	}
+
+	/**
+	 * Adds every row of another table.
+	 *
+	 * @param other The table whose rows are added.
+	 */
+	public void addAll(FeatureTable other) {
+		double[] row = new double[width];
+		for (int r = 0; r < other.size; r++) {
+			for (int i = 0; i < width; i++) {
+				row[i] = other.get(r, i);
+			}
+			add(row, other.getMode(r));
+		}
+	}
+
+	/**
+	 * Returns one feature of one row.
+	 *
+	 * @param row The index of the row.
+	 *
+	 * @param feature The index of the feature.
+	 */
+	public float get(int row, int feature) {
+		return chunks.get(row / CHUNK_ROWS)[(row % CHUNK_ROWS) * width + feature];
+	}
+
+	/**
+	 * Returns the index of the mode of a row in {@link #getModes()}.
+	 *
+	 * @param row The index of the row.
+	 */
+	public int getLabel(int row) {
+		return labels[row];
+	}
+
+	/**
+	 * Returns the mode of a row.
+	 *
+	 * @param row The index of the row.
+	 */
+	public String getMode(int row) {
+		return modes.get(labels[row]);
+	}
+
+	/**
+	 * Returns the distinct modes in the order they were first added.
+	 */
+	public List<String> getModes() {
+		return modes;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.ClassificationListener;
+import edu.ucla.cens.mobilityclassifier.SensorWindow;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Records the classifications of a classifier as Java Flight Recorder
+ * events, so that a recording of a running service shows which users,
+ * scans and windows the time goes to. While no recording is running, or
+ * the events are disabled in it, an event costs next to nothing.
+ *
+ * Every window is a {@link #CLASSIFY} event, which lasts as long as its
+ * classification. The stages are {@link #STAGE} events, which are disabled
+ * unless a recording's settings enable them, such as
+ * tools/mobility-classifier.jfc. A stage has the user and window number of
+ * its window, or no window for the features of a batch. See
+ * {@link JfrReport} for a summary of a recording.
+ */
+public class JfrClassificationListener implements ClassificationListener {
+	/**
+	 * The extra of a window that names its user.
+	 */
+	public static final String USER = "user";
+	public static final String CLASSIFY = "edu.ucla.cens.mobilityclassifier.Classify";
+	public static final String STAGE = "edu.ucla.cens.mobilityclassifier.Stage";
+
+	private final String user;
+	private final AtomicLong windows = new AtomicLong();
+	private final ThreadLocal<ClassifyEvent> window = new ThreadLocal<ClassifyEvent>();
+	private final ThreadLocal<StageEvent> stage = new ThreadLocal<StageEvent>();
+
+	/**
+	 * Creates a listener that takes the user from the {@link #USER} extra of
+	 * each window.
+	 */
+	public JfrClassificationListener() {
+		this(null);
+	}
+
+	/**
+	 * Creates a listener for a classifier of one user.
+	 *
+	 * @param user The user of windows without the {@link #USER} extra.
+	 */
+	public JfrClassificationListener(String user) {
+		this.user = user;
+	}
+
+	@Override
+	public void stageStarted(String stage) {
+		StageEvent event = new StageEvent();
+		if (! event.isEnabled()) {
+			return;
+		}
+		ClassifyEvent window = this.window.get();
+		if (window != null) {
+			event.user = window.user;
+			event.window = window.window;
+		}
+		event.stage = stage;
+		this.stage.set(event);
+		event.begin();
+	}
+
+	@Override
+	public void stageFinished(String stage, long nanos) {
+		StageEvent event = this.stage.get();
+		if (event != null) {
+			this.stage.remove();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void classifying(SensorWindow window) {
+		ClassifyEvent event = new ClassifyEvent();
+		if (! event.isEnabled()) {
+			return;
+		}
+		Object windowUser = window.getExtra(USER);
+		event.user = (windowUser == null) ? user : windowUser.toString();
+		event.window = windows.incrementAndGet();
+		event.samples = window.getSamples().size();
+		WifiScan wifiScan = window.getWifiScan();
+		event.accessPoints = (wifiScan == null || wifiScan.getAccessPoints() == null) ? 0 : wifiScan.getAccessPoints().size();
+		List<WifiScan> lastWifiScans = window.getLastWifiScans();
+		event.wifiHistory = (lastWifiScans == null) ? 0 : lastWifiScans.size();
+		event.locationHistory = (window.getHistLocs() == null) ? 0 : window.getHistLocs().size();
+		this.window.set(event);
+		event.begin();
+	}
+
+	@Override
+	public void classified(SensorWindow window, Classification classification, long nanos) {
+		ClassifyEvent event = this.window.get();
+		if (event == null) {
+			return;
+		}
+		this.window.remove();
+		event.mode = classification.getMode();
+		event.tier = classification.getTier();
+		event.commit();
+	}
+
+	@Name(CLASSIFY)
+	@Label("Classify")
+	@Description("A window classified by a mobility classifier")
+	@Category("Mobility Classifier")
+	@StackTrace(false)
+	static class ClassifyEvent extends Event {
+		@Label("User")
+		String user;
+
+		@Label("Window")
+		@Description("The number of the window in the listener, which its stages have")
+		long window;
+
+		@Label("Samples")
+		int samples;
+
+		@Label("Access Points")
+		@Description("The access points in the WiFi scan of the window")
+		int accessPoints;
+
+		@Label("WiFi History")
+		@Description("The previous WiFi scans the scan was compared with")
+		int wifiHistory;
+
+		@Label("Location History")
+		@Description("The previous locations the location was compared with")
+		int locationHistory;
+
+		@Label("Mode")
+		String mode;
+
+		@Label("Tier")
+		String tier;
+	}
+
+	@Name(STAGE)
+	@Label("Classification Stage")
+	@Description("A stage of the classification of a window")
+	@Category("Mobility Classifier")
+	@StackTrace(false)
+	@Enabled(false)
+	static class StageEvent extends Event {
+		@Label("User")
+		String user;
+
+		@Label("Window")
+		@Description("The number of the Classify event of the stage, or 0 for the features of a batch")
+		long window;
+
+		@Label("Stage")
+		String stage;
+	}
+}
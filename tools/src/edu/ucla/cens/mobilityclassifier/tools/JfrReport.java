@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes the events of a {@link JfrClassificationListener} in a flight
+ * recording: the latency of the windows, the users that took the most time,
+ * the latency by the size of the WiFi scan, the slowest windows, and the
+ * time of each stage if the stage events were enabled.
+ *
+ * Usage: JfrReport &lt;recording.jfr&gt; [--top N]
+ */
+public class JfrReport {
+	private static final String USAGE = "Usage: JfrReport <recording.jfr> [--top N]";
+
+	private final List<RecordedEvent> windows = new ArrayList<RecordedEvent>();
+	private final Map<String, List<Long>> stages = new TreeMap<String, List<Long>>();
+
+	/**
+	 * Reads the events of a recording.
+	 *
+	 * @param recording The recording.
+	 *
+	 * @throws IOException The recording could not be read.
+	 */
+	public JfrReport(File recording) throws IOException {
+		RecordingFile file = new RecordingFile(recording.toPath());
+		try {
+			while (file.hasMoreEvents()) {
+				RecordedEvent event = file.readEvent();
+				String name = event.getEventType().getName();
+				if (name.equals(JfrClassificationListener.CLASSIFY)) {
+					windows.add(event);
+				}
+				else if (name.equals(JfrClassificationListener.STAGE)) {
+					String stage = event.getString("stage");
+					List<Long> times = stages.get(stage);
+					if (times == null) {
+						times = new ArrayList<Long>();
+						stages.put(stage, times);
+					}
+					times.add(event.getDuration().toNanos());
+				}
+			}
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Prints the summary.
+	 *
+	 * @param top How many users and windows to list.
+	 */
+	public void print(int top) {
+		long[] times = new long[windows.size()];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = windows.get(i).getDuration().toNanos();
+		}
+		System.out.println(windows.size() + " windows, " + summarize(times));
+
+		final Map<String, List<Long>> users = new HashMap<String, List<Long>>();
+		Map<Integer, List<Long>> scans = new TreeMap<Integer, List<Long>>();
+		for (RecordedEvent window : windows) {
+			String user = window.getString("user");
+			add(users, (user == null) ? "-" : user, window.getDuration().toNanos());
+			int accessPoints = window.getInt("accessPoints");
+			add(scans, (accessPoints == 0) ? 0 : Integer.highestOneBit(accessPoints), window.getDuration().toNanos());
+		}
+
+		List<String> hotUsers = new ArrayList<String>(users.keySet());
+		Collections.sort(hotUsers, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				long difference = sum(users.get(b)) - sum(users.get(a));
+				return (difference > 0) ? 1 : (difference < 0) ? -1 : a.compareTo(b);
+			}
+		});
+		System.out.println();
+		System.out.println("Users by total time");
+		for (String user : hotUsers.subList(0, Math.min(top, hotUsers.size()))) {
+			System.out.println("  " + user + ": " + millis(sum(users.get(user))) + " total, " + users.get(user).size() + " windows, " + summarize(toArray(users.get(user))));
+		}
+
+		System.out.println();
+		System.out.println("Time by access points in the scan");
+		for (Map.Entry<Integer, List<Long>> entry : scans.entrySet()) {
+			int low = entry.getKey();
+			String range = (low <= 1) ? Integer.toString(low) : low + "-" + (2 * low - 1);
+			System.out.println("  " + range + ": " + entry.getValue().size() + " windows, " + summarize(toArray(entry.getValue())));
+		}
+
+		List<RecordedEvent> slowest = new ArrayList<RecordedEvent>(windows);
+		Collections.sort(slowest, new Comparator<RecordedEvent>() {
+			@Override
+			public int compare(RecordedEvent a, RecordedEvent b) {
+				return b.getDuration().compareTo(a.getDuration());
+			}
+		});
+		System.out.println();
+		System.out.println("Slowest windows");
+		for (RecordedEvent window : slowest.subList(0, Math.min(top, slowest.size()))) {
+			System.out.println("  " + millis(window.getDuration().toNanos()) + " at " + window.getStartTime()
+					+ " user " + window.getString("user") + ", " + window.getInt("samples") + " samples, "
+					+ window.getInt("accessPoints") + " access points, " + window.getInt("wifiHistory") + " scans and "
+					+ window.getInt("locationHistory") + " locations of history, " + window.getString("mode")
+					+ " (" + window.getString("tier") + ")");
+		}
+
+		if (! stages.isEmpty()) {
+			System.out.println();
+			System.out.println("Stages");
+			for (Map.Entry<String, List<Long>> entry : stages.entrySet()) {
+				System.out.println("  " + entry.getKey() + ": " + millis(sum(entry.getValue())) + " total, " + entry.getValue().size() + " times, " + summarize(toArray(entry.getValue())));
+			}
+		}
+	}
+
+	private static <K> void add(Map<K, List<Long>> map, K key, long time) {
+		List<Long> times = map.get(key);
+		if (times == null) {
+			times = new ArrayList<Long>();
+			map.put(key, times);
+		}
+		times.add(time);
+	}
+
+	private static long sum(List<Long> times) {
+		long sum = 0;
+		for (long time : times) {
+			sum += time;
+		}
+		return sum;
+	}
+
+	private static long[] toArray(List<Long> times) {
+		long[] array = new long[times.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = times.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Returns the median, 99th percentile and maximum of times.
+	 */
+	private static String summarize(long[] times) {
+		if (times.length == 0) {
+			return "none";
+		}
+		Arrays.sort(times);
+		return "median " + millis(times[times.length / 2])
+				+ ", p99 " + millis(times[Math.min(times.length - 1, (int) (times.length * 0.99))])
+				+ ", max " + millis(times[times.length - 1]);
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3f ms", nanos / 1e6);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int top = 10;
+		if (args.length == 3 && args[1].equals("--top")) {
+			top = Integer.parseInt(args[2]);
+		}
+		else if (args.length != 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		new JfrReport(new File(args[0])).print(top);
+	}
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.DecisionTreeModel;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+
+/**
+ * Trains a {@link DecisionTreeModel} from a directory of labelled traces.
+ *
+ * Every file in the directory is the trace of one user (see
+ * {@link TraceReader}). The files are read in parallel; each is replayed
+ * through a {@link MobilitySession} so that the Wi-Fi and location features
+ * see the same history they would see on the phone. Windows without a label
+ * or with too few samples for features are skipped.
+ *
+ * Usage: ModelTrainer &lt;dataset dir&gt; &lt;model file&gt; [--max-depth N]
+ * [--min-leaf N] [--threads N] [--rate HZ] [--gravity]
+ *
+ * With --rate, windows of timestamped samples are resampled to that rate
+ * before their features are calculated (see
+ * {@link MobilityClassifier#setCanonicalRate(double)}), so that traces from
+ * devices with different rates can train one model. The classifier that
+ * uses the model must be set to the same rate. With --gravity, windows also
+ * get the features along and across gravity (see
+ * {@link MobilityClassifier#setGravityFeatures(boolean)}), and the classifier
+ * that uses the model must calculate them too.
+ */
+public class ModelTrainer {
+	private static final String USAGE = "Usage: ModelTrainer <dataset dir> <model file> [--max-depth N] [--min-leaf N] [--threads N] [--rate HZ] [--gravity]";
+
+	/**
+	 * Reads the features and labels of every window of a trace.
+	 *
+	 * @param file The trace.
+	 *
+	 * @param canonicalRate The rate to resample windows to, or 0.
+	 *
+	 * @param gravityFeatures Whether to calculate the gravity features.
+	 *
+	 * @return The labelled features of the windows that have both.
+	 *
+	 * @throws IOException The trace could not be read.
+	 */
+	public static FeatureTable extract(File file, double canonicalRate, boolean gravityFeatures) throws IOException {
+		MobilityClassifier classifier = new MobilityClassifier();
+		classifier.setCanonicalRate(canonicalRate);
+		classifier.setGravityFeatures(gravityFeatures);
+		MobilitySession session = new MobilitySession();
+		FeatureTable table = new FeatureTable(DecisionTreeModel.FEATURE_NAMES.length);
+		TraceReader reader = new TraceReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			TraceRecord record;
+			while ((record = reader.read()) != null) {
+				Classification classification = session.classify(classifier, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+				if (record.getLabel() != null && classification.hasFeatures()) {
+					table.add(DecisionTreeModel.getFeatures(record.getSpeed(), classification), record.getLabel());
+				}
+			}
+		}
+		catch(IOException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		}
+		finally {
+			reader.close();
+		}
+		return table;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		File dataset = new File(args[0]);
+		File modelFile = new File(args[1]);
+		int maxDepth = 8;
+		int minLeaf = 20;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double rate = 0;
+		boolean gravity = false;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("--gravity")) {
+				gravity = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			if (args[i].equals("--max-depth")) {
+				maxDepth = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--min-leaf")) {
+				minLeaf = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--rate")) {
+				rate = Double.parseDouble(args[++i]);
+			}
+			else {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+		}
+
+		final double canonicalRate = rate;
+		final boolean gravityFeatures = gravity;
+		File[] files = dataset.listFiles();
+		if (files == null) {
+			System.err.println("Not a directory: " + dataset);
+			System.exit(1);
+		}
+		Arrays.sort(files); // merge in a fixed order so that training is repeatable
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			long start = System.currentTimeMillis();
+			List<Future<FeatureTable>> futures = new ArrayList<Future<FeatureTable>>();
+			for (final File file : files) {
+				if (file.isFile() && ! file.isHidden()) {
+					futures.add(executor.submit(new Callable<FeatureTable>() {
+						@Override
+						public FeatureTable call() throws IOException {
+							return extract(file, canonicalRate, gravityFeatures);
+						}
+					}));
+				}
+			}
+			FeatureTable table = new FeatureTable(DecisionTreeModel.FEATURE_NAMES.length);
+			for (Future<FeatureTable> future : futures) {
+				try {
+					table.addAll(future.get());
+				}
+				catch(ExecutionException e) {
+					System.err.println(e.getCause().getMessage());
+					System.exit(1);
+				}
+			}
+			if (table.size() == 0) {
+				System.err.println("No labelled windows with features in " + dataset);
+				System.exit(1);
+			}
+			long extracted = System.currentTimeMillis();
+
+			DecisionTreeModel model = new DecisionTreeTrainer(maxDepth, minLeaf, executor).train(table);
+			long trained = System.currentTimeMillis();
+
+			Writer writer = new OutputStreamWriter(new FileOutputStream(modelFile), "UTF-8");
+			try {
+				model.write(writer);
+			}
+			finally {
+				writer.close();
+			}
+
+			int correct = 0;
+			double[] row = new double[table.getWidth()];
+			for (int r = 0; r < table.size(); r++) {
+				for (int f = 0; f < row.length; f++) {
+					row[f] = table.get(r, f);
+				}
+				if (model.classify(row).equals(table.getMode(r))) {
+					correct++;
+				}
+			}
+			System.out.println(futures.size() + " traces, " + table.size() + " windows, modes " + table.getModes());
+			System.out.println("Features in " + (extracted - start) + " ms, tree in " + (trained - extracted) + " ms");
+			System.out.println(model.getSize() + " nodes, training accuracy " + (100. * correct / table.size()) + "%");
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+
+/**
+ * Reclassifies a stored dataset with the current classifier.
+ *
+ * The input directory holds one subdirectory per user with that user's
+ * partitions (for example one trace per day) whose names sort in time
+ * order; a trace directly in the input directory is a user with a single
+ * partition. Users are classified in parallel, and each user's partitions
+ * in order through one {@link MobilitySession}, so that every window is
+ * classified against the same history as if the data had arrived live.
+ *
+ * Every partition is written to the same relative path in the output
+ * directory, one "time mode wifiMode locationMode" line per window, first to
+ * a ".tmp" file that is renamed when the partition is complete. A
+ * {@link Checkpoint} in the output directory records finished partitions;
+ * running the same command again skips them and carries on.
+ *
+ * Every window is a {@link JfrClassificationListener} event of its user.
+ *
+ * Usage: Reclassify &lt;input dir&gt; &lt;output dir&gt; [--threads N]
+ */
+public class Reclassify {
+	private static final String USAGE = "Usage: Reclassify <input dir> <output dir> [--threads N]";
+	private static final String CHECKPOINT = "checkpoint";
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long REPORT_SECONDS = 10;
+
+	private final File input;
+	private final File output;
+	private final Checkpoint checkpoint;
+	private final AtomicLong windows = new AtomicLong();
+
+	/**
+	 * Prepares a run.
+	 *
+	 * @param input The input directory.
+	 *
+	 * @param output The output directory. It is created if needed.
+	 *
+	 * @throws IOException The checkpoint could not be opened.
+	 */
+	public Reclassify(File input, File output) throws IOException {
+		if (! input.isDirectory()) {
+			throw new IllegalArgumentException("Not a directory: " + input);
+		}
+		if (! output.isDirectory() && ! output.mkdirs()) {
+			throw new IOException("Could not create " + output);
+		}
+		this.input = input;
+		this.output = output;
+		this.checkpoint = new Checkpoint(new File(output, CHECKPOINT), MobilityClassifier.getVersion());
+	}
+
+	/**
+	 * Returns the number of windows classified so far.
+	 */
+	public long getWindows() {
+		return windows.get();
+	}
+
+	/**
+	 * Lists the users of the input directory, largest first so that the
+	 * longest users start early and do not finish last on their own.
+	 *
+	 * @return The users, each the list of its partitions in time order.
+	 */
+	public List<List<File>> getUsers() {
+		List<List<File>> users = new ArrayList<List<File>>();
+		File[] entries = input.listFiles();
+		Arrays.sort(entries);
+		for (File entry : entries) {
+			if (entry.isHidden()) {
+				continue;
+			}
+			List<File> partitions = new ArrayList<File>();
+			if (entry.isDirectory()) {
+				File[] files = entry.listFiles();
+				Arrays.sort(files);
+				for (File file : files) {
+					if (file.isFile() && ! file.isHidden()) {
+						partitions.add(file);
+					}
+				}
+			}
+			else {
+				partitions.add(entry);
+			}
+			if (! partitions.isEmpty()) {
+				users.add(partitions);
+			}
+		}
+		Collections.sort(users, new Comparator<List<File>>() {
+			@Override
+			public int compare(List<File> a, List<File> b) {
+				long sizeA = 0;
+				long sizeB = 0;
+				for (File file : a) {
+					sizeA += file.length();
+				}
+				for (File file : b) {
+					sizeB += file.length();
+				}
+				return (sizeA > sizeB) ? -1 : (sizeA < sizeB) ? 1 : 0;
+			}
+		});
+		return users;
+	}
+
+	/**
+	 * Classifies the partitions of one user that are not finished yet.
+	 *
+	 * @param partitions The partitions of the user in time order.
+	 *
+	 * @throws IOException A partition could not be read or written.
+	 */
+	public void reclassify(List<File> partitions) throws IOException {
+		MobilityClassifier classifier = new MobilityClassifier();
+		MobilitySession session = new MobilitySession();
+		String user = getPath(partitions.get(0).getParentFile());
+		if (user.length() == 0) {
+			user = getPath(partitions.get(0)); // a single trace in the input directory
+		}
+		String lastFile = checkpoint.getLastFile(user);
+		classifier.setClassificationListener(new JfrClassificationListener(user));
+
+		for (File partition : partitions) {
+			String name = getPath(partition).substring(user.length());
+			if (checkpoint.isDone(user, name)) {
+				if (name.equals(lastFile)) {
+					// Rebuild the recent scans and locations the next partition needs
+					replay(partition, session);
+					session.setLastClassification(checkpoint.getLastClassification(user));
+				}
+				continue;
+			}
+
+			File result = new File(output, getPath(partition));
+			File temporary = new File(result.getPath() + ".tmp");
+			File directory = result.getParentFile();
+			if (! directory.isDirectory() && ! directory.mkdirs() && ! directory.isDirectory()) {
+				throw new IOException("Could not create " + directory);
+			}
+
+			Classification classification = null;
+			TraceReader reader = new TraceReader(new InputStreamReader(new FileInputStream(partition), "UTF-8"));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8"), BUFFER_SIZE);
+			try {
+				TraceRecord record;
+				while ((record = reader.read()) != null) {
+					classification = session.classify(classifier, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+					writer.write(record.getTime() + "\t" + classification.getMode() + "\t" + classification.getWifiMode() + "\t" + classification.getLocationMode() + "\n");
+					windows.incrementAndGet();
+				}
+			}
+			catch(IOException e) {
+				throw new IOException(partition + ": " + e.getMessage(), e);
+			}
+			finally {
+				reader.close();
+				writer.close();
+			}
+			if (result.exists() && ! result.delete()) {
+				throw new IOException("Could not replace " + result);
+			}
+			if (! temporary.renameTo(result)) {
+				throw new IOException("Could not rename " + temporary + " to " + result);
+			}
+			checkpoint.complete(user, name, classification);
+		}
+	}
+
+	/**
+	 * Closes the checkpoint.
+	 *
+	 * @throws IOException The checkpoint could not be closed.
+	 */
+	public void close() throws IOException {
+		checkpoint.close();
+	}
+
+	private static void replay(File partition, MobilitySession session) throws IOException {
+		TraceReader reader = new TraceReader(new InputStreamReader(new FileInputStream(partition), "UTF-8"));
+		try {
+			TraceRecord record;
+			while ((record = reader.read()) != null) {
+				session.add(record.getWifiScan(), record.getLocation());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns the path of a file relative to the input directory, ending in
+	 * a separator for a directory.
+	 */
+	private String getPath(File file) {
+		String root = input.getAbsolutePath();
+		String path = file.getAbsolutePath();
+		if (path.equals(root)) {
+			return "";
+		}
+		path = path.substring(root.length() + 1);
+		return file.isDirectory() ? path + File.separator : path;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2 && args.length != 4) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length == 4) {
+			if (! args[2].equals("--threads")) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			threads = Integer.parseInt(args[3]);
+		}
+
+		final Reclassify reclassify = new Reclassify(new File(args[0]), new File(args[1]));
+		List<List<File>> users = reclassify.getUsers();
+		final long start = System.currentTimeMillis();
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				long seconds = Math.max(1, (System.currentTimeMillis() - start) / 1000);
+				System.out.println(reclassify.getWindows() + " windows, " + (reclassify.getWindows() / seconds) + " windows/sec");
+			}
+		}, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, users.size())));
+		int failed = 0;
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final List<File> partitions : users) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						reclassify.reclassify(partitions);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				}
+				catch(ExecutionException e) {
+					System.err.println(e.getCause().getMessage());
+					failed++;
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+			reporter.shutdown();
+			reclassify.close();
+		}
+
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		System.out.println(users.size() + " users, " + reclassify.getWindows() + " windows in " + millis + " ms, "
+				+ (reclassify.getWindows() * 1000 / millis) + " windows/sec with classifier " + MobilityClassifier.getVersion());
+		if (failed > 0) {
+			System.err.println(failed + " users failed; run again to retry them");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+
+/**
+ * Checks that the classifier still gives the outputs recorded in a corpus.
+ *
+ * For every trace "name.trace" in the corpus directory there is a
+ * "name.expected" file with one line per window: the time, mode, whether
+ * there are features, the average, the variance, the ten FFT values, the
+ * Wi-Fi mode, total and recognized total, the recognized place, the location
+ * mode, the radius and the distance travelled. The trace is replayed through a default classifier
+ * and a {@link MobilitySession}, and every output is compared to its line.
+ *
+ * The classifier can also be set up as one of the {@link #VARIANTS}, which
+ * take other paths through it: cascading, low power and estimating shared
+ * access points from sketches. Their outputs are in "name.variant.expected",
+ * and a variant is checked for every trace that has such a file.
+ *
+ * Modes and counts must match exactly. Numbers may differ by the tolerance,
+ * relative to the expected value or absolute when that is smaller than 1, so
+ * that a faster kernel that sums in another order still passes. The default
+ * of 1e-9 allows for that; anything that changes a mode fails whatever the
+ * tolerance.
+ *
+ * Usage: RegressionHarness &lt;corpus dir&gt; [--tolerance T] [--update]
+ *
+ * With --update the expected files are rewritten from the current
+ * classifier instead, for a change that is meant to change the outputs.
+ */
+public class RegressionHarness {
+	private static final String USAGE = "Usage: RegressionHarness <corpus dir> [--tolerance T] [--update]";
+	public static final double DEFAULT_TOLERANCE = 1e-9;
+	private static final int FIELDS = 22;
+	private static final int MAX_REPORTED = 20;
+	/**
+	 * The variants of the classifier besides the default one.
+	 */
+	public static final List<String> VARIANTS = Arrays.asList("cascading", "low-power", "sketch");
+	private static final int SKETCH_SIZE = 128;
+
+	private final double tolerance;
+	private final List<String> failures = new ArrayList<String>();
+	private int failureCount = 0;
+	private int windows = 0;
+
+	/**
+	 * Creates a harness.
+	 *
+	 * @param tolerance How far numbers may be from the expected values.
+	 */
+	public RegressionHarness(double tolerance) {
+		if (tolerance < 0 || Double.isNaN(tolerance)) {
+			throw new IllegalArgumentException("The tolerance cannot be negative");
+		}
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Classifies every window of a trace.
+	 *
+	 * @param trace The trace.
+	 *
+	 * @return One output line per window, in the format of the expected
+	 * 		   files.
+	 *
+	 * @throws IOException The trace could not be read.
+	 */
+	public static List<String> classify(File trace) throws IOException {
+		return classify(trace, null);
+	}
+
+	/**
+	 * Classifies every window of a trace with a variant of the classifier.
+	 *
+	 * @param trace The trace.
+	 *
+	 * @param variant One of the {@link #VARIANTS}, or null for the default
+	 * 				  classifier.
+	 *
+	 * @return One output line per window, in the format of the expected
+	 * 		   files.
+	 *
+	 * @throws IOException The trace could not be read.
+	 */
+	public static List<String> classify(File trace, String variant) throws IOException {
+		MobilityClassifier classifier = newClassifier(variant);
+		MobilitySession session = new MobilitySession();
+		List<String> lines = new ArrayList<String>();
+		TraceReader reader = new TraceReader(new InputStreamReader(new FileInputStream(trace), "UTF-8"));
+		try {
+			TraceRecord record;
+			while ((record = reader.read()) != null) {
+				Classification classification = session.classify(classifier, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+				lines.add(format(record.getTime(), classification));
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	private static MobilityClassifier newClassifier(String variant) {
+		MobilityClassifier classifier = new MobilityClassifier();
+		if (variant == null) {
+			return classifier;
+		}
+		else if (variant.equals("cascading")) {
+			classifier.setCascading(true);
+		}
+		else if (variant.equals("low-power")) {
+			classifier.setLowPower(true);
+		}
+		else if (variant.equals("sketch")) {
+			classifier.setWifiSketchSize(SKETCH_SIZE);
+		}
+		else {
+			throw new IllegalArgumentException("Not a variant: " + variant);
+		}
+		return classifier;
+	}
+
+	/**
+	 * Returns the expected file of a trace for a variant.
+	 *
+	 * @param variant One of the {@link #VARIANTS}, or null for the default
+	 * 				  classifier.
+	 */
+	public static File getExpected(File trace, String variant) {
+		String suffix = (variant == null) ? ".expected" : "." + variant + ".expected";
+		return new File(trace.getParentFile(), trace.getName().replaceAll("\\.trace$", suffix));
+	}
+
+	/**
+	 * Compares the outputs of a trace to its expected file.
+	 *
+	 * @param trace The trace.
+	 *
+	 * @param expected The expected outputs.
+	 *
+	 * @throws IOException A file could not be read.
+	 */
+	public void check(File trace, File expected) throws IOException {
+		check(trace, null, expected);
+	}
+
+	/**
+	 * Compares the outputs of a variant of the classifier for a trace to its
+	 * expected file.
+	 *
+	 * @param trace The trace.
+	 *
+	 * @param variant One of the {@link #VARIANTS}, or null for the default
+	 * 				  classifier.
+	 *
+	 * @param expected The expected outputs.
+	 *
+	 * @throws IOException A file could not be read.
+	 */
+	public void check(File trace, String variant, File expected) throws IOException {
+		List<String> actual = classify(trace, variant);
+		List<String> lines = read(expected);
+		String name = (variant == null) ? trace.getName() : trace.getName() + " (" + variant + ")";
+		if (lines.size() != actual.size()) {
+			fail(name + ": expected " + lines.size() + " windows but found " + actual.size());
+		}
+		for (int i = 0; i < Math.min(lines.size(), actual.size()); i++) {
+			windows++;
+			String difference = compare(lines.get(i).split("\t", -1), actual.get(i).split("\t", -1));
+			if (difference != null) {
+				fail(name + " window " + (i + 1) + ": " + difference);
+			}
+		}
+	}
+
+	/**
+	 * Checks every trace of a corpus against its expected file, and against
+	 * the expected file of each variant it has.
+	 *
+	 * @param corpus The corpus directory.
+	 *
+	 * @return The number of traces.
+	 *
+	 * @throws IOException A file could not be read, or there are no traces.
+	 */
+	public int checkCorpus(File corpus) throws IOException {
+		File[] traces = getTraces(corpus);
+		for (File trace : traces) {
+			check(trace, null, getExpected(trace, null));
+			for (String variant : VARIANTS) {
+				File expected = getExpected(trace, variant);
+				if (expected.exists()) {
+					check(trace, variant, expected);
+				}
+			}
+		}
+		return traces.length;
+	}
+
+	/**
+	 * Returns the traces of a corpus in name order.
+	 *
+	 * @throws IOException There are no traces.
+	 */
+	private static File[] getTraces(File corpus) throws IOException {
+		File[] traces = corpus.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File directory, String name) {
+				return name.endsWith(".trace");
+			}
+		});
+		if (traces == null || traces.length == 0) {
+			throw new IOException("No traces in " + corpus);
+		}
+		Arrays.sort(traces);
+		return traces;
+	}
+
+	/**
+	 * Returns the number of windows compared so far.
+	 */
+	public int getWindows() {
+		return windows;
+	}
+
+	/**
+	 * Returns the number of failures so far.
+	 */
+	public int getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * Returns the first failures, described.
+	 */
+	public List<String> getFailures() {
+		return failures;
+	}
+
+	private void fail(String failure) {
+		failureCount++;
+		if (failures.size() < MAX_REPORTED) {
+			failures.add(failure);
+		}
+	}
+
+	private String compare(String[] expected, String[] actual) {
+		if (expected.length != FIELDS || actual.length != FIELDS) {
+			return "expected " + FIELDS + " fields";
+		}
+		for (int i = 0; i < FIELDS; i++) {
+			if (expected[i].equals(actual[i])) {
+				continue;
+			}
+			if (! isNumber(i)) {
+				return "field " + (i + 1) + " is " + actual[i] + " instead of " + expected[i];
+			}
+			double e = Double.parseDouble(expected[i]);
+			double a = Double.parseDouble(actual[i]);
+			if (Double.isNaN(e) || Double.isNaN(a) || Math.abs(a - e) > tolerance * Math.max(1, Math.abs(e))) {
+				return "field " + (i + 1) + " is " + actual[i] + " instead of " + expected[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether a field is a calculated number rather than a mode, a
+	 * flag or a count: the average, variance and FFT, the radius and the
+	 * distance travelled.
+	 */
+	private static boolean isNumber(int field) {
+		return (field >= 3 && field <= 14) || field >= 20;
+	}
+
+	private static String format(long time, Classification classification) {
+		StringBuilder line = new StringBuilder();
+		line.append(time);
+		line.append('\t').append(classification.getMode());
+		line.append('\t').append(classification.hasFeatures());
+		line.append('\t').append(classification.getAverage());
+		line.append('\t').append(classification.getVariance());
+		List<Double> fft = classification.getFft();
+		for (int i = 0; i < 10; i++) {
+			line.append('\t').append((fft == null) ? null : fft.get(i));
+		}
+		line.append('\t').append(classification.getWifiMode());
+		line.append('\t').append(classification.getWifiTotal());
+		line.append('\t').append(classification.getWifiRecogTotal());
+		line.append('\t').append(classification.getPlace());
+		line.append('\t').append(classification.getLocationMode());
+		line.append('\t').append(classification.getRadius());
+		line.append('\t').append(classification.getTravelled());
+		return line.toString();
+	}
+
+	private static List<String> read(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() > 0 && ! line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	private static void write(File file, List<String> lines) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write("# Expected outputs of classifier " + MobilityClassifier.getVersion() + "; see RegressionHarness\n");
+			for (String line : lines) {
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		File corpus = new File(args[0]);
+		double tolerance = DEFAULT_TOLERANCE;
+		boolean update = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--update")) {
+				update = true;
+			}
+			else if (args[i].equals("--tolerance") && i + 1 < args.length) {
+				tolerance = Double.parseDouble(args[++i]);
+			}
+			else {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+		}
+
+		if (update) {
+			for (File trace : getTraces(corpus)) {
+				write(getExpected(trace, null), classify(trace, null));
+				for (String variant : VARIANTS) {
+					write(getExpected(trace, variant), classify(trace, variant));
+				}
+				System.out.println("Updated the expected files of " + trace);
+			}
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		RegressionHarness harness = new RegressionHarness(tolerance);
+		int traces;
+		try {
+			traces = harness.checkCorpus(corpus);
+		}
+		catch(IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		for (String failure : harness.getFailures()) {
+			System.err.println(failure);
+		}
+		System.out.println(traces + " traces, " + harness.getWindows() + " windows, " + harness.getFailureCount()
+				+ " failures in " + (System.currentTimeMillis() - start) + " ms (tolerance " + tolerance + ")");
+		if (harness.getFailureCount() > 0) {
+			System.exit(1);
+		}
+	}
+}
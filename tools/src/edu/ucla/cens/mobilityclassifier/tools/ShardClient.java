@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import edu.ucla.cens.mobilityclassifier.BinaryCodec;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.ShardRouter;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Classifies the windows of many users on several {@link ShardWorker}
+ * processes, each holding the sessions of the users a {@link ShardRouter}
+ * gives it, so that no JVM has to hold the state of every user.
+ *
+ * When a worker joins, the sessions of the users it takes over are moved to
+ * it from their old workers; when a worker leaves, its sessions are moved to
+ * the workers that take over its users. A session is copied to its new
+ * worker before it is removed from its old one, and users are routed to
+ * their new workers only once every session has been copied, so a move
+ * that fails leaves the sessions and the routing as they were.
+ * Classifications wait while the sessions move. Windows, sessions and
+ * classifications travel as exact records of {@link BinaryCodec}, so a
+ * window is classified as it would be in this JVM.
+ *
+ * Usage: ShardClient &lt;trace dir&gt; &lt;host:port&gt;... [--join host:port]
+ * [--leave host:port] [--check]
+ *
+ * Classifies the user&lt;n&gt;.trace files of a directory (see
+ * {@link TraceGenerator}) on the workers, a window of each user in turn. A
+ * worker given to --join joins halfway, and one given to --leave leaves at
+ * three quarters. With --check, every classification is compared with one
+ * made in this JVM from the records as they were read.
+ */
+public class ShardClient implements Closeable {
+	private static final String USAGE = "Usage: ShardClient <trace dir> <host:port>... [--join host:port] [--leave host:port] [--check]";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ShardRouter router = new ShardRouter();
+	private final Map<String, Connection> connections = new HashMap<String, Connection>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private long movedSessions = 0;
+
+	/**
+	 * Creates a client with no workers.
+	 */
+	public ShardClient() {
+
+	}
+
+	/**
+	 * Connects to a worker and moves to it the sessions of the users it
+	 * takes over.
+	 *
+	 * @param worker The address of the worker as host:port.
+	 *
+	 * @throws IOException The worker could not be reached or a session
+	 * 					   could not be copied, in which case the worker is
+	 * 					   not added; or an old copy of a moved session
+	 * 					   could not be removed, in which case it is.
+	 */
+	public void addWorker(String worker) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (connections.containsKey(worker)) {
+				throw new IllegalArgumentException("The worker " + worker + " was already added");
+			}
+			Connection connection = new Connection(worker);
+			List<String> workers = new ArrayList<String>(router.getWorkers());
+			workers.add(worker);
+			Map<String, Connection> targets = new HashMap<String, Connection>(connections);
+			targets.put(worker, connection);
+			List<Move> moves = null;
+			try {
+				moves = copySessions(router.getWorkers(), route(workers), targets);
+			}
+			finally {
+				if (moves == null) {
+					connection.close();
+				}
+			}
+			connections.put(worker, connection);
+			router.addWorker(worker);
+			removeOldCopies(moves);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves the sessions of a worker to the workers that take over its users
+	 * and disconnects from it. The worker keeps running.
+	 *
+	 * @throws IOException A session could not be copied, in which case the
+	 * 					   worker stays; or an old copy of a moved session
+	 * 					   could not be removed, in which case it leaves.
+	 */
+	public void removeWorker(String worker) throws IOException {
+		lock.writeLock().lock();
+		try {
+			Connection connection = connections.get(worker);
+			if (connection == null) {
+				throw new IllegalArgumentException("Not a worker: " + worker);
+			}
+			if (connections.size() == 1) {
+				throw new IllegalStateException("The last worker cannot leave");
+			}
+			List<String> workers = new ArrayList<String>(router.getWorkers());
+			workers.remove(worker);
+			List<Move> moves = copySessions(Collections.singletonList(worker), route(workers), connections);
+			router.removeWorker(worker);
+			connections.remove(worker);
+			try {
+				removeOldCopies(moves);
+			}
+			finally {
+				connection.close();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the workers in the order they were added.
+	 */
+	public List<String> getWorkers() {
+		return router.getWorkers();
+	}
+
+	/**
+	 * Returns the number of sessions moved from one worker to another.
+	 */
+	public long getMovedSessions() {
+		lock.readLock().lock();
+		try {
+			return movedSessions;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the worker of a user.
+	 */
+	public String getWorker(String user) {
+		return router.getWorker(user);
+	}
+
+	/**
+	 * Classifies the next window of a user on the user's worker, against
+	 * the user's history there.
+	 *
+	 * @param user The user.
+	 *
+	 * @param samples The accelerometer samples of the window.
+	 *
+	 * @param speed The GPS speed, or NaN if it is not known.
+	 *
+	 * @param wifiScan The Wi-Fi scan of the window, or null.
+	 *
+	 * @param location The location of the window, or null.
+	 *
+	 * @return The classification of the window.
+	 *
+	 * @throws IOException The worker could not be reached or failed.
+	 */
+	public Classification classify(String user, List<Sample> samples, Double speed, WifiScan wifiScan, Location location) throws IOException {
+		ByteBuffer window = encodeWindow(samples, speed, wifiScan, location);
+		lock.readLock().lock();
+		try {
+			ByteBuffer response = connections.get(router.getWorker(user)).call(ShardProtocol.CLASSIFY, user, window);
+			return BinaryCodec.decodeClassification(response);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Disconnects from every worker.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (Connection connection : connections.values()) {
+				connection.close();
+			}
+			connections.clear();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a router with other workers, to find where users will go
+	 * before this client routes them there.
+	 */
+	private static ShardRouter route(List<String> workers) {
+		ShardRouter next = new ShardRouter();
+		for (String worker : workers) {
+			next.addWorker(worker);
+		}
+		return next;
+	}
+
+	/**
+	 * Copies the sessions of some workers whose users another router gives
+	 * to other workers. Only a worker the users are routed to now is copied
+	 * from, since another may hold a copy left by a failed move. If a copy
+	 * fails, those already made are removed again.
+	 *
+	 * @return The sessions that were copied.
+	 */
+	private List<Move> copySessions(List<String> sources, ShardRouter next, Map<String, Connection> targets) throws IOException {
+		List<Move> moves = new ArrayList<Move>();
+		boolean copied = false;
+		try {
+			for (String source : sources) {
+				Connection from = targets.get(source);
+				ByteBuffer list = from.call(ShardProtocol.USERS, "", ByteBuffer.allocate(0));
+				int count = list.getInt();
+				for (int i = 0; i < count; i++) {
+					byte[] name = new byte[list.getInt()];
+					list.get(name);
+					String user = new String(name, UTF_8);
+					String owner = next.getWorker(user);
+					if (owner.equals(source) || ! router.getWorker(user).equals(source)) {
+						continue;
+					}
+					ByteBuffer session = from.call(ShardProtocol.GET, user, ByteBuffer.allocate(0));
+					if (session.hasRemaining()) {
+						Move move = new Move(user, from, targets.get(owner));
+						// added first, so that a copy that arrived before its call failed is removed too
+						moves.add(move);
+						move.to.call(ShardProtocol.PUT, user, session);
+					}
+				}
+			}
+			copied = true;
+			return moves;
+		}
+		finally {
+			if (! copied) {
+				for (Move move : moves) {
+					try {
+						move.to.call(ShardProtocol.REMOVE, move.user, ByteBuffer.allocate(0));
+					}
+					catch(IOException e) {
+						// the copy is not routed to, and is replaced if the user moves there
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the sessions that were moved from their old workers, once the
+	 * users are routed to the new ones.
+	 */
+	private void removeOldCopies(List<Move> moves) throws IOException {
+		movedSessions += moves.size();
+		IOException failure = null;
+		int failures = 0;
+		for (Move move : moves) {
+			try {
+				move.from.call(ShardProtocol.REMOVE, move.user, ByteBuffer.allocate(0));
+			}
+			catch(IOException e) {
+				failure = e;
+				failures++;
+			}
+		}
+		if (failure != null) {
+			throw new IOException("The sessions moved, but " + failures + " old copies could not be removed", failure);
+		}
+	}
+
+	/**
+	 * Writes a window as the body of a classify request.
+	 */
+	static ByteBuffer encodeWindow(final List<Sample> samples, final Double speed, final WifiScan wifiScan, final Location location) {
+		return ShardProtocol.encode(new ShardProtocol.Body() {
+			@Override
+			public void write(ByteBuffer buffer) {
+				BinaryCodec.encode(samples, buffer, true);
+				buffer.putDouble((speed == null) ? Double.NaN : speed);
+				buffer.put((byte) ((wifiScan == null) ? 0 : 1));
+				if (wifiScan != null) {
+					BinaryCodec.encode(wifiScan, 0, buffer, true);
+				}
+				buffer.put((byte) ((location == null) ? 0 : 1));
+				if (location != null) {
+					BinaryCodec.encode(location, 0, buffer, true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * A session copied from one worker to another.
+	 */
+	private static final class Move {
+		final String user;
+		final Connection from;
+		final Connection to;
+
+		Move(String user, Connection from, Connection to) {
+			this.user = user;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * A connection to a worker, which serves one request at a time.
+	 */
+	private static final class Connection {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		Connection(String worker) throws IOException {
+			int colon = worker.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Not host:port: " + worker);
+			}
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		synchronized ByteBuffer call(int operation, String user, ByteBuffer body) throws IOException {
+			out.writeByte(operation);
+			out.writeUTF(user);
+			ShardProtocol.writeBody(out, body);
+			out.flush();
+			int status = in.readUnsignedByte();
+			if (status != ShardProtocol.OK) {
+				throw new IOException(socket.getRemoteSocketAddress() + ": " + in.readUTF());
+			}
+			return ShardProtocol.readBody(in);
+		}
+
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		List<String> workers = new ArrayList<String>();
+		String joining = null;
+		String leaving = null;
+		boolean check = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--check")) {
+				check = true;
+			}
+			else if (args[i].equals("--join") && i + 1 < args.length) {
+				joining = args[++i];
+			}
+			else if (args[i].equals("--leave") && i + 1 < args.length) {
+				leaving = args[++i];
+			}
+			else if (args[i].startsWith("--")) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			else {
+				workers.add(args[i]);
+			}
+		}
+
+		File[] files = new File(args[0]).listFiles();
+		if (files == null) {
+			throw new IOException("Not a directory: " + args[0]);
+		}
+		Arrays.sort(files);
+		List<String> users = new ArrayList<String>();
+		List<List<TraceRecord>> traces = new ArrayList<List<TraceRecord>>();
+		int windows = 0;
+		for (File file : files) {
+			if (! file.getName().endsWith(".trace")) {
+				continue;
+			}
+			List<TraceRecord> trace = new ArrayList<TraceRecord>();
+			TraceReader reader = new TraceReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				TraceRecord record;
+				while ((record = reader.read()) != null) {
+					trace.add(record);
+				}
+			}
+			finally {
+				reader.close();
+			}
+			users.add(file.getName().substring(0, file.getName().length() - ".trace".length()));
+			traces.add(trace);
+			windows = Math.max(windows, trace.size());
+		}
+
+		ShardClient client = new ShardClient();
+		MobilityClassifier classifier = new MobilityClassifier();
+		Map<String, MobilitySession> local = new HashMap<String, MobilitySession>();
+		long classified = 0;
+		long mismatches = 0;
+		long start = System.nanoTime();
+		try {
+			for (String worker : workers) {
+				client.addWorker(worker);
+			}
+			for (int w = 0; w < windows; w++) {
+				if (w == windows / 2 && joining != null) {
+					client.addWorker(joining);
+					System.out.println("Window " + w + ": " + joining + " joined, " + client.getMovedSessions() + " sessions moved so far");
+				}
+				if (w == windows * 3 / 4 && leaving != null) {
+					client.removeWorker(leaving);
+					System.out.println("Window " + w + ": " + leaving + " left, " + client.getMovedSessions() + " sessions moved so far");
+				}
+				for (int u = 0; u < users.size(); u++) {
+					if (w >= traces.get(u).size()) {
+						continue;
+					}
+					TraceRecord record = traces.get(u).get(w);
+					String user = users.get(u);
+					Classification classification = client.classify(user, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+					classified++;
+					if (check) {
+						MobilitySession session = local.get(user);
+						if (session == null) {
+							session = new MobilitySession();
+							local.put(user, session);
+						}
+						Classification expected = session.classify(classifier, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+						if (! expected.equals(classification) || ! expected.getTier().equals(classification.getTier())
+								|| expected.getRadius() != classification.getRadius() || expected.getWifiTotal() != classification.getWifiTotal()) {
+							mismatches++;
+						}
+					}
+				}
+			}
+		}
+		finally {
+			client.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(users.size() + " users, " + classified + " windows in " + String.format("%.1f", seconds) + " s ("
+				+ Math.round(classified / seconds) + " windows/s) on " + client.getWorkers().size() + " workers, "
+				+ client.getMovedSessions() + " sessions moved");
+		if (check) {
+			System.out.println(mismatches + " classifications differ from a single JVM");
+			if (mismatches > 0) {
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The messages between a {@link ShardClient} and its {@link ShardWorker}s.
+ *
+ * A request is an operation byte, the user as modified UTF-8, and a body of
+ * exact {@link edu.ucla.cens.mobilityclassifier.BinaryCodec} records
+ * prefixed by its length, so that a worker classifies the same values as
+ * the client was given. A response is a status byte and either a body or an
+ * error message.
+ */
+final class ShardProtocol {
+	/**
+	 * Classifies a window: the samples, the speed as a double, then a flag
+	 * byte and the Wi-Fi scan, and a flag byte and the location.
+	 */
+	static final int CLASSIFY = 1;
+	/**
+	 * Lists the users a worker holds: a count and their names.
+	 */
+	static final int USERS = 2;
+	/**
+	 * Returns a copy of the session of a user, or an empty body. The worker
+	 * keeps the session.
+	 */
+	static final int GET = 3;
+	/**
+	 * Stores the session of a user.
+	 */
+	static final int PUT = 4;
+	/**
+	 * Removes the session of a user.
+	 */
+	static final int REMOVE = 5;
+
+	static final int OK = 0;
+	static final int ERROR = 1;
+
+	private static final int MAX_BODY = 64 << 20;
+
+	private ShardProtocol() {
+
+	}
+
+	/**
+	 * Something that writes records into a buffer, which may be called
+	 * again with a larger buffer if it did not fit.
+	 */
+	interface Body {
+		void write(ByteBuffer buffer);
+	}
+
+	/**
+	 * Writes a body into a buffer that is grown until it fits.
+	 */
+	static ByteBuffer encode(Body body) {
+		int capacity = 4096;
+		while (true) {
+			ByteBuffer buffer = ByteBuffer.allocate(capacity);
+			try {
+				body.write(buffer);
+				buffer.flip();
+				return buffer;
+			}
+			catch(BufferOverflowException e) {
+				capacity *= 4;
+			}
+		}
+	}
+
+	static void writeBody(DataOutputStream out, ByteBuffer body) throws IOException {
+		out.writeInt(body.remaining());
+		out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+	}
+
+	static ByteBuffer readBody(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_BODY) {
+			throw new IOException("Not a message length: " + length);
+		}
+		byte[] body = new byte[length];
+		in.readFully(body);
+		return ByteBuffer.wrap(body);
+	}
+}
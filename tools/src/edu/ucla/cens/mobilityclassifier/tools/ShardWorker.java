@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.ucla.cens.mobilityclassifier.BinaryCodec;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * A process that holds the sessions of the users a {@link ShardClient}
+ * routes to it and classifies their windows, so that the state of many
+ * users can be spread over several JVMs.
+ *
+ * Each connection is served by its own thread; the windows of one user are
+ * classified one at a time. A session leaves the worker when the client
+ * has copied it to another worker and removes it here.
+ *
+ * Usage: ShardWorker &lt;port&gt; [--bind ADDRESS]
+ *
+ * The worker listens on the loopback address unless another is given.
+ */
+public class ShardWorker {
+	private static final String USAGE = "Usage: ShardWorker <port> [--bind ADDRESS]";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final MobilityClassifier classifier;
+	private final ConcurrentHashMap<String, MobilitySession> sessions = new ConcurrentHashMap<String, MobilitySession>();
+	private final ServerSocket serverSocket;
+
+	/**
+	 * Creates a worker and starts listening.
+	 *
+	 * @param classifier The classifier of every window.
+	 *
+	 * @param port The port to listen on, or 0 for any free one.
+	 *
+	 * @param address The address to listen on.
+	 *
+	 * @throws IOException The port could not be opened.
+	 */
+	public ShardWorker(MobilityClassifier classifier, int port, InetAddress address) throws IOException {
+		this.classifier = classifier;
+		this.serverSocket = new ServerSocket(port, 50, address);
+	}
+
+	/**
+	 * Returns the port the worker listens on.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns the number of users whose sessions the worker holds.
+	 */
+	public int getUserCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Accepts connections until the worker is closed.
+	 */
+	public void serve() throws IOException {
+		while (! serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			}
+			catch(IOException e) {
+				if (serverSocket.isClosed()) {
+					return;
+				}
+				throw e;
+			}
+			socket.setTcpNoDelay(true);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						serve(socket);
+					}
+					catch(IOException e) {
+						System.err.println("Connection from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+					}
+					finally {
+						try {
+							socket.close();
+						}
+						catch(IOException e) {
+							// nothing more to do with it
+						}
+					}
+				}
+			}, "shard-" + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops accepting connections.
+	 */
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private void serve(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		while (true) {
+			int operation;
+			try {
+				operation = in.readUnsignedByte();
+			}
+			catch(EOFException e) {
+				return;
+			}
+			String user = in.readUTF();
+			ByteBuffer body = ShardProtocol.readBody(in);
+			ByteBuffer response;
+			try {
+				response = handle(operation, user, body);
+			}
+			catch(RuntimeException e) {
+				out.writeByte(ShardProtocol.ERROR);
+				out.writeUTF(String.valueOf(e.getMessage()));
+				out.flush();
+				continue;
+			}
+			out.writeByte(ShardProtocol.OK);
+			ShardProtocol.writeBody(out, response);
+			out.flush();
+		}
+	}
+
+	private ByteBuffer handle(int operation, String user, ByteBuffer body) {
+		switch (operation) {
+		case ShardProtocol.CLASSIFY:
+			final Classification classification = classify(user, body);
+			return ShardProtocol.encode(new ShardProtocol.Body() {
+				@Override
+				public void write(ByteBuffer buffer) {
+					BinaryCodec.encode(classification, buffer, true);
+				}
+			});
+		case ShardProtocol.USERS:
+			final List<String> users = new ArrayList<String>(sessions.keySet());
+			return ShardProtocol.encode(new ShardProtocol.Body() {
+				@Override
+				public void write(ByteBuffer buffer) {
+					buffer.putInt(users.size());
+					for (String user : users) {
+						byte[] name = user.getBytes(UTF_8);
+						buffer.putInt(name.length);
+						buffer.put(name);
+					}
+				}
+			});
+		case ShardProtocol.GET:
+			final MobilitySession session = sessions.get(user);
+			if (session == null) {
+				return ByteBuffer.allocate(0);
+			}
+			synchronized (session) {
+				return ShardProtocol.encode(new ShardProtocol.Body() {
+					@Override
+					public void write(ByteBuffer buffer) {
+						BinaryCodec.encode(session, buffer, true);
+					}
+				});
+			}
+		case ShardProtocol.PUT:
+			sessions.put(user, BinaryCodec.decodeSession(body));
+			return ByteBuffer.allocate(0);
+		case ShardProtocol.REMOVE:
+			sessions.remove(user);
+			return ByteBuffer.allocate(0);
+		default:
+			throw new IllegalArgumentException("Not an operation: " + operation);
+		}
+	}
+
+	private Classification classify(String user, ByteBuffer body) {
+		List<Sample> samples = BinaryCodec.decodeSamples(body);
+		double speed = body.getDouble();
+		WifiScan wifiScan = (body.get() != 0) ? BinaryCodec.decodeWifiScan(body, 0) : null;
+		Location location = (body.get() != 0) ? BinaryCodec.decodeLocation(body, 0) : null;
+		MobilitySession session = sessions.get(user);
+		if (session == null) {
+			MobilitySession created = new MobilitySession();
+			session = sessions.putIfAbsent(user, created);
+			if (session == null) {
+				session = created;
+			}
+		}
+		synchronized (session) {
+			return session.classify(classifier, samples, speed, wifiScan, location);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		InetAddress address = InetAddress.getLoopbackAddress();
+		if (args.length == 3 && args[1].equals("--bind")) {
+			address = InetAddress.getByName(args[2]);
+		}
+		else if (args.length != 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		ShardWorker worker = new ShardWorker(new MobilityClassifier(), Integer.parseInt(args[0]), address);
+		System.out.println("Listening on " + address.getHostAddress() + ":" + worker.getPort());
+		worker.serve();
+	}
+}
@@ -0,0 +1,454 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.SensorWindow;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Generates realistic, labelled sensor traces for load and scaling tests,
+ * so that they do not need participant data.
+ *
+ * Each user moves between still, walk, run and drive in episodes of a few
+ * minutes to a couple of hours. While still, the user is at one of a few
+ * places that come back, such as home and work, whose access points are
+ * heard with steady strengths; on the move, the access points in range
+ * churn at a rate that grows with the speed, and the GPS track follows
+ * the user with a mode-dependent speed and heading. The accelerometer
+ * window is the gravity of the phone's orientation plus the rhythm of the
+ * mode and noise.
+ *
+ * A generator is deterministic: the same seed and user give the same trace
+ * on any JVM, and users are independent of each other, so they can be
+ * generated in parallel.
+ *
+ * Usage: TraceGenerator (&lt;output dir&gt; | --classify) [--users N]
+ * [--hours H] [--seed S] [--interval SECONDS] [--rate HZ] [--samples N]
+ * [--aps N] [--timed]
+ *
+ * With an output directory, the trace of each user is written to
+ * user&lt;n&gt;.trace (see {@link TraceReader}). With --classify, the windows
+ * are not written but classified as they are generated, one batch per
+ * step across the users through
+ * {@link MobilityClassifier#classifyAll(List)}, and the rate is reported.
+ * The classifications are {@link JfrClassificationListener} events.
+ */
+public class TraceGenerator {
+	private static final String USAGE = "Usage: TraceGenerator (<output dir> | --classify) [--users N] [--hours H] [--seed S] [--interval SECONDS] [--rate HZ] [--samples N] [--aps N] [--timed]";
+	private static final String[] MODES = { "still", "walk", "run", "drive" };
+	private static final int STILL = 0;
+	private static final int WALK = 1;
+	private static final int RUN = 2;
+	private static final int DRIVE = 3;
+	/**
+	 * The chance of each next mode, by the current one.
+	 */
+	private static final double[][] TRANSITIONS = {
+		{ 0, 0.7, 0.1, 0.2 },
+		{ 0.6, 0, 0.1, 0.3 },
+		{ 0.5, 0.5, 0, 0 },
+		{ 0.4, 0.6, 0, 0 }
+	};
+	private static final int[] MIN_MINUTES = { 20, 3, 10, 10 };
+	private static final int[] MAX_MINUTES = { 120, 20, 40, 45 };
+	private static final double[] SPEEDS = { 0, 1.4, 3.0, 12.0 }; // meters per second
+	private static final double[] CHURN = { 0, 0.3, 0.5, 0.9 }; // of the access points in range, per window
+	private static final double[] LOCATION_CHANCE = { 0.5, 0.9, 0.9, 0.95 };
+	private static final double GRAVITY = 9.80665;
+	private static final double METERS_PER_DEGREE = 111320;
+	private static final int KNOWN_PLACES = 4;
+
+	private final Random random;
+	private final int user;
+	private long windowInterval = 60 * 1000;
+	private double sampleRate = 32;
+	private int samplesPerWindow = 32;
+	private int accessPointsPerPlace = 20;
+	private boolean timedSamples = false;
+
+	private long time = 1325376000000L; // 2012-01-01
+	private int mode = STILL;
+	private long episodeEnd = Long.MIN_VALUE;
+	private double latitude;
+	private double longitude;
+	private double heading;
+	private final double[] orientation = new double[3];
+	private double frequency;
+	private double amplitude;
+	private final List<List<AccessPoint>> places = new ArrayList<List<AccessPoint>>();
+	private final List<double[]> placeLocations = new ArrayList<double[]>();
+	private List<AccessPoint> place = null;
+	private final List<AccessPoint> inRange = new ArrayList<AccessPoint>();
+	private int nextAccessPoint = 0;
+
+	/**
+	 * Creates the generator of one user's trace.
+	 *
+	 * @param seed The seed shared by the users of a run.
+	 *
+	 * @param user The number of the user.
+	 */
+	public TraceGenerator(long seed, int user) {
+		this.random = new Random(seed ^ (user * 0x9E3779B97F4A7C15L));
+		this.user = user;
+		this.latitude = 34.0689 + random.nextGaussian() * 0.05;
+		this.longitude = -118.4452 + random.nextGaussian() * 0.05;
+	}
+
+	/**
+	 * Sets the time from the start of one window to the next.
+	 */
+	public void setWindowInterval(long windowInterval) {
+		if (windowInterval <= 0) {
+			throw new IllegalArgumentException("The window interval must be positive");
+		}
+		this.windowInterval = windowInterval;
+	}
+
+	/**
+	 * Sets the rate of the accelerometer in samples per second.
+	 */
+	public void setSampleRate(double sampleRate) {
+		if (! (sampleRate > 0)) {
+			throw new IllegalArgumentException("The sample rate must be positive");
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	public void setSamplesPerWindow(int samplesPerWindow) {
+		if (samplesPerWindow < 0) {
+			throw new IllegalArgumentException("The number of samples is negative");
+		}
+		this.samplesPerWindow = samplesPerWindow;
+	}
+
+	/**
+	 * Sets how many access points a place has; the access points in range
+	 * on the move are half as many.
+	 */
+	public void setAccessPointsPerPlace(int accessPointsPerPlace) {
+		if (accessPointsPerPlace < 1) {
+			throw new IllegalArgumentException("A place needs an access point");
+		}
+		this.accessPointsPerPlace = accessPointsPerPlace;
+	}
+
+	/**
+	 * Sets whether samples carry their time, with the jitter of a phone.
+	 */
+	public void setTimedSamples(boolean timedSamples) {
+		this.timedSamples = timedSamples;
+	}
+
+	public int getUser() {
+		return user;
+	}
+
+	/**
+	 * Generates the next window of the user.
+	 *
+	 * @return The window, labelled with its true mode.
+	 */
+	public TraceRecord next() {
+		time += windowInterval;
+		if (time >= episodeEnd) {
+			startEpisode();
+		}
+		move();
+
+		List<Sample> samples = getSamples();
+		WifiScan wifiScan = (random.nextDouble() < 0.9) ? getWifiScan() : null;
+		Location location = null;
+		double speed = Double.NaN;
+		if (random.nextDouble() < LOCATION_CHANCE[mode]) {
+			double error = (mode == STILL) ? 10 : 5;
+			location = new Location(
+					latitude + random.nextGaussian() * error / METERS_PER_DEGREE,
+					longitude + random.nextGaussian() * error / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude))),
+					time);
+			speed = Math.max(0, SPEEDS[mode] * (1 + 0.2 * random.nextGaussian()));
+		}
+		return new TraceRecord(time, MODES[mode], speed, samples, wifiScan, location);
+	}
+
+	private void startEpisode() {
+		boolean first = (episodeEnd == Long.MIN_VALUE);
+		if (! first) {
+			double choice = random.nextDouble();
+			double[] chances = TRANSITIONS[mode];
+			int next = 0;
+			while (next < chances.length - 1 && choice >= chances[next]) {
+				choice -= chances[next];
+				next++;
+			}
+			mode = next;
+		}
+		episodeEnd = time + 60000L * (MIN_MINUTES[mode] + random.nextInt(MAX_MINUTES[mode] - MIN_MINUTES[mode] + 1));
+
+		// the phone lies differently in every episode
+		double norm = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			orientation[axis] = random.nextGaussian();
+			norm += orientation[axis] * orientation[axis];
+		}
+		norm = Math.sqrt(norm);
+		for (int axis = 0; axis < 3; axis++) {
+			orientation[axis] /= norm;
+		}
+		if (mode == WALK) {
+			frequency = 1.7 + 0.6 * random.nextDouble();
+			amplitude = 0.25 + 0.2 * random.nextDouble();
+		}
+		else if (mode == RUN) {
+			frequency = 2.5 + 0.8 * random.nextDouble();
+			amplitude = 0.8 + 0.5 * random.nextDouble();
+		}
+		else {
+			frequency = 0;
+			amplitude = 0;
+		}
+
+		inRange.clear();
+		if (mode == STILL) {
+			int index = (places.size() < KNOWN_PLACES || random.nextDouble() < 0.3) ? places.size() : random.nextInt(KNOWN_PLACES);
+			if (index == places.size()) {
+				List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+				for (int i = 0; i < accessPointsPerPlace; i++) {
+					accessPoints.add(new AccessPoint(newSsid(), -45 - random.nextInt(45)));
+				}
+				places.add(accessPoints);
+				placeLocations.add(new double[] { latitude, longitude });
+			}
+			else if (! first) {
+				// a drive or walk ended at a known place, so the track ends there
+				latitude = placeLocations.get(index)[0];
+				longitude = placeLocations.get(index)[1];
+			}
+			place = places.get(index);
+		}
+		else {
+			place = null;
+			heading = random.nextDouble() * 2 * Math.PI;
+			for (int i = 0; i < getRangeSize(); i++) {
+				inRange.add(new AccessPoint(newSsid(), -55 - random.nextInt(40)));
+			}
+		}
+	}
+
+	private void move() {
+		if (mode == STILL) {
+			return;
+		}
+		heading += random.nextGaussian() * 0.3;
+		double meters = SPEEDS[mode] * (1 + 0.2 * random.nextGaussian()) * windowInterval / 1000.0;
+		latitude += meters * Math.cos(heading) / METERS_PER_DEGREE;
+		longitude += meters * Math.sin(heading) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+
+		for (int i = 0; i < inRange.size(); i++) {
+			if (random.nextDouble() < CHURN[mode]) {
+				inRange.set(i, new AccessPoint(newSsid(), -55 - random.nextInt(40)));
+			}
+		}
+	}
+
+	private int getRangeSize() {
+		int size = Math.max(1, accessPointsPerPlace / 2);
+		return (mode == DRIVE) ? Math.max(1, size / 2) : size;
+	}
+
+	private List<Sample> getSamples() {
+		List<Sample> samples = new ArrayList<Sample>(samplesPerWindow);
+		double phase = random.nextDouble() * 2 * Math.PI;
+		double noise = (mode == STILL) ? 0.005 : (mode == DRIVE) ? 0.03 : 0.05;
+		double vibration = (mode == DRIVE) ? 0.02 : 0;
+		double vibrationFrequency = 10 + 5 * random.nextDouble();
+		for (int i = 0; i < samplesPerWindow; i++) {
+			double t = i / sampleRate;
+			double vertical = 1 + amplitude * Math.sin(2 * Math.PI * frequency * t + phase)
+					+ 0.3 * amplitude * Math.sin(4 * Math.PI * frequency * t + 2 * phase)
+					+ vibration * Math.sin(2 * Math.PI * vibrationFrequency * t);
+			double x = GRAVITY * (orientation[0] * vertical + noise * random.nextGaussian());
+			double y = GRAVITY * (orientation[1] * vertical + noise * random.nextGaussian());
+			double z = GRAVITY * (orientation[2] * vertical + noise * random.nextGaussian());
+			if (timedSamples) {
+				long sampleTime = time + Math.round(1000 * t + random.nextGaussian() * 2);
+				samples.add(new Sample(x, y, z, sampleTime));
+			}
+			else {
+				samples.add(new Sample(x, y, z));
+			}
+		}
+		return samples;
+	}
+
+	private WifiScan getWifiScan() {
+		List<AccessPoint> heard = new ArrayList<AccessPoint>();
+		List<AccessPoint> candidates = (place != null) ? place : inRange;
+		double chance = (place != null) ? 0.85 : 0.75;
+		for (AccessPoint accessPoint : candidates) {
+			if (random.nextDouble() < chance) {
+				double strength = Math.round(accessPoint.getStrength() + random.nextGaussian() * 3);
+				heard.add(new AccessPoint(accessPoint.getSsid(), Math.min(-30, strength)));
+			}
+		}
+		return new WifiScan(time - random.nextInt(5000), heard);
+	}
+
+	private String newSsid() {
+		int id = nextAccessPoint++;
+		return String.format("02:%02x:%02x:%02x:%02x:%02x", user >> 8 & 0xff, user & 0xff, id >> 16 & 0xff, id >> 8 & 0xff, id & 0xff);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+		boolean classify = args[0].equals("--classify");
+		File output = classify ? null : new File(args[0]);
+		int users = 10;
+		double hours = 24;
+		long seed = 2012;
+		long interval = 60;
+		double rate = 32;
+		int samples = -1;
+		int accessPoints = 20;
+		boolean timed = false;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--timed")) {
+				timed = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+			if (args[i].equals("--users")) {
+				users = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--hours")) {
+				hours = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--seed")) {
+				seed = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("--interval")) {
+				interval = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("--rate")) {
+				rate = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--samples")) {
+				samples = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--aps")) {
+				accessPoints = Integer.parseInt(args[++i]);
+			}
+			else {
+				System.err.println(USAGE);
+				System.exit(1);
+			}
+		}
+		long windows = (long) (hours * 3600 / interval);
+
+		TraceGenerator[] generators = new TraceGenerator[users];
+		for (int u = 0; u < users; u++) {
+			generators[u] = new TraceGenerator(seed, u);
+			generators[u].setWindowInterval(interval * 1000);
+			generators[u].setSampleRate(rate);
+			generators[u].setSamplesPerWindow((samples < 0) ? (int) Math.round(rate) : samples);
+			generators[u].setAccessPointsPerPlace(accessPoints);
+			generators[u].setTimedSamples(timed);
+		}
+
+		long start = System.nanoTime();
+		if (classify) {
+			classify(generators, windows);
+		}
+		else {
+			if (! output.isDirectory() && ! output.mkdirs()) {
+				throw new IOException("Cannot create " + output);
+			}
+			for (TraceGenerator generator : generators) {
+				TraceWriter writer = new TraceWriter(new OutputStreamWriter(new FileOutputStream(new File(output, "user" + generator.getUser() + ".trace")), "UTF-8"));
+				try {
+					writer.writeComment("generated user " + generator.getUser() + " with seed " + seed);
+					for (long w = 0; w < windows; w++) {
+						writer.write(generator.next());
+					}
+				}
+				finally {
+					writer.close();
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(users + " users, " + (users * windows) + " windows in " + String.format("%.1f", seconds) + " s (" + Math.round(users * windows / seconds) + " windows/s)");
+	}
+
+	/**
+	 * Classifies the windows of every user, one batch of a window per user
+	 * at a time, against the history of each user.
+	 */
+	private static void classify(TraceGenerator[] generators, long windows) {
+		MobilityClassifier classifier = new MobilityClassifier();
+		classifier.setClassificationListener(new JfrClassificationListener());
+		MobilitySession[] sessions = new MobilitySession[generators.length];
+		for (int u = 0; u < sessions.length; u++) {
+			sessions[u] = new MobilitySession();
+		}
+		long correct = 0;
+		List<TraceRecord> records = new ArrayList<TraceRecord>(generators.length);
+		List<SensorWindow> batch = new ArrayList<SensorWindow>(generators.length);
+		for (long w = 0; w < windows; w++) {
+			records.clear();
+			batch.clear();
+			for (int u = 0; u < generators.length; u++) {
+				TraceRecord record = generators[u].next();
+				MobilitySession session = sessions[u];
+				records.add(record);
+				SensorWindow window = new SensorWindow(record.getSamples(), record.getSpeed(), record.getWifiScan(), session.getLastWifiScans(), record.getLocation(), session.getHistLocs(), session.getLastClassification());
+				window.setExtra(JfrClassificationListener.USER, "user" + u);
+				batch.add(window);
+			}
+			List<Classification> classifications = classifier.classifyAll(batch);
+			for (int u = 0; u < generators.length; u++) {
+				TraceRecord record = records.get(u);
+				Classification classification = classifications.get(u);
+				sessions[u].add(record.getWifiScan(), record.getLocation());
+				sessions[u].setLastClassification(classification);
+				if (record.getLabel().equals(classification.getMode())) {
+					correct++;
+				}
+			}
+		}
+		System.err.println("Classified " + (generators.length * windows) + " windows, " + correct + " as their label");
+	}
+}
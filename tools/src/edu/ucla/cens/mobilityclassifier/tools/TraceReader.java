@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Reads a sensor trace one window at a time, so that traces of any length
+ * can be streamed.
+ *
+ * A trace is the windows of a single user in time order, one per line, with
+ * six tab-separated fields:
+ * <ol>
+ * <li>the time of the window in milliseconds,</li>
+ * <li>the true mode, or "-" if it is not known,</li>
+ * <li>the GPS speed, or "-" if it is not known,</li>
+ * <li>the accelerometer samples as "x,y,z" or, with the time of the sample
+ * in milliseconds, "x,y,z,time", separated by ";",</li>
+ * <li>the Wi-Fi scan as "time|ssid=strength,ssid=strength", or "-",</li>
+ * <li>the location as "latitude,longitude,time", or "-".</li>
+ * </ol>
+ * Blank lines and lines starting with "#" are ignored.
+ */
+public class TraceReader implements Closeable {
+	static final String NONE = "-";
+
+	private final BufferedReader reader;
+	private int lineNumber = 0;
+
+	/**
+	 * Creates a reader of a trace.
+	 *
+	 * @param reader Where to read the trace from.
+	 */
+	public TraceReader(Reader reader) {
+		this.reader = new BufferedReader(reader);
+	}
+
+	/**
+	 * Reads the next window.
+	 *
+	 * @return The next window, or null at the end of the trace.
+	 *
+	 * @throws IOException The trace could not be read or a line is not a
+	 * 					   valid window.
+	 */
+	public TraceRecord read() throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+			lineNumber++;
+			if (line == null) {
+				return null;
+			}
+		} while (line.length() == 0 || line.startsWith("#"));
+
+		String[] fields = line.split("\t", -1);
+		if (fields.length != 6) {
+			throw new IOException("Line " + lineNumber + ": expected 6 fields but found " + fields.length);
+		}
+		try {
+			return new TraceRecord(
+					Long.parseLong(fields[0]),
+					NONE.equals(fields[1]) ? null : fields[1],
+					NONE.equals(fields[2]) ? Double.NaN : Double.parseDouble(fields[2]),
+					parseSamples(fields[3]),
+					NONE.equals(fields[4]) ? null : parseWifiScan(fields[4]),
+					NONE.equals(fields[5]) ? null : parseLocation(fields[5]));
+		}
+		catch(NumberFormatException e) {
+			throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the number of the last line that was read.
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private static List<Sample> parseSamples(String field) {
+		List<Sample> samples = new ArrayList<Sample>();
+		if (field.length() == 0 || NONE.equals(field)) {
+			return samples;
+		}
+		for (String sample : field.split(";")) {
+			String[] xyz = sample.split(",");
+			if (xyz.length == 3) {
+				samples.add(new Sample(Double.parseDouble(xyz[0]), Double.parseDouble(xyz[1]), Double.parseDouble(xyz[2])));
+			}
+			else if (xyz.length == 4) {
+				samples.add(new Sample(Double.parseDouble(xyz[0]), Double.parseDouble(xyz[1]), Double.parseDouble(xyz[2]), Long.parseLong(xyz[3])));
+			}
+			else {
+				throw new IllegalArgumentException("Not a sample: " + sample);
+			}
+		}
+		return samples;
+	}
+
+	private static WifiScan parseWifiScan(String field) {
+		int bar = field.indexOf('|');
+		if (bar < 0) {
+			throw new IllegalArgumentException("Not a Wi-Fi scan: " + field);
+		}
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		String list = field.substring(bar + 1);
+		if (list.length() > 0) {
+			for (String accessPoint : list.split(",")) {
+				int equals = accessPoint.lastIndexOf('=');
+				if (equals < 0) {
+					throw new IllegalArgumentException("Not an access point: " + accessPoint);
+				}
+				accessPoints.add(new AccessPoint(accessPoint.substring(0, equals), Double.parseDouble(accessPoint.substring(equals + 1))));
+			}
+		}
+		return new WifiScan(Long.parseLong(field.substring(0, bar)), accessPoints);
+	}
+
+	private static Location parseLocation(String field) {
+		String[] parts = field.split(",");
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Not a location: " + field);
+		}
+		return new Location(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Long.parseLong(parts[2]));
+	}
+}
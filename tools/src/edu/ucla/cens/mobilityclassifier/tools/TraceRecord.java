@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.util.List;
+
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Immutable bean-style wrapper for one window of a stored sensor trace.
+ */
+public class TraceRecord {
+	private final long time;
+	private final String label;
+	private final Double speed;
+	private final List<Sample> samples;
+	private final WifiScan wifiScan;
+	private final Location location;
+
+	/**
+	 * Creates a new window.
+	 *
+	 * @param time The time at which the window ended.
+	 *
+	 * @param label The true mode of the window, or null if it is not known.
+	 *
+	 * @param speed The GPS speed, or NaN if it is not known.
+	 *
+	 * @param samples The accelerometer samples.
+	 *
+	 * @param wifiScan The Wi-Fi scan, or null.
+	 *
+	 * @param location The location, or null.
+	 */
+	public TraceRecord(
+			final long time,
+			final String label,
+			final Double speed,
+			final List<Sample> samples,
+			final WifiScan wifiScan,
+			final Location location) {
+
+		if(samples == null) {
+			throw new IllegalArgumentException("Samples are required");
+		}
+
+		this.time = time;
+		this.label = label;
+		this.speed = (speed == null) ? Double.NaN : speed;
+		this.samples = samples;
+		this.wifiScan = wifiScan;
+		this.location = location;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public Double getSpeed() {
+		return speed;
+	}
+
+	public List<Sample> getSamples() {
+		return samples;
+	}
+
+	public WifiScan getWifiScan() {
+		return wifiScan;
+	}
+
+	public Location getLocation() {
+		return location;
+	}
+
+	@Override
+	public String toString() {
+		return "TraceRecord [time=" + time + ", label=" + label + ", speed="
+				+ speed + ", samples=" + samples.size() + ", wifiScan="
+				+ wifiScan + ", location=" + location + "]";
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.Location;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+/**
+ * Writes a sensor trace in the format read by {@link TraceReader}.
+ */
+public class TraceWriter implements Closeable, Flushable {
+	private final Writer writer;
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Creates a writer of a trace.
+	 *
+	 * @param writer Where to write the trace.
+	 */
+	public TraceWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Writes a comment line.
+	 *
+	 * @param comment The comment, without the leading "#".
+	 *
+	 * @throws IOException The comment could not be written.
+	 */
+	public void writeComment(String comment) throws IOException {
+		writer.write("# " + comment + "\n");
+	}
+
+	/**
+	 * Writes one window.
+	 *
+	 * @param record The window.
+	 *
+	 * @throws IOException The window could not be written.
+	 */
+	public void write(TraceRecord record) throws IOException {
+		line.setLength(0);
+		line.append(record.getTime()).append('\t');
+		line.append((record.getLabel() == null) ? TraceReader.NONE : record.getLabel()).append('\t');
+		if (record.getSpeed().isNaN()) {
+			line.append(TraceReader.NONE);
+		}
+		else {
+			line.append(record.getSpeed().doubleValue());
+		}
+		line.append('\t');
+
+		if (record.getSamples().isEmpty()) {
+			line.append(TraceReader.NONE);
+		}
+		for (int i = 0; i < record.getSamples().size(); i++) {
+			Sample sample = record.getSamples().get(i);
+			if (i > 0) {
+				line.append(';');
+			}
+			line.append(sample.getX().doubleValue()).append(',').append(sample.getY().doubleValue()).append(',').append(sample.getZ().doubleValue());
+			if (sample.hasTime()) {
+				line.append(',').append(sample.getTime());
+			}
+		}
+		line.append('\t');
+
+		WifiScan wifiScan = record.getWifiScan();
+		if (wifiScan == null) {
+			line.append(TraceReader.NONE);
+		}
+		else {
+			line.append(wifiScan.getTime().longValue()).append('|');
+			for (int i = 0; i < wifiScan.getAccessPoints().size(); i++) {
+				AccessPoint accessPoint = wifiScan.getAccessPoints().get(i);
+				if (i > 0) {
+					line.append(',');
+				}
+				line.append(accessPoint.getSsid()).append('=').append(accessPoint.getStrength().doubleValue());
+			}
+		}
+		line.append('\t');
+
+		Location location = record.getLocation();
+		if (location == null) {
+			line.append(TraceReader.NONE);
+		}
+		else {
+			line.append(location.getLatitude().doubleValue()).append(',').append(location.getLongitude().doubleValue()).append(',').append(location.getTime());
+		}
+		line.append('\n');
+		writer.write(line.toString());
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
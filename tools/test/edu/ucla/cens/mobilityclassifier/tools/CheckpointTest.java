@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+
+public class CheckpointTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Classification classification(String mode, String wifiMode, int wifiTotal) {
+		Classification classification = new Classification();
+		classification.setMode(mode);
+		classification.setWifiMode(wifiMode);
+		classification.setWifiTotal(wifiTotal);
+		classification.setWifiRecogTotal(wifiTotal / 2);
+		classification.setLocationMode("still");
+		classification.setRadius(12.5);
+		classification.setTravelled(300);
+		return classification;
+	}
+
+	private static void append(File file, String text) throws IOException {
+		OutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void resumesTheFinishedFilesAndTheirState() throws IOException {
+		File file = new File(folder.getRoot(), "checkpoint");
+		Checkpoint checkpoint = new Checkpoint(file, "1");
+		checkpoint.complete("alice", "day1", classification("walk", "drive", 8));
+		checkpoint.complete("alice", "day2", null); // no windows, so the state of day1 carries on
+		checkpoint.complete("bob", "day1", null);
+		checkpoint.close();
+
+		checkpoint = new Checkpoint(file, "1");
+		assertTrue(checkpoint.isDone("alice", "day1"));
+		assertTrue(checkpoint.isDone("alice", "day2"));
+		assertTrue(checkpoint.isDone("bob", "day1"));
+		assertFalse(checkpoint.isDone("bob", "day2"));
+		assertEquals("day2", checkpoint.getLastFile("alice"));
+		Classification last = checkpoint.getLastClassification("alice");
+		assertEquals("walk", last.getMode());
+		assertEquals("drive", last.getWifiMode());
+		assertEquals(8, last.getWifiTotal());
+		assertEquals(4, last.getWifiRecogTotal());
+		assertNull(last.getPlace());
+		assertEquals("still", last.getLocationMode());
+		assertEquals(12.5, last.getRadius(), 0);
+		assertEquals(300, last.getTravelled(), 0);
+		assertNull(checkpoint.getLastClassification("bob"));
+		assertNull(checkpoint.getLastFile("carol"));
+		checkpoint.close();
+	}
+
+	@Test
+	public void lineCutShortByACrashIsRedone() throws IOException {
+		File file = new File(folder.getRoot(), "checkpoint");
+		Checkpoint checkpoint = new Checkpoint(file, "1");
+		checkpoint.complete("alice", "day1", classification("still", "still", 3));
+		checkpoint.close();
+		append(file, "alice\tday2\twalk");
+
+		checkpoint = new Checkpoint(file, "1");
+		assertTrue(checkpoint.isDone("alice", "day1"));
+		assertFalse(checkpoint.isDone("alice", "day2"));
+		assertEquals("still", checkpoint.getLastClassification("alice").getMode());
+		checkpoint.complete("alice", "day2", classification("walk", "still", 3));
+		checkpoint.close();
+
+		checkpoint = new Checkpoint(file, "1");
+		assertTrue(checkpoint.isDone("alice", "day2"));
+		assertEquals("walk", checkpoint.getLastClassification("alice").getMode());
+		checkpoint.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void otherVersionCannotBeResumed() throws IOException {
+		File file = new File(folder.getRoot(), "checkpoint");
+		new Checkpoint(file, "1").close();
+		new Checkpoint(file, "2");
+	}
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.ucla.cens.mobilityclassifier.DecisionTreeModel;
+
+public class DecisionTreeTrainerTest {
+	private static final int VARIANCE = 2;
+
+	private static double[] row(double variance) {
+		double[] features = new double[DecisionTreeModel.FEATURE_NAMES.length];
+		Arrays.fill(features, Double.NaN);
+		features[VARIANCE] = variance;
+		return features;
+	}
+
+	@Test
+	public void treeSplitsRowsAsInTraining() {
+		// 1000 distinct values fall into 255 quantile bins; the cut of bin 127
+		// is 497 and the next is 500, so 498 is in the bin after the split but
+		// below the midpoint of the two cuts
+		FeatureTable table = new FeatureTable(DecisionTreeModel.FEATURE_NAMES.length);
+		for (int value = 0; value < 1000; value++) {
+			table.add(row(value), (value <= 497) ? "still" : "walk");
+		}
+		DecisionTreeModel model = new DecisionTreeTrainer(1, 1, null).train(table);
+		assertEquals(3, model.getSize());
+		for (int value = 0; value < 1000; value++) {
+			assertEquals("value " + value, (value <= 497) ? "still" : "walk", model.classify(row(value)));
+		}
+	}
+
+	@Test
+	public void doubleFeaturesSplitAsTheirFloatsDid() {
+		FeatureTable table = new FeatureTable(DecisionTreeModel.FEATURE_NAMES.length);
+		for (int i = 0; i < 10; i++) {
+			table.add(row(0.1f), "still");
+			table.add(row(0.2), "walk");
+		}
+		DecisionTreeModel model = new DecisionTreeTrainer(1, 1, null).train(table);
+		// above the cut as a double, but the same float as the rows that went left
+		double above = 0.1f + 1e-10;
+		assertEquals(0.1f, (float) above, 0f);
+		assertEquals("still", model.classify(row(above)));
+		assertEquals("walk", model.classify(row(Math.nextUp(0.1f))));
+	}
+
+	@Test
+	public void thresholdIsTheLastDoubleOfTheCut() {
+		float[] cuts = { 0.1f, -1f, 1f, 0f, Float.MAX_VALUE, -Float.MAX_VALUE, Float.MIN_VALUE };
+		for (float cut : cuts) {
+			double threshold = DecisionTreeTrainer.getThreshold(cut);
+			assertTrue("cut " + cut, (float) threshold <= cut);
+			assertTrue("cut " + cut, (float) Math.nextUp(threshold) > cut);
+		}
+		assertEquals(Double.POSITIVE_INFINITY, DecisionTreeTrainer.getThreshold(Float.POSITIVE_INFINITY), 0);
+	}
+
+	@Test
+	public void addAllCopiesRowsAndModes() {
+		FeatureTable first = new FeatureTable(2);
+		first.add(new double[] { 1, 2 }, "still");
+		FeatureTable second = new FeatureTable(2);
+		second.add(new double[] { 3, Double.NaN }, "walk");
+		second.add(new double[] { 5, 6 }, "still");
+		first.addAll(second);
+		assertEquals(3, first.size());
+		assertEquals(Arrays.asList("still", "walk"), first.getModes());
+		assertEquals("walk", first.getMode(1));
+		assertEquals(3f, first.get(1, 0), 0f);
+		assertEquals(Float.NaN, first.get(1, 1), 0f);
+		assertEquals(0, first.getLabel(2));
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.ucla.cens.mobilityclassifier.AccessPoint;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.Sample;
+import edu.ucla.cens.mobilityclassifier.SensorWindow;
+import edu.ucla.cens.mobilityclassifier.WifiScan;
+
+public class JfrClassificationListenerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static SensorWindow window(long time) {
+		List<Sample> samples = new ArrayList<Sample>();
+		for (int i = 0; i < 128; i++) {
+			samples.add(new Sample(0, 0, 9.80665 * (1 + 0.3 * Math.sin(2 * Math.PI * 2 * i / 32.))));
+		}
+		List<AccessPoint> accessPoints = new ArrayList<AccessPoint>();
+		for (int i = 0; i < 8; i++) {
+			accessPoints.add(new AccessPoint("ap" + i, -50 - 5 * i));
+		}
+		WifiScan scan = new WifiScan(time, accessPoints);
+		return new SensorWindow(samples, Double.NaN, scan, Arrays.asList(new WifiScan(time - 60000, accessPoints)), null, null, null);
+	}
+
+	@Test
+	public void eventsLastAsLongAsTheirWindowAndStages() throws Exception {
+		MobilityClassifier classifier = new MobilityClassifier();
+		classifier.setClassificationListener(new JfrClassificationListener("someone"));
+		File file = folder.newFile("classify.jfr");
+		Recording recording = new Recording();
+		recording.enable(JfrClassificationListener.CLASSIFY).withoutThreshold();
+		recording.enable(JfrClassificationListener.STAGE).withoutThreshold();
+		recording.start();
+		for (int i = 0; i < 5; i++) {
+			classifier.classify(window(1325376000000L + 60000L * i), Long.MAX_VALUE);
+		}
+		recording.stop();
+		recording.dump(file.toPath());
+		recording.close();
+
+		Set<Long> windows = new HashSet<Long>();
+		List<RecordedEvent> stages = new ArrayList<RecordedEvent>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+			String name = event.getEventType().getName();
+			if (name.equals(JfrClassificationListener.CLASSIFY)) {
+				assertTrue(event.getDuration().toNanos() > 0);
+				assertEquals("someone", event.getString("user"));
+				windows.add(event.getLong("window"));
+			}
+			else if (name.equals(JfrClassificationListener.STAGE)) {
+				stages.add(event);
+			}
+		}
+		assertEquals(5, windows.size());
+		assertTrue(stages.size() >= 10);
+		for (RecordedEvent stage : stages) {
+			assertTrue(stage.getDuration().toNanos() > 0);
+			assertTrue(windows.contains(stage.getLong("window")));
+			assertEquals("someone", stage.getString("user"));
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class RegressionHarnessTest {
+	/**
+	 * Returns the corpus, which the builds name in the "corpus" property.
+	 */
+	private static File corpus() {
+		return new File(System.getProperty("corpus", "tools/corpus"));
+	}
+
+	@Test
+	public void corpusGivesTheExpectedOutputs() throws IOException {
+		RegressionHarness harness = new RegressionHarness(RegressionHarness.DEFAULT_TOLERANCE);
+		int traces = harness.checkCorpus(corpus());
+		assertEquals(harness.getFailures().toString(), 0, harness.getFailureCount());
+		assertTrue(traces > 0);
+	}
+
+	@Test
+	public void everyVariantHasExpectedOutputs() {
+		for (File trace : corpus().listFiles()) {
+			if (trace.getName().endsWith(".trace")) {
+				for (String variant : RegressionHarness.VARIANTS) {
+					assertTrue(RegressionHarness.getExpected(trace, variant) + " is missing", RegressionHarness.getExpected(trace, variant).exists());
+				}
+			}
+		}
+	}
+}
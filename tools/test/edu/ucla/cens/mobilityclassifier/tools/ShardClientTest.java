@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.ucla.cens.mobilityclassifier.Classification;
+import edu.ucla.cens.mobilityclassifier.MobilityClassifier;
+import edu.ucla.cens.mobilityclassifier.MobilitySession;
+
+public class ShardClientTest {
+	private static final int USERS = 40;
+
+	private final List<ShardWorker> workers = new ArrayList<ShardWorker>();
+	private final ShardClient client = new ShardClient();
+	private final MobilityClassifier classifier = new MobilityClassifier();
+	private final TraceGenerator[] generators = new TraceGenerator[USERS];
+	private final MobilitySession[] local = new MobilitySession[USERS];
+
+	public ShardClientTest() {
+		for (int u = 0; u < USERS; u++) {
+			generators[u] = new TraceGenerator(11, u);
+			local[u] = new MobilitySession();
+		}
+	}
+
+	@After
+	public void close() throws IOException {
+		client.close();
+		for (ShardWorker worker : workers) {
+			worker.close();
+		}
+	}
+
+	private String startWorker() throws IOException {
+		final ShardWorker worker = new ShardWorker(classifier, 0, InetAddress.getLoopbackAddress());
+		workers.add(worker);
+		serve(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					worker.serve();
+				}
+				catch(IOException e) {
+					// the test fails on its own calls
+				}
+			}
+		});
+		return "127.0.0.1:" + worker.getPort();
+	}
+
+	/**
+	 * Starts a worker that answers every request with an error.
+	 */
+	private String startFailingWorker() throws IOException {
+		final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		serve(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Socket socket = serverSocket.accept();
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+					while (true) {
+						in.readUnsignedByte();
+						in.readUTF();
+						ShardProtocol.readBody(in);
+						out.writeByte(ShardProtocol.ERROR);
+						out.writeUTF("failing on purpose");
+						out.flush();
+					}
+				}
+				catch(IOException e) {
+					// the client left
+				}
+				finally {
+					try {
+						serverSocket.close();
+					}
+					catch(IOException e) {
+						// nothing more to do with it
+					}
+				}
+			}
+		});
+		return "127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	private static void serve(Runnable runnable) {
+		Thread thread = new Thread(runnable, "shard-test");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Classifies the next window of every user on the workers and in this
+	 * JVM, from the records as generated, and checks that the
+	 * classifications are the same.
+	 */
+	private void classifyWindow() throws IOException {
+		for (int u = 0; u < USERS; u++) {
+			TraceRecord record = generators[u].next();
+			Classification classification = client.classify("user" + u, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+			Classification expected = local[u].classify(classifier, record.getSamples(), record.getSpeed(), record.getWifiScan(), record.getLocation());
+			assertEquals(expected, classification);
+			assertEquals(expected.getLocationMode(), classification.getLocationMode());
+			assertEquals(expected.getWifiTotal(), classification.getWifiTotal());
+			assertEquals(expected.getWifiRecogTotal(), classification.getWifiRecogTotal());
+			assertEquals(expected.getRadius(), classification.getRadius(), 0);
+			assertEquals(expected.getTravelled(), classification.getTravelled(), 0);
+		}
+	}
+
+	private int getUserCount() {
+		int count = 0;
+		for (ShardWorker worker : workers) {
+			count += worker.getUserCount();
+		}
+		return count;
+	}
+
+	@Test
+	public void sessionsFollowTheirUsers() throws IOException {
+		String first = startWorker();
+		String second = startWorker();
+		client.addWorker(first);
+		client.addWorker(second);
+		for (int w = 0; w < 10; w++) {
+			classifyWindow();
+		}
+
+		String third = startWorker();
+		client.addWorker(third);
+		long moved = client.getMovedSessions();
+		assertEquals(workers.get(2).getUserCount(), moved);
+		assertEquals(USERS, getUserCount());
+		for (int w = 0; w < 10; w++) {
+			classifyWindow();
+		}
+
+		client.removeWorker(first);
+		assertEquals(Arrays.asList(second, third), client.getWorkers());
+		assertEquals(0, workers.get(0).getUserCount());
+		assertEquals(USERS, getUserCount());
+		for (int w = 0; w < 10; w++) {
+			classifyWindow();
+		}
+	}
+
+	@Test
+	public void failedMoveKeepsSessionsAndRouting() throws IOException {
+		String first = startWorker();
+		client.addWorker(first);
+		for (int w = 0; w < 10; w++) {
+			classifyWindow();
+		}
+
+		try {
+			client.addWorker(startFailingWorker());
+			fail("A worker that fails every copy was added");
+		}
+		catch(IOException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList(first), client.getWorkers());
+		assertEquals(0, client.getMovedSessions());
+		assertEquals(USERS, workers.get(0).getUserCount());
+		for (int w = 0; w < 10; w++) {
+			classifyWindow();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2012 The Regents of the University of California
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package edu.ucla.cens.mobilityclassifier.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class TraceGeneratorTest {
+	private static String generate(long seed, int user, int records) throws IOException {
+		TraceGenerator generator = new TraceGenerator(seed, user);
+		StringWriter text = new StringWriter();
+		TraceWriter writer = new TraceWriter(text);
+		for (int i = 0; i < records; i++) {
+			writer.write(generator.next());
+		}
+		writer.close();
+		return text.toString();
+	}
+
+	@Test
+	public void sameSeedSameTrace() throws IOException {
+		assertEquals(generate(7, 3, 60), generate(7, 3, 60));
+	}
+
+	@Test
+	public void traceReadsBackAsWritten() throws IOException {
+		String trace = generate(7, 3, 60);
+		TraceReader reader = new TraceReader(new StringReader(trace));
+		StringWriter text = new StringWriter();
+		TraceWriter writer = new TraceWriter(text);
+		int records = 0;
+		TraceRecord record;
+		while ((record = reader.read()) != null) {
+			writer.write(record);
+			records++;
+		}
+		writer.close();
+		assertEquals(60, records);
+		assertEquals(trace, text.toString());
+		assertNull(reader.read());
+	}
+}